@@ -25,17 +25,14 @@ public interface Action {
   public static final Action ANY = of("*");
   
   /**
-   * Generate an action with a given key.
+   * Return the action with a given key. The actions for the key <code>*</code> and the keys of the
+   * {@link CoreActions} are interned, i.e. there is exactly one instance per key. Actions returned
+   * by this method are equal if their keys are.
    * 
    * @param key the key
    * @return the action
    */
   public static Action of(final String key) {
-    return new Action() {
-      @Override
-      public String key() {
-        return key;
-      }
-    };
+    return InternedAction.of(key);
   }
 }
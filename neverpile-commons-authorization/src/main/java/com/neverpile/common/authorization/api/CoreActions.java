@@ -40,9 +40,11 @@ public enum CoreActions implements Action {
 
   public static final String NAMESPACE = "core";
 
+  private final String key = NAMESPACE + ":" + name();
+
   @Override
   public String key() {
-    return NAMESPACE + ":" + name();
+    return key;
   }
 
 }
@@ -0,0 +1,51 @@
+package com.neverpile.common.authorization.api;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The canonical {@link Action} implementation returned by {@link Action#of(String)}. The actions
+ * with the keys of {@link Action#ANY} and the {@link CoreActions} are interned, i.e. there is
+ * exactly one instance per key. Instances for other keys are created on demand, so that
+ * dynamically built keys don't accumulate. Actions are equal if their keys are.
+ */
+final class InternedAction implements Action {
+  private static final Map<String, InternedAction> INSTANCES = new HashMap<>();
+
+  static {
+    INSTANCES.put("*", new InternedAction("*"));
+    for (CoreActions a : CoreActions.values())
+      INSTANCES.put(a.key(), new InternedAction(a.key()));
+  }
+
+  static Action of(final String key) {
+    InternedAction a = INSTANCES.get(key);
+    return null != a ? a : new InternedAction(key);
+  }
+
+  private final String key;
+
+  private InternedAction(final String key) {
+    this.key = key;
+  }
+
+  @Override
+  public String key() {
+    return key;
+  }
+
+  @Override
+  public boolean equals(final Object obj) {
+    return obj == this || obj instanceof InternedAction && ((InternedAction) obj).key.equals(key);
+  }
+
+  @Override
+  public int hashCode() {
+    return key.hashCode();
+  }
+
+  @Override
+  public String toString() {
+    return key;
+  }
+}
@@ -0,0 +1,32 @@
+package com.neverpile.common.authorization.api;
+
+import reactor.core.publisher.Mono;
+
+/**
+ * A non-blocking variant of the {@link AuthorizationContextContributor} for contributors which
+ * need to perform I/O, e.g. to load metadata of the domain object, in order to provide contextual
+ * information. Contributions are meant to be passed to a {@link ReactiveAuthorizationService}.
+ *
+ * @param <D> the type of domain object
+ */
+public interface ReactiveAuthorizationContextContributor<D> {
+  /**
+   * Provide contextual information related to the given domain object.
+   *
+   * @param source the domain object
+   * @return a {@link Mono} emitting an implementation of {@link AuthorizationContext} providing the
+   *         information or completing empty if no such information can be contributed
+   */
+  Mono<AuthorizationContext> contributeAuthorizationContext(D source);
+
+  /**
+   * Adapt a blocking-free {@link AuthorizationContextContributor} to this interface.
+   *
+   * @param <D> the type of domain object
+   * @param contributor the contributor to adapt
+   * @return the adapted contributor
+   */
+  static <D> ReactiveAuthorizationContextContributor<D> of(final AuthorizationContextContributor<D> contributor) {
+    return source -> Mono.fromSupplier(() -> contributor.contributeAuthorizationContext(source));
+  }
+}
@@ -0,0 +1,69 @@
+package com.neverpile.common.authorization.api;
+
+import java.util.Set;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * A non-blocking variant of the {@link AuthorizationService} for use in reactive pipelines, e.g.
+ * in WebFlux applications. Implementations must not rely on thread-bound state like the
+ * {@link org.springframework.security.core.context.SecurityContextHolder}, but obtain such
+ * information from the reactive context instead.
+ * <p>
+ * The {@link AuthorizationContext} is supplied as a {@link Mono}, so that it can be assembled
+ * asynchronously, e.g. by {@link ReactiveAuthorizationContextContributor}s.
+ */
+public interface ReactiveAuthorizationService {
+  /**
+   * Request whether the access specified by the given resource specifier, the set of
+   * {@link Action}s within the given {@link AuthorizationContext} shall be permitted or not.
+   *
+   * @param resourceSpecifier the resource specifier indicating the targeted resource
+   * @param actions the actions that have been requested (or should be checked)
+   * @param context the context of the request
+   * @return a {@link Mono} emitting <code>true</code> if the access shall be allowed,
+   *         <code>false</code> otherwise
+   * @see AuthorizationService#isAccessAllowed(String, Set, AuthorizationContext)
+   */
+  Mono<Boolean> isAccessAllowed(String resourceSpecifier, Set<Action> actions,
+      Mono<? extends AuthorizationContext> context);
+
+  /**
+   * Request whether the access specified by the given resource specifier, the set of
+   * {@link Action}s within the given, readily available {@link AuthorizationContext} shall be
+   * permitted or not.
+   *
+   * @param resourceSpecifier the resource specifier indicating the targeted resource
+   * @param actions the actions that have been requested (or should be checked)
+   * @param context the context of the request
+   * @return a {@link Mono} emitting <code>true</code> if the access shall be allowed,
+   *         <code>false</code> otherwise
+   */
+  default Mono<Boolean> isAccessAllowed(final String resourceSpecifier, final Set<Action> actions,
+      final AuthorizationContext context) {
+    return isAccessAllowed(resourceSpecifier, actions, Mono.just(context));
+  }
+
+  /**
+   * Retrieve the permissions that are applicable for the given resource in the given context.
+   *
+   * @param resourceSpecifier the resource specifier indicating the targeted resource
+   * @param context the context of the request
+   * @return a {@link Flux} of the applicable permissions
+   * @see AuthorizationService#getPermissions(String, AuthorizationContext)
+   */
+  Flux<Permission> getPermissions(String resourceSpecifier, Mono<? extends AuthorizationContext> context);
+
+  /**
+   * Retrieve the permissions that are applicable for the given resource in the given, readily
+   * available context.
+   *
+   * @param resourceSpecifier the resource specifier indicating the targeted resource
+   * @param context the context of the request
+   * @return a {@link Flux} of the applicable permissions
+   */
+  default Flux<Permission> getPermissions(final String resourceSpecifier, final AuthorizationContext context) {
+    return getPermissions(resourceSpecifier, Mono.just(context));
+  }
+}
@@ -0,0 +1,316 @@
+package com.neverpile.common.authorization.policy.impl;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import jakarta.annotation.PostConstruct;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.neverpile.common.authorization.api.Action;
+import com.neverpile.common.authorization.api.ActionHints;
+import com.neverpile.common.authorization.api.CoreActions;
+import com.neverpile.common.authorization.api.HintRegistrations;
+import com.neverpile.common.authorization.policy.AccessPolicy;
+import com.neverpile.common.authorization.policy.AccessRule;
+import com.neverpile.common.authorization.policy.MutablePolicyRepository;
+import com.neverpile.common.authorization.policy.PolicyRepository;
+
+/**
+ * A registry interning action keys and action patterns into dense integer ids. It allows the
+ * {@link PolicyBasedAuthorizationService} to match actions against the action patterns of
+ * {@link AccessRule}s using bit set tests instead of string operations.
+ * <p>
+ * For every interned action key, the registry computes the ids of all patterns that match it,
+ * i.e. {@link Action#ANY}, the key itself and the trailing-wildcard patterns of all its namespace
+ * prefixes (<code>NAMESPACE:*</code>, <code>NAMESPACE:SUB:*</code> etc.) once. The action patterns of a
+ * rule are compiled into a {@link BitSet} of pattern ids, so that a rule matches an action if any of
+ * the action's matching pattern ids is set in the rule's bit set.
+ * <p>
+ * The registry is pre-populated with the {@link CoreActions} and all actions registered via
+ * {@link ActionHints}. Patterns encountered in policies are interned on the fly. Action keys of
+ * authorization requests are not interned unless they are known already, so that dynamically built
+ * keys don't accumulate: the matching pattern ids of unknown keys are looked up on every request
+ * instead. Since only interned patterns can be part of a compiled policy, ignoring patterns which
+ * are not interned doesn't change the result.
+ */
+@Component
+public class ActionRegistry {
+  /**
+   * The number of compiled policies kept. Usually, only the current policy is used, but
+   * simulations and the like may alternate between a few.
+   */
+  private static final int COMPILED_POLICY_CACHE_SIZE = 4;
+
+  /**
+   * An interned action key or pattern.
+   */
+  private static final class Entry {
+    private final int id;
+
+    /**
+     * The ids of all patterns matching this entry when used as an action key. Computed lazily,
+     * since most patterns are never used as keys.
+     */
+    private volatile int[] matchingPatternIds;
+
+    Entry(final int id) {
+      this.id = id;
+    }
+  }
+
+  /**
+   * The compiled action patterns of the rules of a policy.
+   */
+  public static final class CompiledPolicy {
+    // used to recognize the compiled policy
+    private final Instant validFrom;
+    private final List<?>[] actionsSnapshot;
+
+    private final BitSet[] ruleMasks;
+
+    private CompiledPolicy(final AccessPolicy policy, final BitSet[] ruleMasks) {
+      this.validFrom = policy.getValidFrom();
+      this.actionsSnapshot = policy.getRules().stream().map(r -> new ArrayList<>(r.getActions())).toArray(
+          List[]::new);
+      this.ruleMasks = ruleMasks;
+    }
+
+    /**
+     * Return whether the action with the given matching pattern ids (see
+     * {@link ActionRegistry#getMatchingPatternIds(String)}) is matched by the rule with the given
+     * index.
+     *
+     * @param ruleIndex the index of the rule within the policy
+     * @param matchingPatternIds the ids of the patterns matching the action
+     * @return <code>true</code> if the rule matches the action
+     */
+    public boolean matches(final int ruleIndex, final int[] matchingPatternIds) {
+      BitSet mask = ruleMasks[ruleIndex];
+      for (int id : matchingPatternIds)
+        if (mask.get(id))
+          return true;
+      return false;
+    }
+
+    /**
+     * Return whether this is the compiled form of the given policy. Repositories may return a new
+     * instance of the same policy on every lookup (see
+     * {@link PolicyRepository#getCurrentPolicy()}), so policies are recognized by their
+     * validity start and the action patterns of their rules, which are all that is compiled, rather
+     * than by identity. Comparing the patterns also picks up modifications of a policy after
+     * compilation, although policies are supposed to be immutable once they are in use (see
+     * {@link MutablePolicyRepository#save(AccessPolicy)}).
+     */
+    private boolean isCurrent(final AccessPolicy p) {
+      List<AccessRule> rules = p.getRules();
+      if (!Objects.equals(p.getValidFrom(), validFrom) || rules.size() != actionsSnapshot.length)
+        return false;
+
+      for (int i = 0; i < actionsSnapshot.length; i++)
+        if (!rules.get(i).getActions().equals(actionsSnapshot[i]))
+          return false;
+
+      return true;
+    }
+  }
+
+  @Autowired(required = false)
+  @ActionHints
+  private final List<HintRegistrations> actionHints = Collections.emptyList();
+
+  private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+
+  private final List<String> keys = new ArrayList<>();
+
+  private volatile CompiledPolicy[] compiledPolicies = new CompiledPolicy[0];
+
+  @PostConstruct
+  private void init() {
+    intern(Action.ANY.key());
+    for (CoreActions a : CoreActions.values())
+      intern(a.key());
+
+    actionHints.forEach(h -> h.getHints().forEach(hint -> intern(hint.getPrefix())));
+  }
+
+  /**
+   * Intern the given action key or pattern and return its id. Ids are dense, i.e. they are assigned
+   * consecutively starting at zero.
+   *
+   * @param key the action key or pattern
+   * @return the id
+   */
+  public int intern(final String key) {
+    return entry(key).id;
+  }
+
+  /**
+   * Return the ids of all action patterns matching the given action key. For keys which have been
+   * interned, the result is computed once, interning the patterns if necessary. For other keys, only
+   * the ids of patterns which have been interned are returned, and nothing is interned.
+   *
+   * @param key the action key
+   * @return the ids of the matching patterns
+   */
+  public int[] getMatchingPatternIds(final String key) {
+    Entry e = entries.get(key);
+    if (null == e)
+      return lookupMatchingPatternIds(key);
+
+    int[] ids = e.matchingPatternIds;
+    if (null == ids) {
+      // racing threads compute identical results, so there is no need to synchronize
+      ids = computeMatchingPatternIds(key, e.id);
+      e.matchingPatternIds = ids;
+    }
+
+    return ids;
+  }
+
+  /**
+   * Return the key or pattern with the given id.
+   *
+   * @param id the id
+   * @return the key
+   * @throws IndexOutOfBoundsException if no key with the given id has been interned
+   */
+  public synchronized String getKey(final int id) {
+    return keys.get(id);
+  }
+
+  /**
+   * Return the number of interned keys and patterns.
+   *
+   * @return the number of interned keys
+   */
+  public synchronized int size() {
+    return keys.size();
+  }
+
+  /**
+   * Compile the given action patterns into a bit set of pattern ids.
+   *
+   * @param patterns the action patterns
+   * @return the bit set
+   */
+  public BitSet compile(final Collection<String> patterns) {
+    BitSet mask = new BitSet();
+    for (String p : patterns)
+      mask.set(intern(p));
+    return mask;
+  }
+
+  /**
+   * Return whether the given action key is matched by the given compiled action patterns.
+   *
+   * @param key the action key
+   * @param mask the compiled action patterns
+   * @return <code>true</code> if the action is matched
+   */
+  public boolean matches(final String key, final BitSet mask) {
+    for (int id : getMatchingPatternIds(key))
+      if (mask.get(id))
+        return true;
+    return false;
+  }
+
+  /**
+   * Compile the action patterns of all rules of the given policy. The results for the most recently
+   * used policies are cached.
+   *
+   * @param policy the policy
+   * @return the compiled policy
+   */
+  public CompiledPolicy compile(final AccessPolicy policy) {
+    CompiledPolicy[] cache = compiledPolicies;
+    for (CompiledPolicy c : cache)
+      if (c.isCurrent(policy))
+        return c;
+
+    List<AccessRule> rules = policy.getRules();
+    BitSet[] masks = new BitSet[rules.size()];
+    for (int i = 0; i < masks.length; i++)
+      masks[i] = compile(rules.get(i).getActions());
+
+    CompiledPolicy compiled = new CompiledPolicy(policy, masks);
+
+    // publish as most recently used entry, dropping the eldest one. Races may lose an entry, which
+    // is harmless.
+    CompiledPolicy[] updated = new CompiledPolicy[Math.min(cache.length + 1, COMPILED_POLICY_CACHE_SIZE)];
+    updated[0] = compiled;
+    System.arraycopy(cache, 0, updated, 1, updated.length - 1);
+    compiledPolicies = updated;
+
+    return compiled;
+  }
+
+  private Entry entry(final String key) {
+    Entry e = entries.get(key);
+    if (null != e)
+      return e;
+
+    synchronized (this) {
+      return entries.computeIfAbsent(key, k -> {
+        keys.add(k);
+        return new Entry(keys.size() - 1);
+      });
+    }
+  }
+
+  /**
+   * Look up the ids of the interned patterns matching the given key, which has not been interned
+   * itself, without interning anything. See {@link #computeMatchingPatternIds(String, int)}.
+   */
+  private int[] lookupMatchingPatternIds(final String key) {
+    String[] parts = key.split(":");
+
+    int[] ids = new int[parts.length + 1];
+    int n = 0;
+    ids[n++] = intern(Action.ANY.key());
+
+    StringBuilder sb = new StringBuilder(key.length() + 2);
+    for (String part : parts) {
+      sb.append(part);
+      sb.append(":*");
+      Entry e = entries.get(sb.toString());
+      if (null != e)
+        ids[n++] = e.id;
+      sb.deleteCharAt(sb.length() - 1);
+    }
+
+    return n < ids.length ? Arrays.copyOf(ids, n) : ids;
+  }
+
+  /**
+   * Compute the ids of all patterns matching the given key. This must mirror the matching rules
+   * documented at {@link PolicyBasedAuthorizationService}: {@link Action#ANY}, the key itself and
+   * the trailing-wildcard patterns for every prefix of the key.
+   */
+  private int[] computeMatchingPatternIds(final String key, final int id) {
+    String[] parts = key.split(":");
+
+    int[] ids = new int[parts.length + 2];
+    ids[0] = intern(Action.ANY.key());
+    ids[1] = id;
+
+    StringBuilder sb = new StringBuilder(key.length() + 2);
+    for (int i = 0; i < parts.length; i++) {
+      sb.append(parts[i]);
+      sb.append(":*");
+      ids[i + 2] = intern(sb.toString());
+      sb.deleteCharAt(sb.length() - 1);
+    }
+
+    return ids;
+  }
+}
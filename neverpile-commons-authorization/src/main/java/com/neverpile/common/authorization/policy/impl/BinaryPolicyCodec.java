@@ -0,0 +1,574 @@
+package com.neverpile.common.authorization.policy.impl;
+
+import static java.util.stream.Collectors.toMap;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import jakarta.annotation.PostConstruct;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Import;
+import org.springframework.stereotype.Component;
+
+import com.neverpile.common.authorization.policy.AccessPolicy;
+import com.neverpile.common.authorization.policy.AccessRule;
+import com.neverpile.common.authorization.policy.Effect;
+import com.neverpile.common.condition.AbstractTargetListCondition;
+import com.neverpile.common.condition.AndCondition;
+import com.neverpile.common.condition.ComparisonCondition;
+import com.neverpile.common.condition.CompositeCondition;
+import com.neverpile.common.condition.Condition;
+import com.neverpile.common.condition.CoreConditionRegistry;
+import com.neverpile.common.condition.RangeCondition;
+import com.neverpile.common.condition.config.ConditionRegistry;
+import com.neverpile.common.specifier.Specifier;
+
+/**
+ * A compact binary codec for {@link AccessPolicy}s, their {@link AccessRule}s and the
+ * {@link Condition} trees attached to them. The binary form is intended for caching compiled
+ * policies on disk and for distributing them between cluster nodes where parsing the JSON form on
+ * every node and on every policy change is too slow.
+ * <p>
+ * All strings (subjects, resources, action keys, condition targets etc.) are stored exactly once in
+ * a string table at the start of the encoded form and referenced by index afterwards. Conditions
+ * are identified by the names under which they are registered with a {@link ConditionRegistry},
+ * just like in the JSON form handled by the
+ * {@link com.neverpile.common.condition.config.ConditionModule}. Thus, every policy which can be
+ * marshalled to JSON can be encoded and decoding yields a policy with the identical JSON form.
+ * <p>
+ * The binary layout is:
+ * <ul>
+ * <li>the magic bytes <code>NPAP</code> followed by a single format version byte
+ * <li>the string table: the number of strings followed by each string as its UTF-8 length and
+ * bytes
+ * <li>the policy: version, valid-from date, description, default effect and the list of rules
+ * </ul>
+ * All integers are written as variable-length quantities (seven bits per byte, least significant
+ * group first), signed ones using zig-zag encoding.
+ */
+@Component
+@Import(CoreConditionRegistry.class)
+public class BinaryPolicyCodec {
+  private static final byte[] MAGIC = {
+      'N', 'P', 'A', 'P'
+  };
+
+  private static final int FORMAT_VERSION = 1;
+
+  // value type tags
+  private static final int T_NULL = 0;
+  private static final int T_FALSE = 1;
+  private static final int T_TRUE = 2;
+  private static final int T_STRING = 3;
+  private static final int T_INT = 4;
+  private static final int T_LONG = 5;
+  private static final int T_DOUBLE = 6;
+  private static final int T_FLOAT = 7;
+  private static final int T_BIG_INTEGER = 8;
+  private static final int T_BIG_DECIMAL = 9;
+  private static final int T_LIST = 10;
+  private static final int T_MAP = 11;
+
+  @Autowired(required = false)
+  private final List<ConditionRegistry> conditionRegistries = Collections.emptyList();
+
+  private Map<String, Class<? extends Condition>> conditionClassByName = new HashMap<>();
+  private Map<Class<? extends Condition>, String> conditionNameByClass = new HashMap<>();
+
+  @PostConstruct
+  private void init() {
+    conditionClassByName = conditionRegistries.stream() //
+        .flatMap(r -> r.getConditions().entrySet().stream()) //
+        .collect(toMap(Map.Entry::getKey, Map.Entry::getValue));
+
+    conditionNameByClass = conditionClassByName.entrySet().stream() //
+        .collect(toMap(Map.Entry::getValue, Map.Entry::getKey)); // invert mapping
+  }
+
+  /**
+   * Encode the given policy into its binary form.
+   *
+   * @param policy the policy
+   * @return the binary form
+   */
+  public byte[] encode(final AccessPolicy policy) {
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    try {
+      encode(policy, baos);
+    } catch (IOException e) {
+      // can't happen with a ByteArrayOutputStream
+      throw new IllegalStateException(e);
+    }
+    return baos.toByteArray();
+  }
+
+  /**
+   * Encode the given policy into its binary form and write it to the given stream. The stream is
+   * not closed.
+   *
+   * @param policy the policy
+   * @param os the stream to write to
+   * @throws IOException if the stream cannot be written
+   */
+  public void encode(final AccessPolicy policy, final OutputStream os) throws IOException {
+    // encode the body first, collecting the string table along the way
+    Encoder body = new Encoder();
+    body.writePolicy(policy);
+
+    Encoder header = new Encoder();
+    header.out.write(MAGIC);
+    header.out.write(FORMAT_VERSION);
+    header.writeVarLong(body.strings.size());
+    for (String s : body.strings.keySet()) {
+      byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+      header.writeVarLong(bytes.length);
+      header.out.write(bytes);
+    }
+
+    header.out.writeTo(os);
+    body.out.writeTo(os);
+  }
+
+  /**
+   * Decode a policy from its binary form.
+   *
+   * @param encoded the binary form
+   * @return the decoded policy
+   * @throws IOException if the binary form is malformed
+   */
+  public AccessPolicy decode(final byte[] encoded) throws IOException {
+    return decode(new ByteArrayInputStream(encoded));
+  }
+
+  /**
+   * Decode a policy from its binary form read from the given stream. The stream is not closed.
+   *
+   * @param is the stream to read from
+   * @return the decoded policy
+   * @throws IOException if the stream cannot be read or the binary form is malformed
+   */
+  public AccessPolicy decode(final InputStream is) throws IOException {
+    Decoder d = new Decoder(is);
+
+    for (byte m : MAGIC)
+      if (d.readByte() != m)
+        throw new IOException("Not a binary access policy: bad magic");
+
+    int version = d.readByte();
+    if (version != FORMAT_VERSION)
+      throw new IOException("Unsupported binary access policy format version " + version);
+
+    int stringCount = d.readCount();
+    d.strings = new String[stringCount];
+    for (int i = 0; i < stringCount; i++) {
+      d.strings[i] = new String(d.readBytes(d.readCount()), StandardCharsets.UTF_8);
+    }
+
+    return d.readPolicy();
+  }
+
+  private final class Encoder {
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+    private final Map<String, Integer> strings = new LinkedHashMap<>();
+
+    void writePolicy(final AccessPolicy policy) {
+      writeString(policy.get_version());
+      writeInstant(policy.getValidFrom());
+      writeString(policy.getDescription());
+      writeEffect(policy.getDefaultEffect());
+
+      writeVarLong(policy.getRules().size());
+      for (AccessRule rule : policy.getRules())
+        writeRule(rule);
+    }
+
+    private void writeRule(final AccessRule rule) {
+      writeString(rule.getName());
+      writeEffect(rule.getEffect());
+      writeStrings(rule.getSubjects());
+      writeStrings(rule.getResources());
+      writeStrings(rule.getActions());
+      writeCondition(rule.getConditions());
+    }
+
+    @SuppressWarnings({
+        "rawtypes", "unchecked"
+    })
+    private void writeCondition(final Condition c) {
+      String type = conditionNameByClass.get(c.getClass());
+      if (null == type)
+        throw new IllegalArgumentException(
+            "Cannot encode condition of type " + c.getClass() + ": name cannot be resolved");
+
+      writeString(type);
+      writeString(c.getName());
+
+      if (c instanceof CompositeCondition) {
+        List<Condition> children = ((CompositeCondition<?>) c).getConditions();
+        writeVarLong(children.size());
+        for (Condition child : children)
+          writeCondition(child);
+      } else if (c instanceof AbstractTargetListCondition) {
+        writeStrings(((AbstractTargetListCondition<?>) c).getTargets());
+      } else if (c instanceof ComparisonCondition) {
+        writePredicates((Map) ((ComparisonCondition) c).getPredicates());
+      } else if (c instanceof RangeCondition) {
+        writePredicates((Map) ((RangeCondition) c).getPredicates());
+      } else {
+        throw new IllegalArgumentException(
+            "Cannot encode condition of type " + c.getClass() + ": unsupported condition structure");
+      }
+    }
+
+    private void writePredicates(final Map<Specifier, List<Object>> predicates) {
+      writeVarLong(predicates.size());
+      for (Map.Entry<Specifier, List<Object>> e : predicates.entrySet()) {
+        writeString(e.getKey().asString());
+        writeValues(e.getValue());
+      }
+    }
+
+    private void writeValues(final List<?> values) {
+      if (null == values) {
+        writeVarLong(0);
+        return;
+      }
+
+      // length + 1 so that null lists can be told apart from empty ones
+      writeVarLong(values.size() + 1);
+      for (Object v : values)
+        writeValue(v);
+    }
+
+    private void writeValue(final Object v) {
+      if (null == v) {
+        out.write(T_NULL);
+      } else if (v instanceof Boolean) {
+        out.write((Boolean) v ? T_TRUE : T_FALSE);
+      } else if (v instanceof String) {
+        out.write(T_STRING);
+        writeString((String) v);
+      } else if (v instanceof Integer) {
+        out.write(T_INT);
+        writeSignedVarLong((Integer) v);
+      } else if (v instanceof Long) {
+        out.write(T_LONG);
+        writeSignedVarLong((Long) v);
+      } else if (v instanceof Double) {
+        out.write(T_DOUBLE);
+        writeFixedLong(Double.doubleToLongBits((Double) v));
+      } else if (v instanceof Float) {
+        out.write(T_FLOAT);
+        writeFixedLong(Float.floatToIntBits((Float) v));
+      } else if (v instanceof BigInteger) {
+        out.write(T_BIG_INTEGER);
+        writeString(v.toString());
+      } else if (v instanceof BigDecimal) {
+        out.write(T_BIG_DECIMAL);
+        writeString(v.toString());
+      } else if (v instanceof List) {
+        out.write(T_LIST);
+        writeValues((List<?>) v);
+      } else if (v instanceof Map) {
+        out.write(T_MAP);
+        Map<?, ?> m = (Map<?, ?>) v;
+        writeVarLong(m.size());
+        for (Map.Entry<?, ?> e : m.entrySet()) {
+          writeString(String.valueOf(e.getKey()));
+          writeValue(e.getValue());
+        }
+      } else {
+        throw new IllegalArgumentException("Cannot encode condition value " + v + " of type " + v.getClass());
+      }
+    }
+
+    private void writeStrings(final List<String> l) {
+      writeVarLong(l.size());
+      for (String s : l)
+        writeString(s);
+    }
+
+    private void writeString(final String s) {
+      if (null == s) {
+        writeVarLong(0);
+        return;
+      }
+
+      Integer index = strings.get(s);
+      if (null == index) {
+        index = strings.size();
+        strings.put(s, index);
+      }
+      writeVarLong(index + 1);
+    }
+
+    private void writeEffect(final Effect e) {
+      out.write(null == e ? 0 : e.ordinal() + 1);
+    }
+
+    private void writeInstant(final Instant i) {
+      if (null == i) {
+        out.write(0);
+        return;
+      }
+
+      out.write(1);
+      writeSignedVarLong(i.getEpochSecond());
+      writeVarLong(i.getNano());
+    }
+
+    private void writeSignedVarLong(final long v) {
+      writeVarLong((v << 1) ^ (v >> 63));
+    }
+
+    private void writeVarLong(long v) {
+      while ((v & ~0x7FL) != 0) {
+        out.write((int) ((v & 0x7F) | 0x80));
+        v >>>= 7;
+      }
+      out.write((int) v);
+    }
+
+    private void writeFixedLong(final long v) {
+      for (int shift = 56; shift >= 0; shift -= 8)
+        out.write((int) (v >>> shift));
+    }
+  }
+
+  private final class Decoder {
+    private final InputStream in;
+
+    private String[] strings;
+
+    Decoder(final InputStream in) {
+      this.in = in;
+    }
+
+    AccessPolicy readPolicy() throws IOException {
+      AccessPolicy policy = new AccessPolicy();
+
+      policy.set_version(readString());
+      Instant validFrom = readInstant();
+      if (null != validFrom)
+        policy.setValidFrom(validFrom);
+      policy.setDescription(readString());
+      Effect defaultEffect = readEffect();
+      if (null != defaultEffect)
+        policy.setDefaultEffect(defaultEffect);
+
+      int ruleCount = readCount();
+      List<AccessRule> rules = new ArrayList<>(ruleCount);
+      for (int i = 0; i < ruleCount; i++)
+        rules.add(readRule());
+      policy.setRules(rules);
+
+      return policy;
+    }
+
+    private AccessRule readRule() throws IOException {
+      AccessRule rule = new AccessRule();
+
+      rule.setName(readString());
+      Effect effect = readEffect();
+      if (null != effect)
+        rule.setEffect(effect);
+      rule.setSubjects(readStrings());
+      rule.setResources(readStrings());
+      rule.setActions(readStrings());
+
+      Condition conditions = readCondition();
+      if (!(conditions instanceof AndCondition))
+        throw new IOException("Malformed binary access policy: rule conditions must be an and-condition");
+      rule.setConditions((AndCondition) conditions);
+
+      return rule;
+    }
+
+    @SuppressWarnings({
+        "rawtypes", "unchecked"
+    })
+    private Condition readCondition() throws IOException {
+      String type = readString();
+      Class<? extends Condition> conditionClass = conditionClassByName.get(type);
+      if (null == conditionClass)
+        throw new IOException("Malformed binary access policy: unknown condition type " + type);
+
+      Condition c;
+      try {
+        c = conditionClass.getDeclaredConstructor().newInstance();
+      } catch (ReflectiveOperationException e) {
+        throw new IOException("Cannot instantiate condition of type " + conditionClass, e);
+      }
+
+      String name = readString();
+      if (null != name)
+        c.setName(name);
+
+      if (c instanceof CompositeCondition) {
+        int count = readCount();
+        for (int i = 0; i < count; i++)
+          ((CompositeCondition<?>) c).addCondition(readCondition());
+      } else if (c instanceof AbstractTargetListCondition) {
+        ((AbstractTargetListCondition<?>) c).setTargets(readStrings());
+      } else if (c instanceof ComparisonCondition) {
+        int count = readCount();
+        for (int i = 0; i < count; i++) {
+          String target = readString();
+          List<Object> values = readValues();
+
+          // comparison conditions can't hold null value lists, treat them as "no values"
+          ((ComparisonCondition) c).addPredicate(target, null != values ? values : new ArrayList<>());
+        }
+      } else if (c instanceof RangeCondition) {
+        int count = readCount();
+        for (int i = 0; i < count; i++)
+          ((RangeCondition) c).addPredicate(readString(), (List) readValues());
+      } else {
+        throw new IOException("Cannot decode condition of type " + conditionClass + ": unsupported condition structure");
+      }
+
+      return c;
+    }
+
+    private List<Object> readValues() throws IOException {
+      int size = readCount();
+      if (size == 0)
+        return null;
+
+      List<Object> values = new ArrayList<>(size - 1);
+      for (int i = 0; i < size - 1; i++)
+        values.add(readValue());
+      return values;
+    }
+
+    private Object readValue() throws IOException {
+      int tag = readByte();
+      switch (tag){
+        case T_NULL :
+          return null;
+        case T_FALSE :
+          return Boolean.FALSE;
+        case T_TRUE :
+          return Boolean.TRUE;
+        case T_STRING :
+          return readString();
+        case T_INT :
+          return (int) readSignedVarLong();
+        case T_LONG :
+          return readSignedVarLong();
+        case T_DOUBLE :
+          return Double.longBitsToDouble(readFixedLong());
+        case T_FLOAT :
+          return Float.intBitsToFloat((int) readFixedLong());
+        case T_BIG_INTEGER :
+          return new BigInteger(readString());
+        case T_BIG_DECIMAL :
+          return new BigDecimal(readString());
+        case T_LIST :
+          return readValues();
+        case T_MAP :
+          int size = readCount();
+          Map<String, Object> m = new LinkedHashMap<>();
+          for (int i = 0; i < size; i++)
+            m.put(readString(), readValue());
+          return m;
+        default :
+          throw new IOException("Malformed binary access policy: unknown value type " + tag);
+      }
+    }
+
+    private List<String> readStrings() throws IOException {
+      int count = readCount();
+      List<String> l = new ArrayList<>(count);
+      for (int i = 0; i < count; i++)
+        l.add(readString());
+      return l;
+    }
+
+    private String readString() throws IOException {
+      int ref = readCount();
+      if (ref == 0)
+        return null;
+      if (ref > strings.length)
+        throw new IOException("Malformed binary access policy: string reference out of range");
+      return strings[ref - 1];
+    }
+
+    private Effect readEffect() throws IOException {
+      int e = readByte();
+      if (e == 0)
+        return null;
+      if (e > Effect.values().length)
+        throw new IOException("Malformed binary access policy: unknown effect " + e);
+      return Effect.values()[e - 1];
+    }
+
+    private Instant readInstant() throws IOException {
+      if (readByte() == 0)
+        return null;
+
+      long epochSecond = readSignedVarLong();
+      return Instant.ofEpochSecond(epochSecond, readVarLong());
+    }
+
+    private int readCount() throws IOException {
+      long v = readVarLong();
+      if (v < 0 || v > Integer.MAX_VALUE)
+        throw new IOException("Malformed binary access policy: count out of range");
+      return (int) v;
+    }
+
+    private long readSignedVarLong() throws IOException {
+      long v = readVarLong();
+      return (v >>> 1) ^ -(v & 1);
+    }
+
+    private long readVarLong() throws IOException {
+      long v = 0;
+      for (int shift = 0; shift < 64; shift += 7) {
+        int b = readByte();
+        v |= (long) (b & 0x7F) << shift;
+        if ((b & 0x80) == 0)
+          return v;
+      }
+      throw new IOException("Malformed binary access policy: variable-length quantity too long");
+    }
+
+    private long readFixedLong() throws IOException {
+      long v = 0;
+      for (int i = 0; i < 8; i++)
+        v = (v << 8) | readByte();
+      return v;
+    }
+
+    private byte[] readBytes(final int length) throws IOException {
+      byte[] b = in.readNBytes(length);
+      if (b.length < length)
+        throw new EOFException("Premature end of binary access policy");
+      return b;
+    }
+
+    private int readByte() throws IOException {
+      int b = in.read();
+      if (b < 0)
+        throw new EOFException("Premature end of binary access policy");
+      return b;
+    }
+  }
+}
@@ -0,0 +1,619 @@
+package com.neverpile.common.authorization.policy.impl;
+
+import static java.util.stream.Collectors.toList;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.util.AntPathMatcher;
+
+import com.neverpile.common.authorization.api.Action;
+import com.neverpile.common.authorization.api.ActionHints;
+import com.neverpile.common.authorization.api.HintRegistrations;
+import com.neverpile.common.authorization.api.HintRegistrations.Hint;
+import com.neverpile.common.authorization.policy.AccessPolicy;
+import com.neverpile.common.authorization.policy.AccessRule;
+import com.neverpile.common.condition.AbstractTargetListCondition;
+import com.neverpile.common.condition.AndCondition;
+import com.neverpile.common.condition.ComparisonCondition;
+import com.neverpile.common.condition.CompositeCondition;
+import com.neverpile.common.condition.Condition;
+import com.neverpile.common.condition.EqualsCondition;
+import com.neverpile.common.condition.FalseCondition;
+import com.neverpile.common.condition.NotCondition;
+import com.neverpile.common.condition.OrCondition;
+import com.neverpile.common.condition.RangeCondition;
+import com.neverpile.common.condition.TrueCondition;
+import com.neverpile.common.specifier.Specifier;
+
+/**
+ * A static analyzer for {@link AccessPolicy}s. As described in {@link AccessPolicy}, the first rule
+ * matching a requested action decides about it. Large policies therefore tend to accumulate rules
+ * which can never decide anything, but which are nevertheless evaluated on every authorization
+ * request. This analyzer detects
+ * <ul>
+ * <li>rules which can never match at all, because they lack subjects, resources or actions or
+ * because their conditions are unsatisfiable,
+ * <li>rules which are duplicates of earlier rules,
+ * <li>rules (or individual action patterns of rules) which are shadowed by earlier rules, i.e.
+ * where an earlier rule matches whenever the rule in question matches and
+ * <li>rules which cannot match any of the actions registered via {@link ActionHints}.
+ * </ul>
+ * <p>
+ * The analysis is conservative: a rule is only reported as dead or shadowed if this can be proven
+ * from the structure of the policy alone. Consequently, {@link #optimize(AccessPolicy)} removes
+ * dead rules and shadowed action patterns without changing any access decision made by the
+ * {@link PolicyBasedAuthorizationService}. Rules which merely don't match any registered action are
+ * reported, but kept, since the action hints need not be exhaustive.
+ */
+@Component
+public class PolicyAnalyzer {
+  /**
+   * The types of findings reported by the analyzer.
+   */
+  public enum FindingType {
+    /**
+     * The rule can never match, because it lacks subjects, resources or actions or because its
+     * conditions can never be satisfied.
+     */
+    UNSATISFIABLE,
+    /**
+     * The rule is an exact duplicate of an earlier rule.
+     */
+    DUPLICATE,
+    /**
+     * All action patterns of the rule are decided by earlier rules.
+     */
+    SHADOWED,
+    /**
+     * Some action patterns of the rule are decided by earlier rules.
+     */
+    REDUNDANT_ACTIONS,
+    /**
+     * None of the action patterns of the rule matches an action registered via
+     * {@link ActionHints}.
+     */
+    UNKNOWN_ACTIONS
+  }
+
+  /**
+   * A single finding of the analysis pertaining to one rule.
+   */
+  public static class Finding {
+    private final FindingType type;
+
+    private final int ruleIndex;
+
+    private final AccessRule rule;
+
+    private final List<Integer> relatedRuleIndices;
+
+    private final List<String> actions;
+
+    private final String message;
+
+    public Finding(final FindingType type, final int ruleIndex, final AccessRule rule,
+        final List<Integer> relatedRuleIndices, final List<String> actions, final String message) {
+      this.type = type;
+      this.ruleIndex = ruleIndex;
+      this.rule = rule;
+      this.relatedRuleIndices = relatedRuleIndices;
+      this.actions = actions;
+      this.message = message;
+    }
+
+    public FindingType getType() {
+      return type;
+    }
+
+    /**
+     * Get the index of the rule this finding pertains to within the policy's list of rules.
+     *
+     * @return the rule index
+     */
+    public int getRuleIndex() {
+      return ruleIndex;
+    }
+
+    public AccessRule getRule() {
+      return rule;
+    }
+
+    /**
+     * Get the indices of the earlier rules responsible for the finding, e.g. the shadowing rules for
+     * {@link FindingType#SHADOWED}.
+     *
+     * @return the list of related rule indices, possibly empty
+     */
+    public List<Integer> getRelatedRuleIndices() {
+      return relatedRuleIndices;
+    }
+
+    /**
+     * Get the action patterns this finding pertains to, e.g. the redundant ones for
+     * {@link FindingType#REDUNDANT_ACTIONS}.
+     *
+     * @return the list of action patterns, possibly empty
+     */
+    public List<String> getActions() {
+      return actions;
+    }
+
+    public String getMessage() {
+      return message;
+    }
+
+    @Override
+    public String toString() {
+      return type + " rule #" + ruleIndex + (null != rule.getName() ? " '" + rule.getName() + "'" : "") + ": "
+          + message;
+    }
+  }
+
+  @Autowired(required = false)
+  @ActionHints
+  private final List<HintRegistrations> actionHints = Collections.emptyList();
+
+  /**
+   * An ant-style matcher using periods as path separators, just like the one used by the
+   * {@link PolicyBasedAuthorizationService}.
+   */
+  private final AntPathMatcher resourcePatternMatcher = new AntPathMatcher(".");
+
+  /**
+   * Analyze the given policy.
+   *
+   * @param policy the policy to analyze
+   * @return the list of findings in rule order, empty if there is nothing to report
+   */
+  public List<Finding> analyze(final AccessPolicy policy) {
+    return new Analysis(policy).findings;
+  }
+
+  /**
+   * Return a policy which makes the same access decisions as the given one, but from which all
+   * unsatisfiable, duplicate and shadowed rules as well as all shadowed action patterns have been
+   * removed. The given policy is not modified.
+   * <p>
+   * Note that the {@link com.neverpile.common.authorization.api.Permission}s reported for the
+   * optimized policy are more concise, but not necessarily identical to those of the original one.
+   *
+   * @param policy the policy to optimize
+   * @return the optimized policy
+   */
+  public AccessPolicy optimize(final AccessPolicy policy) {
+    Analysis analysis = new Analysis(policy);
+
+    AccessPolicy optimized = new AccessPolicy();
+    optimized.set_version(policy.get_version());
+    if (null != policy.getValidFrom())
+      optimized.setValidFrom(policy.getValidFrom());
+    optimized.setDescription(policy.getDescription());
+    if (null != policy.getDefaultEffect())
+      optimized.setDefaultEffect(policy.getDefaultEffect());
+
+    for (int i = 0; i < policy.getRules().size(); i++) {
+      AccessRule rule = policy.getRules().get(i);
+      if (analysis.dead.contains(i))
+        continue;
+
+      Set<String> redundant = analysis.redundantActions.getOrDefault(i, Collections.emptySet());
+      if (redundant.isEmpty()) {
+        optimized.getRules().add(rule);
+      } else {
+        AccessRule stripped = new AccessRule();
+        stripped.setName(rule.getName());
+        stripped.setEffect(rule.getEffect());
+        stripped.setSubjects(new ArrayList<>(rule.getSubjects()));
+        stripped.setResources(new ArrayList<>(rule.getResources()));
+        stripped.setActions(rule.getActions().stream().filter(a -> !redundant.contains(a)).collect(toList()));
+        stripped.setConditions(rule.getConditions());
+        optimized.getRules().add(stripped);
+      }
+    }
+
+    return optimized;
+  }
+
+  private class Analysis {
+    private final List<Finding> findings = new ArrayList<>();
+
+    /**
+     * Indices of rules which can be dropped entirely.
+     */
+    private final Set<Integer> dead = new HashSet<>();
+
+    /**
+     * Indices of rules which never match.
+     */
+    private final Set<Integer> unsatisfiable = new HashSet<>();
+
+    /**
+     * Action patterns of live rules which are decided by earlier rules.
+     */
+    private final Map<Integer, Set<String>> redundantActions = new HashMap<>();
+
+    Analysis(final AccessPolicy policy) {
+      List<AccessRule> rules = policy.getRules();
+      List<Set<String>> conjunctKeys = new ArrayList<>(rules.size());
+      Set<String> registeredActions = registeredActions();
+
+      for (int i = 0; i < rules.size(); i++) {
+        AccessRule rule = rules.get(i);
+        conjunctKeys.add(conjunctKeys(rule.getConditions()));
+
+        String reason = unsatisfiableReason(rule);
+        if (null != reason) {
+          dead.add(i);
+          unsatisfiable.add(i);
+          findings.add(new Finding(FindingType.UNSATISFIABLE, i, rule, Collections.emptyList(),
+              Collections.emptyList(), reason));
+          continue;
+        }
+
+        if (checkDuplicate(rules, conjunctKeys, i))
+          continue;
+
+        if (checkShadowed(rules, conjunctKeys, i))
+          continue;
+
+        if (!registeredActions.isEmpty() && rule.getActions().stream().noneMatch(
+            p -> registeredActions.stream().anyMatch(
+                k -> PolicyBasedAuthorizationService.matchesActions(k, Collections.singleton(p)))))
+          findings.add(new Finding(FindingType.UNKNOWN_ACTIONS, i, rule, Collections.emptyList(), rule.getActions(),
+              "none of the actions " + rule.getActions() + " matches a registered action"));
+      }
+    }
+
+    private boolean checkDuplicate(final List<AccessRule> rules, final List<Set<String>> conjunctKeys,
+        final int i) {
+      AccessRule rule = rules.get(i);
+      for (int j = 0; j < i; j++) {
+        if (unsatisfiable.contains(j))
+          continue;
+
+        AccessRule earlier = rules.get(j);
+        if (earlier.getEffect() == rule.getEffect() //
+            && new HashSet<>(earlier.getSubjects()).equals(new HashSet<>(rule.getSubjects())) //
+            && new HashSet<>(earlier.getResources()).equals(new HashSet<>(rule.getResources())) //
+            && new HashSet<>(earlier.getActions()).equals(new HashSet<>(rule.getActions())) //
+            && null != conjunctKeys.get(i) && conjunctKeys.get(i).equals(conjunctKeys.get(j))) {
+          dead.add(i);
+          findings.add(new Finding(FindingType.DUPLICATE, i, rule, Collections.singletonList(j),
+              rule.getActions(), "duplicate of rule #" + j));
+          return true;
+        }
+      }
+
+      return false;
+    }
+
+    private boolean checkShadowed(final List<AccessRule> rules, final List<Set<String>> conjunctKeys,
+        final int i) {
+      AccessRule rule = rules.get(i);
+
+      Set<String> redundant = new TreeSet<>();
+      Set<Integer> shadowing = new TreeSet<>();
+      for (int j = 0; j < i; j++) {
+        AccessRule earlier = rules.get(j);
+        // rules which never match cannot shadow anything. Dead rules which do match, however, still
+        // imply that an even earlier rule decides.
+        if (unsatisfiable.contains(j))
+          continue;
+
+        if (!coversSubjects(earlier.getSubjects(), rule.getSubjects())
+            || !rule.getResources().stream().allMatch(r -> coversResource(earlier.getResources(), r))
+            || !coversConditions(conjunctKeys.get(j), conjunctKeys.get(i)))
+          continue;
+
+        for (String action : rule.getActions()) {
+          if (coversAction(earlier.getActions(), action) && redundant.add(action))
+            shadowing.add(j);
+        }
+      }
+
+      if (redundant.isEmpty())
+        return false;
+
+      if (redundant.containsAll(rule.getActions())) {
+        dead.add(i);
+        findings.add(new Finding(FindingType.SHADOWED, i, rule, new ArrayList<>(shadowing), rule.getActions(),
+            "shadowed by rule(s) " + shadowing));
+        return true;
+      }
+
+      redundantActions.put(i, redundant);
+      findings.add(new Finding(FindingType.REDUNDANT_ACTIONS, i, rule, new ArrayList<>(shadowing),
+          new ArrayList<>(redundant), "actions " + redundant + " are decided by rule(s) " + shadowing));
+      return false;
+    }
+  }
+
+  private Set<String> registeredActions() {
+    return actionHints.stream() //
+        .flatMap(h -> h.getHints().stream()) //
+        .map(Hint::getPrefix) //
+        .collect(Collectors.toSet());
+  }
+
+  private String unsatisfiableReason(final AccessRule rule) {
+    if (rule.getSubjects().isEmpty())
+      return "the rule has no subjects";
+    if (rule.getResources().isEmpty())
+      return "the rule has no resources";
+    if (rule.getActions().isEmpty())
+      return "the rule has no actions";
+    if (null != rule.getConditions() && isUnsatisfiable(rule.getConditions()))
+      return "the rule's conditions can never be satisfied";
+    return null;
+  }
+
+  /**
+   * Return whether the rule with the given subjects <code>a</code> matches every authentication
+   * matched by the rule with the given subjects <code>b</code>. Principal and role subjects are
+   * matched individually. All other subjects, like JWT claim expressions, are evaluated by the
+   * {@link AuthenticationMatcher}s in order, so that for those we require an identical sequence.
+   */
+  private boolean coversSubjects(final List<String> a, final List<String> b) {
+    if (a.contains(AccessRule.ANY))
+      return true;
+    if (b.contains(AccessRule.ANY))
+      return false;
+
+    // anonymous callers only match ANY and ANONYMOUS_CALLER
+    if (b.contains(AccessRule.ANONYMOUS_CALLER) && !a.contains(AccessRule.ANONYMOUS_CALLER))
+      return false;
+
+    if (a.contains(AccessRule.AUTHENTICATED))
+      return true;
+    if (b.contains(AccessRule.AUTHENTICATED))
+      return false;
+
+    List<String> otherA = a.stream().filter(s -> !isIndividuallyMatched(s)).collect(toList());
+    List<String> otherB = b.stream().filter(s -> !isIndividuallyMatched(s)).collect(toList());
+    if (!otherB.isEmpty() && !otherB.equals(otherA))
+      return false;
+
+    return a.containsAll(b.stream().filter(this::isIndividuallyMatched).collect(toList()));
+  }
+
+  private boolean isIndividuallyMatched(final String subject) {
+    return subject.equals(AccessRule.ANONYMOUS_CALLER) || subject.startsWith(AccessRule.PRINCIPAL)
+        || subject.startsWith(AuthorityAuthenticationMatcher.ROLE);
+  }
+
+  /**
+   * Return whether any of the resource patterns <code>a</code> matches every resource matched by
+   * the pattern <code>b</code>. Remember that patterns also match all sub-resources.
+   */
+  private boolean coversResource(final List<String> a, final String b) {
+    return a.stream().anyMatch(p -> p.equals(b) //
+        || p.equals(AccessRule.ANY) || p.equals("**") //
+        || !resourcePatternMatcher.isPattern(b) && resourcePatternMatcher.match(p + ".**", b) //
+        || !resourcePatternMatcher.isPattern(p) && b.startsWith(p + "."));
+  }
+
+  /**
+   * Return whether the action patterns <code>a</code> match every action key matched by the
+   * pattern <code>b</code>.
+   */
+  private boolean coversAction(final List<String> a, final String b) {
+    if (a.contains(Action.ANY.key()) || a.contains(b))
+      return true;
+    if (b.equals(Action.ANY.key()))
+      return false;
+    if (b.endsWith(":*"))
+      return PolicyBasedAuthorizationService.matchesWildcardAction(b.substring(0, b.length() - 2), a);
+    return PolicyBasedAuthorizationService.matchesActions(b, a);
+  }
+
+  /**
+   * A rule's conditions cover another rule's conditions if all top-level conjuncts of the former
+   * are also present in the latter.
+   */
+  private boolean coversConditions(final Set<String> a, final Set<String> b) {
+    return null != a && null != b && b.containsAll(a);
+  }
+
+  /**
+   * Compute the structural keys of the top-level conjuncts of the given condition, flattening
+   * nested and-conditions.
+   *
+   * @return the set of keys or <code>null</code> if the structure of any of the conjuncts is
+   *         unknown
+   */
+  private Set<String> conjunctKeys(final Condition c) {
+    Set<String> keys = new HashSet<>();
+    for (Condition conjunct : conjuncts(c)) {
+      String key = structuralKey(conjunct);
+      if (null == key)
+        return null;
+      keys.add(key);
+    }
+    return keys;
+  }
+
+  private List<Condition> conjuncts(final Condition c) {
+    if (null == c)
+      return Collections.emptyList();
+    if (!(c instanceof AndCondition))
+      return Collections.singletonList(c);
+
+    List<Condition> l = new ArrayList<>();
+    for (Condition child : ((AndCondition) c).getConditions())
+      l.addAll(conjuncts(child));
+    return l;
+  }
+
+  /**
+   * Compute a key identifying the structure of a condition: two conditions with the same key
+   * always evaluate to the same result. Names are ignored, since they are merely descriptive. All
+   * core composite conditions are commutative, so the children's keys are sorted.
+   *
+   * @return the key or <code>null</code> if the condition's structure is unknown
+   */
+  private String structuralKey(final Condition c) {
+    StringBuilder sb = new StringBuilder(c.getClass().getName());
+
+    if (c instanceof AndCondition || c instanceof OrCondition || c instanceof NotCondition) {
+      List<String> children = new ArrayList<>();
+      for (Condition child : ((CompositeCondition<?>) c).getConditions()) {
+        String key = structuralKey(child);
+        if (null == key)
+          return null;
+        children.add(key);
+      }
+      Collections.sort(children);
+      sb.append(children);
+    } else if (c instanceof AbstractTargetListCondition) {
+      sb.append(new TreeSet<>(((AbstractTargetListCondition<?>) c).getTargets()));
+    } else if (c instanceof ComparisonCondition) {
+      // any of the values may match, so their order is irrelevant
+      sb.append(((ComparisonCondition) c).getPredicates().entrySet().stream() //
+          .map(e -> e.getKey().asString() + "="
+              + (null == e.getValue() ? "null" : new TreeSet<>(e.getValue().stream().map(this::valueKey).collect(toList()))))
+          .sorted() //
+          .collect(toList()));
+    } else if (c instanceof RangeCondition) {
+      sb.append(((RangeCondition) c).getPredicates().entrySet().stream() //
+          .map(e -> e.getKey().asString() + "="
+              + (null == e.getValue() ? "null" : e.getValue().stream().map(this::valueKey).collect(toList())))
+          .sorted() //
+          .collect(toList()));
+    } else {
+      return null;
+    }
+
+    return sb.toString();
+  }
+
+  private String valueKey(final Object v) {
+    // values of different types are never equal, even if their string representation is
+    return null == v ? "null" : v.getClass().getName() + ":" + v;
+  }
+
+  private boolean isUnsatisfiable(final Condition c) {
+    if (c instanceof AndCondition)
+      return ((AndCondition) c).getConditions().stream().anyMatch(this::isUnsatisfiable)
+          || isContradictory(conjuncts(c));
+
+    if (c instanceof OrCondition)
+      return ((OrCondition) c).getConditions().stream().allMatch(this::isUnsatisfiable);
+
+    // not is actually a NAND
+    if (c instanceof NotCondition)
+      return ((NotCondition) c).getConditions().stream().allMatch(this::isTautology);
+
+    if (c instanceof ComparisonCondition)
+      return ((ComparisonCondition) c).getPredicates().values().stream().anyMatch(v -> null != v && v.isEmpty());
+
+    if (c instanceof RangeCondition)
+      return ((RangeCondition) c).getPredicates().values().stream().anyMatch(this::isEmptyRange);
+
+    return false;
+  }
+
+  private boolean isTautology(final Condition c) {
+    if (c instanceof AndCondition)
+      return ((AndCondition) c).getConditions().stream().allMatch(this::isTautology);
+
+    if (c instanceof OrCondition)
+      return ((OrCondition) c).getConditions().stream().anyMatch(this::isTautology);
+
+    if (c instanceof NotCondition)
+      return ((NotCondition) c).getConditions().stream().anyMatch(this::isUnsatisfiable);
+
+    if (c instanceof AbstractTargetListCondition)
+      return ((AbstractTargetListCondition<?>) c).getTargets().isEmpty();
+
+    if (c instanceof ComparisonCondition)
+      return ((ComparisonCondition) c).getPredicates().isEmpty();
+
+    if (c instanceof RangeCondition)
+      return ((RangeCondition) c).getPredicates().isEmpty();
+
+    return false;
+  }
+
+  @SuppressWarnings({
+      "rawtypes", "unchecked"
+  })
+  private boolean isEmptyRange(final List<Comparable<?>> range) {
+    if (null == range || range.size() != 2 || null == range.get(0) || null == range.get(1))
+      return true;
+
+    try {
+      return ((Comparable) range.get(0)).compareTo(range.get(1)) > 0;
+    } catch (ClassCastException e) {
+      // incomparable bounds - leave that to the evaluation
+      return false;
+    }
+  }
+
+  /**
+   * Detect contradictions between the conjuncts of an and-condition: a target required to be both
+   * true and false, disjoint sets of values required for equality and disjoint ranges.
+   */
+  @SuppressWarnings({
+      "rawtypes", "unchecked"
+  })
+  private boolean isContradictory(final List<Condition> conjuncts) {
+    Set<Specifier> trueTargets = new HashSet<>();
+    Set<Specifier> falseTargets = new HashSet<>();
+    Map<Specifier, Set<Object>> equalValues = new HashMap<>();
+    Map<Specifier, Comparable[]> ranges = new HashMap<>();
+
+    for (Condition c : conjuncts) {
+      if (c instanceof TrueCondition)
+        ((TrueCondition) c).getTargets().forEach(t -> trueTargets.add(Specifier.from(t)));
+      else if (c instanceof FalseCondition)
+        ((FalseCondition) c).getTargets().forEach(t -> falseTargets.add(Specifier.from(t)));
+      else if (c instanceof EqualsCondition) {
+        for (Map.Entry<Specifier, List<Object>> e : ((EqualsCondition) c).getPredicates().entrySet()) {
+          if (null == e.getValue())
+            continue;
+          Set<Object> values = equalValues.get(e.getKey());
+          if (null == values)
+            equalValues.put(e.getKey(), new HashSet<>(e.getValue()));
+          else
+            values.retainAll(e.getValue());
+        }
+      } else if (c instanceof RangeCondition) {
+        for (Map.Entry<Specifier, List<Comparable<?>>> e : ((RangeCondition) c).getPredicates().entrySet()) {
+          if (isEmptyRange(e.getValue()))
+            continue; // reported elsewhere
+
+          Comparable[] range = ranges.get(e.getKey());
+          try {
+            if (null == range) {
+              ranges.put(e.getKey(), new Comparable[]{
+                  e.getValue().get(0), e.getValue().get(1)
+              });
+            } else {
+              if (((Comparable) e.getValue().get(0)).compareTo(range[0]) > 0)
+                range[0] = e.getValue().get(0);
+              if (((Comparable) e.getValue().get(1)).compareTo(range[1]) < 0)
+                range[1] = e.getValue().get(1);
+              if (range[0].compareTo(range[1]) > 0)
+                return true;
+            }
+          } catch (ClassCastException ex) {
+            // incomparable bounds - leave that to the evaluation
+          }
+        }
+      }
+    }
+
+    return trueTargets.stream().anyMatch(falseTargets::contains)
+        || equalValues.values().stream().anyMatch(Set::isEmpty);
+  }
+}
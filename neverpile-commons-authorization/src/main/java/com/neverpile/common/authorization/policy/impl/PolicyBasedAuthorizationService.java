@@ -4,9 +4,9 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
-import java.util.Optional;
 import java.util.Set;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
 import org.slf4j.Logger;
@@ -29,6 +29,7 @@ import com.neverpile.common.authorization.policy.AccessPolicy;
 import com.neverpile.common.authorization.policy.AccessRule;
 import com.neverpile.common.authorization.policy.Effect;
 import com.neverpile.common.authorization.policy.PolicyRepository;
+import com.neverpile.common.authorization.policy.impl.ActionRegistry.CompiledPolicy;
 import com.neverpile.common.condition.CoreConditionRegistry;
 import com.neverpile.common.condition.config.ConditionModule;
 
@@ -38,7 +39,7 @@ import com.neverpile.common.condition.config.ConditionModule;
 @Component
 @Import({
     CoreConditionRegistry.class, ConditionModule.class, AuthorityAuthenticationMatcher.class,
-    JwtClaimAuthenticationMatcher.class
+    JwtClaimAuthenticationMatcher.class, ActionRegistry.class
 })
 public class PolicyBasedAuthorizationService implements AuthorizationService {
 
@@ -50,6 +51,9 @@ public class PolicyBasedAuthorizationService implements AuthorizationService {
   @Autowired(required = false)
   private List<AuthenticationMatcher> authenticationMatchers;
 
+  @Autowired
+  private ActionRegistry actionRegistry;
+
   @Override
   public boolean isAccessAllowed(final String resourceSpecifier, final Set<Action> actions,
       final AuthorizationContext context) {
@@ -72,27 +76,57 @@ public class PolicyBasedAuthorizationService implements AuthorizationService {
    */
   public boolean isAccessAllowed(final String resourceSpecifier, final Set<Action> actions,
       final AuthorizationContext context, final AccessPolicy policy) {
-    Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+    return isAccessAllowed(resourceSpecifier, actions, context, policy,
+        SecurityContextHolder.getContext().getAuthentication());
+  }
+
+  /**
+   * Request whether the access specified by the given resource specifier, the set of
+   * {@link Action}s within the given {@link AuthorizationContext} shall be permitted or not by the
+   * given policy for the given authentication. Unlike the other variants, this method does not
+   * consult the {@link SecurityContextHolder} and can thus be used to evaluate requests on behalf
+   * of arbitrary principals, e.g. when simulating policies.
+   *
+   * @param resourceSpecifier the resource specifier indicating the targeted resource
+   * @param actions the actions that have been requested (or should be checked)
+   * @param context the context of the request
+   * @param policy the policy to use for the access control decision
+   * @param authentication the authentication of the caller or <code>null</code> for anonymous
+   *          callers
+   * @return <code>true</code> if the access shall be allowed, <code>false</code> otherwise
+   * @see #isAccessAllowed(String, Set, AuthorizationContext, AccessPolicy)
+   */
+  public boolean isAccessAllowed(final String resourceSpecifier, final Set<Action> actions,
+      final AuthorizationContext context, final AccessPolicy policy, final Authentication authentication) {
+    List<AccessRule> rules = policy.getRules();
+    CompiledPolicy compiledPolicy = actionRegistry.compile(policy);
 
-    List<AccessRule> matchingRules = policy.getRules().stream() //
+    int[] matchingRules = IntStream.range(0, rules.size()) //
         .filter(null != authentication && authentication.isAuthenticated() //
-            ? (r) -> matchesAuthentication(r, authentication) //
-            : this::matchesAnonymousUser) //
-        .filter(r -> matchesResource(r, resourceSpecifier)) //
-        .filter(r -> satisfiesConditions(r, context)) //
-        .collect(Collectors.toList());
+            ? (i) -> matchesAuthentication(rules.get(i), authentication) //
+            : (i) -> matchesAnonymousUser(rules.get(i))) //
+        .filter(i -> matchesResource(rules.get(i), resourceSpecifier)) //
+        .filter(i -> satisfiesConditions(rules.get(i), context)) //
+        .toArray();
 
     // match each action individually
     boolean allMatched = true;
     for (Action a : actions) {
-      Optional<AccessRule> matchingRule = matchingRules.stream() //
-          .filter(r -> matchesActions(a.key(), r.getActions())) //
-          .findFirst();
-      if (matchingRule.isPresent() && matchingRule.get().getEffect() == Effect.DENY) {
+      int[] matchingPatternIds = actionRegistry.getMatchingPatternIds(a.key());
+
+      AccessRule matchingRule = null;
+      for (int i : matchingRules) {
+        if (compiledPolicy.matches(i, matchingPatternIds)) {
+          matchingRule = rules.get(i);
+          break;
+        }
+      }
+
+      if (null != matchingRule && matchingRule.getEffect() == Effect.DENY) {
         // deny means deny
         return false;
       }
-      allMatched &= matchingRule.isPresent();
+      allMatched &= null != matchingRule;
     }
 
     // evaluate applicable effect: if we had explicit matches for all rules, we allow, otherwise we
@@ -108,11 +142,26 @@ public class PolicyBasedAuthorizationService implements AuthorizationService {
 
   @Override
   public List<Permission> getPermissions(final String resourceSpecifier, final AuthorizationContext context) {
-    Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+    return getPermissions(resourceSpecifier, context, SecurityContextHolder.getContext().getAuthentication());
+  }
 
+  /**
+   * Retrieve the list of permissions that are applicable for the given resource in the given
+   * context for the given authentication. Unlike {@link #getPermissions(String, AuthorizationContext)}
+   * this method does not consult the {@link SecurityContextHolder}.
+   *
+   * @param resourceSpecifier the resource specifier indicating the targeted resource
+   * @param context the context of the request
+   * @param authentication the authentication of the caller or <code>null</code> for anonymous
+   *          callers
+   * @return the applicable permissions
+   * @see #getPermissions(String, AuthorizationContext)
+   */
+  public List<Permission> getPermissions(final String resourceSpecifier, final AuthorizationContext context,
+      final Authentication authentication) {
     // Collecting the permissions into a list and optimizing the number of permissions
     // by combining successive permissions with the same effect into one.
-    return getPermissions(resourceSpecifier, context, authentication) //
+    return permissionStream(resourceSpecifier, context, authentication) //
         .collect(ArrayList::new, (l, p) -> {
           if (!l.isEmpty()) {
             Permission last = l.get(l.size() - 1);
@@ -127,7 +176,7 @@ public class PolicyBasedAuthorizationService implements AuthorizationService {
         }, ArrayList::addAll);
   }
 
-  private Stream<Permission> getPermissions(final String resourceSpecifier, final AuthorizationContext context,
+  private Stream<Permission> permissionStream(final String resourceSpecifier, final AuthorizationContext context,
       final Authentication authentication) {
     AccessPolicy policy = policyRepository.getCurrentPolicy();
 
@@ -233,7 +282,7 @@ public class PolicyBasedAuthorizationService implements AuthorizationService {
    * @param actions the allowed action patterns
    * @return <code>true</code> if the action matches
    */
-  private boolean matchesActions(final String key, final Collection<String> actions) {
+  static boolean matchesActions(final String key, final Collection<String> actions) {
     return actions.contains(Action.ANY.key()) || actions.contains(key) || matchesWildcardAction(key, actions);
   }
 
@@ -248,7 +297,7 @@ public class PolicyBasedAuthorizationService implements AuthorizationService {
    * @param actions the allowed action patterns
    * @return <code>true</code> if the action matches
    */
-  private boolean matchesWildcardAction(final String key, final Collection<String> actions) {
+  static boolean matchesWildcardAction(final String key, final Collection<String> actions) {
     StringBuilder sb = new StringBuilder(key.length());
     for (String part : key.split(":")) {
       sb.append(part);
@@ -0,0 +1,390 @@
+package com.neverpile.common.authorization.policy.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.security.core.Authentication;
+import org.springframework.stereotype.Component;
+
+import com.neverpile.common.authorization.api.Action;
+import com.neverpile.common.authorization.api.AuthorizationContext;
+import com.neverpile.common.authorization.policy.AccessPolicy;
+import com.neverpile.common.authorization.policy.MutablePolicyRepository;
+import com.neverpile.common.authorization.policy.PolicyRepository;
+
+/**
+ * A simulator replaying a corpus of recorded authorization requests against two
+ * {@link AccessPolicy}s. It is intended to be used before an upcoming policy is saved via
+ * {@link MutablePolicyRepository#save(AccessPolicy)} in order to find out how it changes the access
+ * decisions compared to the current policy and whether it makes the evaluation slower.
+ * <p>
+ * The requests are evaluated in parallel on a dedicated {@link ForkJoinPool}. Each request is
+ * evaluated against both policies by the same worker, alternating the order in which the policies
+ * are evaluated, so that cache and JIT effects affect both policies alike.
+ */
+@Component
+public class PolicySimulator {
+  private static final Logger LOGGER = LoggerFactory.getLogger(PolicySimulator.class);
+
+  /**
+   * The number of requests below which a simulation task is no longer split.
+   */
+  private static final int SPLIT_THRESHOLD = 64;
+
+  /**
+   * A recorded authorization request.
+   */
+  public static class SimulatedRequest {
+    private final Authentication authentication;
+
+    private final String resourceSpecifier;
+
+    private final Set<Action> actions;
+
+    private final AuthorizationContext context;
+
+    /**
+     * Create a recorded request.
+     *
+     * @param authentication a snapshot of the caller's authentication or <code>null</code> for
+     *          anonymous callers
+     * @param resourceSpecifier the resource specifier indicating the targeted resource
+     * @param actions the actions that have been requested
+     * @param context the context of the request
+     */
+    public SimulatedRequest(final Authentication authentication, final String resourceSpecifier,
+        final Set<Action> actions, final AuthorizationContext context) {
+      this.authentication = authentication;
+      this.resourceSpecifier = resourceSpecifier;
+      this.actions = actions;
+      this.context = context;
+    }
+
+    public Authentication getAuthentication() {
+      return authentication;
+    }
+
+    public String getResourceSpecifier() {
+      return resourceSpecifier;
+    }
+
+    public Set<Action> getActions() {
+      return actions;
+    }
+
+    public AuthorizationContext getContext() {
+      return context;
+    }
+
+    @Override
+    public String toString() {
+      return "SimulatedRequest [principal=" + (null != authentication ? authentication.getName() : "anonymous")
+          + ", resource=" + resourceSpecifier + ", actions=" + actions + "]";
+    }
+  }
+
+  /**
+   * A request for which the two policies made different decisions.
+   */
+  public static class Difference {
+    private final int requestIndex;
+
+    private final SimulatedRequest request;
+
+    private final boolean baselineDecision;
+
+    private final boolean candidateDecision;
+
+    public Difference(final int requestIndex, final SimulatedRequest request, final boolean baselineDecision,
+        final boolean candidateDecision) {
+      this.requestIndex = requestIndex;
+      this.request = request;
+      this.baselineDecision = baselineDecision;
+      this.candidateDecision = candidateDecision;
+    }
+
+    /**
+     * Get the index of the request within the simulated corpus.
+     *
+     * @return the request index
+     */
+    public int getRequestIndex() {
+      return requestIndex;
+    }
+
+    public SimulatedRequest getRequest() {
+      return request;
+    }
+
+    public boolean isBaselineDecision() {
+      return baselineDecision;
+    }
+
+    public boolean isCandidateDecision() {
+      return candidateDecision;
+    }
+
+    @Override
+    public String toString() {
+      return "Difference [#" + requestIndex + " " + request + ": " + (baselineDecision ? "allowed" : "denied")
+          + " -> " + (candidateDecision ? "allowed" : "denied") + "]";
+    }
+  }
+
+  /**
+   * Evaluation latency statistics of one policy. All values are in nanoseconds.
+   */
+  public static class LatencyStatistics {
+    private final long[] sorted;
+
+    private final double mean;
+
+    LatencyStatistics(final long[] latencies) {
+      this.sorted = latencies.clone();
+      Arrays.sort(this.sorted);
+      this.mean = Arrays.stream(latencies).average().orElse(0);
+    }
+
+    /**
+     * Return the given percentile using the nearest-rank method.
+     *
+     * @param percentile the percentile between 0 (exclusive) and 100 (inclusive)
+     * @return the latency in nanoseconds
+     */
+    public long getPercentile(final double percentile) {
+      if (percentile <= 0 || percentile > 100)
+        throw new IllegalArgumentException("Percentile must be in (0, 100]");
+      if (sorted.length == 0)
+        return 0;
+
+      int rank = (int) Math.ceil(percentile / 100d * sorted.length);
+      return sorted[Math.max(0, rank - 1)];
+    }
+
+    public long getMedian() {
+      return getPercentile(50);
+    }
+
+    public long getP90() {
+      return getPercentile(90);
+    }
+
+    public long getP99() {
+      return getPercentile(99);
+    }
+
+    public long getMax() {
+      return sorted.length > 0 ? sorted[sorted.length - 1] : 0;
+    }
+
+    public double getMean() {
+      return mean;
+    }
+
+    @Override
+    public String toString() {
+      return "LatencyStatistics [p50=" + getMedian() + "ns, p90=" + getP90() + "ns, p99=" + getP99() + "ns, max="
+          + getMax() + "ns, mean=" + Math.round(mean) + "ns]";
+    }
+  }
+
+  /**
+   * The result of a simulation.
+   */
+  public static class SimulationReport {
+    private final int requestCount;
+
+    private final List<Difference> differences;
+
+    private final LatencyStatistics baselineLatency;
+
+    private final LatencyStatistics candidateLatency;
+
+    public SimulationReport(final int requestCount, final List<Difference> differences,
+        final LatencyStatistics baselineLatency, final LatencyStatistics candidateLatency) {
+      this.requestCount = requestCount;
+      this.differences = differences;
+      this.baselineLatency = baselineLatency;
+      this.candidateLatency = candidateLatency;
+    }
+
+    public int getRequestCount() {
+      return requestCount;
+    }
+
+    /**
+     * Get the requests for which the decisions differ in the order of the corpus.
+     *
+     * @return the list of differences, empty if the policies decided identically
+     */
+    public List<Difference> getDifferences() {
+      return differences;
+    }
+
+    public LatencyStatistics getBaselineLatency() {
+      return baselineLatency;
+    }
+
+    public LatencyStatistics getCandidateLatency() {
+      return candidateLatency;
+    }
+
+    @Override
+    public String toString() {
+      return "SimulationReport [requests=" + requestCount + ", differences=" + differences.size() + ", baseline="
+          + baselineLatency + ", candidate=" + candidateLatency + "]";
+    }
+  }
+
+  @Autowired
+  private PolicyBasedAuthorizationService authorizationService;
+
+  @Autowired(required = false)
+  private PolicyRepository policyRepository;
+
+  private int parallelism = Runtime.getRuntime().availableProcessors();
+
+  /**
+   * Replay the given corpus against the currently applicable policy and the given candidate
+   * policy.
+   *
+   * @param corpus the recorded requests
+   * @param candidate the candidate policy, usually an upcoming one
+   * @return the simulation report
+   */
+  public SimulationReport simulate(final List<SimulatedRequest> corpus, final AccessPolicy candidate) {
+    if (null == policyRepository)
+      throw new IllegalStateException("No PolicyRepository available to retrieve the current policy from");
+
+    return simulate(corpus, policyRepository.getCurrentPolicy(), candidate);
+  }
+
+  /**
+   * Replay the given corpus against the given baseline and candidate policies.
+   *
+   * @param corpus the recorded requests
+   * @param baseline the baseline policy, usually the current one
+   * @param candidate the candidate policy, usually an upcoming one
+   * @return the simulation report
+   */
+  public SimulationReport simulate(final List<SimulatedRequest> corpus, final AccessPolicy baseline,
+      final AccessPolicy candidate) {
+    Simulation simulation = new Simulation(corpus, baseline, candidate);
+
+    ForkJoinPool pool = new ForkJoinPool(parallelism);
+    try {
+      pool.invoke(simulation.new Task(0, corpus.size()));
+    } finally {
+      pool.shutdown();
+    }
+
+    List<Difference> differences = new ArrayList<>();
+    for (int i = 0; i < corpus.size(); i++)
+      if (simulation.baselineDecisions[i] != simulation.candidateDecisions[i])
+        differences.add(new Difference(i, corpus.get(i), simulation.baselineDecisions[i],
+            simulation.candidateDecisions[i]));
+
+    SimulationReport report = new SimulationReport(corpus.size(), Collections.unmodifiableList(differences),
+        new LatencyStatistics(simulation.baselineLatencies), new LatencyStatistics(simulation.candidateLatencies));
+
+    LOGGER.debug("Policy simulation finished: {}", report);
+
+    return report;
+  }
+
+  public int getParallelism() {
+    return parallelism;
+  }
+
+  /**
+   * Set the parallelism of the fork-join pool used for simulations. Defaults to the number of
+   * available processors.
+   *
+   * @param parallelism the parallelism
+   */
+  public void setParallelism(final int parallelism) {
+    if (parallelism < 1)
+      throw new IllegalArgumentException("Parallelism must be positive");
+    this.parallelism = parallelism;
+  }
+
+  private class Simulation {
+    private final List<SimulatedRequest> corpus;
+
+    private final AccessPolicy baseline;
+
+    private final AccessPolicy candidate;
+
+    // each task writes a disjoint range of these, so no synchronization is needed
+    private final boolean[] baselineDecisions;
+    private final boolean[] candidateDecisions;
+    private final long[] baselineLatencies;
+    private final long[] candidateLatencies;
+
+    Simulation(final List<SimulatedRequest> corpus, final AccessPolicy baseline, final AccessPolicy candidate) {
+      this.corpus = corpus;
+      this.baseline = baseline;
+      this.candidate = candidate;
+      this.baselineDecisions = new boolean[corpus.size()];
+      this.candidateDecisions = new boolean[corpus.size()];
+      this.baselineLatencies = new long[corpus.size()];
+      this.candidateLatencies = new long[corpus.size()];
+    }
+
+    private class Task extends RecursiveAction {
+      private static final long serialVersionUID = 1L;
+
+      private final int from;
+
+      private final int to;
+
+      Task(final int from, final int to) {
+        this.from = from;
+        this.to = to;
+      }
+
+      @Override
+      protected void compute() {
+        if (to - from > SPLIT_THRESHOLD) {
+          int mid = (from + to) >>> 1;
+          invokeAll(new Task(from, mid), new Task(mid, to));
+          return;
+        }
+
+        for (int i = from; i < to; i++) {
+          if ((i & 1) == 0) {
+            evaluateBaseline(i);
+            evaluateCandidate(i);
+          } else {
+            evaluateCandidate(i);
+            evaluateBaseline(i);
+          }
+        }
+      }
+
+      private void evaluateBaseline(final int i) {
+        SimulatedRequest r = corpus.get(i);
+        long start = System.nanoTime();
+        baselineDecisions[i] = authorizationService.isAccessAllowed(r.getResourceSpecifier(), r.getActions(),
+            r.getContext(), baseline, r.getAuthentication());
+        baselineLatencies[i] = System.nanoTime() - start;
+      }
+
+      private void evaluateCandidate(final int i) {
+        SimulatedRequest r = corpus.get(i);
+        long start = System.nanoTime();
+        candidateDecisions[i] = authorizationService.isAccessAllowed(r.getResourceSpecifier(), r.getActions(),
+            r.getContext(), candidate, r.getAuthentication());
+        candidateLatencies[i] = System.nanoTime() - start;
+      }
+    }
+  }
+}
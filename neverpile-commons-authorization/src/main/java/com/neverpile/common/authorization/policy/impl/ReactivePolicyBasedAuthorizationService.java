@@ -0,0 +1,71 @@
+package com.neverpile.common.authorization.policy.impl;
+
+import java.util.Optional;
+import java.util.Set;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
+import org.springframework.context.annotation.Import;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.ReactiveSecurityContextHolder;
+import org.springframework.stereotype.Component;
+
+import com.neverpile.common.authorization.api.Action;
+import com.neverpile.common.authorization.api.AuthorizationContext;
+import com.neverpile.common.authorization.api.Permission;
+import com.neverpile.common.authorization.api.ReactiveAuthorizationService;
+import com.neverpile.common.authorization.policy.AccessPolicy;
+import com.neverpile.common.authorization.policy.PolicyRepository;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * A {@link ReactiveAuthorizationService} making its decisions based on the current
+ * {@link AccessPolicy} just like the {@link PolicyBasedAuthorizationService} it delegates to. The
+ * authentication is taken from the {@link ReactiveSecurityContextHolder}, i.e. from the subscriber
+ * context instead of the thread-bound security context. Anonymous access is assumed if there is
+ * no authentication. An empty context {@link Mono} is treated like an
+ * {@link EmptyAuthorizationContext}.
+ * <p>
+ * The policy evaluation itself is CPU-bound and non-blocking, so that it is safe to run on
+ * event-loop threads, provided that the {@link PolicyRepository} serves the current policy from
+ * memory.
+ */
+@Component
+@ConditionalOnClass(name = "reactor.core.publisher.Mono")
+@Import(PolicyBasedAuthorizationService.class)
+public class ReactivePolicyBasedAuthorizationService implements ReactiveAuthorizationService {
+  @Autowired
+  private PolicyBasedAuthorizationService policyBasedAuthorizationService;
+
+  @Autowired
+  private PolicyRepository policyRepository;
+
+  @Override
+  public Mono<Boolean> isAccessAllowed(final String resourceSpecifier, final Set<Action> actions,
+      final Mono<? extends AuthorizationContext> context) {
+    return Mono.zip(currentAuthentication(), contextOrEmpty(context)) //
+        .map(t -> policyBasedAuthorizationService.isAccessAllowed(resourceSpecifier, actions, t.getT2(),
+            policyRepository.getCurrentPolicy(), t.getT1().orElse(null)));
+  }
+
+  @Override
+  public Flux<Permission> getPermissions(final String resourceSpecifier,
+      final Mono<? extends AuthorizationContext> context) {
+    return Mono.zip(currentAuthentication(), contextOrEmpty(context)) //
+        .flatMapIterable(t -> policyBasedAuthorizationService.getPermissions(resourceSpecifier, t.getT2(),
+            t.getT1().orElse(null)));
+  }
+
+  private Mono<AuthorizationContext> contextOrEmpty(final Mono<? extends AuthorizationContext> context) {
+    return context.cast(AuthorizationContext.class).defaultIfEmpty(new EmptyAuthorizationContext());
+  }
+
+  private Mono<Optional<Authentication>> currentAuthentication() {
+    return ReactiveSecurityContextHolder.getContext() //
+        .flatMap(c -> Mono.justOrEmpty(c.getAuthentication())) //
+        .map(Optional::of) //
+        .defaultIfEmpty(Optional.empty());
+  }
+}
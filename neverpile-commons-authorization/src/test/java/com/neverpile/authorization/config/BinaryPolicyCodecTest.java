@@ -0,0 +1,111 @@
+package com.neverpile.authorization.config;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.json.JsonTest;
+import org.springframework.context.annotation.Import;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.neverpile.common.authorization.policy.AccessPolicy;
+import com.neverpile.common.authorization.policy.AccessRule;
+import com.neverpile.common.authorization.policy.Effect;
+import com.neverpile.common.authorization.policy.impl.BinaryPolicyCodec;
+import com.neverpile.common.condition.Condition;
+import com.neverpile.common.condition.ConditionContext;
+import com.neverpile.common.condition.EqualsCondition;
+import com.neverpile.common.condition.RangeCondition;
+import com.neverpile.common.specifier.Specifier;
+
+@JsonTest
+@Import(BinaryPolicyCodec.class)
+public class BinaryPolicyCodecTest {
+  @Autowired
+  ObjectMapper mapper;
+
+  @Autowired
+  BinaryPolicyCodec codec;
+
+  @Test
+  public void testThat_examplePolicyRoundTripsToIdenticalJson() throws Exception {
+    assertRoundTrip(mapper.readValue(getClass().getResourceAsStream("example-policy.json"), AccessPolicy.class));
+  }
+
+  @Test
+  public void testThat_nestedCompositePolicyRoundTripsToIdenticalJson() throws Exception {
+    assertRoundTrip(mapper.readValue(getClass().getResourceAsStream("non-simple-composite-condition.json"),
+        AccessPolicy.class));
+  }
+
+  @Test
+  public void testThat_rangeConditionsRoundTrip() throws Exception {
+    AccessPolicy policy = new AccessPolicy() //
+        .withDefaultEffect(Effect.ALLOW) //
+        .withRule(new AccessRule() //
+            .withName("range") //
+            .withEffect(Effect.DENY) //
+            .withSubjects("*") //
+            .withResources("foo") //
+            .withCondition(new RangeCondition() //
+                .withPredicate("foo.bar", Arrays.asList(1, 10L)) //
+                .withPredicate("foo.baz", Arrays.asList("a", "m"))));
+
+    assertRoundTrip(policy);
+  }
+
+  @Test
+  public void testThat_nullComparisonValuesDecodeAsEmpty() throws Exception {
+    EqualsCondition condition = new EqualsCondition();
+    condition.getPredicates().put(Specifier.from("foo.bar"), null);
+
+    AccessPolicy decoded = codec.decode(
+        codec.encode(new AccessPolicy().withRule(new AccessRule().withName("null").withCondition(condition))));
+
+    Condition decodedCondition = decoded.getRules().get(0).getConditions().getConditions().get(0);
+    assertThat(decodedCondition).isInstanceOf(EqualsCondition.class);
+    assertThat(((EqualsCondition) decodedCondition).getPredicates()).containsEntry(Specifier.from("foo.bar"),
+        Arrays.asList());
+  }
+
+  @Test
+  public void testThat_stringsAreStoredOnce() throws Exception {
+    AccessPolicy policy = new AccessPolicy();
+    for (int i = 0; i < 100; i++)
+      policy.withRule(new AccessRule().withName("a-rather-long-rule-name").withSubjects("role:some-rather-long-role"));
+
+    // each repeated rule must be encoded in a handful of bytes
+    assertThat(codec.encode(policy).length).isLessThan(100 * 10);
+  }
+
+  @Test
+  public void testThat_unknownConditionIsRejected() {
+    AccessPolicy policy = new AccessPolicy().withRule(new AccessRule().withCondition(new Condition() {
+      @Override
+      public boolean matches(final ConditionContext context) {
+        return false;
+      }
+    }));
+
+    assertThrows(IllegalArgumentException.class, () -> codec.encode(policy));
+  }
+
+  @Test
+  public void testThat_malformedInputIsRejected() {
+    assertThrows(IOException.class, () -> codec.decode(new byte[]{'F', 'O', 'O'}));
+
+    byte[] truncated = Arrays.copyOf(codec.encode(new AccessPolicy().withDescription("foo")), 8);
+    assertThrows(IOException.class, () -> codec.decode(truncated));
+  }
+
+  private void assertRoundTrip(final AccessPolicy policy) throws IOException {
+    AccessPolicy decoded = codec.decode(codec.encode(policy));
+
+    assertThat(mapper.readTree(mapper.writeValueAsString(decoded))) //
+        .isEqualTo(mapper.readTree(mapper.writeValueAsString(policy)));
+  }
+}
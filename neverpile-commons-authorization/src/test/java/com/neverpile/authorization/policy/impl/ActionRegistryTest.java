@@ -0,0 +1,144 @@
+package com.neverpile.authorization.policy.impl;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Import;
+
+import com.neverpile.common.authorization.api.Action;
+import com.neverpile.common.authorization.api.CoreActions;
+import com.neverpile.common.authorization.policy.AccessPolicy;
+import com.neverpile.common.authorization.policy.AccessRule;
+import com.neverpile.common.authorization.policy.Effect;
+import com.neverpile.common.authorization.policy.PolicyRepository;
+import com.neverpile.common.authorization.policy.impl.ActionRegistry;
+import com.neverpile.common.authorization.policy.impl.ActionRegistry.CompiledPolicy;
+
+@Import(ActionRegistry.class)
+@SpringBootTest
+public class ActionRegistryTest {
+  @Autowired
+  ActionRegistry registry;
+
+  @Test
+  public void testThat_coreActionsArePreRegistered() {
+    int size = registry.size();
+
+    for (CoreActions a : CoreActions.values())
+      assertThat(registry.getKey(registry.intern(a.key()))).isEqualTo(a.key());
+
+    assertThat(registry.size()).isEqualTo(size);
+  }
+
+  @Test
+  public void testThat_idsAreDenseAndStable() {
+    int first = registry.intern("test:dense:a");
+    int second = registry.intern("test:dense:b");
+
+    assertThat(second).isEqualTo(first + 1);
+    assertThat(registry.intern("test:dense:a")).isEqualTo(first);
+  }
+
+  @Test
+  public void testThat_matchingFollowsWildcardSemantics() {
+    List<String> keys = Arrays.asList("core:GET", "core:sub:GET", "other:GET", "GET", "core", "core:*");
+    List<List<String>> patternLists = Arrays.asList( //
+        Arrays.asList("*"), //
+        Arrays.asList("core:GET"), //
+        Arrays.asList("core:*"), //
+        Arrays.asList("core:sub:*"), //
+        Arrays.asList("GET", "other:*"), //
+        Arrays.asList("core:GET:*"), //
+        Collections.emptyList());
+
+    boolean[][] expected = {
+        // core:GET, core:sub:GET, other:GET, GET, core, core:*
+        {true, true, true, true, true, true}, // *
+        {true, false, false, false, false, false}, // core:GET
+        {true, true, false, false, true, true}, // core:*
+        {false, true, false, false, false, false}, // core:sub:*
+        {false, false, true, true, false, false}, // GET, other:*
+        {true, false, false, false, false, false}, // core:GET:*
+        {false, false, false, false, false, false}, // nothing
+    };
+
+    for (int p = 0; p < patternLists.size(); p++) {
+      BitSet mask = registry.compile(patternLists.get(p));
+      for (int k = 0; k < keys.size(); k++)
+        assertThat(registry.matches(keys.get(k), mask)) //
+            .describedAs("%s matched by %s", keys.get(k), patternLists.get(p)) //
+            .isEqualTo(expected[p][k]);
+    }
+  }
+
+  @Test
+  public void testThat_compiledPoliciesAreCachedAndInvalidated() {
+    AccessPolicy policy = new AccessPolicy() //
+        .withRule(new AccessRule().withEffect(Effect.ALLOW).withActions(CoreActions.GET));
+
+    CompiledPolicy compiled = registry.compile(policy);
+    assertThat(registry.compile(policy)).isSameAs(compiled);
+    assertThat(compiled.matches(0, registry.getMatchingPatternIds(CoreActions.GET.key()))).isTrue();
+    assertThat(compiled.matches(0, registry.getMatchingPatternIds(CoreActions.DELETE.key()))).isFalse();
+
+    // modifications are picked up
+    policy.getRules().get(0).getActions().add(CoreActions.DELETE.key());
+    CompiledPolicy recompiled = registry.compile(policy);
+    assertThat(recompiled).isNotSameAs(compiled);
+    assertThat(recompiled.matches(0, registry.getMatchingPatternIds(CoreActions.DELETE.key()))).isTrue();
+  }
+
+  @Test
+  public void testThat_compiledPoliciesAreRecognizedAcrossInstances() {
+    Instant validFrom = Instant.parse("2024-01-01T00:00:00Z");
+
+    // a repository deserializing the policy on every lookup
+    PolicyRepository repository = () -> new AccessPolicy() //
+        .withValidFrom(validFrom) //
+        .withRule(new AccessRule().withEffect(Effect.ALLOW).withActions(CoreActions.GET));
+
+    CompiledPolicy compiled = registry.compile(repository.getCurrentPolicy());
+    assertThat(registry.compile(repository.getCurrentPolicy())).isSameAs(compiled);
+
+    // a policy valid from a different point in time is a different one
+    assertThat(registry.compile(repository.getCurrentPolicy().withValidFrom(validFrom.plusSeconds(1)))) //
+        .isNotSameAs(compiled);
+
+    // as is one with different actions
+    AccessPolicy modified = repository.getCurrentPolicy();
+    modified.getRules().get(0).getActions().add(CoreActions.DELETE.key());
+    CompiledPolicy recompiled = registry.compile(modified);
+    assertThat(recompiled).isNotSameAs(compiled);
+    assertThat(recompiled.matches(0, registry.getMatchingPatternIds(CoreActions.DELETE.key()))).isTrue();
+  }
+
+  @Test
+  public void testThat_unknownKeysAreNotInterned() {
+    BitSet mask = registry.compile(Arrays.asList("dynamic:*"));
+    int size = registry.size();
+
+    for (int i = 0; i < 100; i++) {
+      assertThat(registry.matches("dynamic:" + i + ":GET", mask)).isTrue();
+      assertThat(registry.matches("static:" + i + ":GET", mask)).isFalse();
+    }
+
+    assertThat(registry.size()).isEqualTo(size);
+  }
+
+  @Test
+  public void testThat_anyAndCoreActionsAreInterned() {
+    assertThat(Action.of("*")).isSameAs(Action.ANY);
+    assertThat(Action.of(CoreActions.GET.key())).isSameAs(Action.of(CoreActions.GET.key()));
+
+    assertThat(Action.of("foo:bar")).isEqualTo(Action.of("foo:bar"));
+    assertThat(Action.of("foo:bar")).isNotEqualTo(Action.of("foo:baz"));
+  }
+}
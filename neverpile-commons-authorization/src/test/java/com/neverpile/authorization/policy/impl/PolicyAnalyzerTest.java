@@ -0,0 +1,196 @@
+package com.neverpile.authorization.policy.impl;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
+import org.springframework.security.authentication.TestingAuthenticationToken;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+import com.neverpile.common.authorization.api.Action;
+import com.neverpile.common.authorization.api.CoreActionHints;
+import com.neverpile.common.authorization.api.CoreActions;
+import com.neverpile.common.authorization.policy.AccessPolicy;
+import com.neverpile.common.authorization.policy.AccessRule;
+import com.neverpile.common.authorization.policy.Effect;
+import com.neverpile.common.authorization.policy.PolicyRepository;
+import com.neverpile.common.authorization.policy.impl.AuthorityAuthenticationMatcher;
+import com.neverpile.common.authorization.policy.impl.EmptyAuthorizationContext;
+import com.neverpile.common.authorization.policy.impl.PolicyAnalyzer;
+import com.neverpile.common.authorization.policy.impl.PolicyAnalyzer.Finding;
+import com.neverpile.common.authorization.policy.impl.PolicyAnalyzer.FindingType;
+import com.neverpile.common.authorization.policy.impl.PolicyBasedAuthorizationService;
+import com.neverpile.common.condition.EqualsCondition;
+import com.neverpile.common.condition.ExistsCondition;
+import com.neverpile.common.condition.FalseCondition;
+import com.neverpile.common.condition.OrCondition;
+import com.neverpile.common.condition.RangeCondition;
+import com.neverpile.common.condition.TrueCondition;
+
+@Import({
+    PolicyAnalyzer.class, PolicyBasedAuthorizationService.class, AuthorityAuthenticationMatcher.class,
+    CoreActionHints.class
+})
+@SpringBootTest
+public class PolicyAnalyzerTest {
+  @Autowired
+  PolicyAnalyzer analyzer;
+
+  @Autowired
+  PolicyBasedAuthorizationService authService;
+
+  @MockBean
+  PolicyRepository mockPolicyRepository;
+
+  @AfterEach
+  public void clearAuthentication() {
+    SecurityContextHolder.clearContext();
+  }
+
+  @Test
+  public void testThat_unsatisfiableRulesAreDetected() {
+    AccessPolicy policy = new AccessPolicy() //
+        .withRule(rule(Effect.ALLOW, "*", "foo", "core:GET").withCondition(new OrCondition())) //
+        .withRule(rule(Effect.ALLOW, "*", "foo", "core:GET") //
+            .withCondition(new TrueCondition().withTarget("foo.bar")) //
+            .withCondition(new FalseCondition().withTarget("foo.bar"))) //
+        .withRule(rule(Effect.ALLOW, "*", "foo", "core:GET") //
+            .withCondition(new RangeCondition().withPredicate("foo.bar", Arrays.<Comparable<?>> asList(10, 1)))) //
+        .withRule(rule(Effect.ALLOW, "*", "foo", "core:GET") //
+            .withCondition(new RangeCondition().withPredicate("foo.bar", Arrays.<Comparable<?>> asList(1, 5))) //
+            .withCondition(new RangeCondition().withPredicate("foo.bar", Arrays.<Comparable<?>> asList(6, 10)))) //
+        .withRule(rule(Effect.ALLOW, "*", "foo", "core:GET") //
+            .withCondition(new EqualsCondition().withPredicate("foo.bar", "a")) //
+            .withCondition(new EqualsCondition().withPredicate("foo.bar", "b"))) //
+        .withRule(new AccessRule().withEffect(Effect.ALLOW).withSubjects("*").withResources("foo"));
+
+    assertThat(analyzer.analyze(policy)).extracting(Finding::getType).containsOnly(FindingType.UNSATISFIABLE);
+    assertThat(analyzer.analyze(policy)).extracting(Finding::getRuleIndex).containsExactly(0, 1, 2, 3, 4, 5);
+    assertThat(analyzer.optimize(policy).getRules()).isEmpty();
+  }
+
+  @Test
+  public void testThat_satisfiableConditionsAreNotReported() {
+    EqualsCondition aOrB = new EqualsCondition();
+    aOrB.addPredicate("foo.bar", Arrays.<Object> asList("a", "b"));
+
+    AccessPolicy policy = new AccessPolicy() //
+        .withRule(rule(Effect.ALLOW, "*", "foo", "core:GET") //
+            .withCondition(new RangeCondition().withPredicate("foo.bar", Arrays.<Comparable<?>> asList(1, 5))) //
+            .withCondition(new RangeCondition().withPredicate("foo.bar", Arrays.<Comparable<?>> asList(5, 10))) //
+            .withCondition(new FalseCondition().withTarget("foo.baz")) //
+            .withCondition(aOrB) //
+            .withCondition(new EqualsCondition().withPredicate("foo.bar", "b")));
+
+    assertThat(analyzer.analyze(policy)).isEmpty();
+  }
+
+  @Test
+  public void testThat_duplicateAndShadowedRulesAreDetected() {
+    AccessPolicy policy = new AccessPolicy() //
+        .withRule(rule(Effect.ALLOW, "role:admin", "*", "core:*")) //
+        .withRule(rule(Effect.DENY, "role:admin", "foo.bar", "core:GET")) // shadowed by #0
+        .withRule(rule(Effect.ALLOW, "role:user", "foo", "core:GET", "core:QUERY")) //
+        .withRule(rule(Effect.ALLOW, "role:user", "foo", "core:QUERY", "core:GET")) // duplicate of #2
+        .withRule(rule(Effect.DENY, "role:user", "foo.bar", "core:GET", "core:DELETE") //
+            .withCondition(new ExistsCondition().withTarget("foo.baz"))) // partly shadowed by #2
+        .withRule(rule(Effect.DENY, "role:user", "foo", "core:DELETE")); // not shadowed: #4 has conditions
+
+    List<Finding> findings = analyzer.analyze(policy);
+
+    assertThat(findings).extracting(Finding::getType).containsExactly(FindingType.SHADOWED, FindingType.DUPLICATE,
+        FindingType.REDUNDANT_ACTIONS);
+    assertThat(findings).extracting(Finding::getRuleIndex).containsExactly(1, 3, 4);
+    assertThat(findings.get(0).getRelatedRuleIndices()).containsExactly(0);
+    assertThat(findings.get(1).getRelatedRuleIndices()).containsExactly(2);
+    assertThat(findings.get(2).getActions()).containsExactly("core:GET");
+
+    AccessPolicy optimized = analyzer.optimize(policy);
+    assertThat(optimized.getRules()).hasSize(4);
+    assertThat(optimized.getRules().get(2).getActions()).containsExactly("core:DELETE");
+
+    // the original policy is left alone
+    assertThat(policy.getRules()).hasSize(6);
+    assertThat(policy.getRules().get(4).getActions()).containsExactly("core:GET", "core:DELETE");
+  }
+
+  @Test
+  public void testThat_claimSubjectsAreOnlyCoveredByIdenticalSequences() {
+    AccessPolicy policy = new AccessPolicy() //
+        .withRule(rule(Effect.ALLOW, Arrays.asList("claim:foo", "claim:bar"), "*", "*")) //
+        .withRule(rule(Effect.DENY, Arrays.asList("claim:bar"), "*", "*")) //
+        .withRule(rule(Effect.DENY, Arrays.asList("claim:foo", "claim:bar", "role:x"), "*", "*")) //
+        .withRule(rule(Effect.DENY, Arrays.asList("claim:foo", "claim:bar"), "*", "*"));
+
+    assertThat(analyzer.analyze(policy)).extracting(Finding::getRuleIndex).containsExactly(3);
+  }
+
+  @Test
+  public void testThat_unknownActionsAreReportedButKept() {
+    AccessPolicy policy = new AccessPolicy() //
+        .withRule(rule(Effect.ALLOW, "*", "foo", "core:GET")) //
+        .withRule(rule(Effect.ALLOW, "*", "foo", "core:FROBNICATE"));
+
+    assertThat(analyzer.analyze(policy)).extracting(Finding::getType).containsExactly(FindingType.UNKNOWN_ACTIONS);
+    assertThat(analyzer.optimize(policy).getRules()).hasSize(2);
+  }
+
+  @Test
+  public void testThat_optimizedPolicyMakesIdenticalDecisions() {
+    AccessPolicy policy = new AccessPolicy() //
+        .withDefaultEffect(Effect.DENY) //
+        .withRule(rule(Effect.DENY, "principal:mallory", "*", "*")) //
+        .withRule(rule(Effect.ALLOW, "role:admin", "*", "core:*")) //
+        .withRule(rule(Effect.DENY, "role:admin", "foo.bar", "core:DELETE")) //
+        .withRule(rule(Effect.ALLOW, "authenticated", "foo", "core:GET")) //
+        .withRule(rule(Effect.ALLOW, "role:user", "foo", "core:GET", "core:QUERY")) //
+        .withRule(rule(Effect.ALLOW, "role:user", "foo", "core:QUERY", "core:GET")) //
+        .withRule(rule(Effect.DENY, "anonymous", "foo", "core:GET")) //
+        .withRule(rule(Effect.ALLOW, "*", "foo.bar", "core:GET")) //
+        .withRule(rule(Effect.DENY, "role:user", "foo.bar.baz", "core:UPDATE", "core:GET"));
+
+    AccessPolicy optimized = analyzer.optimize(policy);
+    assertThat(optimized.getRules().size()).isLessThan(policy.getRules().size());
+
+    EmptyAuthorizationContext eac = new EmptyAuthorizationContext();
+    List<TestingAuthenticationToken> callers = Arrays.asList(null, //
+        new TestingAuthenticationToken("mallory", "", "user"), //
+        new TestingAuthenticationToken("alice", "", "admin"), //
+        new TestingAuthenticationToken("bob", "", "user"), //
+        new TestingAuthenticationToken("carol", ""));
+
+    for (TestingAuthenticationToken caller : callers) {
+      SecurityContextHolder.getContext().setAuthentication(caller);
+      for (String resource : Arrays.asList("foo", "foo.bar", "foo.bar.baz", "bar")) {
+        for (CoreActions a : CoreActions.values()) {
+          Set<Action> actions = Stream.of(a).collect(Collectors.toSet());
+          assertThat(authService.isAccessAllowed(resource, actions, eac, optimized)) //
+              .describedAs("%s on %s by %s", a, resource, caller) //
+              .isEqualTo(authService.isAccessAllowed(resource, actions, eac, policy));
+        }
+      }
+    }
+  }
+
+  private AccessRule rule(final Effect effect, final String subject, final String resource, final String... actions) {
+    return rule(effect, Arrays.asList(subject), resource, actions);
+  }
+
+  private AccessRule rule(final Effect effect, final List<String> subjects, final String resource,
+      final String... actions) {
+    AccessRule r = new AccessRule().withEffect(effect).withResources(resource);
+    r.setSubjects(subjects);
+    r.setActions(Arrays.asList(actions));
+    return r;
+  }
+}
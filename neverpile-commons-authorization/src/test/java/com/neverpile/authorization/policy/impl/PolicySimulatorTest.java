@@ -0,0 +1,90 @@
+package com.neverpile.authorization.policy.impl;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.BDDMockito.given;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
+import org.springframework.security.authentication.TestingAuthenticationToken;
+
+import com.neverpile.common.authorization.api.Action;
+import com.neverpile.common.authorization.api.CoreActions;
+import com.neverpile.common.authorization.policy.AccessPolicy;
+import com.neverpile.common.authorization.policy.AccessRule;
+import com.neverpile.common.authorization.policy.Effect;
+import com.neverpile.common.authorization.policy.PolicyRepository;
+import com.neverpile.common.authorization.policy.impl.AuthorityAuthenticationMatcher;
+import com.neverpile.common.authorization.policy.impl.EmptyAuthorizationContext;
+import com.neverpile.common.authorization.policy.impl.PolicyBasedAuthorizationService;
+import com.neverpile.common.authorization.policy.impl.PolicySimulator;
+import com.neverpile.common.authorization.policy.impl.PolicySimulator.Difference;
+import com.neverpile.common.authorization.policy.impl.PolicySimulator.SimulatedRequest;
+import com.neverpile.common.authorization.policy.impl.PolicySimulator.SimulationReport;
+
+@Import({
+    PolicySimulator.class, PolicyBasedAuthorizationService.class, AuthorityAuthenticationMatcher.class
+})
+@SpringBootTest
+public class PolicySimulatorTest {
+  @Autowired
+  PolicySimulator simulator;
+
+  @MockBean
+  PolicyRepository mockPolicyRepository;
+
+  @Test
+  public void testThat_decisionDifferencesAreReported() {
+    AccessPolicy current = new AccessPolicy() //
+        .withRule(new AccessRule().withEffect(Effect.ALLOW).withSubjects("role:user").withResources("foo") //
+            .withActions(Action.ANY));
+    AccessPolicy upcoming = new AccessPolicy() //
+        .withRule(new AccessRule().withEffect(Effect.DENY).withSubjects("role:user").withResources("foo") //
+            .withActions(CoreActions.DELETE)) //
+        .withRule(new AccessRule().withEffect(Effect.ALLOW).withSubjects("role:user").withResources("foo") //
+            .withActions(Action.ANY));
+
+    given(mockPolicyRepository.getCurrentPolicy()).willReturn(current);
+
+    EmptyAuthorizationContext eac = new EmptyAuthorizationContext();
+    List<SimulatedRequest> corpus = new ArrayList<>();
+    for (int i = 0; i < 1000; i++) {
+      CoreActions action = CoreActions.values()[i % CoreActions.values().length];
+      corpus.add(new SimulatedRequest(new TestingAuthenticationToken("user" + i, "", "user"), "foo.bar" + i,
+          Collections.singleton(action), eac));
+    }
+    // anonymous callers are denied by both
+    corpus.add(new SimulatedRequest(null, "foo", Collections.singleton(CoreActions.DELETE), eac));
+
+    SimulationReport report = simulator.simulate(corpus, upcoming);
+
+    assertThat(report.getRequestCount()).isEqualTo(1001);
+    assertThat(report.getDifferences()).hasSize(1000 / CoreActions.values().length + 1);
+    assertThat(report.getDifferences()).allMatch(d -> d.isBaselineDecision() && !d.isCandidateDecision());
+    assertThat(report.getDifferences()).extracting(Difference::getRequest).allMatch(
+        r -> r.getActions().contains(CoreActions.DELETE));
+
+    assertThat(report.getBaselineLatency().getP99()).isGreaterThanOrEqualTo(report.getBaselineLatency().getMedian());
+    assertThat(report.getCandidateLatency().getMax()).isGreaterThanOrEqualTo(report.getCandidateLatency().getP90());
+  }
+
+  @Test
+  public void testThat_identicalPoliciesHaveNoDifferences() {
+    AccessPolicy policy = new AccessPolicy() //
+        .withRule(new AccessRule().withEffect(Effect.ALLOW).withSubjects("*").withResources("foo") //
+            .withActions(CoreActions.GET));
+
+    List<SimulatedRequest> corpus = new ArrayList<>();
+    for (int i = 0; i < 10; i++)
+      corpus.add(new SimulatedRequest(null, "foo", Collections.singleton(CoreActions.values()[i % 3]),
+          new EmptyAuthorizationContext()));
+
+    assertThat(simulator.simulate(corpus, policy, policy).getDifferences()).isEmpty();
+  }
+}
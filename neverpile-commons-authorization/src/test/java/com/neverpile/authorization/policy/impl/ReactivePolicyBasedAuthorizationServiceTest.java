@@ -0,0 +1,98 @@
+package com.neverpile.authorization.policy.impl;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.BDDMockito.given;
+
+import java.util.Collections;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
+import org.springframework.security.authentication.TestingAuthenticationToken;
+import org.springframework.security.core.context.ReactiveSecurityContextHolder;
+
+import com.neverpile.common.authorization.api.AuthorizationContext;
+import com.neverpile.common.authorization.api.CoreActions;
+import com.neverpile.common.authorization.api.Permission;
+import com.neverpile.common.authorization.api.ReactiveAuthorizationContextContributor;
+import com.neverpile.common.authorization.policy.AccessPolicy;
+import com.neverpile.common.authorization.policy.AccessRule;
+import com.neverpile.common.authorization.policy.Effect;
+import com.neverpile.common.authorization.policy.PolicyRepository;
+import com.neverpile.common.authorization.policy.impl.AuthorityAuthenticationMatcher;
+import com.neverpile.common.authorization.policy.impl.ReactivePolicyBasedAuthorizationService;
+import com.neverpile.common.authorization.policy.impl.SingleValueAuthorizationContext;
+import com.neverpile.common.condition.EqualsCondition;
+
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+@Import({
+    ReactivePolicyBasedAuthorizationService.class, AuthorityAuthenticationMatcher.class
+})
+@SpringBootTest
+public class ReactivePolicyBasedAuthorizationServiceTest {
+  @Autowired
+  ReactivePolicyBasedAuthorizationService authService;
+
+  @MockBean
+  PolicyRepository mockPolicyRepository;
+
+  @BeforeEach
+  public void init() {
+    given(mockPolicyRepository.getCurrentPolicy()).willReturn(new AccessPolicy() //
+        .withRule(new AccessRule() //
+            .withEffect(Effect.ALLOW) //
+            .withSubjects("role:USER") //
+            .withResources("foo") //
+            .withActions(CoreActions.GET) //
+            .withCondition(new EqualsCondition().withPredicate("foo.owner", "user"))) //
+        .withRule(new AccessRule() //
+            .withEffect(Effect.ALLOW) //
+            .withSubjects("anonymous") //
+            .withResources("foo") //
+            .withActions(CoreActions.QUERY)));
+  }
+
+  @Test
+  public void testThat_authenticationIsTakenFromReactiveContext() {
+    Mono<AuthorizationContext> ctx = Mono.just(new SingleValueAuthorizationContext("foo.owner", "user"));
+
+    assertThat(authService.isAccessAllowed("foo", Collections.singleton(CoreActions.GET), ctx) //
+        .contextWrite(ReactiveSecurityContextHolder.withAuthentication(
+            new TestingAuthenticationToken("user", "", "USER"))) //
+        .block()).isTrue();
+
+    // no authentication -> anonymous
+    assertThat(authService.isAccessAllowed("foo", Collections.singleton(CoreActions.GET), ctx).block()).isFalse();
+    assertThat(authService.isAccessAllowed("foo", Collections.singleton(CoreActions.QUERY), ctx).block()).isTrue();
+  }
+
+  @Test
+  public void testThat_asynchronousContextContributorsAreSupported() {
+    ReactiveAuthorizationContextContributor<String> contributor = owner -> Mono
+        .fromSupplier(() -> (AuthorizationContext) new SingleValueAuthorizationContext("foo.owner", owner)) //
+        .subscribeOn(Schedulers.parallel());
+
+    assertThat(authService.isAccessAllowed("foo", Collections.singleton(CoreActions.GET),
+        contributor.contributeAuthorizationContext("user")) //
+        .contextWrite(ReactiveSecurityContextHolder.withAuthentication(
+            new TestingAuthenticationToken("user", "", "USER"))) //
+        .block()).isTrue();
+
+    assertThat(authService.isAccessAllowed("foo", Collections.singleton(CoreActions.GET),
+        contributor.contributeAuthorizationContext("someone-else")) //
+        .contextWrite(ReactiveSecurityContextHolder.withAuthentication(
+            new TestingAuthenticationToken("user", "", "USER"))) //
+        .block()).isFalse();
+  }
+
+  @Test
+  public void testThat_permissionsAreEmitted() {
+    assertThat(authService.getPermissions("foo", Mono.empty()).collectList().block()) //
+        .containsExactly(Permission.allow(CoreActions.QUERY.key()));
+  }
+}
@@ -0,0 +1,75 @@
+package com.neverpile.common.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.neverpile.common.authorization.api.AuthorizationContext;
+import com.neverpile.common.authorization.policy.AccessPolicy;
+import com.neverpile.common.authorization.policy.AccessRule;
+import com.neverpile.common.condition.Condition;
+
+/**
+ * Benchmarks for {@link Condition#matches(com.neverpile.common.condition.ConditionContext)} with
+ * synthetic condition trees of varying depth against contexts of varying size.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConditionBenchmark {
+  /**
+   * The number of pre-generated conditions and contexts, must be a power of two.
+   */
+  private static final int COUNT = 256;
+
+  @Param({
+      "1", "2", "4", "6"
+  })
+  public int conditionDepth;
+
+  @Param({
+      "4", "64", "1024"
+  })
+  public int contextSize;
+
+  private Condition[] conditions;
+
+  private AuthorizationContext[] contexts;
+
+  private int next;
+
+  @Setup(Level.Trial)
+  public void setup() {
+    SyntheticPolicyGenerator generator = new SyntheticPolicyGenerator(4711) //
+        .withRuleCount(COUNT) //
+        .withConditionDepth(conditionDepth) //
+        .withContextSize(contextSize);
+
+    AccessPolicy policy = generator.generatePolicy();
+    conditions = policy.getRules().stream().map(AccessRule::getConditions).toArray(Condition[]::new);
+
+    contexts = new AuthorizationContext[COUNT];
+    for (int i = 0; i < COUNT; i++)
+      contexts[i] = generator.generateContext();
+  }
+
+  @Benchmark
+  public boolean matches() {
+    int i = next++ & (COUNT - 1);
+    return conditions[i].matches(contexts[i]);
+  }
+}
@@ -0,0 +1,87 @@
+package com.neverpile.common.benchmarks;
+
+/**
+ * A histogram of latencies in nanoseconds with logarithmic buckets, each of which is subdivided
+ * into {@value #SUB_BUCKETS} linear sub-buckets. Percentiles are therefore accurate to about 3%,
+ * at a constant memory footprint regardless of the number of recorded values.
+ * <p>
+ * Histograms are not thread-safe. Concurrent recorders should use a histogram each and
+ * {@link #add(LatencyHistogram) merge} them afterwards.
+ */
+public class LatencyHistogram {
+  private static final int SUB_BUCKET_BITS = 5;
+
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+  private final long[] counts = new long[64 * SUB_BUCKETS];
+
+  private long count;
+
+  private long max;
+
+  /**
+   * Record the given latency.
+   *
+   * @param nanos the latency in nanoseconds
+   */
+  public void record(final long nanos) {
+    long value = Math.max(0, nanos);
+    counts[index(value)]++;
+    count++;
+    max = Math.max(max, value);
+  }
+
+  /**
+   * Add all values recorded by the given histogram to this one.
+   *
+   * @param other the other histogram
+   */
+  public void add(final LatencyHistogram other) {
+    for (int i = 0; i < counts.length; i++)
+      counts[i] += other.counts[i];
+    count += other.count;
+    max = Math.max(max, other.max);
+  }
+
+  public long getCount() {
+    return count;
+  }
+
+  public long getMax() {
+    return max;
+  }
+
+  /**
+   * Return the given percentile, i.e. the upper bound of the bucket containing it.
+   *
+   * @param percentile the percentile, between 0 and 100
+   * @return the percentile in nanoseconds or zero if nothing has been recorded
+   */
+  public long getPercentile(final double percentile) {
+    long rank = (long) Math.ceil(percentile / 100 * count);
+    long seen = 0;
+    for (int i = 0; i < counts.length; i++) {
+      seen += counts[i];
+      if (seen > 0 && seen >= rank)
+        return Math.min(upperBound(i), max);
+    }
+    return 0;
+  }
+
+  private static int index(final long value) {
+    if (value < SUB_BUCKETS)
+      return (int) value;
+
+    // the bucket is determined by the highest bit set, the sub-bucket by the bits below it
+    int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+    return (shift + 1) * SUB_BUCKETS + (int) ((value >>> shift) - SUB_BUCKETS);
+  }
+
+  private static long upperBound(final int index) {
+    if (index < SUB_BUCKETS)
+      return index;
+
+    int shift = index / SUB_BUCKETS - 1;
+    return ((long) (index % SUB_BUCKETS + SUB_BUCKETS + 1) << shift) - 1;
+  }
+}
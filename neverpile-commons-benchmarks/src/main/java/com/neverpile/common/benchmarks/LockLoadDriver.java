@@ -0,0 +1,221 @@
+package com.neverpile.common.benchmarks;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.neverpile.common.benchmarks.LockServiceFixture.Implementation;
+import com.neverpile.common.locking.LockService;
+import com.neverpile.common.locking.LockService.LockLostException;
+import com.neverpile.common.locking.LockService.LockRequestResult;
+
+/**
+ * A load driver for the {@link LockService} implementations simulating many concurrent clients,
+ * each of which runs on a virtual thread of its own. Unlike the {@link LockServiceBenchmark} it
+ * drives realistic lock lifecycles: every client repeatedly acquires a lock, verifies and extends
+ * it while holding it for a while, and releases it again. Acquisitions target one of a few hot
+ * scopes shared by all clients with the given probability and a scope private to the client
+ * otherwise.
+ * <p>
+ * The throughput and latency percentiles of every operation are printed once the run is complete.
+ * Run with
+ *
+ * <pre>
+ * java -cp target/benchmarks.jar com.neverpile.common.benchmarks.LockLoadDriver [options]
+ * </pre>
+ *
+ * The options are:
+ * <dl>
+ * <dt><code>--implementation=MEMORY|JPA|JPA_CACHED</code></dt>
+ * <dd>the implementation under test, default: <code>JPA</code></dd>
+ * <dt><code>--clients=&lt;n&gt;</code></dt>
+ * <dd>the number of concurrent clients, default: 64</dd>
+ * <dt><code>--duration=&lt;ISO-8601 duration&gt;</code></dt>
+ * <dd>the duration of the measurement, default: <code>PT30S</code></dd>
+ * <dt><code>--warmup=&lt;ISO-8601 duration&gt;</code></dt>
+ * <dd>the duration of the warmup preceding the measurement, default: <code>PT10S</code></dd>
+ * <dt><code>--contention=&lt;probability&gt;</code></dt>
+ * <dd>the probability of an acquisition targeting a hot scope, default: 0.1</dd>
+ * <dt><code>--hot-scopes=&lt;n&gt;</code></dt>
+ * <dd>the number of hot scopes, default: 4</dd>
+ * <dt><code>--hold-time=&lt;ISO-8601 duration&gt;</code></dt>
+ * <dd>the time a lock is held between its extension and release, default: <code>PT0.001S</code></dd>
+ * </dl>
+ * All other options of the form <code>--&lt;key&gt;=&lt;value&gt;</code> are passed to the lock
+ * service's application context as properties, e.g.
+ * <code>--spring.datasource.hikari.maximum-pool-size=32</code>.
+ */
+public class LockLoadDriver {
+  private enum Operation {
+    ACQUIRE, VERIFY, EXTEND, RELEASE
+  }
+
+  /**
+   * The statistics gathered by a single client.
+   */
+  private static class ClientStatistics {
+    private final Map<Operation, LatencyHistogram> latencies = new EnumMap<>(Operation.class);
+
+    private long conflicts;
+
+    private long lost;
+
+    ClientStatistics() {
+      for (Operation operation : Operation.values())
+        latencies.put(operation, new LatencyHistogram());
+    }
+
+    void add(final ClientStatistics other) {
+      other.latencies.forEach((operation, histogram) -> latencies.get(operation).add(histogram));
+      conflicts += other.conflicts;
+      lost += other.lost;
+    }
+  }
+
+  private final Implementation implementation;
+
+  private final int clients;
+
+  private final Duration duration;
+
+  private final Duration warmup;
+
+  private final double contention;
+
+  private final int hotScopes;
+
+  private final Duration holdTime;
+
+  private final Map<String, String> properties;
+
+  LockLoadDriver(final Map<String, String> options) {
+    Map<String, String> remaining = new LinkedHashMap<>(options);
+    implementation = Implementation.valueOf(remaining.getOrDefault("implementation", "JPA").toUpperCase());
+    clients = Integer.parseInt(remaining.getOrDefault("clients", "64"));
+    duration = Duration.parse(remaining.getOrDefault("duration", "PT30S"));
+    warmup = Duration.parse(remaining.getOrDefault("warmup", "PT10S"));
+    contention = Double.parseDouble(remaining.getOrDefault("contention", "0.1"));
+    hotScopes = Integer.parseInt(remaining.getOrDefault("hot-scopes", "4"));
+    holdTime = Duration.parse(remaining.getOrDefault("hold-time", "PT0.001S"));
+
+    for (String option : List.of("implementation", "clients", "duration", "warmup", "contention", "hot-scopes",
+        "hold-time"))
+      remaining.remove(option);
+    properties = remaining;
+  }
+
+  public static void main(final String[] args) throws Exception {
+    Map<String, String> options = new LinkedHashMap<>();
+    for (String arg : args) {
+      int eq = arg.indexOf('=');
+      if (!arg.startsWith("--") || eq < 0)
+        throw new IllegalArgumentException("Options must be given as --<key>=<value>: " + arg);
+      options.put(arg.substring(2, eq), arg.substring(eq + 1));
+    }
+
+    new LockLoadDriver(options).run();
+  }
+
+  void run() throws Exception {
+    System.out.printf("%s: %d clients, contention %.2f on %d hot scopes, hold time %s%n", implementation, clients,
+        contention, hotScopes, holdTime);
+
+    try (LockServiceFixture fixture = new LockServiceFixture(implementation, properties)) {
+      LockService lockService = fixture.getLockService();
+
+      System.out.printf("Warming up for %s%n", warmup);
+      drive(lockService, warmup);
+
+      System.out.printf("Measuring for %s%n", duration);
+      long start = System.nanoTime();
+      ClientStatistics statistics = drive(lockService, duration);
+      double seconds = (System.nanoTime() - start) / 1e9;
+
+      report(statistics, seconds);
+    }
+  }
+
+  private ClientStatistics drive(final LockService lockService, final Duration runTime) throws Exception {
+    long deadline = System.nanoTime() + runTime.toNanos();
+
+    List<Future<ClientStatistics>> results = new ArrayList<>();
+    try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+      for (int i = 0; i < clients; i++) {
+        int n = i;
+        results.add(executor.submit(() -> client(lockService, n, deadline)));
+      }
+    }
+
+    ClientStatistics total = new ClientStatistics();
+    for (Future<ClientStatistics> result : results)
+      total.add(result.get());
+    return total;
+  }
+
+  private ClientStatistics client(final LockService lockService, final int n, final long deadline)
+      throws InterruptedException {
+    ClientStatistics statistics = new ClientStatistics();
+    SplittableRandom random = new SplittableRandom();
+    String ownerId = "client-" + n;
+    String privateScope = "private-" + n;
+
+    while (System.nanoTime() < deadline) {
+      String scope = random.nextDouble() < contention ? "hot-" + random.nextInt(hotScopes) : privateScope;
+
+      long t = System.nanoTime();
+      LockRequestResult result = lockService.tryAcquireLock(scope, ownerId);
+      t = record(statistics, Operation.ACQUIRE, t);
+
+      if (!result.isSuccess()) {
+        statistics.conflicts++;
+        // back off a little, like a client retrying a failed request would
+        Thread.sleep(holdTime);
+        continue;
+      }
+
+      lockService.verifyLock(scope, result.getToken());
+      t = record(statistics, Operation.VERIFY, t);
+
+      try {
+        lockService.extendLock(scope, result.getToken(), ownerId);
+      } catch (LockLostException e) {
+        statistics.lost++;
+      }
+      record(statistics, Operation.EXTEND, t);
+
+      Thread.sleep(holdTime);
+
+      t = System.nanoTime();
+      lockService.releaseLock(scope, result.getToken());
+      record(statistics, Operation.RELEASE, t);
+    }
+
+    return statistics;
+  }
+
+  private static long record(final ClientStatistics statistics, final Operation operation, final long start) {
+    long end = System.nanoTime();
+    statistics.latencies.get(operation).record(end - start);
+    return end;
+  }
+
+  private static void report(final ClientStatistics statistics, final double seconds) {
+    System.out.printf("%n%-8s %10s %10s %10s %10s %10s %10s %10s%n", "op", "count", "ops/s", "p50 us", "p90 us",
+        "p99 us", "p99.9 us", "max us");
+    statistics.latencies.forEach((operation, h) -> System.out.printf(
+        "%-8s %10d %10.0f %10.1f %10.1f %10.1f %10.1f %10.1f%n", operation.name().toLowerCase(), h.getCount(),
+        h.getCount() / seconds, h.getPercentile(50) / 1e3, h.getPercentile(90) / 1e3, h.getPercentile(99) / 1e3,
+        h.getPercentile(99.9) / 1e3, h.getMax() / 1e3));
+
+    long acquisitions = statistics.latencies.get(Operation.ACQUIRE).getCount();
+    System.out.printf("%nconflicts: %d (%.1f%% of acquisitions), lost locks: %d%n", statistics.conflicts,
+        acquisitions > 0 ? 100d * statistics.conflicts / acquisitions : 0, statistics.lost);
+  }
+}
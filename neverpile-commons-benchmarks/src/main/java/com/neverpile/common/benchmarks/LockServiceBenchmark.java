@@ -0,0 +1,143 @@
+package com.neverpile.common.benchmarks;
+
+import java.util.Collections;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.neverpile.common.benchmarks.LockServiceFixture.Implementation;
+import com.neverpile.common.locking.LockService;
+import com.neverpile.common.locking.LockService.LockLostException;
+import com.neverpile.common.locking.LockService.LockRequestResult;
+import com.neverpile.common.locking.LockService.LockState;
+
+/**
+ * Benchmarks for the {@link LockService} implementations under concurrent use. Each benchmark
+ * thread acts as a lock client of its own. Acquisitions target one of a few hot scopes shared by all
+ * clients with the probability given by <code>contention</code> and a scope private to the client
+ * otherwise. Extensions and verifications are performed on a lock held by each client for the
+ * whole trial.
+ * <p>
+ * Both throughput and sampled latencies (including percentiles) are reported. Use JMH's
+ * <code>-t</code> option to vary the number of clients, e.g. <code>-t 32 -p contention=0.5</code>.
+ * For longer runs at higher client counts, see the {@link LockLoadDriver}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({
+    Mode.Throughput, Mode.SampleTime
+})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(8)
+@Fork(1)
+public class LockServiceBenchmark {
+  @Param({
+      "MEMORY", "JPA", "JPA_CACHED"
+  })
+  public Implementation implementation;
+
+  /**
+   * The probability of an acquisition targeting a hot scope.
+   */
+  @Param({
+      "0", "0.1", "0.5", "1"
+  })
+  public double contention;
+
+  @Param({
+      "4"
+  })
+  public int hotScopes;
+
+  private LockServiceFixture fixture;
+
+  private LockService lockService;
+
+  private final AtomicInteger clients = new AtomicInteger();
+
+  /**
+   * The state of a single lock client.
+   */
+  @State(Scope.Thread)
+  public static class Client {
+    private String ownerId;
+
+    private String privateScope;
+
+    private String heldScope;
+
+    private String heldToken;
+
+    private final SplittableRandom random = new SplittableRandom();
+
+    @Setup(Level.Trial)
+    public void setup(final LockServiceBenchmark benchmark) {
+      int n = benchmark.clients.incrementAndGet();
+      ownerId = "client-" + n;
+      privateScope = "private-" + n;
+      heldScope = "held-" + n;
+
+      LockRequestResult result = benchmark.lockService.tryAcquireLock(heldScope, ownerId);
+      if (!result.isSuccess())
+        throw new IllegalStateException("Can't acquire " + heldScope);
+      heldToken = result.getToken();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown(final LockServiceBenchmark benchmark) {
+      benchmark.lockService.releaseLock(heldScope, heldToken);
+    }
+
+    String nextScope(final double contention, final int hotScopes) {
+      return random.nextDouble() < contention ? "hot-" + random.nextInt(hotScopes) : privateScope;
+    }
+  }
+
+  @Setup(Level.Trial)
+  public void setup() {
+    fixture = new LockServiceFixture(implementation, Collections.emptyMap());
+    lockService = fixture.getLockService();
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    fixture.close();
+  }
+
+  @Benchmark
+  public boolean acquireAndRelease(final Client client) {
+    String scope = client.nextScope(contention, hotScopes);
+
+    LockRequestResult result = lockService.tryAcquireLock(scope, client.ownerId);
+    if (result.isSuccess())
+      lockService.releaseLock(scope, result.getToken());
+
+    return result.isSuccess();
+  }
+
+  @Benchmark
+  public LockState extend(final Client client) throws LockLostException {
+    return lockService.extendLock(client.heldScope, client.heldToken, client.ownerId);
+  }
+
+  @Benchmark
+  public boolean verify(final Client client) {
+    return lockService.verifyLock(client.heldScope, client.heldToken);
+  }
+}
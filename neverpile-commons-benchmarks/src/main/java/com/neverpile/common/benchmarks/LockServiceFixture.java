@@ -0,0 +1,90 @@
+package com.neverpile.common.benchmarks;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Import;
+
+import com.neverpile.common.locking.LockService;
+import com.neverpile.common.locking.LockingConfiguration;
+import com.neverpile.common.locking.jpa.JPALockService;
+import com.neverpile.common.locking.memory.InMemoryLockService;
+
+/**
+ * Starts a {@link LockService} implementation in an application context of its own, the JPA-based
+ * ones against an embedded H2 database, just like the locking module's tests do.
+ */
+public class LockServiceFixture implements AutoCloseable {
+  /**
+   * The lock service implementations under test.
+   */
+  public enum Implementation {
+    /**
+     * The {@link InMemoryLockService}.
+     */
+    MEMORY,
+    /**
+     * The {@link JPALockService} without lock state cache.
+     */
+    JPA,
+    /**
+     * The {@link JPALockService} with lock state cache.
+     */
+    JPA_CACHED
+  }
+
+  @Configuration
+  @EnableAutoConfiguration
+  @Import({
+      LockingConfiguration.class, InMemoryLockService.class, JPALockService.class
+  })
+  static class LockServiceApplication {
+  }
+
+  private final ConfigurableApplicationContext applicationContext;
+
+  private final LockService lockService;
+
+  /**
+   * Start the given implementation.
+   *
+   * @param implementation the implementation
+   * @param properties additional properties overriding the defaults, e.g.
+   *          <code>spring.datasource.hikari.maximum-pool-size</code>
+   */
+  public LockServiceFixture(final Implementation implementation, final Map<String, String> properties) {
+    Map<String, Object> defaults = new LinkedHashMap<>();
+    defaults.put("spring.main.banner-mode", "off");
+    defaults.put("logging.level.root", "WARN");
+    defaults.put("spring.datasource.url", "jdbc:h2:mem:locks-" + UUID.randomUUID());
+    // locks held by the benchmarks must not expire while they run
+    defaults.put("neverpile.locking.validity-duration", "PT1H");
+    defaults.put("neverpile.locking.memory.enabled", implementation == Implementation.MEMORY);
+    defaults.put("neverpile.locking.jpa.enabled", implementation != Implementation.MEMORY);
+    defaults.put("neverpile.locking.jpa.cache.enabled", implementation == Implementation.JPA_CACHED);
+    defaults.put("neverpile.locking.jpa.housekeeping.interval", "PT10S");
+    defaults.putAll(properties);
+
+    applicationContext = new SpringApplicationBuilder(LockServiceApplication.class) //
+        .web(WebApplicationType.NONE) //
+        .properties(defaults) //
+        .run();
+
+    lockService = applicationContext.getBean(LockService.class);
+  }
+
+  public LockService getLockService() {
+    return lockService;
+  }
+
+  @Override
+  public void close() {
+    applicationContext.close();
+  }
+}
@@ -0,0 +1,116 @@
+package com.neverpile.common.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+
+import com.neverpile.common.authorization.api.Permission;
+import com.neverpile.common.authorization.policy.AccessPolicy;
+import com.neverpile.common.authorization.policy.PolicyRepository;
+import com.neverpile.common.authorization.policy.impl.PolicyBasedAuthorizationService;
+import com.neverpile.common.benchmarks.SyntheticPolicyGenerator.Request;
+import com.neverpile.common.benchmarks.SyntheticPolicyGenerator.SubjectMix;
+
+/**
+ * Benchmarks for the evaluation of synthetic policies by the
+ * {@link PolicyBasedAuthorizationService} at varying rule counts, subject-matcher mixes, condition
+ * depths and context sizes. The full parameter matrix takes a while; use JMH's <code>-p</code>
+ * option to restrict it, e.g. <code>-p ruleCount=1000 -p subjectMix=CLAIMS</code>.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PolicyEvaluationBenchmark {
+  /**
+   * The number of pre-generated requests, must be a power of two.
+   */
+  private static final int REQUEST_COUNT = 1024;
+
+  @Param({
+      "10", "100", "1000", "10000"
+  })
+  public int ruleCount;
+
+  @Param({
+      "ROLES", "PRINCIPALS", "CLAIMS", "MIXED"
+  })
+  public SubjectMix subjectMix;
+
+  @Param({
+      "0", "2", "4"
+  })
+  public int conditionDepth;
+
+  @Param({
+      "4", "64"
+  })
+  public int contextSize;
+
+  private AnnotationConfigApplicationContext applicationContext;
+
+  private PolicyBasedAuthorizationService authorizationService;
+
+  private AccessPolicy policy;
+
+  private Request[] requests;
+
+  private int next;
+
+  @Setup(Level.Trial)
+  public void setup() {
+    SyntheticPolicyGenerator generator = new SyntheticPolicyGenerator(4711) //
+        .withRuleCount(ruleCount) //
+        .withSubjectMix(subjectMix) //
+        .withConditionDepth(conditionDepth) //
+        .withContextSize(contextSize);
+
+    policy = generator.generatePolicy();
+    requests = generator.generateRequests(REQUEST_COUNT).toArray(new Request[0]);
+
+    applicationContext = new AnnotationConfigApplicationContext();
+    applicationContext.registerBean(PolicyRepository.class, () -> () -> policy);
+    applicationContext.register(PolicyBasedAuthorizationService.class);
+    applicationContext.refresh();
+
+    authorizationService = applicationContext.getBean(PolicyBasedAuthorizationService.class);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    applicationContext.close();
+  }
+
+  private Request nextRequest() {
+    return requests[next++ & (REQUEST_COUNT - 1)];
+  }
+
+  @Benchmark
+  public boolean isAccessAllowed() {
+    Request r = nextRequest();
+    return authorizationService.isAccessAllowed(r.getResourceSpecifier(), r.getActions(), r.getContext(), policy,
+        r.getAuthentication());
+  }
+
+  @Benchmark
+  public List<Permission> getPermissions() {
+    Request r = nextRequest();
+    return authorizationService.getPermissions(r.getResourceSpecifier(), r.getContext(), r.getAuthentication());
+  }
+}
@@ -0,0 +1,74 @@
+package com.neverpile.common.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.neverpile.common.specifier.Specifier;
+
+/**
+ * Benchmarks for parsing and rendering {@link Specifier}s of varying length.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SpecifierBenchmark {
+  @Param({
+      "1", "4", "16"
+  })
+  public int segments;
+
+  /**
+   * Whether some of the segments contain escaped periods.
+   */
+  @Param({
+      "false", "true"
+  })
+  public boolean escaped;
+
+  private String specifier;
+
+  private Specifier parsed;
+
+  private Specifier prefix;
+
+  @Setup(Level.Trial)
+  public void setup() {
+    specifier = IntStream.range(0, segments) //
+        .mapToObj(i -> escaped && i % 2 == 1 ? "segment\\." + i : "segment" + i) //
+        .collect(Collectors.joining("."));
+    parsed = Specifier.from(specifier);
+    prefix = Specifier.from(parsed.head());
+  }
+
+  @Benchmark
+  public Specifier from() {
+    return Specifier.from(specifier);
+  }
+
+  @Benchmark
+  public String asString() {
+    return parsed.asString();
+  }
+
+  @Benchmark
+  public boolean startsWith() {
+    return parsed.startsWith(prefix);
+  }
+}
@@ -0,0 +1,335 @@
+package com.neverpile.common.benchmarks;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.security.oauth2.server.resource.authentication.JwtAuthenticationToken;
+
+import com.neverpile.common.authorization.api.Action;
+import com.neverpile.common.authorization.api.AuthorizationContext;
+import com.neverpile.common.authorization.api.CoreActions;
+import com.neverpile.common.authorization.policy.AccessPolicy;
+import com.neverpile.common.authorization.policy.AccessRule;
+import com.neverpile.common.authorization.policy.Effect;
+import com.neverpile.common.authorization.policy.impl.CompositeAuthorizationContext;
+import com.neverpile.common.authorization.policy.impl.SingleValueAuthorizationContext;
+import com.neverpile.common.condition.AndCondition;
+import com.neverpile.common.condition.CompositeCondition;
+import com.neverpile.common.condition.Condition;
+import com.neverpile.common.condition.EqualsCondition;
+import com.neverpile.common.condition.ExistsCondition;
+import com.neverpile.common.condition.NotCondition;
+import com.neverpile.common.condition.OrCondition;
+import com.neverpile.common.condition.RangeCondition;
+
+/**
+ * A generator for synthetic {@link AccessPolicy}s and matching authorization requests. All output
+ * is derived from a seeded {@link Random}, so that a generator configured identically produces
+ * identical policies and requests across benchmark runs.
+ * <p>
+ * Generated policies use resources of the form <code>bench:resource&lt;n&gt;</code>, the
+ * {@link CoreActions} and, depending on the {@link SubjectMix}, role, principal or JWT claim
+ * subjects. Conditions refer to context keys of the form <code>ctx.key&lt;n&gt;</code>, which are
+ * provided by the contexts generated by {@link #generateContext()}.
+ */
+public class SyntheticPolicyGenerator {
+  /**
+   * The kinds of subjects used in generated rules.
+   */
+  public enum SubjectMix {
+    /**
+     * Only <code>role:</code> subjects.
+     */
+    ROLES,
+    /**
+     * Only <code>principal:</code> subjects.
+     */
+    PRINCIPALS,
+    /**
+     * Only <code>claim:</code> subjects, i.e. SpEL expressions evaluated against JWT claims.
+     */
+    CLAIMS,
+    /**
+     * A random mix of all of the above.
+     */
+    MIXED
+  }
+
+  /**
+   * A generated authorization request.
+   */
+  public static class Request {
+    private final Authentication authentication;
+
+    private final String resourceSpecifier;
+
+    private final Set<Action> actions;
+
+    private final AuthorizationContext context;
+
+    Request(final Authentication authentication, final String resourceSpecifier, final Set<Action> actions,
+        final AuthorizationContext context) {
+      this.authentication = authentication;
+      this.resourceSpecifier = resourceSpecifier;
+      this.actions = actions;
+      this.context = context;
+    }
+
+    public Authentication getAuthentication() {
+      return authentication;
+    }
+
+    public String getResourceSpecifier() {
+      return resourceSpecifier;
+    }
+
+    public Set<Action> getActions() {
+      return actions;
+    }
+
+    public AuthorizationContext getContext() {
+      return context;
+    }
+  }
+
+  private final Random random;
+
+  private int ruleCount = 100;
+
+  private SubjectMix subjectMix = SubjectMix.ROLES;
+
+  private int conditionDepth = 0;
+
+  private int contextSize = 16;
+
+  private int resourceCount = 50;
+
+  private int roleCount = 20;
+
+  private int principalCount = 100;
+
+  private int departmentCount = 10;
+
+  public SyntheticPolicyGenerator(final long seed) {
+    this.random = new Random(seed);
+  }
+
+  public SyntheticPolicyGenerator withRuleCount(final int ruleCount) {
+    this.ruleCount = ruleCount;
+    return this;
+  }
+
+  public SyntheticPolicyGenerator withSubjectMix(final SubjectMix subjectMix) {
+    this.subjectMix = subjectMix;
+    return this;
+  }
+
+  /**
+   * Set the depth of the condition trees attached to the rules. A depth of zero generates rules
+   * without conditions, a depth of one a single leaf condition, higher depths nest and-, or- and
+   * not-conditions.
+   *
+   * @param conditionDepth the condition depth
+   * @return this generator
+   */
+  public SyntheticPolicyGenerator withConditionDepth(final int conditionDepth) {
+    this.conditionDepth = conditionDepth;
+    return this;
+  }
+
+  /**
+   * Set the number of values in the generated contexts as well as the number of distinct keys
+   * referred to by the conditions.
+   *
+   * @param contextSize the context size
+   * @return this generator
+   */
+  public SyntheticPolicyGenerator withContextSize(final int contextSize) {
+    this.contextSize = Math.max(1, contextSize);
+    return this;
+  }
+
+  public SyntheticPolicyGenerator withResourceCount(final int resourceCount) {
+    this.resourceCount = resourceCount;
+    return this;
+  }
+
+  public SyntheticPolicyGenerator withRoleCount(final int roleCount) {
+    this.roleCount = roleCount;
+    return this;
+  }
+
+  public SyntheticPolicyGenerator withPrincipalCount(final int principalCount) {
+    this.principalCount = principalCount;
+    return this;
+  }
+
+  /**
+   * Generate a policy with the configured number of rules.
+   *
+   * @return the policy
+   */
+  public AccessPolicy generatePolicy() {
+    AccessPolicy policy = new AccessPolicy() //
+        .withValidFrom(Instant.EPOCH) //
+        .withDescription("Synthetic policy with " + ruleCount + " rules") //
+        .withDefaultEffect(Effect.DENY);
+
+    for (int i = 0; i < ruleCount; i++)
+      policy.withRule(generateRule(i));
+
+    return policy;
+  }
+
+  private AccessRule generateRule(final int index) {
+    AccessRule rule = new AccessRule() //
+        .withName("rule-" + index) //
+        .withEffect(random.nextInt(5) == 0 ? Effect.DENY : Effect.ALLOW);
+
+    List<String> subjects = new ArrayList<>();
+    for (int i = 1 + random.nextInt(3); i > 0; i--)
+      subjects.add(randomSubject());
+    rule.setSubjects(subjects);
+
+    rule.setResources(Arrays.asList(random.nextInt(10) == 0 //
+        ? "bench:*" //
+        : "bench:resource" + random.nextInt(resourceCount)));
+
+    if (random.nextInt(10) == 0) {
+      rule.setActions(Arrays.asList(CoreActions.NAMESPACE + ":*"));
+    } else {
+      List<String> actions = new ArrayList<>();
+      for (int i = 1 + random.nextInt(3); i > 0; i--)
+        actions.add(randomAction().key());
+      rule.setActions(actions);
+    }
+
+    if (conditionDepth > 0)
+      rule.setConditions(new AndCondition().withCondition(generateCondition(conditionDepth)));
+
+    return rule;
+  }
+
+  private String randomSubject() {
+    SubjectMix mix = subjectMix == SubjectMix.MIXED ? SubjectMix.values()[random.nextInt(3)] : subjectMix;
+    switch (mix){
+      case PRINCIPALS :
+        return "principal:user" + random.nextInt(principalCount);
+      case CLAIMS :
+        return "claim:department == 'dept" + random.nextInt(departmentCount) + "'";
+      case ROLES :
+      default :
+        return "role:role" + random.nextInt(roleCount);
+    }
+  }
+
+  private Condition generateCondition(final int depth) {
+    if (depth <= 1) {
+      switch (random.nextInt(3)){
+        case 0 :
+          return new ExistsCondition().withTarget(randomContextKey());
+        case 1 : {
+          // range conditions must target the integer-valued keys
+          if (contextSize < 2)
+            return new ExistsCondition().withTarget(randomContextKey());
+          int lower = random.nextInt(100);
+          return new RangeCondition().withPredicate("ctx.key" + (2 * random.nextInt(contextSize / 2) + 1),
+              Arrays.<Comparable<?>> asList(lower, lower + random.nextInt(100)));
+        }
+        default :
+          return new EqualsCondition().withPredicate("ctx.key" + 2 * random.nextInt((contextSize + 1) / 2),
+              "value" + random.nextInt(4));
+      }
+    }
+
+    CompositeCondition<?> c;
+    switch (random.nextInt(3)){
+      case 0 :
+        c = new OrCondition();
+        break;
+      case 1 :
+        c = new NotCondition();
+        break;
+      default :
+        c = new AndCondition();
+    }
+
+    c.addCondition(generateCondition(depth - 1));
+    c.addCondition(generateCondition(depth - 1));
+    return c;
+  }
+
+  private String randomContextKey() {
+    return "ctx.key" + random.nextInt(contextSize);
+  }
+
+  private Action randomAction() {
+    return CoreActions.values()[random.nextInt(CoreActions.values().length)];
+  }
+
+  /**
+   * Generate a context with the configured number of values. Even keys resolve to strings, odd keys
+   * to integers.
+   *
+   * @return the context
+   */
+  public AuthorizationContext generateContext() {
+    CompositeAuthorizationContext ctx = new CompositeAuthorizationContext();
+    for (int i = 0; i < contextSize; i++)
+      ctx.subContext(new SingleValueAuthorizationContext("ctx.key" + i,
+          i % 2 == 0 ? "value" + random.nextInt(4) : (Object) random.nextInt(200)));
+    return ctx;
+  }
+
+  /**
+   * Generate an authentication of a random principal with random roles and a random department
+   * claim.
+   *
+   * @return the authentication
+   */
+  public Authentication generateAuthentication() {
+    String name = "user" + random.nextInt(principalCount);
+
+    List<GrantedAuthority> authorities = new ArrayList<>();
+    for (int i = 1 + random.nextInt(3); i > 0; i--)
+      authorities.add(new SimpleGrantedAuthority("role" + random.nextInt(roleCount)));
+
+    Jwt jwt = Jwt.withTokenValue("synthetic") //
+        .header("alg", "none") //
+        .subject(name) //
+        .claim("department", "dept" + random.nextInt(departmentCount)) //
+        .build();
+
+    return new JwtAuthenticationToken(jwt, authorities, name);
+  }
+
+  /**
+   * Generate the given number of random requests.
+   *
+   * @param count the number of requests
+   * @return the requests
+   */
+  public List<Request> generateRequests(final int count) {
+    List<Request> requests = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      Set<Action> actions = new HashSet<>();
+      for (int j = 1 + random.nextInt(2); j > 0; j--)
+        actions.add(randomAction());
+
+      String resource = "bench:resource" + random.nextInt(resourceCount)
+          + (random.nextBoolean() ? ".content" : "");
+
+      requests.add(new Request(generateAuthentication(), resource, actions, generateContext()));
+    }
+    return requests;
+  }
+}
@@ -0,0 +1,113 @@
+package com.neverpile.common.locking;
+
+import com.neverpile.common.locking.LockService.LockState;
+
+/**
+ * An event signalling a change of a lock's state. Events are published by the {@link LockService}
+ * implementations through the application's event publisher, so they can be received using an
+ * {@link org.springframework.context.event.EventListener}. Lock services performing their
+ * operations in transactions publish them once the transaction has been committed.
+ */
+public class LockEvent {
+  /**
+   * The type of a lock event.
+   */
+  public enum Type {
+    /**
+     * The lock has been acquired.
+     */
+    ACQUIRED,
+    /**
+     * The validity of the lock has been extended.
+     */
+    EXTENDED,
+    /**
+     * The lock has been released by its owner.
+     */
+    RELEASED,
+    /**
+     * The lock has been contested.
+     */
+    CONTESTED,
+    /**
+     * The lock has expired. Depending on the lock service, this event may be published some time
+     * after the actual expiry.
+     */
+    EXPIRED
+  }
+
+  private Type type;
+
+  private String scope;
+
+  private LockState state;
+
+  public LockEvent() {
+  }
+
+  public LockEvent(Type type, String scope, LockState state) {
+    this.type = type;
+    this.scope = scope;
+    this.state = state;
+  }
+
+  /**
+   * Get the type of the event.
+   *
+   * @return the type
+   */
+  public Type getType() {
+    return type;
+  }
+
+  /**
+   * Set the type of the event.
+   *
+   * @param type the type
+   */
+  public void setType(Type type) {
+    this.type = type;
+  }
+
+  /**
+   * Get the scope of the lock.
+   *
+   * @return the scope
+   */
+  public String getScope() {
+    return scope;
+  }
+
+  /**
+   * Set the scope of the lock.
+   *
+   * @param scope the scope
+   */
+  public void setScope(String scope) {
+    this.scope = scope;
+  }
+
+  /**
+   * Get the state of the lock after the change. For {@link Type#RELEASED} and
+   * {@link Type#EXPIRED} events, this is the last state of the lock, if known.
+   *
+   * @return the state or <code>null</code>
+   */
+  public LockState getState() {
+    return state;
+  }
+
+  /**
+   * Set the state of the lock.
+   *
+   * @param state the state
+   */
+  public void setState(LockState state) {
+    this.state = state;
+  }
+
+  @Override
+  public String toString() {
+    return "LockEvent [type=" + type + ", scope=" + scope + "]";
+  }
+}
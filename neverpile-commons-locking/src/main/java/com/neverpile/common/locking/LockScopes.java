@@ -0,0 +1,77 @@
+package com.neverpile.common.locking;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.neverpile.common.specifier.Specifier;
+
+/**
+ * Helpers for hierarchical lock scopes as enabled by <code>neverpile.locking.hierarchical-scopes</code>.
+ * <p>
+ * Hierarchical scopes are dotted paths following the syntax of a {@link Specifier}, e.g.
+ * <code>folder.42.doc.7</code>. A lock on a scope then implies an intention lock on each of its
+ * ancestors: it conflicts with locks held on any ancestor (<code>folder</code>,
+ * <code>folder.42</code>, <code>folder.42.doc</code>) as well as on any descendant. Sibling scopes
+ * don't conflict with each other. Scopes which can't be parsed as a specifier are treated as flat
+ * scopes without ancestors or descendants.
+ * <p>
+ * Ancestors and descendants are determined from the canonical string form of the specifier, so
+ * scopes should be used in that form, i.e. without surrounding whitespace and with minimal
+ * escaping.
+ */
+public final class LockScopes {
+  private LockScopes() {
+    // utility class
+  }
+
+  /**
+   * Return the ancestors of the given scope, outermost first.
+   *
+   * @param scope the scope
+   * @return the ancestors, empty for top-level or flat scopes
+   */
+  public static List<String> ancestors(final String scope) {
+    Specifier specifier = parse(scope);
+    if (null == specifier || specifier.length() < 2)
+      return Collections.emptyList();
+
+    List<String> ancestors = new ArrayList<>(specifier.length() - 1);
+    for (int i = 1; i < specifier.length(); i++)
+      ancestors.add(specifier.prefix(i).asString());
+
+    return ancestors;
+  }
+
+  /**
+   * Return the canonical string form of the given scope, i.e. the form in which it appears as the
+   * ancestor of other scopes.
+   *
+   * @param scope the scope
+   * @return the canonical form or <code>null</code> if the scope is flat
+   */
+  public static String canonical(final String scope) {
+    Specifier specifier = parse(scope);
+    return null == specifier ? null : specifier.asString();
+  }
+
+  /**
+   * Return the prefix shared by the string forms of all descendants of the given scope.
+   *
+   * @param scope the scope
+   * @return the prefix or <code>null</code> if the scope is flat
+   */
+  public static String descendantPrefix(final String scope) {
+    String canonical = canonical(scope);
+    return null == canonical ? null : canonical + '.';
+  }
+
+  private static Specifier parse(final String scope) {
+    try {
+      Specifier specifier = Specifier.from(scope);
+      return specifier.empty() ? null : specifier;
+    } catch (IllegalArgumentException e) {
+      return null;
+    }
+  }
+}
@@ -1,12 +1,22 @@
 package com.neverpile.common.locking;
 
+import java.time.Duration;
 import java.time.Instant;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
 
 import org.springframework.http.HttpStatus;
 import org.springframework.web.bind.annotation.ResponseStatus;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonInclude.Include;
+
 /**
  * A service providing explicit/pessimistic/cooperative locking services.
  */
@@ -21,8 +31,19 @@ public interface LockService {
    */
   public static final String LOCK_SCOPE_HEADER = "X-Neverpile-Lock-Scope";
 
+  /**
+   * The header used to inform the client about the fencing token of the lock a request has been
+   * performed under.
+   */
+  public static final String FENCING_TOKEN_HEADER = "X-Neverpile-Lock-Fencing-Token";
+
   /**
    * A representation of a lock's state.
+   * <p>
+   * Every acquisition of a lock issues a new fencing token. The fencing tokens issued for a scope
+   * increase strictly monotonically, so that a resource can reject writes carrying a fencing token
+   * lower than the highest one it has seen: they stem from a client whose lock has been lost,
+   * possibly without the client noticing.
    */
   public class LockState {
     private String ownerId;
@@ -30,6 +51,11 @@ public interface LockService {
 
     private String contestantId;
 
+    private long fencingToken;
+
+    @JsonInclude(Include.NON_NULL)
+    private String token;
+
     public LockState() {
     }
 
@@ -40,6 +66,11 @@ public interface LockService {
       this.contestantId = contestantId;
     }
 
+    public LockState(String ownerId, Instant validUntil, String contestantId, long fencingToken) {
+      this(ownerId, validUntil, contestantId);
+      this.fencingToken = fencingToken;
+    }
+
     /**
      * Get the id of the current lock owner.
      *
@@ -94,6 +125,45 @@ public interface LockService {
       this.contestantId = contestantId;
     }
 
+    /**
+     * Get the fencing token issued upon the acquisition of the lock.
+     *
+     * @return the fencing token or zero if unknown
+     */
+    public long getFencingToken() {
+      return fencingToken;
+    }
+
+    /**
+     * Set the fencing token issued upon the acquisition of the lock.
+     *
+     * @param fencingToken the fencing token
+     */
+    public void setFencingToken(long fencingToken) {
+      this.fencingToken = fencingToken;
+    }
+
+    /**
+     * Get the lock token re-issued upon the extension of the lock. Lock services issuing tokens
+     * which describe the lock, like the
+     * {@link com.neverpile.common.locking.signed.SignedTokenLockService}, re-issue them whenever a
+     * lock is extended. The new token must be used from then on.
+     *
+     * @return the new lock token or <code>null</code> if the token remains unchanged
+     */
+    public String getToken() {
+      return token;
+    }
+
+    /**
+     * Set the lock token re-issued upon the extension of the lock.
+     *
+     * @param token the new lock token
+     */
+    public void setToken(String token) {
+      this.token = token;
+    }
+
     @Override
     public int hashCode() {
       final int prime = 31;
@@ -189,6 +259,38 @@ public interface LockService {
     }
   }
 
+  /**
+   * The result of the verification of a lock token.
+   */
+  public class LockVerification {
+    private final boolean valid;
+    private final long fencingToken;
+
+    public LockVerification(boolean valid, long fencingToken) {
+      this.valid = valid;
+      this.fencingToken = fencingToken;
+    }
+
+    /**
+     * Return whether the token is valid or the resource is not locked.
+     *
+     * @return <code>true</code> if the token is valid
+     */
+    public boolean isValid() {
+      return valid;
+    }
+
+    /**
+     * Get the fencing token of the lock the token is associated with.
+     *
+     * @return the fencing token or zero if the token is invalid, the resource is not locked or the
+     *         fencing token is unknown
+     */
+    public long getFencingToken() {
+      return fencingToken;
+    }
+  }
+
   /**
    * An exception indicating that a lock extension request failed, because the lock has not been
    * refreshed in time and has been acquired by a third party.
@@ -198,6 +300,82 @@ public interface LockService {
     private static final long serialVersionUID = 1L;
   }
 
+  /**
+   * A representation of the result of a bulk lock acquisition request.
+   */
+  public class BulkLockRequestResult {
+    private boolean success;
+    private Map<String, String> tokens;
+    private Map<String, LockState> states;
+
+    public BulkLockRequestResult() {
+    }
+
+    public BulkLockRequestResult(boolean success, Map<String, String> tokens, Map<String, LockState> states) {
+      super();
+      this.success = success;
+      this.tokens = tokens;
+      this.states = states;
+    }
+
+    /**
+     * Return whether the request was successful, i.e. whether all of the requested locks have been
+     * acquired.
+     *
+     * @return <code>true</code> if the request was successful
+     */
+    public boolean isSuccess() {
+      return success;
+    }
+
+    /**
+     * Set whether the request was successful.
+     *
+     * @param success whether the request was successful
+     */
+    public void setSuccess(boolean success) {
+      this.success = success;
+    }
+
+    /**
+     * Get the secret lock tokens by scope. Empty if the request was not successful.
+     *
+     * @return the lock tokens
+     */
+    public Map<String, String> getTokens() {
+      return tokens;
+    }
+
+    /**
+     * Set the secret lock tokens by scope.
+     *
+     * @param tokens the lock tokens
+     */
+    public void setTokens(Map<String, String> tokens) {
+      this.tokens = tokens;
+    }
+
+    /**
+     * Get the lock states by scope. If the request was successful, these are the states of all
+     * acquired locks. Otherwise, these are the states of the locks held by other parties that
+     * prevented the acquisition.
+     *
+     * @return the lock states
+     */
+    public Map<String, LockState> getStates() {
+      return states;
+    }
+
+    /**
+     * Set the lock states by scope.
+     *
+     * @param states the lock states
+     */
+    public void setStates(Map<String, LockState> states) {
+      this.states = states;
+    }
+  }
+
   /**
    * Try to acquire the lock for the given scope.
    *
@@ -207,6 +385,23 @@ public interface LockService {
    */
   LockRequestResult tryAcquireLock(String scope, String ownerId);
 
+  /**
+   * Acquire the lock for the given scope, waiting for up to the given timeout for it to become
+   * available. The returned future completes with the LockRequestResult of the successful
+   * acquisition or with an unsuccessful one once the timeout has elapsed. Cancelling the future
+   * abandons the wait.
+   * <p>
+   * The default implementation doesn't wait at all: it tries to acquire the lock once.
+   *
+   * @param scope   the lock scope
+   * @param ownerId the id of the prospective lock owner
+   * @param timeout the maximum time to wait for the lock
+   * @return a future of the LockRequestResult
+   */
+  default CompletableFuture<LockRequestResult> acquireLock(String scope, String ownerId, Duration timeout) {
+    return CompletableFuture.completedFuture(tryAcquireLock(scope, ownerId));
+  }
+
   /**
    * Try to contest the lock for the given scope.
    *
@@ -235,7 +430,7 @@ public interface LockService {
    * @param scope   the lock scope
    * @param token   the secret lock token
    * @param ownerId the id of the lock owner
-   * @return the new LockState
+   * @return the new LockState, possibly carrying a re-issued token, see {@link LockState#getToken()}
    * @throws LockLostException if the lock extension request failed, because the lock has not been
    *                           refreshed in time and this has been acquired by a third party.
    */
@@ -266,4 +461,101 @@ public interface LockService {
    * <code>false</code> otherwise.
    */
   boolean verifyLock(String scope, String token);
+
+  /**
+   * Validate a lock token like {@link #verifyLock(String, String)} and report the fencing token of
+   * the lock it is associated with.
+   * <p>
+   * The default implementation queries the lock after verifying the token. Implementations are
+   * encouraged to do both at once.
+   *
+   * @param scope the lock scope
+   * @param token the lock token
+   * @return the LockVerification
+   */
+  default LockVerification verify(String scope, String token) {
+    if (!verifyLock(scope, token))
+      return new LockVerification(false, 0);
+
+    return new LockVerification(true, queryLock(scope) //
+        .filter(state -> null == state.getValidUntil() || !Instant.now().isAfter(state.getValidUntil())) //
+        .map(LockState::getFencingToken) //
+        .orElse(0L));
+  }
+
+  /**
+   * Try to acquire the locks for all of the given scopes. Either all locks are acquired or none.
+   * The scopes are locked in their natural order, so that concurrent bulk requests for overlapping
+   * scopes cannot deadlock.
+   * <p>
+   * The default implementation acquires the locks one by one and releases the ones already acquired
+   * upon failure. Implementations are encouraged to provide a more efficient implementation.
+   *
+   * @param scopes  the lock scopes
+   * @param ownerId the id of the prospective lock owner
+   * @return the BulkLockRequestResult
+   */
+  default BulkLockRequestResult tryAcquireLocks(Collection<String> scopes, String ownerId) {
+    Map<String, String> tokens = new LinkedHashMap<>();
+    Map<String, LockState> states = new LinkedHashMap<>();
+
+    for (String scope : new TreeSet<>(scopes)) {
+      LockRequestResult result = tryAcquireLock(scope, ownerId);
+      if (!result.isSuccess()) {
+        tokens.forEach(this::releaseLock);
+        return new BulkLockRequestResult(false, Collections.emptyMap(),
+            Collections.singletonMap(scope, result.getState()));
+      }
+
+      tokens.put(scope, result.getToken());
+      states.put(scope, result.getState());
+    }
+
+    return new BulkLockRequestResult(true, tokens, states);
+  }
+
+  /**
+   * Extend the validity of the locks for the given scopes. See
+   * {@link #extendLock(String, String, String)} for details. Unlike the latter, a lost lock does
+   * not cause the whole request to fail, it is just missing from the result.
+   *
+   * @param tokens  the secret lock tokens by scope
+   * @param ownerId the id of the lock owner
+   * @return the new LockStates by scope for all locks that have been extended
+   */
+  default Map<String, LockState> extendLocks(Map<String, String> tokens, String ownerId) {
+    Map<String, LockState> states = new LinkedHashMap<>();
+
+    for (String scope : new TreeSet<>(tokens.keySet())) {
+      try {
+        states.put(scope, extendLock(scope, tokens.get(scope), ownerId));
+      } catch (LockLostException e) {
+        // just omit it
+      }
+    }
+
+    return states;
+  }
+
+  /**
+   * Release the locks for the given scopes.
+   *
+   * @param tokens the secret lock tokens by scope
+   */
+  default void releaseLocks(Map<String, String> tokens) {
+    new TreeSet<>(tokens.keySet()).forEach(scope -> releaseLock(scope, tokens.get(scope)));
+  }
+
+  /**
+   * Query the states of the locks for the given scopes.
+   *
+   * @param scopes the lock scopes
+   * @return the current lock states by scope, omitting scopes for which no lock exists
+   */
+  default Map<String, LockState> queryLocks(Collection<String> scopes) {
+    Map<String, LockState> states = new LinkedHashMap<>();
+    for (String scope : new TreeSet<>(scopes))
+      queryLock(scope).ifPresent(state -> states.put(scope, state));
+    return states;
+  }
 }
@@ -0,0 +1,350 @@
+package com.neverpile.common.locking;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.neverpile.common.locking.LockService.LockRequestResult;
+import com.neverpile.common.locking.LockService.LockState;
+
+/**
+ * Node-local wait queues used by {@link LockService} implementations to implement
+ * {@link LockService#acquireLock(String, String, java.time.Duration)}.
+ * <p>
+ * Waiters are queued per scope in the order of their arrival, and only the waiter at the head of a
+ * queue attempts to acquire the lock. This makes waiting fair among the waiters on this node, but
+ * not with respect to plain {@link LockService#tryAcquireLock(String, String)} calls or waiters on
+ * other nodes. An attempt is made whenever the lock service signals the release of a lock using
+ * {@link #released(String)}, once the lock in the way expires, and after the retry interval at
+ * the latest, so that releases not observed by this node are picked up as well.
+ * <p>
+ * The queues, retries and timeouts are managed by a single thread, while the attempts themselves,
+ * which usually involve a round-trip to the lock store, are made by a bounded pool of threads. At
+ * most one attempt per scope is in flight at a time.
+ */
+public class LockWaitQueues {
+  private static final Logger LOGGER = LoggerFactory.getLogger(LockWaitQueues.class);
+
+  private static final class Waiter {
+    private final String scope;
+
+    private final String ownerId;
+
+    private final CompletableFuture<LockRequestResult> future = new CompletableFuture<>();
+
+    private volatile ScheduledFuture<?> timeout;
+
+    private volatile LockState lastState;
+
+    /**
+     * Whether the timeout elapsed while an attempt was in flight. Only accessed from the executor
+     * thread.
+     */
+    private boolean expired;
+
+    Waiter(final String scope, final String ownerId) {
+      this.scope = scope;
+      this.ownerId = ownerId;
+    }
+  }
+
+  private final LockService lockService;
+
+  private final Duration retryInterval;
+
+  private final boolean hierarchical;
+
+  /**
+   * The queues by scope. Guarded by itself.
+   */
+  private final Map<String, Deque<Waiter>> queues = new HashMap<>();
+
+  /**
+   * The pending retries by scope. Only accessed from the executor thread.
+   */
+  private final Map<String, ScheduledFuture<?>> retries = new HashMap<>();
+
+  /**
+   * The waiters on whose behalf an attempt is in flight by scope. Only accessed from the executor
+   * thread.
+   */
+  private final Map<String, Waiter> attempting = new HashMap<>();
+
+  /**
+   * The scopes to be served again as soon as the attempt in flight has finished. Only accessed from
+   * the executor thread.
+   */
+  private final Set<String> pending = new HashSet<>();
+
+  private final ScheduledExecutorService executor;
+
+  private final ThreadPoolExecutor attempts;
+
+  /**
+   * Create wait queues for the given lock service.
+   *
+   * @param lockService the lock service used to acquire locks on behalf of the waiters
+   * @param retryInterval the maximum interval between two attempts
+   * @param maximumConcurrentAttempts the maximum number of attempts made concurrently
+   * @param hierarchical whether lock scopes are hierarchical, so that the release of a lock may
+   *          unblock waiters for ancestor or descendant scopes
+   */
+  public LockWaitQueues(final LockService lockService, final Duration retryInterval,
+      final int maximumConcurrentAttempts, final boolean hierarchical) {
+    this.lockService = lockService;
+    this.retryInterval = retryInterval;
+    this.hierarchical = hierarchical;
+
+    executor = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread t = new Thread(r, "neverpile-lock-wait");
+      t.setDaemon(true);
+      return t;
+    });
+
+    AtomicInteger threadCount = new AtomicInteger();
+    attempts = new ThreadPoolExecutor(maximumConcurrentAttempts, maximumConcurrentAttempts, 60, TimeUnit.SECONDS,
+        new LinkedBlockingQueue<>(), r -> {
+          Thread t = new Thread(r, "neverpile-lock-attempt-" + threadCount.incrementAndGet());
+          t.setDaemon(true);
+          return t;
+        });
+    attempts.allowCoreThreadTimeOut(true);
+  }
+
+  /**
+   * Queue a request for the lock on the given scope.
+   *
+   * @param scope the lock scope
+   * @param ownerId the id of the prospective lock owner
+   * @param timeout the maximum time to wait for the lock
+   * @return a future of the LockRequestResult
+   */
+  public CompletableFuture<LockRequestResult> acquire(final String scope, final String ownerId,
+      final Duration timeout) {
+    Waiter waiter = new Waiter(scope, ownerId);
+
+    synchronized (queues) {
+      queues.computeIfAbsent(scope, s -> new ArrayDeque<>()).add(waiter);
+    }
+
+    // the first attempt is made before the timeout is processed, even for a zero timeout
+    executor.execute(() -> serve(scope));
+    waiter.timeout = executor.schedule(() -> expire(waiter), Math.max(0, timeout.toMillis()),
+        TimeUnit.MILLISECONDS);
+
+    // dequeue upon completion, cancellation included
+    waiter.future.whenComplete((r, e) -> dequeue(waiter));
+
+    return waiter.future;
+  }
+
+  /**
+   * Signal that the lock on the given scope has been released, so that the next waiter may try to
+   * acquire it.
+   *
+   * @param scope the lock scope
+   */
+  public void released(final String scope) {
+    List<String> affected = new ArrayList<>();
+    synchronized (queues) {
+      if (queues.containsKey(scope))
+        affected.add(scope);
+
+      if (hierarchical && !queues.isEmpty()) {
+        List<String> ancestors = LockScopes.ancestors(scope);
+        String prefix = LockScopes.descendantPrefix(scope);
+        for (String queued : queues.keySet())
+          if (ancestors.contains(queued) || (null != prefix && queued.startsWith(prefix)))
+            affected.add(queued);
+      }
+    }
+
+    if (!affected.isEmpty())
+      submit(() -> affected.forEach(this::serve));
+  }
+
+  /**
+   * Abandon all waits and stop processing.
+   */
+  public void shutdown() {
+    executor.shutdownNow();
+    attempts.shutdownNow();
+
+    List<Waiter> waiters = new ArrayList<>();
+    synchronized (queues) {
+      queues.values().forEach(waiters::addAll);
+    }
+    waiters.forEach(w -> w.future.cancel(false));
+  }
+
+  private void dequeue(final Waiter waiter) {
+    ScheduledFuture<?> timeout = waiter.timeout;
+    if (null != timeout)
+      timeout.cancel(false);
+
+    synchronized (queues) {
+      Deque<Waiter> queue = queues.get(waiter.scope);
+      if (null != queue && queue.remove(waiter) && queue.isEmpty())
+        queues.remove(waiter.scope);
+    }
+
+    // the next waiter may be able to go now
+    submit(() -> serve(waiter.scope));
+  }
+
+  private void submit(final Runnable task) {
+    submit(executor, task);
+  }
+
+  private static void submit(final Executor executor, final Runnable task) {
+    try {
+      executor.execute(task);
+    } catch (RejectedExecutionException e) {
+      // shut down - nobody is waiting anymore
+    }
+  }
+
+  private Waiter head(final String scope) {
+    synchronized (queues) {
+      Deque<Waiter> queue = queues.get(scope);
+      return null != queue ? queue.peek() : null;
+    }
+  }
+
+  /**
+   * Let the waiter at the head of the queue try to acquire the lock. Runs on the executor thread.
+   */
+  private void serve(final String scope) {
+    ScheduledFuture<?> retry = retries.remove(scope);
+    if (null != retry)
+      retry.cancel(false);
+
+    if (attempting.containsKey(scope)) {
+      // try again once the attempt in flight has failed
+      pending.add(scope);
+      return;
+    }
+    pending.remove(scope);
+
+    Waiter head = head(scope);
+    if (null == head || head.future.isDone())
+      return; // nobody waiting or dequeue pending
+
+    attempting.put(scope, head);
+    try {
+      attempts.execute(() -> attempt(head));
+    } catch (RejectedExecutionException e) {
+      // shut down - nobody is waiting anymore
+      attempting.remove(scope);
+    }
+  }
+
+  /**
+   * Try to acquire the lock on behalf of the given waiter. Runs on an attempt thread.
+   */
+  private void attempt(final Waiter waiter) {
+    LockRequestResult result;
+    try {
+      result = lockService.tryAcquireLock(waiter.scope, waiter.ownerId);
+    } catch (RuntimeException e) {
+      LOGGER.warn("Can't acquire lock on {} for waiting {}", waiter.scope, waiter.ownerId, e);
+      waiter.future.completeExceptionally(e);
+      submit(() -> attempted(waiter, null));
+      return;
+    }
+
+    if (result.isSuccess()) {
+      // the wait may have been abandoned in the meantime
+      if (!waiter.future.complete(result))
+        lockService.releaseLock(waiter.scope, result.getToken());
+      submit(() -> attempted(waiter, null));
+      return;
+    }
+
+    waiter.lastState = result.getState();
+    submit(() -> attempted(waiter, result));
+  }
+
+  /**
+   * Process the outcome of an attempt. Runs on the executor thread.
+   *
+   * @param waiter the waiter on whose behalf the attempt was made
+   * @param failed the result of a failed attempt or <code>null</code> if the wait is over
+   */
+  private void attempted(final Waiter waiter, final LockRequestResult failed) {
+    String scope = waiter.scope;
+    attempting.remove(scope);
+
+    if (null != failed && waiter.expired) {
+      // dequeuing the waiter serves the next one
+      waiter.future.complete(new LockRequestResult(false, null, failed.getState()));
+      return;
+    }
+
+    if (null == failed || pending.contains(scope)) {
+      serve(scope);
+      return;
+    }
+
+    // retry once the lock in the way expires, but no later than after the retry interval
+    long delay = retryInterval.toMillis();
+    if (null != failed.getState() && null != failed.getState().getValidUntil())
+      delay = Math.min(delay,
+          Math.max(0, Duration.between(Instant.now(), failed.getState().getValidUntil()).toMillis() + 1));
+
+    retries.put(scope, executor.schedule(() -> serve(scope), delay, TimeUnit.MILLISECONDS));
+  }
+
+  /**
+   * Process the timeout of a waiter. Runs on the executor thread.
+   */
+  private void expire(final Waiter waiter) {
+    if (waiter.future.isDone())
+      return;
+
+    if (attempting.get(waiter.scope) == waiter) {
+      // let the attempt in flight decide
+      waiter.expired = true;
+      return;
+    }
+
+    // the lock may have to be queried
+    submit(attempts, () -> fail(waiter));
+  }
+
+  /**
+   * Fail a waiter whose timeout has elapsed. Runs on an attempt thread.
+   */
+  private void fail(final Waiter waiter) {
+    LockState state = waiter.lastState;
+    if (null == state) {
+      try {
+        state = lockService.queryLock(waiter.scope).orElse(null);
+      } catch (RuntimeException e) {
+        LOGGER.warn("Can't query lock on {}", waiter.scope, e);
+      }
+    }
+
+    waiter.future.complete(new LockRequestResult(false, null, state));
+  }
+}
@@ -11,11 +11,85 @@ import org.springframework.stereotype.Component;
 @EnableConfigurationProperties
 public class LockingConfiguration {
   public static class Jpa {
+    public static class Cache {
+      /**
+       * Whether to cache lock states in order to avoid database reads when verifying lock tokens.
+       */
+      private boolean enabled;
+
+      /**
+       * For how long a cached lock state may be used. Lock operations performed by other nodes
+       * may go unnoticed for up to this duration. Default: five seconds.
+       */
+      private Duration staleness = Duration.ofSeconds(5);
+
+      /**
+       * The maximum number of cached lock states. Default: 10000.
+       */
+      private int maximumSize = 10000;
+
+      public boolean isEnabled() {
+        return enabled;
+      }
+
+      public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+      }
+
+      public Duration getStaleness() {
+        return staleness;
+      }
+
+      public void setStaleness(Duration staleness) {
+        this.staleness = staleness;
+      }
+
+      public int getMaximumSize() {
+        return maximumSize;
+      }
+
+      public void setMaximumSize(int maximumSize) {
+        this.maximumSize = maximumSize;
+      }
+    }
+
+    public static class Housekeeping {
+      /**
+       * The interval at which expired locks are deleted. Default: the lock validity duration.
+       */
+      private Duration interval;
+
+      /**
+       * The maximum number of expired locks deleted per transaction. Default: 500.
+       */
+      private int batchSize = 500;
+
+      public Duration getInterval() {
+        return interval;
+      }
+
+      public void setInterval(Duration interval) {
+        this.interval = interval;
+      }
+
+      public int getBatchSize() {
+        return batchSize;
+      }
+
+      public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+      }
+    }
+
     /**
      * Whether to enable JPA-based locking
      */
     private boolean enabled;
 
+    private Cache cache = new Cache();
+
+    private Housekeeping housekeeping = new Housekeeping();
+
     public boolean isEnabled() {
       return enabled;
     }
@@ -23,6 +97,183 @@ public class LockingConfiguration {
     public void setEnabled(boolean enabled) {
       this.enabled = enabled;
     }
+
+    public Cache getCache() {
+      return cache;
+    }
+
+    public void setCache(Cache cache) {
+      this.cache = cache;
+    }
+
+    public Housekeeping getHousekeeping() {
+      return housekeeping;
+    }
+
+    public void setHousekeeping(Housekeeping housekeeping) {
+      this.housekeeping = housekeeping;
+    }
+  }
+
+  public static class Memory {
+    /**
+     * Whether to enable in-memory locking. Suitable for single-node deployments and tests only.
+     */
+    private boolean enabled;
+
+    /**
+     * The resolution with which expired locks are reclaimed. Default: one second.
+     */
+    private Duration expiryResolution = Duration.ofSeconds(1);
+
+    /**
+     * The number of buckets of the timing wheel used to reclaim expired locks. Should cover at
+     * least one validity duration at the expiry resolution. Default: 512.
+     */
+    private int wheelSize = 512;
+
+    public boolean isEnabled() {
+      return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+      this.enabled = enabled;
+    }
+
+    public Duration getExpiryResolution() {
+      return expiryResolution;
+    }
+
+    public void setExpiryResolution(Duration expiryResolution) {
+      this.expiryResolution = expiryResolution;
+    }
+
+    public int getWheelSize() {
+      return wheelSize;
+    }
+
+    public void setWheelSize(int wheelSize) {
+      this.wheelSize = wheelSize;
+    }
+  }
+  
+  public static class Wait {
+    /**
+     * The maximum interval between two attempts to acquire a lock on behalf of a waiting client.
+     * Attempts are usually made as soon as the lock is released or expires, but releases
+     * performed by other nodes are only noticed this way. Default: one second.
+     */
+    private Duration retryInterval = Duration.ofSeconds(1);
+
+    /**
+     * The maximum time a client may wait for a lock using a long-poll request. Should be shorter
+     * than the timeouts for asynchronous requests and of any proxies involved. Default: 20
+     * seconds.
+     */
+    private Duration maximumWait = Duration.ofSeconds(20);
+
+    /**
+     * The maximum number of attempts to acquire locks on behalf of waiting clients which are made
+     * concurrently. Limits the number of store connections used by waiting clients. Default: 4.
+     */
+    private int maximumConcurrentAttempts = 4;
+
+    public Duration getRetryInterval() {
+      return retryInterval;
+    }
+
+    public void setRetryInterval(Duration retryInterval) {
+      this.retryInterval = retryInterval;
+    }
+
+    public Duration getMaximumWait() {
+      return maximumWait;
+    }
+
+    public void setMaximumWait(Duration maximumWait) {
+      this.maximumWait = maximumWait;
+    }
+
+    public int getMaximumConcurrentAttempts() {
+      return maximumConcurrentAttempts;
+    }
+
+    public void setMaximumConcurrentAttempts(int maximumConcurrentAttempts) {
+      this.maximumConcurrentAttempts = maximumConcurrentAttempts;
+    }
+  }
+
+  public static class Metrics {
+    /**
+     * The number of most contended scopes to keep track of. Zero disables tracking. Default: 100.
+     */
+    private int contendedScopes = 100;
+
+    /**
+     * The maximum number of locks whose hold duration is tracked at a time. Default: 10000.
+     */
+    private int trackedHolds = 10000;
+
+    public int getContendedScopes() {
+      return contendedScopes;
+    }
+
+    public void setContendedScopes(int contendedScopes) {
+      this.contendedScopes = contendedScopes;
+    }
+
+    public int getTrackedHolds() {
+      return trackedHolds;
+    }
+
+    public void setTrackedHolds(int trackedHolds) {
+      this.trackedHolds = trackedHolds;
+    }
+  }
+
+  public static class SignedTokens {
+    /**
+     * Whether lock tokens are HMAC-signed, self-describing tokens which can be checked without
+     * store access. See {@link com.neverpile.common.locking.signed.SignedTokenLockService}.
+     */
+    private boolean enabled;
+
+    /**
+     * The base64-encoded secret used to sign lock tokens, at least 32 bytes long. Must be the same
+     * on all nodes.
+     */
+    private String secret;
+
+    /**
+     * For how long after its issuance a valid signed token is accepted without consulting the
+     * actual lock service. Releases performed through other nodes may go unnoticed for that long.
+     * Default: zero, i.e. tokens are always verified by the actual lock service.
+     */
+    private Duration trustWindow = Duration.ZERO;
+
+    public boolean isEnabled() {
+      return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+      this.enabled = enabled;
+    }
+
+    public String getSecret() {
+      return secret;
+    }
+
+    public void setSecret(String secret) {
+      this.secret = secret;
+    }
+
+    public Duration getTrustWindow() {
+      return trustWindow;
+    }
+
+    public void setTrustWindow(Duration trustWindow) {
+      this.trustWindow = trustWindow;
+    }
   }
   
   /**
@@ -30,7 +281,21 @@ public class LockingConfiguration {
    */
   private Duration validityDuration = Duration.ofMinutes(1);
   
+  /**
+   * Whether lock scopes are hierarchical dotted paths with intention-lock semantics, so that a
+   * lock on a scope conflicts with locks on its ancestors and descendants. See {@link LockScopes}.
+   */
+  private boolean hierarchicalScopes;
+
   private Jpa jpa = new Jpa();
+
+  private Memory memory = new Memory();
+
+  private Wait wait = new Wait();
+
+  private Metrics metrics = new Metrics();
+
+  private SignedTokens signedTokens = new SignedTokens();
   
   public Duration getValidityDuration() {
     return validityDuration;
@@ -40,6 +305,14 @@ public class LockingConfiguration {
     this.validityDuration = lockValidity;
   }
 
+  public boolean isHierarchicalScopes() {
+    return hierarchicalScopes;
+  }
+
+  public void setHierarchicalScopes(boolean hierarchicalScopes) {
+    this.hierarchicalScopes = hierarchicalScopes;
+  }
+
   public Jpa getJpa() {
     return jpa;
   }
@@ -47,4 +320,36 @@ public class LockingConfiguration {
   public void setJpa(Jpa jpa) {
     this.jpa = jpa;
   }
+
+  public Memory getMemory() {
+    return memory;
+  }
+
+  public void setMemory(Memory memory) {
+    this.memory = memory;
+  }
+
+  public Wait getWait() {
+    return wait;
+  }
+
+  public void setWait(Wait wait) {
+    this.wait = wait;
+  }
+
+  public Metrics getMetrics() {
+    return metrics;
+  }
+
+  public void setMetrics(Metrics metrics) {
+    this.metrics = metrics;
+  }
+
+  public SignedTokens getSignedTokens() {
+    return signedTokens;
+  }
+
+  public void setSignedTokens(SignedTokens signedTokens) {
+    this.signedTokens = signedTokens;
+  }
 }
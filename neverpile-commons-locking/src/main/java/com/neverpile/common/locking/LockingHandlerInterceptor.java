@@ -0,0 +1,172 @@
+package com.neverpile.common.locking;
+
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.annotation.AnnotatedElementUtils;
+import org.springframework.expression.Expression;
+import org.springframework.expression.ExpressionParser;
+import org.springframework.expression.spel.standard.SpelExpressionParser;
+import org.springframework.expression.spel.support.SimpleEvaluationContext;
+import org.springframework.stereotype.Component;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.AsyncHandlerInterceptor;
+import org.springframework.web.servlet.HandlerMapping;
+
+import com.neverpile.common.locking.RequestLockingService.Mode;
+import com.neverpile.common.locking.RequestLockingService.RequestScopedLock;
+import com.neverpile.common.locking.metrics.LockMetrics;
+
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.DispatcherType;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * A stateless {@link AsyncHandlerInterceptor} performing locking for handler methods annotated
+ * with {@link RequiresLock}. It is registered by the {@link LockingWebMvcConfiguration}.
+ * <p>
+ * Locking is performed just like {@link RequestLockingService#acquireLock(String, Mode)} does, but
+ * without a request scoped bean. An implicitly acquired lock is released once the request has been
+ * completed. For asynchronously processed requests, the lock is held until the asynchronous
+ * processing has been completed, and the lock is neither verified nor acquired again upon the
+ * asynchronous dispatch.
+ */
+@Component
+public class LockingHandlerInterceptor implements AsyncHandlerInterceptor {
+  /**
+   * The name of the request attribute holding the {@link RequestScopedLock} of a request.
+   */
+  public static final String LOCK_ATTRIBUTE = LockingHandlerInterceptor.class.getName() + ".lock";
+
+  private static final class LockDeclaration {
+    private final Expression scope;
+
+    private final Mode mode;
+
+    LockDeclaration(final Expression scope, final Mode mode) {
+      this.scope = scope;
+      this.mode = mode;
+    }
+  }
+
+  @Autowired(required = false)
+  private LockService lockService;
+
+  @Autowired(required = false)
+  private LockMetrics metrics = LockMetrics.NOOP;
+
+  private final ExpressionParser parser = new SpelExpressionParser();
+
+  /**
+   * The lock declarations by handler method, so that annotations are looked up and expressions
+   * parsed only once.
+   */
+  private final ConcurrentMap<Method, Optional<LockDeclaration>> declarations = new ConcurrentHashMap<>();
+
+  @Override
+  public boolean preHandle(final HttpServletRequest request, final HttpServletResponse response,
+      final Object handler) {
+    if (!(handler instanceof HandlerMethod handlerMethod))
+      return true;
+
+    // the lock has been taken care of by the initial dispatch
+    if (request.getDispatcherType() == DispatcherType.ASYNC)
+      return true;
+
+    Optional<LockDeclaration> declaration = declarations.computeIfAbsent(handlerMethod.getMethod(),
+        m -> declare(handlerMethod));
+    if (declaration.isEmpty())
+      return true;
+
+    String scope = evaluateScope(declaration.get(), request);
+    RequestScopedLock lock = RequestLockingService.acquireLock(lockService, metrics, request, response, scope,
+        declaration.get().mode);
+    request.setAttribute(LOCK_ATTRIBUTE, releaseOnce(lock));
+
+    return true;
+  }
+
+  @Override
+  public void afterConcurrentHandlingStarted(final HttpServletRequest request, final HttpServletResponse response,
+      final Object handler) {
+    RequestScopedLock lock = (RequestScopedLock) request.getAttribute(LOCK_ATTRIBUTE);
+    if (null == lock)
+      return;
+
+    // usually released upon completion of the asynchronous dispatch, but not every asynchronous
+    // request is dispatched again, e.g. if the client goes away
+    request.getAsyncContext().addListener(new AsyncListener() {
+      @Override
+      public void onComplete(final AsyncEvent event) {
+        lock.releaseIfLocked();
+      }
+
+      @Override
+      public void onTimeout(final AsyncEvent event) {
+        // completion follows
+      }
+
+      @Override
+      public void onError(final AsyncEvent event) {
+        // completion follows
+      }
+
+      @Override
+      public void onStartAsync(final AsyncEvent event) {
+        // nothing to do
+      }
+    });
+  }
+
+  @Override
+  public void afterCompletion(final HttpServletRequest request, final HttpServletResponse response,
+      final Object handler, final Exception ex) {
+    RequestScopedLock lock = (RequestScopedLock) request.getAttribute(LOCK_ATTRIBUTE);
+    if (null != lock) {
+      request.removeAttribute(LOCK_ATTRIBUTE);
+      lock.releaseIfLocked();
+    }
+  }
+
+  private Optional<LockDeclaration> declare(final HandlerMethod handlerMethod) {
+    RequiresLock requiresLock = handlerMethod.getMethodAnnotation(RequiresLock.class);
+    if (null == requiresLock)
+      requiresLock = AnnotatedElementUtils.findMergedAnnotation(handlerMethod.getBeanType(), RequiresLock.class);
+
+    return Optional.ofNullable(requiresLock) //
+        .map(r -> new LockDeclaration(parser.parseExpression(r.scope()), r.mode()));
+  }
+
+  private String evaluateScope(final LockDeclaration declaration, final HttpServletRequest request) {
+    SimpleEvaluationContext context = SimpleEvaluationContext.forReadOnlyDataBinding().withInstanceMethods().build();
+
+    @SuppressWarnings("unchecked")
+    Map<String, String> uriTemplateVariables = (Map<String, String>) request.getAttribute(
+        HandlerMapping.URI_TEMPLATE_VARIABLES_ATTRIBUTE);
+    if (null != uriTemplateVariables)
+      uriTemplateVariables.forEach(context::setVariable);
+    context.setVariable("request", request);
+
+    String scope = declaration.scope.getValue(context, String.class);
+    if (null == scope || scope.isEmpty())
+      throw new IllegalStateException(
+          "The lock scope expression " + declaration.scope.getExpressionString() + " yielded no scope");
+
+    return scope;
+  }
+
+  private static RequestScopedLock releaseOnce(final RequestScopedLock lock) {
+    AtomicBoolean released = new AtomicBoolean();
+    return () -> {
+      if (released.compareAndSet(false, true))
+        lock.releaseIfLocked();
+    };
+  }
+}
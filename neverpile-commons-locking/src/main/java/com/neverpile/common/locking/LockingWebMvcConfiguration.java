@@ -0,0 +1,20 @@
+package com.neverpile.common.locking;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+/**
+ * Registers the {@link LockingHandlerInterceptor} processing {@link RequiresLock} annotations.
+ */
+@Configuration
+public class LockingWebMvcConfiguration implements WebMvcConfigurer {
+  @Autowired
+  private LockingHandlerInterceptor lockingHandlerInterceptor;
+
+  @Override
+  public void addInterceptors(final InterceptorRegistry registry) {
+    registry.addInterceptor(lockingHandlerInterceptor);
+  }
+}
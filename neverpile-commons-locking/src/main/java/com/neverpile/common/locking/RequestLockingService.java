@@ -3,6 +3,7 @@ package com.neverpile.common.locking;
 import java.security.Principal;
 
 import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Scope;
@@ -11,10 +12,21 @@ import org.springframework.stereotype.Service;
 import org.springframework.web.context.WebApplicationContext;
 
 import com.neverpile.common.locking.LockService.LockRequestResult;
+import com.neverpile.common.locking.LockService.LockVerification;
+import com.neverpile.common.locking.metrics.LockMetrics;
 
 /**
  * A service used to provide locking services for web requests. In can only be used in scope
  * {@link WebApplicationContext#SCOPE_REQUEST}.
+ * <p>
+ * If a request is performed under a lock, the lock's fencing token is reported in the
+ * <code>X-Neverpile-Lock-Fencing-Token</code>-header of the response. Resources may pass it on to
+ * the storage they write to, so that writes performed under a lock that has been lost in the
+ * meantime can be rejected there.
+ * <p>
+ * Controller methods may declare their locking requirements using {@link RequiresLock} instead,
+ * which is processed by the singleton {@link LockingHandlerInterceptor} and thus avoids the creation
+ * of a scoped bean and the proxy dispatch per request.
  */
 @Service
 @Scope(
@@ -58,6 +70,12 @@ public class RequestLockingService {
   @Autowired
   private HttpServletRequest request;
 
+  @Autowired
+  private HttpServletResponse response;
+
+  @Autowired(required = false)
+  private LockMetrics metrics = LockMetrics.NOOP;
+
   /**
    * Perform locking for a web request with the given scope and mode.
    * 
@@ -66,9 +84,20 @@ public class RequestLockingService {
    * @return a lock to be unlocked at the end of the request
    */
   public RequestScopedLock acquireLock(final String scopeId, final Mode mode) {
+    return acquireLock(lockService, metrics, request, response, scopeId, mode);
+  }
+
+  /**
+   * Perform locking for the given web request with the given scope and mode. Used by the request
+   * scoped {@link RequestLockingService} as well as by the stateless
+   * {@link LockingHandlerInterceptor}.
+   */
+  static RequestScopedLock acquireLock(final LockService lockService, final LockMetrics metrics,
+      final HttpServletRequest request, final HttpServletResponse response, final String scopeId, final Mode mode) {
     String lockToken = request.getHeader(LockService.LOCK_TOKEN_HEADER);
 
     LockRequestResult result = null;
+    LockVerification verification = null;
     switch (mode){
       case EXPLICIT :
         if (null == lockService) {
@@ -76,11 +105,15 @@ public class RequestLockingService {
               "Resource is configured for explicit locking but no lock service is available");
         }
         if (null == lockToken) {
+          metrics.request(mode, "rejected");
           throw new LockedException("Required " + LockService.LOCK_TOKEN_HEADER + " header is missing");
         }
-        if (!lockService.verifyLock(scopeId, lockToken)) {
+        verification = lockService.verify(scopeId, lockToken);
+        if (!verification.isValid()) {
+          metrics.request(mode, "rejected");
           throw new LockedException("Lock token is invalid or expired");
         }
+        metrics.request(mode, "verified");
         break;
 
       case IMPLICIT :
@@ -90,24 +123,37 @@ public class RequestLockingService {
         }
         if (null != lockToken) {
           // if a lock token is provided it must be valid
-          if (!lockService.verifyLock(scopeId, lockToken)) {
+          verification = lockService.verify(scopeId, lockToken);
+          if (!verification.isValid()) {
+            metrics.request(mode, "rejected");
             throw new LockedException("Lock token is invalid or expired");
           }
+          metrics.request(mode, "verified");
         } else {
           Principal userPrincipal = request.getUserPrincipal();
           result = lockService.tryAcquireLock(scopeId, userPrincipal != null ? userPrincipal.getName() : "anonymous");
           if (!result.isSuccess()) {
+            metrics.request(mode, "rejected");
             throw new LockedException("Failed to implicitly lock a resource");
           }
+          metrics.request(mode, "acquired");
         }
         break;
 
       default :
       case OPTIMISTIC :
         // nothing to do
+        metrics.request(Mode.OPTIMISTIC, "none");
         break;
     }
 
+    long fencingToken = null != verification
+        ? verification.getFencingToken()
+        : null != result ? result.getState().getFencingToken() : 0;
+    if (0 != fencingToken) {
+      response.setHeader(LockService.FENCING_TOKEN_HEADER, Long.toString(fencingToken));
+    }
+
     final String tokenToUnlock = null != result && result.isSuccess() ? result.getToken() : null;
     return () -> {
       if (null != tokenToUnlock) {
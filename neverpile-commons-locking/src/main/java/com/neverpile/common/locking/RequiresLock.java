@@ -0,0 +1,48 @@
+package com.neverpile.common.locking;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+import com.neverpile.common.locking.RequestLockingService.Mode;
+
+/**
+ * Declares that requests handled by the annotated controller method, or by all handler methods of
+ * the annotated controller, must be performed under a lock. The lock is verified or acquired by the
+ * {@link LockingHandlerInterceptor} before the handler is invoked and an implicitly acquired lock
+ * is released once the request has been completed, including asynchronously completed requests.
+ * <p>
+ * Example:
+ *
+ * <pre>
+ * &#64;PutMapping("/documents/{documentId}")
+ * &#64;RequiresLock(scope = "'document-' + #documentId", mode = Mode.IMPLICIT)
+ * public Document update(&#64;PathVariable String documentId, &#64;RequestBody Document document) {
+ *   ...
+ * }
+ * </pre>
+ */
+@Target({
+    ElementType.METHOD, ElementType.TYPE
+})
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+public @interface RequiresLock {
+  /**
+   * A SpEL expression yielding the lock scope. The expression is evaluated against the request's
+   * URI template variables, which are available as variables, e.g. <code>#documentId</code>. The
+   * request itself is available as <code>#request</code>.
+   *
+   * @return the scope expression
+   */
+  String scope();
+
+  /**
+   * The lock mode.
+   *
+   * @return the mode
+   */
+  Mode mode() default Mode.EXPLICIT;
+}
@@ -0,0 +1,323 @@
+package com.neverpile.common.locking.client;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.neverpile.common.locking.LockService;
+import com.neverpile.common.locking.LockService.BulkLockRequestResult;
+import com.neverpile.common.locking.LockService.LockLostException;
+import com.neverpile.common.locking.LockService.LockRequestResult;
+import com.neverpile.common.locking.LockService.LockState;
+
+/**
+ * Keeps locks held on behalf of a client by renewing them before they expire.
+ * <p>
+ * All held locks are renewed together in a single {@link LockService#extendLocks(Map, String)}
+ * call once per renewal interval, which is a fraction (one third by default) of the lock validity
+ * duration. The remaining validity provides a safety margin against pauses of the client, e.g. due
+ * to garbage collection, and temporary failures of the lock service. A failed renewal is retried
+ * after a quarter of the renewal interval.
+ * <p>
+ * Lock services issuing tokens describing the lock re-issue them upon renewal, see
+ * {@link LockState#getToken()}. The keeper adopts the new tokens, so {@link #getToken(String)} must
+ * be consulted for the current token rather than remembering the one obtained upon acquisition.
+ * <p>
+ * Locks which could not be renewed are no longer kept and their loss is reported to the
+ * {@link LockLossListener} given when the lock was handed to the keeper. A lock is considered lost
+ * if the lock service reports it as such, if it expired while the lock service could not be
+ * reached, or if the renewal yields a different fencing token: the lock has then expired and been
+ * re-acquired silently, so that somebody else may have held it in between and the fencing token
+ * the client is using has become stale. Listeners are notified on virtual threads of their own, so
+ * that they may block without affecting the renewal of other locks.
+ * <p>
+ * Renewals are scheduled by a single virtual thread and never block holding or releasing locks. A
+ * lock released while a renewal is in progress is released once more after the renewal, should the
+ * renewal have re-acquired it. The keeper must be {@link #close() closed} when it is no longer
+ * needed; closing releases all locks still held.
+ */
+public class LockLeaseKeeper implements AutoCloseable {
+  private static final Logger LOGGER = LoggerFactory.getLogger(LockLeaseKeeper.class);
+
+  /**
+   * A listener for the loss of a lock kept by a {@link LockLeaseKeeper}.
+   */
+  @FunctionalInterface
+  public interface LockLossListener {
+    /**
+     * Called once the lock for the given scope has been lost.
+     *
+     * @param scope the lock scope
+     * @param e the exception describing the loss
+     */
+    void lockLost(String scope, LockLostException e);
+  }
+
+  private static final class Lease {
+    /**
+     * The token, which may be re-issued upon renewal.
+     */
+    private volatile String token;
+
+    private final LockLossListener listener;
+
+    private final long fencingToken;
+
+    private volatile Instant validUntil;
+
+    Lease(final String token, final LockState state, final LockLossListener listener) {
+      this.token = token;
+      this.fencingToken = state.getFencingToken();
+      this.validUntil = state.getValidUntil();
+      this.listener = listener;
+    }
+  }
+
+  private final LockService lockService;
+
+  private final String ownerId;
+
+  private final Duration renewalInterval;
+
+  private final ConcurrentMap<String, Lease> leases = new ConcurrentHashMap<>();
+
+  private final Thread renewer;
+
+  private volatile boolean closed;
+
+  /**
+   * Create a keeper renewing locks after a third of the given validity duration.
+   *
+   * @param lockService the lock service
+   * @param ownerId the id of the lock owner
+   * @param validityDuration the validity duration of locks, see
+   *          {@link com.neverpile.common.locking.LockingConfiguration#getValidityDuration()}
+   */
+  public LockLeaseKeeper(final LockService lockService, final String ownerId, final Duration validityDuration) {
+    this(lockService, ownerId, validityDuration, 1d / 3);
+  }
+
+  /**
+   * Create a keeper renewing locks after the given fraction of the given validity duration.
+   *
+   * @param lockService the lock service
+   * @param ownerId the id of the lock owner
+   * @param validityDuration the validity duration of locks, see
+   *          {@link com.neverpile.common.locking.LockingConfiguration#getValidityDuration()}
+   * @param renewalFraction the fraction of the validity duration after which locks are renewed,
+   *          must be greater than zero and less than one
+   */
+  public LockLeaseKeeper(final LockService lockService, final String ownerId, final Duration validityDuration,
+      final double renewalFraction) {
+    if (renewalFraction <= 0 || renewalFraction >= 1)
+      throw new IllegalArgumentException("The renewal fraction must be between zero and one");
+
+    this.lockService = lockService;
+    this.ownerId = ownerId;
+    this.renewalInterval = Duration.ofNanos((long) (validityDuration.toNanos() * renewalFraction));
+
+    renewer = Thread.ofVirtual().name("neverpile-lock-lease-keeper").start(this::run);
+  }
+
+  /**
+   * Keep the lock acquired with the given result.
+   *
+   * @param scope the lock scope
+   * @param result the result of the successful acquisition
+   * @param listener the listener to notify should the lock be lost
+   */
+  public void hold(final String scope, final LockRequestResult result, final LockLossListener listener) {
+    if (!result.isSuccess())
+      throw new IllegalArgumentException("The lock for " + scope + " has not been acquired");
+    if (closed)
+      throw new IllegalStateException("The lease keeper has been closed");
+
+    leases.put(scope, new Lease(result.getToken(), result.getState(), listener));
+  }
+
+  /**
+   * Keep all locks acquired with the given result.
+   *
+   * @param result the result of the successful bulk acquisition
+   * @param listener the listener to notify should one of the locks be lost
+   */
+  public void holdAll(final BulkLockRequestResult result, final LockLossListener listener) {
+    if (!result.isSuccess())
+      throw new IllegalArgumentException("The locks have not been acquired");
+    if (closed)
+      throw new IllegalStateException("The lease keeper has been closed");
+
+    result.getTokens().forEach((scope, token) -> leases.put(scope,
+        new Lease(token, result.getStates().get(scope), listener)));
+  }
+
+  /**
+   * Return the scopes of the locks currently kept.
+   *
+   * @return the scopes
+   */
+  public Set<String> getHeldScopes() {
+    return Collections.unmodifiableSet(leases.keySet());
+  }
+
+  /**
+   * Return the fencing token of the lock kept for the given scope. It doesn't change as long as the
+   * lock is kept.
+   *
+   * @param scope the lock scope
+   * @return the fencing token, zero if unknown, or <code>null</code> if no lock is kept for the scope
+   */
+  public Long getFencingToken(final String scope) {
+    Lease lease = leases.get(scope);
+    return null != lease ? lease.fencingToken : null;
+  }
+
+  /**
+   * Return the token of the lock kept for the given scope.
+   *
+   * @param scope the lock scope
+   * @return the token or <code>null</code> if no lock is kept for the scope
+   */
+  public String getToken(final String scope) {
+    Lease lease = leases.get(scope);
+    return null != lease ? lease.token : null;
+  }
+
+  /**
+   * Stop keeping the lock for the given scope and release it.
+   *
+   * @param scope the lock scope
+   */
+  public void release(final String scope) {
+    Lease lease = leases.remove(scope);
+    if (null != lease)
+      lockService.releaseLock(scope, lease.token);
+  }
+
+  /**
+   * Stop keeping all locks and release them.
+   */
+  public void releaseAll() {
+    Map<String, String> tokens = new LinkedHashMap<>();
+    for (String scope : leases.keySet()) {
+      Lease lease = leases.remove(scope);
+      if (null != lease)
+        tokens.put(scope, lease.token);
+    }
+
+    if (!tokens.isEmpty())
+      lockService.releaseLocks(tokens);
+  }
+
+  /**
+   * Stop renewing and release all locks still held.
+   */
+  @Override
+  public void close() {
+    closed = true;
+    renewer.interrupt();
+    releaseAll();
+  }
+
+  private void run() {
+    Duration delay = renewalInterval;
+    while (!closed) {
+      try {
+        Thread.sleep(delay);
+      } catch (InterruptedException e) {
+        return; // closed
+      }
+
+      delay = renew() ? renewalInterval : renewalInterval.dividedBy(4);
+    }
+  }
+
+  /**
+   * Renew all locks currently held.
+   *
+   * @return whether the lock service could be reached
+   */
+  boolean renew() {
+    if (leases.isEmpty())
+      return true;
+
+    Map<String, Lease> renewed = new HashMap<>(leases);
+    Map<String, String> tokens = new HashMap<>();
+    renewed.forEach((scope, lease) -> tokens.put(scope, lease.token));
+
+    Map<String, LockState> states;
+    try {
+      states = lockService.extendLocks(tokens, ownerId);
+    } catch (RuntimeException e) {
+      LOGGER.warn("Can't renew {} locks", tokens.size(), e);
+
+      // locks which expired in the meantime must be considered lost
+      Instant now = Instant.now();
+      renewed.forEach((scope, lease) -> {
+        if (null != lease.validUntil && lease.validUntil.isBefore(now))
+          lost(scope, lease, false);
+      });
+
+      return false;
+    }
+
+    Map<String, String> stale = new HashMap<>();
+    renewed.forEach((scope, lease) -> {
+      LockState state = states.get(scope);
+      Lease current = leases.get(scope);
+      if (null == state)
+        lost(scope, lease, false);
+      else if (current != lease) {
+        // released while the renewal was in progress, which may have re-acquired the lock
+        if (null == current || !current.token.equals(lease.token))
+          stale.put(scope, lease.token);
+      } else if (lease.fencingToken != 0 && state.getFencingToken() != lease.fencingToken)
+        lost(scope, lease, true);
+      else {
+        if (null != state.getToken())
+          lease.token = state.getToken();
+        lease.validUntil = state.getValidUntil();
+      }
+    });
+
+    if (!stale.isEmpty())
+      lockService.releaseLocks(stale);
+
+    return true;
+  }
+
+  /**
+   * Stop keeping a lost lock and notify the listener.
+   *
+   * @param scope the lock scope
+   * @param lease the lease of the lost lock
+   * @param reacquired whether the lock has been re-acquired with a new fencing token and must be
+   *          released
+   */
+  private void lost(final String scope, final Lease lease, final boolean reacquired) {
+    if (!leases.remove(scope, lease))
+      return;
+
+    if (reacquired)
+      lockService.releaseLock(scope, lease.token);
+
+    LOGGER.info("Lost lock on {}", scope);
+
+    Thread.ofVirtual().name("neverpile-lock-lost").start(() -> {
+      try {
+        lease.listener.lockLost(scope, new LockLostException());
+      } catch (RuntimeException e) {
+        LOGGER.warn("Lock loss listener failed for {}", scope, e);
+      }
+    });
+  }
+}
@@ -0,0 +1,51 @@
+package com.neverpile.common.locking.jpa;
+
+import org.hibernate.boot.ResourceStreamLocator;
+import org.hibernate.boot.model.naming.Identifier;
+import org.hibernate.boot.model.relational.Namespace;
+import org.hibernate.boot.model.relational.Sequence;
+import org.hibernate.boot.spi.AdditionalMappingContributions;
+import org.hibernate.boot.spi.AdditionalMappingContributor;
+import org.hibernate.boot.spi.InFlightMetadataCollector;
+import org.hibernate.boot.spi.MetadataBuildingContext;
+import org.hibernate.mapping.Column;
+
+/**
+ * Contributes the database sequence issuing the fencing tokens of the {@link JPALockService} to the
+ * Hibernate model, so that it is created along with the {@link LockStateEntity}'s table by the
+ * schema management tooling. The sequence's next value is made the default of the
+ * <code>fencing_token</code> column, so that a lock is assigned its fencing token by the very
+ * statement inserting it. The sequence is only contributed to persistence units managing the
+ * {@link LockStateEntity}.
+ * <p>
+ * Databases whose schema is managed otherwise need a sequence named {@value #SEQUENCE_NAME} with an
+ * increment of one, and the <code>fencing_token</code> column must default to its next value (e.g.
+ * <code>default nextval('lock_fencing_tokens')</code> on PostgreSQL).
+ */
+public class FencingTokenSequenceContributor implements AdditionalMappingContributor {
+  /**
+   * The name of the sequence.
+   */
+  public static final String SEQUENCE_NAME = "lock_fencing_tokens";
+
+  @Override
+  public String getContributorName() {
+    return "neverpile-locking";
+  }
+
+  @Override
+  public void contribute(final AdditionalMappingContributions contributions, final InFlightMetadataCollector metadata,
+      final ResourceStreamLocator resourceStreamLocator, final MetadataBuildingContext buildingContext) {
+    if (!metadata.getEntityBindingMap().containsKey(LockStateEntity.class.getName()))
+      return;
+
+    Namespace.Name namespace = metadata.getDatabase().getDefaultNamespace().getPhysicalName();
+    contributions.contributeSequence(new Sequence(getContributorName(), namespace.getCatalog(),
+        namespace.getSchema(), Identifier.toIdentifier(SEQUENCE_NAME), 1, 1));
+
+    Column fencingToken = metadata.getEntityBinding(LockStateEntity.class.getName()).getProperty("fencingToken")
+        .getColumns().get(0);
+    fencingToken.setDefaultValue(
+        metadata.getDatabase().getDialect().getSequenceSupport().getSelectSequenceNextValString(SEQUENCE_NAME));
+  }
+}
@@ -0,0 +1,173 @@
+package com.neverpile.common.locking.jpa;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.neverpile.common.locking.LockEvent;
+import com.neverpile.common.locking.LockingConfiguration;
+import com.neverpile.common.locking.metrics.LockMetrics;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Deletes expired locks on behalf of the {@link JPALockService} in the background, so that lock
+ * operations never have to pay for it.
+ * <p>
+ * Expired locks are deleted in batches of at most <code>neverpile.locking.jpa.housekeeping.batch-size</code>
+ * locks, each in a transaction of its own, in order to keep transactions short even if a large
+ * number of locks has expired. If a {@link MeterRegistry} is available, the number of deleted locks
+ * and the duration of the runs are reported as <code>fusion.lock.housekeeping.deleted</code> and
+ * <code>fusion.lock.housekeeping.duration</code>. A {@link LockEvent.Type#EXPIRED} event is published
+ * for every deleted lock. Each batch is deleted with a single conditional statement without locking
+ * the rows beforehand; locks concurrently re-acquired and released again may therefore be reported
+ * although they have not been deleted by the housekeeping.
+ */
+@Component
+@ConditionalOnProperty(name = "neverpile.locking.jpa.enabled", havingValue = "true")
+@ConditionalOnClass(name = "jakarta.persistence.EntityManager")
+public class JPALockHousekeeping {
+  private static final Logger LOGGER = LoggerFactory.getLogger(JPALockHousekeeping.class);
+
+  /**
+   * Locks are only deleted after this grace period after their expiry.
+   */
+  private static final Duration GRACE_PERIOD = Duration.ofSeconds(1);
+
+  @Autowired
+  private LockStateRepository lockStateRepository;
+
+  @Autowired
+  private LockingConfiguration lockingConfiguration;
+
+  @Autowired
+  private PlatformTransactionManager transactionManager;
+
+  @Autowired
+  private ApplicationEventPublisher eventPublisher;
+
+  @Autowired(required = false)
+  private MeterRegistry meterRegistry;
+
+  @Autowired(required = false)
+  private LockMetrics metrics = LockMetrics.NOOP;
+
+  private TransactionTemplate transactionTemplate;
+
+  private ScheduledExecutorService executor;
+
+  private Counter deletedCounter;
+
+  private Timer durationTimer;
+
+  @PostConstruct
+  public void start() {
+    transactionTemplate = new TransactionTemplate(transactionManager);
+
+    if (null != meterRegistry) {
+      deletedCounter = Counter.builder("fusion.lock.housekeeping.deleted") //
+          .description("expired locks deleted by housekeeping") //
+          .register(meterRegistry);
+      durationTimer = Timer.builder("fusion.lock.housekeeping.duration") //
+          .description("lock housekeeping run duration") //
+          .register(meterRegistry);
+    }
+
+    Duration interval = lockingConfiguration.getJpa().getHousekeeping().getInterval();
+    if (null == interval)
+      interval = lockingConfiguration.getValidityDuration();
+
+    executor = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread t = new Thread(r, "neverpile-lock-housekeeping");
+      t.setDaemon(true);
+      return t;
+    });
+    executor.scheduleWithFixedDelay(this::run, interval.toMillis(), interval.toMillis(), TimeUnit.MILLISECONDS);
+  }
+
+  @PreDestroy
+  public void stop() {
+    executor.shutdownNow();
+  }
+
+  private void run() {
+    try {
+      performHousekeeping();
+    } catch (RuntimeException e) {
+      // must not propagate, otherwise the scheduled task would be cancelled
+      LOGGER.warn("Lock housekeeping failed", e);
+    }
+  }
+
+  /**
+   * Delete all locks that expired more than a small grace period ago.
+   *
+   * @return the number of deleted locks
+   */
+  public int performHousekeeping() {
+    long start = System.nanoTime();
+    Instant deleteBefore = Instant.now().minus(GRACE_PERIOD);
+    int batchSize = lockingConfiguration.getJpa().getHousekeeping().getBatchSize();
+
+    LOGGER.debug("Running housekeeping, deleting locks expired before {}", deleteBefore);
+
+    int total = 0;
+    while (true) {
+      List<String> expired = new ArrayList<>();
+      Integer selected = transactionTemplate.execute(status -> {
+        List<String> scopes = lockStateRepository.findExpiredScopes(deleteBefore, PageRequest.of(0, batchSize));
+        if (scopes.isEmpty())
+          return 0;
+
+        int deleted = lockStateRepository.deleteExpired(scopes, deleteBefore);
+        expired.addAll(scopes);
+
+        // Locks re-acquired since they have been selected are not deleted and must not be reported.
+        // Those are still present - unless released again in the meantime, so the report is
+        // approximate.
+        if (deleted < scopes.size())
+          lockStateRepository.findAllById(scopes).forEach(lse -> expired.remove(lse.getScope()));
+
+        return scopes.size();
+      });
+
+      total += expired.size();
+      expired.forEach(scope -> {
+        metrics.expired(scope);
+        eventPublisher.publishEvent(new LockEvent(LockEvent.Type.EXPIRED, scope, null));
+      });
+      if (null != deletedCounter)
+        deletedCounter.increment(expired.size());
+
+      // a short batch means we're done
+      if (selected < batchSize)
+        break;
+    }
+
+    if (null != durationTimer)
+      durationTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+
+    LOGGER.debug("Housekeeping deleted {} expired locks", total);
+
+    return total;
+  }
+}
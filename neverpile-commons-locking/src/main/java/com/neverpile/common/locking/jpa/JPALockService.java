@@ -1,11 +1,19 @@
 package com.neverpile.common.locking.jpa;
 
+import java.time.Duration;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
-import java.util.Objects;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.TreeMap;
+import java.util.TreeSet;
 import java.util.UUID;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.CompletableFuture;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -13,15 +21,29 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.boot.autoconfigure.domain.EntityScan;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.context.annotation.ComponentScan;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.data.jpa.repository.config.EnableJpaRepositories;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import com.neverpile.common.locking.LockEvent;
+import com.neverpile.common.locking.LockScopes;
 import com.neverpile.common.locking.LockService;
+import com.neverpile.common.locking.LockWaitQueues;
 import com.neverpile.common.locking.LockingConfiguration;
+import com.neverpile.common.locking.metrics.LockMetrics;
 
-import jakarta.persistence.EntityExistsException;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import jakarta.persistence.PersistenceException;
 
 /**
@@ -30,6 +52,52 @@ import jakarta.persistence.PersistenceException;
  * <code>true</code>.
  * <p>
  * The implementation will contribute the {@link LockStateEntity} to the general JPA context.
+ * <p>
+ * Lock operations are performed using the conditional statements provided by the
+ * {@link LockStateRepository} instead of read-modify-write cycles. They are therefore correct under
+ * concurrent contention without resorting to pessimistic row locks, and the common cases take a
+ * single round trip. The bulk operations use multi-row and <code>IN</code>-list statements covering up
+ * to {@value #BULK_BATCH_SIZE} scopes each and process the scopes in their natural order, so that
+ * concurrent bulk operations on overlapping scopes cannot deadlock.
+ * <p>
+ * Expired locks are removed in the background by the {@link JPALockHousekeeping}.
+ * <p>
+ * Fencing tokens are drawn from the database sequence contributed by the
+ * {@link FencingTokenSequenceContributor}. A lock is assigned its fencing token by the column
+ * default, i.e. by the very statement inserting it, which only produces a row once it has found the
+ * scope to be free. As a concurrent acquisition of the same scope can't insert its lock until the
+ * inserting transaction has completed, successive holders of a lock get increasing fencing tokens,
+ * even if they acquired it on different nodes. Locks acquired in bulk share a single fencing token,
+ * which is drawn after they have been inserted and recorded in a second statement.
+ * <p>
+ * State changes are published as {@link LockEvent}s once the transaction performing them has been
+ * committed. The expiry of a lock is published once it is deleted by the housekeeping or replaced
+ * by a new lock.
+ * <p>
+ * Clients waiting for a lock are queued in {@link LockWaitQueues}. Releases performed on this node
+ * are signalled to them once committed, whereas releases performed on other nodes are only noticed
+ * after <code>neverpile.locking.wait.retry-interval</code>.
+ * <p>
+ * Acquisitions, including the silent re-acquisition of lost locks by the extension methods, are
+ * never performed within the caller's transaction, but in transactions of their own. Those are run
+ * one after the other, so that an acquisition never occupies more than a single connection.
+ * <p>
+ * If <code>neverpile.locking.hierarchical-scopes</code> is enabled, an acquisition is performed in
+ * two transactions: the first one inserts the lock, the second one looks for valid locks on the
+ * scope's ancestors using an <code>IN</code>-list
+ * and on its descendants using a prefix <code>LIKE</code>-pattern, both of which are served by the
+ * primary key index. If a conflicting lock is found, the new lock is deleted again. As both
+ * transactions of two concurrent conflicting acquisitions are committed in order, at least one of
+ * them observes the other's lock: at most one of them succeeds, although both may fail. On
+ * databases using locale-aware collations the index may not be usable for <code>LIKE</code>
+ * queries unless it is created with a suitable operator class (e.g.
+ * <code>varchar_pattern_ops</code> on PostgreSQL).
+ * <p>
+ * If <code>neverpile.locking.jpa.cache.enabled</code> is set to <code>true</code>, lock states are
+ * cached in a {@link LockStateCache}, so that most calls to {@link #verifyLock(String, String)} can
+ * be answered without a database read. The cache is kept coherent with the lock operations
+ * performed on this node once their transactions have been committed. Lock operations performed
+ * on other nodes may go unnoticed for up to <code>neverpile.locking.jpa.cache.staleness</code>.
  */
 @Service
 @ConditionalOnProperty(name = "neverpile.locking.jpa.enabled", havingValue = "true")
@@ -41,136 +109,215 @@ import jakarta.persistence.PersistenceException;
 public class JPALockService implements LockService {
   private static final Logger LOGGER = LoggerFactory.getLogger(JPALockService.class);
 
+  /**
+   * The maximum number of scopes covered by a single statement of a bulk operation.
+   */
+  static final int BULK_BATCH_SIZE = 500;
+
   @Autowired
   private LockStateRepository lockStateRepository;
 
   @Autowired
   private LockingConfiguration lockingConfiguration;
 
-  private final AtomicLong nextHousekeeping = new AtomicLong();
+  @Autowired
+  private PlatformTransactionManager transactionManager;
+
+  @Autowired
+  private ApplicationEventPublisher eventPublisher;
+
+  @Autowired(required = false)
+  private LockMetrics metrics = LockMetrics.NOOP;
+
+  /**
+   * The transactional proxy of this service, used by the wait queues.
+   */
+  @Autowired
+  @Lazy
+  private JPALockService self;
+
+  private LockWaitQueues waitQueues;
+
+  private LockStateCache cache;
+
+  private TransactionTemplate transactionTemplate;
+
+  private boolean hierarchical;
+
+  @PostConstruct
+  public void init() {
+    transactionTemplate = new TransactionTemplate(transactionManager);
+    hierarchical = lockingConfiguration.isHierarchicalScopes();
+    waitQueues = new LockWaitQueues(self, lockingConfiguration.getWait().getRetryInterval(),
+        lockingConfiguration.getWait().getMaximumConcurrentAttempts(), hierarchical);
+
+    LockingConfiguration.Jpa.Cache config = lockingConfiguration.getJpa().getCache();
+    if (config.isEnabled())
+      cache = new LockStateCache(config.getStaleness(), config.getMaximumSize());
+  }
+
+  @PreDestroy
+  public void stop() {
+    waitQueues.shutdown();
+  }
 
   @Override
+  @Transactional(propagation = Propagation.NOT_SUPPORTED)
   public LockRequestResult tryAcquireLock(String scope, String ownerId) {
-    performHousekeeping();
-
     return tryAcquire(scope, ownerId, UUID.randomUUID().toString());
   }
 
+  @Override
+  @Transactional(propagation = Propagation.NOT_SUPPORTED)
+  public CompletableFuture<LockRequestResult> acquireLock(String scope, String ownerId, Duration timeout) {
+    return waitQueues.acquire(scope, ownerId, timeout);
+  }
+
+  /**
+   * Try to acquire the lock in transactions of our own. Must not be called within a transaction.
+   */
   private LockRequestResult tryAcquire(String scope, String ownerId, String token) {
-    Optional<LockStateEntity> existing = lockStateRepository.findById(scope);
+    LockRequestResult result = hierarchical
+        ? tryAcquireHierarchical(scope, ownerId, token)
+        : tryAcquireExact(scope, ownerId, token);
+
+    if (result.isSuccess()) {
+      metrics.acquired(scope, token);
+      publish(LockEvent.Type.ACQUIRED, scope, result.getState());
+    } else {
+      metrics.conflict(scope);
+    }
 
-    // Existing lock owned by requester? Just extend it. Expired? Delete existing lock.
-    if (existing.isPresent()) {
-      LockStateEntity lse = existing.get();
-      if (lse.getValidUntil().isBefore(Instant.now())) {
-        lockStateRepository.delete(lse);
-      } else if (Objects.equals(lse.getOwnerId(), ownerId) && Objects.equals(lse.getLockToken(), token)) {
-        try {
-          LockState extendedLock = extendLock(scope, token, ownerId);
-          return new LockRequestResult(true, token, new LockState(lse.getOwnerId(), extendedLock.getValidUntil(), lse.getContestant()));
-        } catch (LockLostException e) {
-          return new LockRequestResult(false, null, new LockState(lse.getOwnerId(), lse.getValidUntil(), lse.getContestant()));
-        }
-      } else {
-        return new LockRequestResult(false, null, new LockState(lse.getOwnerId(), lse.getValidUntil(), lse.getContestant()));
+    return result;
+  }
+
+  private LockRequestResult tryAcquireHierarchical(String scope, String ownerId, String token) {
+    LockRequestResult result = tryAcquireExact(scope, ownerId, token);
+    if (!result.isSuccess())
+      return result;
+
+    // our lock is visible to others now - look for conflicting ones
+    LockState conflicting = transactionTemplate.execute(status -> {
+      LockState found = findConflicting(scope, Instant.now());
+      if (null != found && lockStateRepository.deleteIfOwned(scope, token) > 0) {
+        cacheAfterCommit(scope, null, null, 0);
+        releasedAfterCommit(Collections.singletonList(scope));
       }
-    }
+      return found;
+    });
+
+    return null != conflicting ? new LockRequestResult(false, null, conflicting) : result;
+  }
+
+  /**
+   * Find a valid lock on one of the ancestors or descendants of the given scope.
+   */
+  private LockState findConflicting(String scope, Instant now) {
+    List<LockStateEntity> found = new ArrayList<>();
+
+    List<String> ancestors = LockScopes.ancestors(scope);
+    if (!ancestors.isEmpty())
+      found.addAll(lockStateRepository.findValid(ancestors, now));
+
+    String prefix = LockScopes.descendantPrefix(scope);
+    if (found.isEmpty() && null != prefix)
+      found.addAll(lockStateRepository.findValidMatching(
+          prefix.replace("!", "!!").replace("%", "!%").replace("_", "!_") + "%", now, PageRequest.of(0, 1)));
 
-    // prepare new lock
+    return found.stream().findFirst().map(JPALockService::toState).orElse(null);
+  }
+
+  /**
+   * Try to acquire the lock on exactly the given scope in a transaction of its own.
+   */
+  private LockRequestResult tryAcquireExact(String scope, String ownerId, String token) {
     LockState state = new LockState(ownerId,
         Instant.now().truncatedTo(ChronoUnit.MICROS).plus(lockingConfiguration.getValidityDuration()), null);
 
-    LockStateEntity lse = new LockStateEntity();
-    lse.setScope(scope);
-    lse.setLockToken(token);
-    lse.setOwnerId(ownerId);
-    lse.setValidUntil(state.getValidUntil());
-
-    // persist lock
     try {
-      lockStateRepository.save(lse);
-    } catch (EntityExistsException e) {
-      // late lock collision - report as fail
-      LockRequestResult failure = new LockRequestResult(false, null,
-          new LockState(lse.getOwnerId(), lse.getValidUntil(), null));
-
-      // still try to tell the requester who owns the lock
-      try {
-        lockStateRepository.findById(scope).ifPresent(
-            existingLse -> failure.setState(new LockState(existingLse.getOwnerId(), existingLse.getValidUntil(), existingLse.getContestant())));
-      } catch (PersistenceException f) {
-        // ignore exceptions during this phase
-        LOGGER.warn("Can't report actual owner on late collision", f);
-      }
+      return transactionTemplate.execute(status -> insertLock(scope, token, state));
+    } catch (DataIntegrityViolationException e) {
+      // a concurrent request inserted its lock between our check and our insert
+      return collision(scope, state);
+    }
+  }
 
-      return failure;
+  private LockRequestResult insertLock(String scope, String token, LockState state) {
+    // Free scope? Then a single insert does the job. Otherwise, an expired lock is in the way which
+    // we can remove and then try again.
+    boolean acquired = lockStateRepository.insertIfAbsent(scope, state.getOwnerId(), state.getValidUntil(),
+        token) > 0;
+    if (!acquired && lockStateRepository.deleteIfExpired(scope, Instant.now()) > 0) {
+      metrics.expired(scope);
+      publish(LockEvent.Type.EXPIRED, scope, null);
+      acquired = lockStateRepository.insertIfAbsent(scope, state.getOwnerId(), state.getValidUntil(), token) > 0;
     }
 
+    if (!acquired)
+      return collision(scope, state);
+
+    // the fencing token has been assigned by the insert
+    lockStateRepository.findById(scope).ifPresent(lse -> state.setFencingToken(lse.getFencingToken()));
+
+    cacheAfterCommit(scope, token, state.getValidUntil(), state.getFencingToken());
+
     return new LockRequestResult(true, token, state);
   }
 
+  /**
+   * Report a lock collision as a failure, but still try to tell the requester who owns the lock.
+   */
+  private LockRequestResult collision(String scope, LockState state) {
+    LockRequestResult failure = new LockRequestResult(false, null, state);
+    try {
+      lockStateRepository.findById(scope).ifPresent(existingLse -> failure.setState(toState(existingLse)));
+    } catch (PersistenceException f) {
+      // ignore exceptions during this phase
+      LOGGER.warn("Can't report actual owner on lock collision", f);
+    }
+
+    return failure;
+  }
+
   @Override
   public boolean contestLock(String scope, String contestantId) {
-    Optional<LockStateEntity> existing = lockStateRepository.findById(scope);
+    // expired, own, or missing locks can't be contested
+    if (lockStateRepository.contestIfHeldByOther(scope, contestantId, Instant.now()) == 0)
+      return false;
 
-    // handle existing lock:
-    if (existing.isPresent()) {
-      LockStateEntity lse = existing.get();
-      if (lse.getValidUntil().isBefore(Instant.now())) {
-        lockStateRepository.delete(lse);
-        return false; // lock is free.
-      } else if (Objects.equals(lse.getOwnerId(), contestantId)) {
-        return false; // contestant already owns the lock.
-      } else {
-        lse.setContestant(contestantId);
-        lockStateRepository.save(lse);
-        return true; // lock is now contested.
-      }
-    }
-
-    return false; // scope is not locked.
+    metrics.contested(scope);
+    publish(LockEvent.Type.CONTESTED, scope, queryLock(scope).orElse(null));
+    return true;
   }
 
   @Override
   public void resolveContest(String scope, String token) {
-    Optional<LockStateEntity> existing = lockStateRepository.findById(scope);
-    if (existing.isPresent()) {
-      LockStateEntity lse = existing.get();
-      if (Objects.equals(lse.getLockToken(), token)) {
-        lse.setContestant(null);
-        lockStateRepository.save(lse);
-      }
-    }
+    lockStateRepository.clearContestIfOwned(scope, token);
   }
 
   @Override
+  @Transactional(propagation = Propagation.NOT_SUPPORTED)
   public LockState extendLock(String scope, String token, String ownerId) throws LockLostException {
-    Optional<LockStateEntity> existing = lockStateRepository.findById(scope);
-
-    if (existing.isPresent()) {
-      LockStateEntity lse = existing.get();
-      if (lse.getValidUntil().isAfter(Instant.now())) {
-        if (Objects.equals(lse.getLockToken(), token)) {
-          lse.setValidUntil(
-              Instant.now().truncatedTo(ChronoUnit.MICROS).plus(lockingConfiguration.getValidityDuration()));
-
-          // persist updated lock
-          try {
-            lockStateRepository.save(lse);
-
-            return new LockState(lse.getOwnerId(), lse.getValidUntil(), lse.getContestant());
-          } catch (EntityExistsException e) {
-            // late lock collision - report as fail (fall out)
-          }
-        } else {
-          // has been acquired otherwise
-          throw new LockLostException();
-        }
-      }
-    }
-
-    // try silent re-acquire
+    LockState extended = transactionTemplate.execute(status -> {
+      Instant now = Instant.now();
+      Instant validUntil = now.truncatedTo(ChronoUnit.MICROS).plus(lockingConfiguration.getValidityDuration());
+
+      // the extension also reports the contestant and fencing token
+      return lockStateRepository.extendIfOwned(scope, token, now, validUntil).map(lse -> {
+        LockState state = toState(lse);
+        cacheAfterCommit(scope, token, validUntil, state.getFencingToken());
+        publish(LockEvent.Type.EXTENDED, scope, state);
+        return state;
+      }).orElse(null);
+    });
+
+    if (null != extended)
+      return extended;
+
+    // Either expired, released or acquired otherwise: try silent re-acquire. This fails if the lock
+    // is held by another party.
     LockRequestResult result = tryAcquire(scope, ownerId, token);
+    metrics.reacquired(scope, result.isSuccess());
     if (!result.isSuccess()) {
       // re-acquire failed
       throw new LockLostException();
@@ -181,12 +328,11 @@ public class JPALockService implements LockService {
 
   @Override
   public void releaseLock(String scope, String token) {
-    Optional<LockStateEntity> existing = lockStateRepository.findById(scope);
-    if (existing.isPresent()) {
-      LockStateEntity lse = existing.get();
-      if (Objects.equals(lse.getLockToken(), token)) {
-        lockStateRepository.delete(lse);
-      }
+    if (lockStateRepository.deleteIfOwned(scope, token) > 0) {
+      cacheAfterCommit(scope, null, null, 0);
+      releasedAfterCommit(Collections.singletonList(scope));
+      metrics.released(scope, token);
+      publish(LockEvent.Type.RELEASED, scope, null);
     }
 
     // in all other cases just ignore the request
@@ -194,33 +340,343 @@ public class JPALockService implements LockService {
 
   @Override
   public Optional<LockState> queryLock(String scope) {
-    return lockStateRepository.findById(scope).map(
-        lse -> new LockService.LockState(lse.getOwnerId(), lse.getValidUntil(), lse.getContestant()));
+    return lockStateRepository.findById(scope).map(JPALockService::toState);
   }
 
   /**
-   * Expire locks older that one lock validity duration
+   * {@inheritDoc}
+   * <p>
+   * All locks share a single token. The acquisition is always performed in a transaction of its
+   * own: the scopes are checked for existing locks, expired ones among them are removed and the new
+   * locks are inserted using a multi-row statement. Should a concurrent request acquire one of the
+   * locks between the check and the insert, the insert fails and the whole transaction is rolled
+   * back.
+   * With hierarchical scopes, the locks are acquired one by one instead.
    */
-  private void performHousekeeping() {
-    long nextRun = nextHousekeeping.get();
+  @Override
+  @Transactional(propagation = Propagation.NOT_SUPPORTED)
+  public BulkLockRequestResult tryAcquireLocks(Collection<String> scopes, String ownerId) {
+    if (hierarchical)
+      // conflicts can't be detected using a single statement - fall back to acquiring one by one
+      return tryAcquireOneByOne(scopes, ownerId);
+
+    List<String> sorted = new ArrayList<>(new TreeSet<>(scopes));
+    String token = UUID.randomUUID().toString();
     Instant now = Instant.now();
-    if (nextRun < now.toEpochMilli() && nextHousekeeping.compareAndSet(nextRun,
-        now.plus(lockingConfiguration.getValidityDuration()).toEpochMilli())) {
-      // small grace period
-      Instant deleteBefore = now.minusSeconds(1);
-      LOGGER.debug("Running housekeeping, deleting locks expired before {}", deleteBefore);
-      lockStateRepository.deleteByValidUntilBefore(deleteBefore);
+    Instant validUntil = now.truncatedTo(ChronoUnit.MICROS).plus(lockingConfiguration.getValidityDuration());
+
+    long[] fencingToken = new long[1];
+    List<String> expired = new ArrayList<>();
+    Map<String, LockState> conflicts;
+    try {
+      conflicts = transactionTemplate.execute(status -> {
+        for (List<String> batch : batches(sorted)) {
+          Map<String, LockState> existing = queryLocks(batch);
+          List<String> reclaimed = new ArrayList<>();
+          existing.forEach((scope, state) -> {
+            if (state.getValidUntil().isBefore(now))
+              reclaimed.add(scope);
+          });
+          existing.keySet().removeAll(reclaimed);
+          if (!existing.isEmpty()) {
+            // all or nothing
+            status.setRollbackOnly();
+            return existing;
+          }
+
+          // Should one of them be re-acquired concurrently, it is left alone and the insert fails.
+          if (!reclaimed.isEmpty()) {
+            lockStateRepository.deleteExpired(reclaimed, now);
+            reclaimed.forEach(scope -> publish(LockEvent.Type.EXPIRED, scope, null));
+            expired.addAll(reclaimed);
+          }
+
+          lockStateRepository.insertAll(batch, ownerId, validUntil, token);
+        }
+
+        fencingToken[0] = lockStateRepository.nextFencingToken();
+        batches(sorted).forEach(batch -> lockStateRepository.fenceAllIfOwned(batch, token, fencingToken[0]));
+
+        sorted.forEach(scope -> {
+          cacheAfterCommit(scope, token, validUntil, fencingToken[0]);
+          publish(LockEvent.Type.ACQUIRED, scope, new LockState(ownerId, validUntil, null, fencingToken[0]));
+        });
+
+        return Collections.emptyMap();
+      });
+    } catch (DataIntegrityViolationException e) {
+      // lost a race against a concurrent request - report the locks that are in the way now
+      expired.clear();
+      conflicts = queryLocks(sorted);
+    }
+
+    if (!conflicts.isEmpty()) {
+      // the removal of expired locks has been rolled back as well
+      conflicts.keySet().forEach(metrics::conflict);
+      return new BulkLockRequestResult(false, Collections.emptyMap(), conflicts);
+    }
+
+    expired.forEach(metrics::expired);
+
+    Map<String, String> tokens = new LinkedHashMap<>();
+    Map<String, LockState> states = new LinkedHashMap<>();
+    for (String scope : sorted) {
+      tokens.put(scope, token);
+      states.put(scope, new LockState(ownerId, validUntil, null, fencingToken[0]));
+      metrics.acquired(scope, token);
     }
+
+    return new BulkLockRequestResult(true, tokens, states);
+  }
+
+  /**
+   * Acquire the locks one by one, releasing the ones already acquired upon failure, like the default
+   * implementation does, but with each step performed in transactions of its own.
+   */
+  private BulkLockRequestResult tryAcquireOneByOne(Collection<String> scopes, String ownerId) {
+    Map<String, String> tokens = new LinkedHashMap<>();
+    Map<String, LockState> states = new LinkedHashMap<>();
+
+    for (String scope : new TreeSet<>(scopes)) {
+      LockRequestResult result = tryAcquire(scope, ownerId, UUID.randomUUID().toString());
+      if (!result.isSuccess()) {
+        transactionTemplate.executeWithoutResult(status -> tokens.forEach(this::releaseLock));
+        return new BulkLockRequestResult(false, Collections.emptyMap(),
+            Collections.singletonMap(scope, result.getState()));
+      }
+
+      tokens.put(scope, result.getToken());
+      states.put(scope, result.getState());
+    }
+
+    return new BulkLockRequestResult(true, tokens, states);
+  }
+
+  @Override
+  @Transactional(propagation = Propagation.NOT_SUPPORTED)
+  public Map<String, LockState> extendLocks(Map<String, String> tokens, String ownerId) {
+    Map<String, LockState> states = transactionTemplate.execute(status -> {
+      Instant now = Instant.now();
+      Instant validUntil = now.truncatedTo(ChronoUnit.MICROS).plus(lockingConfiguration.getValidityDuration());
+
+      // usually, all locks share the same token, as they have been acquired in bulk
+      Map<String, List<String>> scopesByToken = new TreeMap<>();
+      new TreeMap<>(tokens).forEach(
+          (scope, token) -> scopesByToken.computeIfAbsent(token, t -> new ArrayList<>()).add(scope));
+
+      scopesByToken.forEach((token, scopes) -> batches(scopes).forEach(
+          batch -> lockStateRepository.extendAllIfOwned(batch, token, now, validUntil)));
+
+      Map<String, LockState> extended = new TreeMap<>();
+      for (List<String> batch : batches(new ArrayList<>(new TreeSet<>(tokens.keySet()))))
+        lockStateRepository.findAllById(batch).forEach(lse -> {
+          if (lse.getLockToken().equals(tokens.get(lse.getScope())) && lse.getValidUntil().isAfter(now)) {
+            LockState state = toState(lse);
+            extended.put(lse.getScope(), state);
+            cacheAfterCommit(lse.getScope(), lse.getLockToken(), lse.getValidUntil(), state.getFencingToken());
+            publish(LockEvent.Type.EXTENDED, lse.getScope(), state);
+          }
+        });
+      return extended;
+    });
+
+    // the remaining ones are expired or gone: try silent re-acquire
+    for (String scope : new TreeSet<>(tokens.keySet()))
+      if (!states.containsKey(scope)) {
+        LockRequestResult result = tryAcquire(scope, ownerId, tokens.get(scope));
+        metrics.reacquired(scope, result.isSuccess());
+        if (result.isSuccess())
+          states.put(scope, result.getState());
+      }
+
+    return states;
   }
 
+  @Override
+  public void releaseLocks(Map<String, String> tokens) {
+    Map<String, List<String>> scopesByToken = new TreeMap<>();
+    new TreeMap<>(tokens).forEach(
+        (scope, token) -> scopesByToken.computeIfAbsent(token, t -> new ArrayList<>()).add(scope));
+
+    scopesByToken.forEach((token, scopes) -> batches(scopes).forEach(batch -> {
+      // find out which locks are actually released for the events
+      List<LockStateEntity> owned = new ArrayList<>();
+      lockStateRepository.findAllById(batch).forEach(lse -> {
+        if (lse.getLockToken().equals(token))
+          owned.add(lse);
+      });
+
+      if (lockStateRepository.deleteAllIfOwned(batch, token) > 0) {
+        owned.forEach(lse -> {
+          metrics.released(lse.getScope(), token);
+          publish(LockEvent.Type.RELEASED, lse.getScope(), toState(lse));
+        });
+        // we don't know which ones have actually been deleted
+        invalidateAfterCompletion(batch);
+        releasedAfterCommit(batch);
+      }
+    }));
+  }
+
+  @Override
+  public Map<String, LockState> queryLocks(Collection<String> scopes) {
+    Map<String, LockState> states = new TreeMap<>();
+    for (List<String> batch : batches(new ArrayList<>(new TreeSet<>(scopes))))
+      lockStateRepository.findAllById(batch).forEach(lse -> states.put(lse.getScope(), toState(lse)));
+    return states;
+  }
+
+  private static LockState toState(LockStateEntity lse) {
+    return new LockState(lse.getOwnerId(), lse.getValidUntil(), lse.getContestant(),
+        null != lse.getFencingToken() ? lse.getFencingToken() : 0);
+  }
+
+  /**
+   * Publish a lock event once the current transaction has been committed.
+   */
+  private void publish(LockEvent.Type type, String scope, LockState state) {
+    LockEvent event = new LockEvent(type, scope, state);
+    if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+      eventPublisher.publishEvent(event);
+      return;
+    }
+
+    TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+      @Override
+      public void afterCommit() {
+        eventPublisher.publishEvent(event);
+      }
+    });
+  }
+
+  private static List<List<String>> batches(List<String> scopes) {
+    List<List<String>> batches = new ArrayList<>();
+    for (int i = 0; i < scopes.size(); i += BULK_BATCH_SIZE)
+      batches.add(scopes.subList(i, Math.min(i + BULK_BATCH_SIZE, scopes.size())));
+    return batches;
+  }
+
+  /**
+   * Signal the release of the given scopes to the wait queues once the current transaction has been
+   * committed.
+   */
+  private void releasedAfterCommit(Collection<String> scopes) {
+    List<String> copy = new ArrayList<>(scopes);
+    if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+      copy.forEach(waitQueues::released);
+      return;
+    }
+
+    TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+      @Override
+      public void afterCommit() {
+        copy.forEach(waitQueues::released);
+      }
+    });
+  }
+
+  /**
+   * Evict the given scopes from the cache once the current transaction has completed.
+   */
+  private void invalidateAfterCompletion(Collection<String> scopes) {
+    if (null == cache)
+      return;
+
+    List<String> copy = new ArrayList<>(scopes);
+    if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+      copy.forEach(cache::invalidate);
+      return;
+    }
+
+    TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+      @Override
+      public void afterCompletion(int status) {
+        copy.forEach(cache::invalidate);
+      }
+    });
+  }
+
+  /**
+   * Record the given lock state in the cache once the current transaction has been committed.
+   * Should the transaction be rolled back, the scope is evicted from the cache instead, as we don't
+   * know what the current state is.
+   */
+  private void cacheAfterCommit(String scope, String token, Instant validUntil, long fencingToken) {
+    if (null == cache)
+      return;
+
+    if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+      cache.written(scope, token, validUntil, fencingToken);
+      return;
+    }
+
+    TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+      @Override
+      public void afterCompletion(int status) {
+        if (status == STATUS_COMMITTED)
+          cache.written(scope, token, validUntil, fencingToken);
+        else
+          cache.invalidate(scope);
+      }
+    });
+  }
+
+  /**
+   * {@inheritDoc}
+   * <p>
+   * With hierarchical scopes, a lock on an ancestor of the scope must match the token as well.
+   */
   @Override
   public boolean verifyLock(String scope, String token) {
-    return lockStateRepository.findById(scope).map(lse ->
-            // matching token?
-            lse.getLockToken().equals(token) ||
-                // expired lock state means "not locked"
-                Instant.now().isAfter(lse.getValidUntil()))
-        // not found -> ok as well.
-        .orElse(true);
+    return verify(scope, token).isValid();
+  }
+
+  /**
+   * {@inheritDoc}
+   * <p>
+   * With hierarchical scopes, a lock on an ancestor of the scope must match the token as well. If
+   * the scope itself isn't locked, the fencing token of the lock on its ancestor is reported.
+   */
+  @Override
+  public LockVerification verify(String scope, String token) {
+    LockVerification verification = verifyExact(scope, token);
+
+    if (hierarchical)
+      for (String ancestor : LockScopes.ancestors(scope)) {
+        if (!verification.isValid())
+          break;
+
+        LockVerification ancestral = verifyExact(ancestor, token);
+        verification = new LockVerification(ancestral.isValid(),
+            0 != verification.getFencingToken() ? verification.getFencingToken() : ancestral.getFencingToken());
+      }
+
+    return verification.isValid() ? verification : new LockVerification(false, 0);
+  }
+
+  private LockVerification verifyExact(String scope, String token) {
+    Instant now = Instant.now();
+
+    if (null != cache) {
+      LockStateCache.Entry cached = cache.get(scope);
+      if (null != cached)
+        return new LockVerification(cached.verify(token, now), cached.isLocked(now) ? cached.getFencingToken() : 0);
+    }
+
+    Optional<LockStateEntity> existing = lockStateRepository.findById(scope);
+    if (null != cache) {
+      if (existing.isPresent())
+        cache.loaded(scope, existing.get().getLockToken(), existing.get().getValidUntil(),
+            toState(existing.get()).getFencingToken());
+      else
+        cache.loaded(scope, null, null, 0);
+    }
+
+    // not found or expired -> not locked
+    if (!existing.isPresent() || now.isAfter(existing.get().getValidUntil()))
+      return new LockVerification(true, 0);
+
+    // matching token?
+    return new LockVerification(existing.get().getLockToken().equals(token), toState(existing.get()).getFencingToken());
   }
 }
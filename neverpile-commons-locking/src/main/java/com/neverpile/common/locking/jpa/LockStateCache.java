@@ -0,0 +1,153 @@
+package com.neverpile.common.locking.jpa;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A near cache of lock states used by {@link JPALockService} to answer
+ * {@link JPALockService#verifyLock(String, String)} without a database read.
+ * <p>
+ * Entries are either loaded from the database or written by lock operations performed on this
+ * node. Locally written entries always replace loaded ones, whereas loaded entries never replace
+ * existing ones, so that a load racing with a local lock operation cannot resurrect an outdated
+ * state. Lock operations performed on other nodes are not observed - every entry is therefore only
+ * used for the configured staleness window after it has been written.
+ */
+class LockStateCache {
+  /**
+   * A cached lock state. A <code>null</code> token denotes a scope that is not locked.
+   */
+  static final class Entry {
+    private final String token;
+
+    private final Instant validUntil;
+
+    private final long fencingToken;
+
+    private final long writtenAt;
+
+    Entry(final String token, final Instant validUntil, final long fencingToken, final long writtenAt) {
+      this.token = token;
+      this.validUntil = validUntil;
+      this.fencingToken = fencingToken;
+      this.writtenAt = writtenAt;
+    }
+
+    /**
+     * Verify the given token against this state using the same rules as
+     * {@link JPALockService#verifyLock(String, String)}.
+     */
+    boolean verify(final String token, final Instant now) {
+      return null == this.token // not locked
+          || this.token.equals(token) // matching token
+          || now.isAfter(validUntil); // expired lock state means "not locked"
+    }
+
+    /**
+     * Return whether this state denotes a lock that is valid at the given instant.
+     */
+    boolean isLocked(final Instant now) {
+      return null != token && !now.isAfter(validUntil);
+    }
+
+    long getFencingToken() {
+      return fencingToken;
+    }
+  }
+
+  private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+
+  private final long stalenessNanos;
+
+  private final int maximumSize;
+
+  LockStateCache(final Duration staleness, final int maximumSize) {
+    this.stalenessNanos = staleness.toNanos();
+    this.maximumSize = maximumSize;
+  }
+
+  /**
+   * Return the cached state of the given scope or <code>null</code> if there is none or it is
+   * too old to be used.
+   *
+   * @param scope the scope
+   * @return the entry or <code>null</code>
+   */
+  Entry get(final String scope) {
+    Entry e = entries.get(scope);
+    if (null != e && System.nanoTime() - e.writtenAt > stalenessNanos) {
+      entries.remove(scope, e);
+      return null;
+    }
+    return e;
+  }
+
+  /**
+   * Record a state written by a lock operation on this node.
+   *
+   * @param scope the scope
+   * @param token the lock token or <code>null</code> if the scope has been unlocked
+   * @param validUntil the validity of the lock, ignored if the scope has been unlocked
+   * @param fencingToken the fencing token of the lock, ignored if the scope has been unlocked
+   */
+  void written(final String scope, final String token, final Instant validUntil, final long fencingToken) {
+    entries.put(scope, new Entry(token, validUntil, fencingToken, System.nanoTime()));
+    evictIfNecessary();
+  }
+
+  /**
+   * Record a state loaded from the database unless a state has already been recorded for the
+   * scope.
+   *
+   * @param scope the scope
+   * @param token the lock token or <code>null</code> if the scope is not locked
+   * @param validUntil the validity of the lock, ignored if the scope is not locked
+   * @param fencingToken the fencing token of the lock, ignored if the scope is not locked
+   */
+  void loaded(final String scope, final String token, final Instant validUntil, final long fencingToken) {
+    Entry loaded = new Entry(token, validUntil, fencingToken, System.nanoTime());
+    Entry existing = entries.putIfAbsent(scope, loaded);
+    if (null != existing && System.nanoTime() - existing.writtenAt > stalenessNanos)
+      entries.replace(scope, existing, loaded);
+    evictIfNecessary();
+  }
+
+  /**
+   * Remove the state of the given scope.
+   *
+   * @param scope the scope
+   */
+  void invalidate(final String scope) {
+    entries.remove(scope);
+  }
+
+  int size() {
+    return entries.size();
+  }
+
+  /**
+   * Keep the cache bounded: drop stale entries and states of expired locks first and arbitrary
+   * entries if that isn't sufficient. In the latter case some headroom is made, so that the scan
+   * isn't repeated upon every write.
+   */
+  private void evictIfNecessary() {
+    if (entries.size() <= maximumSize)
+      return;
+
+    long now = System.nanoTime();
+    Instant instant = Instant.now();
+    entries.values().removeIf(e -> now - e.writtenAt > stalenessNanos //
+        || (null != e.token && instant.isAfter(e.validUntil)));
+
+    int target = maximumSize - maximumSize / 10;
+    for (Iterator<Map.Entry<String, Entry>> i = entries.entrySet().iterator(); i.hasNext()
+        && entries.size() > target;) {
+      i.next();
+      i.remove();
+    }
+  }
+}
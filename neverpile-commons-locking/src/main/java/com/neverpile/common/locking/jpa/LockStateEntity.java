@@ -2,15 +2,17 @@ package com.neverpile.common.locking.jpa;
 
 import java.time.Instant;
 
+import jakarta.persistence.Column;
 import jakarta.persistence.Entity;
 import jakarta.persistence.Id;
+import jakarta.persistence.Index;
 import jakarta.persistence.Table;
 
 /**
  * An entity representing a lock's state.
  */
 @Entity
-@Table(name = "locks")
+@Table(name = "locks", indexes = @Index(name = "locks_valid_until_idx", columnList = "valid_until"))
 public class LockStateEntity {
   @Id
   private String scope;
@@ -23,6 +25,10 @@ public class LockStateEntity {
 
   private String contestant;
 
+  // assigned by the column default upon insert, see FencingTokenSequenceContributor
+  @Column(insertable = false)
+  private Long fencingToken;
+
   public String getScope() {
     return scope;
   }
@@ -62,4 +68,12 @@ public class LockStateEntity {
   public void setContestant(String contestant) {
     this.contestant = contestant;
   }
+
+  public Long getFencingToken() {
+    return fencingToken;
+  }
+
+  public void setFencingToken(Long fencingToken) {
+    this.fencingToken = fencingToken;
+  }
 }
@@ -1,12 +1,127 @@
 package com.neverpile.common.locking.jpa;
 
 import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
 
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
 
 /**
  * A repository for {@link LockStateEntity}s.
+ * <p>
+ * Besides the derived methods, it provides conditional statements, partially in bulk variants, used to perform lock operations
+ * atomically in a single round trip. They all return the number of affected rows, which is either
+ * zero or one. The persistence context is flushed before and cleared after each of them, so that
+ * subsequent reads observe their effect.
  */
-public interface LockStateRepository extends CrudRepository<LockStateEntity, String> {
+public interface LockStateRepository extends CrudRepository<LockStateEntity, String>, LockStateRepositoryCustom {
   void deleteByValidUntilBefore(Instant before);
+
+  /**
+   * Find the scopes of locks expired before the given instant, oldest first.
+   */
+  @Query("select l.scope from LockStateEntity l where l.validUntil < :before order by l.validUntil")
+  List<String> findExpiredScopes(@Param("before") Instant before, Pageable page);
+
+  /**
+   * Find the locks on the given scopes which are valid at the given instant.
+   */
+  @Query("select l from LockStateEntity l where l.scope in :scopes and l.validUntil >= :now")
+  List<LockStateEntity> findValid(@Param("scopes") Collection<String> scopes, @Param("now") Instant now);
+
+  /**
+   * Find locks on scopes matching the given <code>LIKE</code>-pattern which are valid at the given
+   * instant. The pattern uses '!' as the escape character. Used with prefix patterns, the query can
+   * be answered using the primary key index.
+   */
+  @Query("select l from LockStateEntity l where l.scope like :pattern escape '!' and l.validUntil >= :now")
+  List<LockStateEntity> findValidMatching(@Param("pattern") String pattern, @Param("now") Instant now,
+      Pageable page);
+
+  /**
+   * Delete the locks on the given scopes that expired before the given instant. Locks which have
+   * been re-acquired in the meantime are left alone.
+   */
+  @Modifying(flushAutomatically = true, clearAutomatically = true)
+  @Query("delete from LockStateEntity l where l.scope in :scopes and l.validUntil < :before")
+  int deleteExpired(@Param("scopes") Collection<String> scopes, @Param("before") Instant before);
+
+  /**
+   * Insert a lock unless a lock for the scope already exists. The lock is assigned its fencing token
+   * by the column default.
+   * <p>
+   * The existence check is part of the statement, so that a collision with an existing lock doesn't
+   * raise (and log) a constraint violation, which is how Hibernate emulates a conflict clause on
+   * most databases. Only if a concurrent transaction inserts a lock for the scope between the check
+   * and the insert, the statement fails with a
+   * {@link org.springframework.dao.DataIntegrityViolationException}.
+   */
+  @Modifying(flushAutomatically = true, clearAutomatically = true)
+  @Query("insert into LockStateEntity (scope, ownerId, validUntil, lockToken) "
+      + "select :scope, :ownerId, :validUntil, :token "
+      + "where not exists (select 1 from LockStateEntity l where l.scope = :scope)")
+  int insertIfAbsent(@Param("scope") String scope, @Param("ownerId") String ownerId,
+      @Param("validUntil") Instant validUntil, @Param("token") String token);
+
+  /**
+   * Record the fencing token of the locks for the given scopes which are associated with the given
+   * token.
+   */
+  @Modifying(flushAutomatically = true, clearAutomatically = true)
+  @Query("update LockStateEntity l set l.fencingToken = :fencingToken "
+      + "where l.scope in :scopes and l.lockToken = :token")
+  int fenceAllIfOwned(@Param("scopes") Collection<String> scopes, @Param("token") String token,
+      @Param("fencingToken") long fencingToken);
+
+  /**
+   * Delete the lock for the scope if it expired before the given instant.
+   */
+  @Modifying(flushAutomatically = true, clearAutomatically = true)
+  @Query("delete from LockStateEntity l where l.scope = :scope and l.validUntil < :now")
+  int deleteIfExpired(@Param("scope") String scope, @Param("now") Instant now);
+
+  /**
+   * Delete the lock for the scope if it is associated with the given token.
+   */
+  @Modifying(flushAutomatically = true, clearAutomatically = true)
+  @Query("delete from LockStateEntity l where l.scope = :scope and l.lockToken = :token")
+  int deleteIfOwned(@Param("scope") String scope, @Param("token") String token);
+
+  /**
+   * Delete the locks for the given scopes which are associated with the given token.
+   */
+  @Modifying(flushAutomatically = true, clearAutomatically = true)
+  @Query("delete from LockStateEntity l where l.scope in :scopes and l.lockToken = :token")
+  int deleteAllIfOwned(@Param("scopes") Collection<String> scopes, @Param("token") String token);
+
+  /**
+   * Extend the locks for the given scopes which are associated with the given token and have not
+   * expired yet.
+   */
+  @Modifying(flushAutomatically = true, clearAutomatically = true)
+  @Query("update LockStateEntity l set l.validUntil = :validUntil "
+      + "where l.scope in :scopes and l.lockToken = :token and l.validUntil > :now")
+  int extendAllIfOwned(@Param("scopes") Collection<String> scopes, @Param("token") String token,
+      @Param("now") Instant now, @Param("validUntil") Instant validUntil);
+
+  /**
+   * Record the contestant for the lock on the scope if the lock is valid and held by someone
+   * else.
+   */
+  @Modifying(flushAutomatically = true, clearAutomatically = true)
+  @Query("update LockStateEntity l set l.contestant = :contestant "
+      + "where l.scope = :scope and l.validUntil >= :now and (l.ownerId is null or l.ownerId <> :contestant)")
+  int contestIfHeldByOther(@Param("scope") String scope, @Param("contestant") String contestant,
+      @Param("now") Instant now);
+
+  /**
+   * Remove the contestant from the lock for the scope if it is associated with the given token.
+   */
+  @Modifying(flushAutomatically = true, clearAutomatically = true)
+  @Query("update LockStateEntity l set l.contestant = null where l.scope = :scope and l.lockToken = :token")
+  int clearContestIfOwned(@Param("scope") String scope, @Param("token") String token);
 }
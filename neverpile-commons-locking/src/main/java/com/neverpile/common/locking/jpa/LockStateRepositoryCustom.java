@@ -0,0 +1,52 @@
+package com.neverpile.common.locking.jpa;
+
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Custom statements of the {@link LockStateRepository} that cannot be expressed as a static query.
+ */
+public interface LockStateRepositoryCustom {
+  /**
+   * Insert locks for all of the given scopes with a single multi-row statement. The rows are
+   * inserted in the given order. If a lock already exists for any of the scopes, the statement
+   * fails as a whole with a {@link org.springframework.dao.DataIntegrityViolationException}.
+   * <p>
+   * Unlike {@link LockStateRepository#insertIfAbsent(String, String, Instant, String)}, the locks
+   * are inserted without a fencing token, so that they don't draw one each from the sequence. The
+   * shared fencing token is recorded afterwards using
+   * {@link LockStateRepository#fenceAllIfOwned(Collection, String, long)}.
+   *
+   * @param scopes the scopes
+   * @param ownerId the id of the lock owner
+   * @param validUntil the end of the validity period of the locks
+   * @param token the lock token shared by all locks
+   * @return the number of inserted locks
+   */
+  int insertAll(List<String> scopes, String ownerId, Instant validUntil, String token);
+
+  /**
+   * Extend the lock for the scope if it is associated with the given token and has not expired
+   * yet. The columns not written by the extension are returned by the updating statement itself as
+   * generated keys, so that the extension takes a single round trip on databases whose drivers
+   * support them for updates, like those of PostgreSQL and H2. Otherwise, the lock is read after the
+   * update.
+   *
+   * @param scope the scope
+   * @param token the lock token
+   * @param now the current instant
+   * @param validUntil the new end of the validity period
+   * @return the extended lock, or empty if the lock isn't held with the given token
+   */
+  Optional<LockStateEntity> extendIfOwned(String scope, String token, Instant now, Instant validUntil);
+
+  /**
+   * Draw the next fencing token from the database sequence contributed by the
+   * {@link FencingTokenSequenceContributor}.
+   *
+   * @return the fencing token
+   */
+  long nextFencingToken();
+}
@@ -0,0 +1,154 @@
+package com.neverpile.common.locking.jpa;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.Optional;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import jakarta.persistence.Query;
+
+import org.hibernate.Session;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.persister.entity.AbstractEntityPersister;
+
+/**
+ * Implementation of the {@link LockStateRepositoryCustom} fragment.
+ */
+class LockStateRepositoryImpl implements LockStateRepositoryCustom {
+  @PersistenceContext
+  private EntityManager entityManager;
+
+  /**
+   * The dialect-specific statement selecting the next value of the fencing token sequence.
+   */
+  private volatile String nextFencingTokenStatement;
+
+  /**
+   * The native statement extending a lock and the columns it returns as generated keys: owner id,
+   * contestant and fencing token.
+   */
+  private volatile String extendStatement;
+
+  private volatile String[] extendReturnedColumns;
+
+  /**
+   * Whether the driver refused to return generated keys for the extension.
+   */
+  private volatile boolean extendReturningUnsupported;
+
+  @Override
+  public int insertAll(final List<String> scopes, final String ownerId, final Instant validUntil,
+      final String token) {
+    if (scopes.isEmpty())
+      return 0;
+
+    StringBuilder hql = new StringBuilder(
+        "insert into LockStateEntity (scope, ownerId, validUntil, lockToken, fencingToken) values ");
+    for (int i = 0; i < scopes.size(); i++) {
+      if (i > 0)
+        hql.append(", ");
+      hql.append("(:scope").append(i).append(", :ownerId, :validUntil, :token, null)");
+    }
+
+    entityManager.flush();
+
+    Query query = entityManager.createQuery(hql.toString());
+    for (int i = 0; i < scopes.size(); i++)
+      query.setParameter("scope" + i, scopes.get(i));
+    query.setParameter("ownerId", ownerId);
+    query.setParameter("validUntil", validUntil);
+    query.setParameter("token", token);
+
+    int inserted = query.executeUpdate();
+
+    entityManager.clear();
+
+    return inserted;
+  }
+
+  @Override
+  public Optional<LockStateEntity> extendIfOwned(final String scope, final String token, final Instant now,
+      final Instant validUntil) {
+    if (null == extendStatement)
+      prepareExtendStatement();
+
+    LockStateEntity extended = new LockStateEntity();
+    extended.setScope(scope);
+    extended.setLockToken(token);
+    extended.setValidUntil(validUntil);
+    boolean[] returned = new boolean[1];
+
+    entityManager.flush();
+
+    int updated = entityManager.unwrap(Session.class).doReturningWork(connection -> {
+      try (PreparedStatement statement = prepareExtend(connection)) {
+        statement.setObject(1, validUntil.atOffset(ZoneOffset.UTC));
+        statement.setString(2, scope);
+        statement.setString(3, token);
+        statement.setObject(4, now.atOffset(ZoneOffset.UTC));
+
+        int count = statement.executeUpdate();
+        if (count > 0 && !extendReturningUnsupported)
+          try (ResultSet keys = statement.getGeneratedKeys()) {
+            if (keys.next()) {
+              extended.setOwnerId(keys.getString(1));
+              extended.setContestant(keys.getString(2));
+              extended.setFencingToken(keys.getObject(3, Long.class));
+              returned[0] = true;
+            }
+          }
+        return count;
+      }
+    });
+
+    entityManager.clear();
+
+    if (updated == 0)
+      return Optional.empty();
+
+    // the driver didn't return the columns - read them
+    return returned[0] ? Optional.of(extended) : Optional.ofNullable(entityManager.find(LockStateEntity.class, scope));
+  }
+
+  private PreparedStatement prepareExtend(final Connection connection) throws SQLException {
+    if (!extendReturningUnsupported)
+      try {
+        return connection.prepareStatement(extendStatement, extendReturnedColumns);
+      } catch (SQLFeatureNotSupportedException e) {
+        extendReturningUnsupported = true;
+      }
+
+    return connection.prepareStatement(extendStatement);
+  }
+
+  private void prepareExtendStatement() {
+    AbstractEntityPersister persister = (AbstractEntityPersister) entityManager.getEntityManagerFactory()
+        .unwrap(SessionFactoryImplementor.class).getMappingMetamodel().getEntityDescriptor(LockStateEntity.class);
+
+    String validUntil = persister.getPropertyColumnNames("validUntil")[0];
+    extendReturnedColumns = new String[]{
+        persister.getPropertyColumnNames("ownerId")[0], persister.getPropertyColumnNames("contestant")[0],
+        persister.getPropertyColumnNames("fencingToken")[0]
+    };
+    extendStatement = "update " + persister.getTableName() + " set " + validUntil + " = ? where "
+        + persister.getIdentifierColumnNames()[0] + " = ? and " + persister.getPropertyColumnNames("lockToken")[0]
+        + " = ? and " + validUntil + " > ?";
+  }
+
+  @Override
+  public long nextFencingToken() {
+    if (null == nextFencingTokenStatement)
+      nextFencingTokenStatement = entityManager.getEntityManagerFactory().unwrap(SessionFactoryImplementor.class)
+          .getJdbcServices().getDialect().getSequenceSupport()
+          .getSequenceNextValString(FencingTokenSequenceContributor.SEQUENCE_NAME);
+
+    return ((Number) entityManager.createNativeQuery(nextFencingTokenStatement).getSingleResult()).longValue();
+  }
+}
@@ -0,0 +1,473 @@
+package com.neverpile.common.locking.memory;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.stereotype.Service;
+
+import com.neverpile.common.locking.LockEvent;
+import com.neverpile.common.locking.LockScopes;
+import com.neverpile.common.locking.LockService;
+import com.neverpile.common.locking.LockWaitQueues;
+import com.neverpile.common.locking.LockingConfiguration;
+import com.neverpile.common.locking.metrics.LockMetrics;
+
+/**
+ * An in-memory implementation of {@link LockService} suitable for single-node deployments and
+ * tests. To enable it, the property <code>neverpile.locking.memory.enabled</code> must be set to
+ * <code>true</code>. It must not be enabled together with another lock service like the JPA-based
+ * one.
+ * <p>
+ * Lock states are kept in a {@link ConcurrentHashMap} as immutable entries. All modifications are
+ * performed using compare-and-set operations on individual entries, so that no global lock is
+ * involved and operations on different scopes never block each other. Expired entries are treated
+ * as absent by all operations and are reclaimed in the background using a {@link TimingWheel}.
+ * Clients waiting for a lock are queued in {@link LockWaitQueues} which are notified of releases
+ * and reclaimed locks immediately. State changes are published as {@link LockEvent}s as they
+ * happen, expiry events once the expired lock is reclaimed.
+ * <p>
+ * If <code>neverpile.locking.hierarchical-scopes</code> is enabled, every lock additionally
+ * registers an intention on each of its ancestor scopes in a prefix index mapping scopes to the
+ * locks held beneath them. An acquisition first registers its intentions and its lock and only
+ * then looks for conflicting locks on ancestors and descendants, backing out if it finds any. Two
+ * concurrent conflicting acquisitions will therefore always see each other: at most one of them
+ * succeeds, although both may fail.
+ * <p>
+ * Fencing tokens are drawn from a counter seeded with the current time in microseconds, so that
+ * they keep increasing across restarts unless more than a million locks per second are acquired
+ * on average. A fencing token is drawn while the new entry is installed atomically, so that
+ * successive holders of a lock always get increasing fencing tokens.
+ * <p>
+ * Lock states are lost upon restart and are not shared between nodes.
+ */
+@Service
+@ConditionalOnProperty(name = "neverpile.locking.memory.enabled", havingValue = "true")
+public class InMemoryLockService implements LockService {
+  private static final Logger LOGGER = LoggerFactory.getLogger(InMemoryLockService.class);
+
+  /**
+   * An immutable lock entry. Entries deliberately use identity equality, as the compare-and-set
+   * operations of the map must detect any intervening modification.
+   */
+  private static final class Lock {
+    private final String ownerId;
+    private final String token;
+    private final Instant validUntil;
+    private final String contestant;
+    private final long fencingToken;
+
+    Lock(final String ownerId, final String token, final Instant validUntil, final String contestant,
+        final long fencingToken) {
+      this.ownerId = ownerId;
+      this.token = token;
+      this.validUntil = validUntil;
+      this.contestant = contestant;
+      this.fencingToken = fencingToken;
+    }
+
+    boolean isExpired(final Instant now) {
+      return validUntil.isBefore(now);
+    }
+
+    LockState toState() {
+      return new LockState(ownerId, validUntil, contestant, fencingToken);
+    }
+  }
+
+  @Autowired
+  private LockingConfiguration lockingConfiguration;
+
+  @Autowired
+  private ApplicationEventPublisher eventPublisher;
+
+  @Autowired(required = false)
+  private LockMetrics metrics = LockMetrics.NOOP;
+
+  private final ConcurrentMap<String, Lock> locks = new ConcurrentHashMap<>();
+
+  private final AtomicLong fencingTokens = new AtomicLong(
+      ChronoUnit.MICROS.between(Instant.EPOCH, Instant.now()));
+
+  /**
+   * The prefix index of hierarchical scopes: maps each ancestor scope to the scopes of the lock
+   * entries beneath it, along with the number of registrations of each. The inner maps are only
+   * modified from within atomic operations on the outer map, so that no registration can get lost
+   * when an inner map is dropped after becoming empty.
+   */
+  private final ConcurrentMap<String, ConcurrentMap<String, Integer>> intentions = new ConcurrentHashMap<>();
+
+  private boolean hierarchical;
+
+  private TimingWheel<String> expiryWheel;
+
+  private ScheduledExecutorService expiryExecutor;
+
+  private LockWaitQueues waitQueues;
+
+  @PostConstruct
+  public void start() {
+    LockingConfiguration.Memory config = lockingConfiguration.getMemory();
+    hierarchical = lockingConfiguration.isHierarchicalScopes();
+
+    waitQueues = new LockWaitQueues(this, lockingConfiguration.getWait().getRetryInterval(),
+        lockingConfiguration.getWait().getMaximumConcurrentAttempts(), hierarchical);
+
+    expiryWheel = new TimingWheel<>(config.getExpiryResolution(), config.getWheelSize(), Instant.now());
+
+    expiryExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread t = new Thread(r, "neverpile-lock-expiry");
+      t.setDaemon(true);
+      return t;
+    });
+
+    long period = config.getExpiryResolution().toMillis();
+    expiryExecutor.scheduleAtFixedRate(this::expire, period, period, TimeUnit.MILLISECONDS);
+  }
+
+  @PreDestroy
+  public void stop() {
+    expiryExecutor.shutdownNow();
+    waitQueues.shutdown();
+  }
+
+  private Instant newValidUntil() {
+    return Instant.now().truncatedTo(ChronoUnit.MICROS).plus(lockingConfiguration.getValidityDuration());
+  }
+
+  /**
+   * Store the given lock as the new state of the scope if the scope's current state is still the
+   * given expected one. An expected state of <code>null</code> denotes an absent lock.
+   */
+  private boolean compareAndSet(final String scope, final Lock expected, final Lock update) {
+    boolean success = null == expected
+        ? null == locks.putIfAbsent(scope, update)
+        : locks.replace(scope, expected, update);
+
+    if (success)
+      expiryWheel.schedule(scope, update.validUntil);
+
+    return success;
+  }
+
+  @Override
+  public LockRequestResult tryAcquireLock(final String scope, final String ownerId) {
+    return tryAcquire(scope, ownerId, UUID.randomUUID().toString());
+  }
+
+  @Override
+  public CompletableFuture<LockRequestResult> acquireLock(final String scope, final String ownerId,
+      final Duration timeout) {
+    return waitQueues.acquire(scope, ownerId, timeout);
+  }
+
+  private LockRequestResult tryAcquire(final String scope, final String ownerId, final String token) {
+    LockRequestResult result = hierarchical
+        ? tryAcquireHierarchical(scope, ownerId, token)
+        : tryAcquireExact(scope, ownerId, token);
+
+    if (result.isSuccess()) {
+      metrics.acquired(scope, token);
+      eventPublisher.publishEvent(new LockEvent(LockEvent.Type.ACQUIRED, scope, result.getState()));
+    } else {
+      metrics.conflict(scope);
+    }
+
+    return result;
+  }
+
+  private LockRequestResult tryAcquireHierarchical(final String scope, final String ownerId, final String token) {
+    List<String> ancestors = LockScopes.ancestors(scope);
+    register(scope, ancestors);
+
+    LockRequestResult result = tryAcquireExact(scope, ownerId, token);
+    if (!result.isSuccess()) {
+      unregister(scope, ancestors);
+      return result;
+    }
+
+    Lock conflicting = findConflicting(scope, ancestors, Instant.now());
+    if (null != conflicting) {
+      // back out
+      Lock acquired = locks.get(scope);
+      if (null != acquired && acquired.token.equals(token) && locks.remove(scope, acquired))
+        removed(scope);
+      return new LockRequestResult(false, null, conflicting.toState());
+    }
+
+    return result;
+  }
+
+  private LockRequestResult tryAcquireExact(final String scope, final String ownerId, final String token) {
+    // Unlike the other operations, this one doesn't use compareAndSet(): the fencing token must be
+    // drawn atomically with the installation of the entry. Otherwise, an acquisition delayed
+    // between the two could install a lower fencing token than its predecessor's.
+    Lock[] replaced = new Lock[1];
+    Lock[] acquired = new Lock[1];
+    Lock current = locks.compute(scope, (s, existing) -> {
+      if (null != existing && !existing.isExpired(Instant.now()))
+        return existing;
+
+      replaced[0] = existing;
+      acquired[0] = new Lock(ownerId, token, newValidUntil(), null, fencingTokens.incrementAndGet());
+      return acquired[0];
+    });
+
+    if (current != acquired[0])
+      return new LockRequestResult(false, null, current.toState());
+
+    expiryWheel.schedule(scope, current.validUntil);
+    if (null != replaced[0]) {
+      removed(scope);
+      metrics.expired(scope);
+      publish(LockEvent.Type.EXPIRED, scope, replaced[0]);
+    }
+
+    return new LockRequestResult(true, token, current.toState());
+  }
+
+  /**
+   * Find a valid lock on one of the given ancestors of the scope or on one of its descendants.
+   */
+  private Lock findConflicting(final String scope, final List<String> ancestors, final Instant now) {
+    for (String ancestor : ancestors) {
+      Lock lock = locks.get(ancestor);
+      if (null != lock && !lock.isExpired(now))
+        return lock;
+    }
+
+    String canonical = LockScopes.canonical(scope);
+    Map<String, Integer> descendants = null != canonical ? intentions.get(canonical) : null;
+    if (null != descendants)
+      for (String descendant : descendants.keySet()) {
+        Lock lock = locks.get(descendant);
+        if (null != lock && !lock.isExpired(now))
+          return lock;
+      }
+
+    return null;
+  }
+
+  /**
+   * Register an intention for the given scope on each of its ancestors.
+   */
+  private void register(final String scope, final List<String> ancestors) {
+    for (String ancestor : ancestors)
+      intentions.compute(ancestor, (a, scopes) -> {
+        if (null == scopes)
+          scopes = new ConcurrentHashMap<>();
+        scopes.merge(scope, 1, Integer::sum);
+        return scopes;
+      });
+  }
+
+  /**
+   * Withdraw an intention registered by {@link #register(String, List)}.
+   */
+  private void unregister(final String scope, final List<String> ancestors) {
+    for (String ancestor : ancestors)
+      intentions.computeIfPresent(ancestor, (a, scopes) -> {
+        scopes.computeIfPresent(scope, (s, count) -> count > 1 ? count - 1 : null);
+        return scopes.isEmpty() ? null : scopes;
+      });
+  }
+
+  /**
+   * Must be called whenever a lock entry has been removed from or replaced in the lock map by
+   * another lock's entry in order to withdraw the removed entry's intentions and to notify waiters.
+   */
+  private void removed(final String scope) {
+    if (hierarchical)
+      unregister(scope, LockScopes.ancestors(scope));
+
+    waitQueues.released(scope);
+  }
+
+  private void publish(final LockEvent.Type type, final String scope, final Lock lock) {
+    eventPublisher.publishEvent(new LockEvent(type, scope, lock.toState()));
+  }
+
+  @Override
+  public boolean contestLock(final String scope, final String contestantId) {
+    while (true) {
+      Lock existing = locks.get(scope);
+      if (null == existing)
+        return false; // scope is not locked.
+
+      if (existing.isExpired(Instant.now())) {
+        if (locks.remove(scope, existing)) {
+          removed(scope);
+          metrics.expired(scope);
+          publish(LockEvent.Type.EXPIRED, scope, existing);
+        }
+        return false; // lock is free.
+      }
+
+      if (Objects.equals(existing.ownerId, contestantId))
+        return false; // contestant already owns the lock.
+
+      Lock contested = new Lock(existing.ownerId, existing.token, existing.validUntil, contestantId,
+          existing.fencingToken);
+      if (compareAndSet(scope, existing, contested)) {
+        metrics.contested(scope);
+        publish(LockEvent.Type.CONTESTED, scope, contested);
+        return true; // lock is now contested.
+      }
+    }
+  }
+
+  @Override
+  public void resolveContest(final String scope, final String token) {
+    while (true) {
+      Lock existing = locks.get(scope);
+      if (null == existing || !Objects.equals(existing.token, token) || null == existing.contestant)
+        return;
+
+      if (compareAndSet(scope, existing,
+          new Lock(existing.ownerId, existing.token, existing.validUntil, null, existing.fencingToken)))
+        return;
+    }
+  }
+
+  @Override
+  public LockState extendLock(final String scope, final String token, final String ownerId)
+      throws LockLostException {
+    while (true) {
+      Lock existing = locks.get(scope);
+      if (null == existing || existing.isExpired(Instant.now())) {
+        // try silent re-acquire
+        LockRequestResult result = tryAcquire(scope, ownerId, token);
+        metrics.reacquired(scope, result.isSuccess());
+        if (!result.isSuccess())
+          throw new LockLostException();
+        return result.getState();
+      }
+
+      if (!Objects.equals(existing.token, token))
+        throw new LockLostException(); // has been acquired otherwise
+
+      Lock extended = new Lock(existing.ownerId, existing.token, newValidUntil(), existing.contestant,
+          existing.fencingToken);
+      if (compareAndSet(scope, existing, extended)) {
+        publish(LockEvent.Type.EXTENDED, scope, extended);
+        return extended.toState();
+      }
+    }
+  }
+
+  @Override
+  public void releaseLock(final String scope, final String token) {
+    Lock existing = locks.get(scope);
+    if (null != existing && Objects.equals(existing.token, token) && locks.remove(scope, existing)) {
+      removed(scope);
+      metrics.released(scope, token);
+      publish(LockEvent.Type.RELEASED, scope, existing);
+    }
+
+    // in all other cases just ignore the request
+  }
+
+  /**
+   * {@inheritDoc}
+   * <p>
+   * Expired locks are reported as absent.
+   */
+  @Override
+  public Optional<LockState> queryLock(final String scope) {
+    Lock existing = locks.get(scope);
+    if (null == existing || existing.isExpired(Instant.now()))
+      return Optional.empty();
+
+    return Optional.of(existing.toState());
+  }
+
+  /**
+   * {@inheritDoc}
+   * <p>
+   * With hierarchical scopes, a lock on an ancestor of the scope must match the token as well.
+   */
+  @Override
+  public boolean verifyLock(final String scope, final String token) {
+    return verify(scope, token).isValid();
+  }
+
+  /**
+   * {@inheritDoc}
+   * <p>
+   * With hierarchical scopes, a lock on an ancestor of the scope must match the token as well. If
+   * the scope itself isn't locked, the fencing token of the lock on its ancestor is reported.
+   */
+  @Override
+  public LockVerification verify(final String scope, final String token) {
+    Instant now = Instant.now();
+    long fencingToken = 0;
+
+    List<String> ancestors = hierarchical ? LockScopes.ancestors(scope) : Collections.emptyList();
+    for (int i = -1; i < ancestors.size(); i++) {
+      Lock existing = locks.get(i < 0 ? scope : ancestors.get(i));
+      if (null == existing || existing.isExpired(now))
+        continue; // not found or expired lock state means "not locked"
+
+      if (!existing.token.equals(token))
+        return new LockVerification(false, 0);
+
+      if (0 == fencingToken)
+        fencingToken = existing.fencingToken;
+    }
+
+    return new LockVerification(true, fencingToken);
+  }
+
+  /**
+   * Reclaim the entries of expired locks. Since the wheel only records scopes, an entry is only
+   * removed if it is actually expired - it may have been extended or re-acquired in the meantime.
+   */
+  private void expire() {
+    try {
+      Instant now = Instant.now();
+      expiryWheel.advance(now, scope -> {
+        Lock existing = locks.get(scope);
+        if (null != existing && existing.isExpired(now) && locks.remove(scope, existing)) {
+          removed(scope);
+          metrics.expired(scope);
+          publish(LockEvent.Type.EXPIRED, scope, existing);
+          LOGGER.debug("Expired lock on {} held by {}", scope, existing.ownerId);
+        }
+      });
+    } catch (RuntimeException e) {
+      // must not propagate, otherwise the scheduled task would be cancelled
+      LOGGER.error("Lock expiry failed", e);
+    }
+  }
+
+  /**
+   * Return the number of lock entries currently held in memory, including expired ones not yet
+   * reclaimed.
+   *
+   * @return the number of entries
+   */
+  int size() {
+    return locks.size();
+  }
+}
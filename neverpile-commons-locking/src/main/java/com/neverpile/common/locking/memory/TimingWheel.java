@@ -0,0 +1,111 @@
+package com.neverpile.common.locking.memory;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Consumer;
+
+/**
+ * A simple hashed timing wheel used to find expired items without scanning all of them. Items are
+ * placed into the bucket corresponding to the tick of their deadline. Advancing the wheel only
+ * visits the buckets of the ticks that have passed since the last advance. Items whose deadline
+ * lies more than one rotation in the future simply stay in their bucket until their round has
+ * come.
+ * <p>
+ * Scheduling is lock-free and may be performed concurrently with advancing the wheel. Advancing
+ * must be performed by a single thread. An item scheduled concurrently with the advance of its
+ * tick may be expired one rotation late; users must therefore not rely on the wheel for the
+ * correctness of expiry, only for the timely reclamation of expired items.
+ *
+ * @param <T> the item type
+ */
+class TimingWheel<T> {
+  private static final class Slot<T> {
+    private final T item;
+
+    private final long deadlineTick;
+
+    Slot(final T item, final long deadlineTick) {
+      this.item = item;
+      this.deadlineTick = deadlineTick;
+    }
+  }
+
+  private final long tickMillis;
+
+  private final Queue<Slot<T>>[] buckets;
+
+  private volatile long lastTick;
+
+  @SuppressWarnings("unchecked")
+  TimingWheel(final Duration tickDuration, final int wheelSize, final Instant start) {
+    if (tickDuration.toMillis() < 1)
+      throw new IllegalArgumentException("The tick duration must be at least one millisecond");
+    if (wheelSize < 1)
+      throw new IllegalArgumentException("The wheel size must be positive");
+
+    this.tickMillis = tickDuration.toMillis();
+    this.buckets = new Queue[wheelSize];
+    for (int i = 0; i < wheelSize; i++)
+      buckets[i] = new ConcurrentLinkedQueue<>();
+    this.lastTick = tick(start);
+  }
+
+  private long tick(final Instant instant) {
+    return Math.floorDiv(instant.toEpochMilli(), tickMillis);
+  }
+
+  /**
+   * Schedule the given item for expiry at the given deadline.
+   *
+   * @param item the item
+   * @param deadline the deadline
+   */
+  void schedule(final T item, final Instant deadline) {
+    // items due in the past are expired with the next tick. The tick in which a deadline lies is
+    // only complete once it has passed, hence the +1.
+    long deadlineTick = Math.max(tick(deadline) + 1, lastTick + 1);
+    buckets[(int) Math.floorMod(deadlineTick, (long) buckets.length)].add(new Slot<>(item, deadlineTick));
+  }
+
+  /**
+   * Advance the wheel up to the given instant and pass all items whose deadline has passed to the
+   * given consumer.
+   *
+   * @param now the current instant
+   * @param expired the consumer of expired items
+   */
+  void advance(final Instant now, final Consumer<T> expired) {
+    long currentTick = tick(now);
+
+    // no need to visit a bucket more than once per advance
+    long from = Math.max(lastTick + 1, currentTick - buckets.length + 1);
+    for (long t = from; t <= currentTick; t++) {
+      for (Iterator<Slot<T>> i = buckets[(int) Math.floorMod(t, (long) buckets.length)].iterator(); i.hasNext();) {
+        Slot<T> s = i.next();
+        if (s.deadlineTick <= currentTick) {
+          i.remove();
+          expired.accept(s.item);
+        }
+      }
+    }
+
+    if (currentTick > lastTick)
+      lastTick = currentTick;
+  }
+
+  /**
+   * Return the number of scheduled items. This operation visits all buckets and is intended for
+   * diagnostic purposes only.
+   *
+   * @return the number of items
+   */
+  int size() {
+    int size = 0;
+    for (Queue<Slot<T>> b : buckets)
+      size += b.size();
+    return size;
+  }
+}
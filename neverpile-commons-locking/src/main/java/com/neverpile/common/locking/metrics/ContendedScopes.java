@@ -0,0 +1,144 @@
+package com.neverpile.common.locking.metrics;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A bounded sketch of the most contended lock scopes based on the Space-Saving algorithm. It keeps
+ * counters for at most a fixed number of scopes. If a scope without a counter is offered while all
+ * counters are taken, the counter with the lowest count is handed over to it, keeping the count.
+ * Counts are therefore overestimated by at most the {@link ContendedScope#getError() error}
+ * recorded for each counter, and every scope contended more often than the total number of offers
+ * divided by the capacity is guaranteed to be tracked.
+ * <p>
+ * Handing over a counter takes time linear in the capacity, which is acceptable for the few
+ * hundred scopes usually tracked, as contention is the exceptional case.
+ */
+public class ContendedScopes {
+  /**
+   * An entry of the sketch.
+   */
+  public static class ContendedScope {
+    private final String scope;
+
+    private final long count;
+
+    private final long error;
+
+    public ContendedScope(final String scope, final long count, final long error) {
+      this.scope = scope;
+      this.count = count;
+      this.error = error;
+    }
+
+    /**
+     * Get the scope.
+     *
+     * @return the scope
+     */
+    public String getScope() {
+      return scope;
+    }
+
+    /**
+     * Get the estimated number of contentions of the scope.
+     *
+     * @return the count
+     */
+    public long getCount() {
+      return count;
+    }
+
+    /**
+     * Get the maximum overestimation of the count.
+     *
+     * @return the error
+     */
+    public long getError() {
+      return error;
+    }
+  }
+
+  private static final class Counter {
+    private long count;
+
+    private final long error;
+
+    Counter(final long count, final long error) {
+      this.count = count;
+      this.error = error;
+    }
+  }
+
+  private final int capacity;
+
+  private final Map<String, Counter> counters = new HashMap<>();
+
+  /**
+   * Create a sketch.
+   *
+   * @param capacity the maximum number of scopes to track, zero to track none
+   */
+  public ContendedScopes(final int capacity) {
+    this.capacity = capacity;
+  }
+
+  /**
+   * Record a contention of the given scope.
+   *
+   * @param scope the scope
+   */
+  public void offer(final String scope) {
+    if (capacity <= 0)
+      return;
+
+    synchronized (counters) {
+      Counter counter = counters.get(scope);
+      if (null != counter) {
+        counter.count++;
+        return;
+      }
+
+      if (counters.size() < capacity) {
+        counters.put(scope, new Counter(1, 0));
+        return;
+      }
+
+      Map.Entry<String, Counter> min = null;
+      for (Map.Entry<String, Counter> e : counters.entrySet())
+        if (null == min || e.getValue().count < min.getValue().count)
+          min = e;
+
+      counters.remove(min.getKey());
+      counters.put(scope, new Counter(min.getValue().count + 1, min.getValue().count));
+    }
+  }
+
+  /**
+   * Return the most contended scopes, most contended first.
+   *
+   * @param limit the maximum number of scopes to return
+   * @return the scopes
+   */
+  public List<ContendedScope> top(final int limit) {
+    List<ContendedScope> top = new ArrayList<>();
+    synchronized (counters) {
+      counters.forEach((scope, counter) -> top.add(new ContendedScope(scope, counter.count, counter.error)));
+    }
+
+    top.sort(Comparator.comparingLong(ContendedScope::getCount).reversed());
+    return top.size() > limit ? new ArrayList<>(top.subList(0, limit)) : top;
+  }
+
+  /**
+   * Forget all scopes.
+   */
+  public void clear() {
+    synchronized (counters) {
+      counters.clear();
+    }
+  }
+}
@@ -0,0 +1,48 @@
+package com.neverpile.common.locking.metrics;
+
+import java.util.List;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.annotation.DeleteOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+
+import com.neverpile.common.locking.metrics.ContendedScopes.ContendedScope;
+
+/**
+ * An actuator endpoint exposing the most contended lock scopes recorded by the
+ * {@link LockMetrics}. Like all endpoints, it must be exposed explicitly, e.g. using
+ * <code>management.endpoints.web.exposure.include=lockcontention</code>.
+ */
+@Component
+@Endpoint(id = "lockcontention")
+public class LockContentionEndpoint {
+  /**
+   * The number of scopes returned unless requested otherwise.
+   */
+  private static final int DEFAULT_LIMIT = 20;
+
+  @Autowired
+  private LockMetrics lockMetrics;
+
+  /**
+   * Return the most contended scopes.
+   *
+   * @param limit the maximum number of scopes to return
+   * @return the scopes, most contended first
+   */
+  @ReadOperation
+  public List<ContendedScope> contendedScopes(@Nullable final Integer limit) {
+    return lockMetrics.getContendedScopes(null != limit ? limit : DEFAULT_LIMIT);
+  }
+
+  /**
+   * Forget the contended scopes recorded so far.
+   */
+  @DeleteOperation
+  public void reset() {
+    lockMetrics.resetContendedScopes();
+  }
+}
@@ -0,0 +1,283 @@
+package com.neverpile.common.locking.metrics;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import com.neverpile.common.locking.LockEvent;
+import com.neverpile.common.locking.LockingConfiguration;
+import com.neverpile.common.locking.RequestLockingService;
+import com.neverpile.common.locking.metrics.ContendedScopes.ContendedScope;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+import jakarta.annotation.PostConstruct;
+
+/**
+ * Instrumentation of the locking subsystem, fed by the lock services, the JPA housekeeping and the
+ * {@link RequestLockingService}. If a {@link MeterRegistry} is available, the following meters are
+ * reported:
+ * <ul>
+ * <li><code>fusion.lock.acquisitions</code>: lock acquisitions by <code>outcome</code>
+ * (<code>acquired</code> or <code>conflict</code>)
+ * <li><code>fusion.lock.contests</code>: successful lock contests
+ * <li><code>fusion.lock.reacquisitions</code>: silent re-acquisitions of expired locks upon
+ * extension by <code>outcome</code> (<code>acquired</code> or <code>lost</code>)
+ * <li><code>fusion.lock.expirations</code>: expired locks reclaimed
+ * <li><code>fusion.lock.hold.duration</code>: the time locks have been held by how they
+ * <code>ended</code> (<code>released</code> or <code>expired</code>), with a percentile histogram
+ * <li><code>fusion.lock.requests</code>: web requests handled by the {@link RequestLockingService}
+ * by locking <code>mode</code> and <code>outcome</code> (<code>verified</code>,
+ * <code>acquired</code>, <code>rejected</code> or <code>none</code>)
+ * </ul>
+ * <p>
+ * Hold durations are measured between the acquisition of a lock and its release or the reclamation
+ * of the expired lock on the same node. Holds are tracked for at most
+ * <code>neverpile.locking.metrics.tracked-holds</code> locks at a time. Locks released or reclaimed
+ * on another node, or lost, leave their holds behind: once the limit is reached, holds which have
+ * neither been acquired nor seen being extended within the lock validity duration are evicted
+ * without being recorded.
+ * <p>
+ * Acquisition conflicts and contests are recorded in a {@link ContendedScopes} sketch of the
+ * <code>neverpile.locking.metrics.contended-scopes</code> most contended scopes, exposed by the
+ * {@link LockContentionEndpoint}.
+ */
+@Component
+public class LockMetrics {
+  /**
+   * Metrics recording nothing, used by the lock services if no LockMetrics bean is available.
+   */
+  public static final LockMetrics NOOP = new LockMetrics(new CompositeMeterRegistry(), 0, 0);
+
+  private static final class Hold {
+    private final String token;
+
+    private final long start = System.nanoTime();
+
+    /**
+     * The time the lock was last known to be valid, i.e. acquired or extended.
+     */
+    private volatile long lastSeen = start;
+
+    Hold(final String token) {
+      this.token = token;
+    }
+  }
+
+  @Autowired(required = false)
+  private MeterRegistry meterRegistry;
+
+  @Autowired(required = false)
+  private LockingConfiguration lockingConfiguration = new LockingConfiguration();
+
+  /**
+   * The tracked holds by scope.
+   */
+  private final ConcurrentMap<String, Hold> holds = new ConcurrentHashMap<>();
+
+  private int trackedHolds;
+
+  /**
+   * The lock validity duration in nanoseconds, after which holds not seen being extended are
+   * considered stale.
+   */
+  private long staleAfter = Long.MAX_VALUE;
+
+  /**
+   * The earliest time of the next sweep for stale holds.
+   */
+  private volatile long nextSweep = System.nanoTime();
+
+  private ContendedScopes contendedScopes;
+
+  private MeterRegistry registry;
+
+  private Counter acquired;
+
+  private Counter conflicts;
+
+  private Counter contests;
+
+  private Counter reacquired;
+
+  private Counter lost;
+
+  private Counter expirations;
+
+  private Timer heldUntilRelease;
+
+  private Timer heldUntilExpiry;
+
+  public LockMetrics() {
+  }
+
+  private LockMetrics(final MeterRegistry registry, final int contendedScopes, final int trackedHolds) {
+    bind(registry, contendedScopes, trackedHolds);
+  }
+
+  @PostConstruct
+  public void init() {
+    LockingConfiguration.Metrics config = lockingConfiguration.getMetrics();
+    bind(null != meterRegistry ? meterRegistry : new CompositeMeterRegistry(), config.getContendedScopes(),
+        config.getTrackedHolds());
+
+    Duration validityDuration = lockingConfiguration.getValidityDuration();
+    if (null != validityDuration)
+      staleAfter = validityDuration.toNanos();
+  }
+
+  private void bind(final MeterRegistry registry, final int contendedScopes, final int trackedHolds) {
+    this.registry = registry;
+    this.contendedScopes = new ContendedScopes(contendedScopes);
+    this.trackedHolds = trackedHolds;
+
+    acquired = Counter.builder("fusion.lock.acquisitions").description("lock acquisitions") //
+        .tag("outcome", "acquired").register(registry);
+    conflicts = Counter.builder("fusion.lock.acquisitions").description("lock acquisitions") //
+        .tag("outcome", "conflict").register(registry);
+    contests = Counter.builder("fusion.lock.contests").description("lock contests").register(registry);
+    reacquired = Counter.builder("fusion.lock.reacquisitions").description("silent lock re-acquisitions") //
+        .tag("outcome", "acquired").register(registry);
+    lost = Counter.builder("fusion.lock.reacquisitions").description("silent lock re-acquisitions") //
+        .tag("outcome", "lost").register(registry);
+    expirations = Counter.builder("fusion.lock.expirations").description("expired locks reclaimed") //
+        .register(registry);
+    heldUntilRelease = Timer.builder("fusion.lock.hold.duration").description("lock hold duration") //
+        .tag("end", "released").publishPercentileHistogram().register(registry);
+    heldUntilExpiry = Timer.builder("fusion.lock.hold.duration").description("lock hold duration") //
+        .tag("end", "expired").publishPercentileHistogram().register(registry);
+  }
+
+  /**
+   * Record the acquisition of a lock.
+   *
+   * @param scope the lock scope
+   * @param token the lock token
+   */
+  public void acquired(final String scope, final String token) {
+    acquired.increment();
+    if (holds.size() >= trackedHolds)
+      evictStaleHolds();
+    if (holds.size() < trackedHolds)
+      holds.put(scope, new Hold(token));
+  }
+
+  /**
+   * Keep track of extensions, so that the holds of locks kept for longer than the validity duration
+   * aren't considered stale.
+   *
+   * @param event the lock event
+   */
+  @EventListener
+  public void onLockEvent(final LockEvent event) {
+    if (event.getType() == LockEvent.Type.EXTENDED) {
+      Hold hold = holds.get(event.getScope());
+      if (null != hold)
+        hold.lastSeen = System.nanoTime();
+    }
+  }
+
+  /**
+   * Evict the holds of locks which can't be valid anymore, because they have neither been acquired
+   * nor seen being extended within the validity duration. Sweeps at most once per validity
+   * duration.
+   */
+  private void evictStaleHolds() {
+    long now = System.nanoTime();
+    if (now - nextSweep < 0)
+      return;
+    nextSweep = now + Math.min(staleAfter, Long.MAX_VALUE / 2);
+
+    holds.values().removeIf(hold -> now - hold.lastSeen > staleAfter);
+  }
+
+  /**
+   * Record an acquisition that failed because the lock is held by someone else.
+   *
+   * @param scope the lock scope
+   */
+  public void conflict(final String scope) {
+    conflicts.increment();
+    contendedScopes.offer(scope);
+  }
+
+  /**
+   * Record a successful lock contest.
+   *
+   * @param scope the lock scope
+   */
+  public void contested(final String scope) {
+    contests.increment();
+    contendedScopes.offer(scope);
+  }
+
+  /**
+   * Record a silent re-acquisition of an expired lock upon its extension.
+   *
+   * @param scope the lock scope
+   * @param success whether the lock could be re-acquired
+   */
+  public void reacquired(final String scope, final boolean success) {
+    (success ? reacquired : lost).increment();
+  }
+
+  /**
+   * Record the release of a lock.
+   *
+   * @param scope the lock scope
+   * @param token the lock token
+   */
+  public void released(final String scope, final String token) {
+    Hold hold = holds.get(scope);
+    if (null != hold && hold.token.equals(token) && holds.remove(scope, hold))
+      heldUntilRelease.record(System.nanoTime() - hold.start, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Record the reclamation of an expired lock.
+   *
+   * @param scope the lock scope
+   */
+  public void expired(final String scope) {
+    expirations.increment();
+
+    Hold hold = holds.remove(scope);
+    if (null != hold)
+      heldUntilExpiry.record(System.nanoTime() - hold.start, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Record the outcome of locking for a web request.
+   *
+   * @param mode the locking mode
+   * @param outcome the outcome
+   */
+  public void request(final RequestLockingService.Mode mode, final String outcome) {
+    registry.counter("fusion.lock.requests", "mode", mode.name().toLowerCase(), "outcome", outcome).increment();
+  }
+
+  /**
+   * Return the most contended scopes.
+   *
+   * @param limit the maximum number of scopes to return
+   * @return the scopes, most contended first
+   */
+  public List<ContendedScope> getContendedScopes(final int limit) {
+    return contendedScopes.top(limit);
+  }
+
+  /**
+   * Forget the contended scopes recorded so far.
+   */
+  public void resetContendedScopes() {
+    contendedScopes.clear();
+  }
+}
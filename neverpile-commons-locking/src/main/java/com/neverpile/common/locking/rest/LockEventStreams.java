@@ -0,0 +1,222 @@
+package com.neverpile.common.locking.rest;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.MediaType;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter.SseEventBuilder;
+
+import com.neverpile.common.locking.LockEvent;
+import com.neverpile.common.locking.LockService.LockState;
+
+/**
+ * The server-sent event streams opened through the {@link LockServiceResource}, indexed by the
+ * scopes they subscribed to.
+ * <p>
+ * Every stream has a bounded queue of its own, drained by a shared pool of threads one event at a
+ * time, so that lock operations are never held up by slow clients, a slow client doesn't hold up
+ * the other streams and every stream receives its events in the order they have been dispatched.
+ * A stream falling behind by more than {@link #MAX_QUEUED_EVENTS} events is closed - the client is
+ * expected to reconnect and start over with a new snapshot.
+ * <p>
+ * The streams are fed by the {@link LockEvent}s published on this node only, i.e. changes made by
+ * lock operations handled by this node and expiries noticed by it. Changes made through other
+ * nodes sharing the same lock store are not reported, the store is not polled. Clients therefore
+ * only get a complete picture from the snapshot sent when a stream is opened.
+ */
+class LockEventStreams {
+  private static final Logger LOGGER = LoggerFactory.getLogger(LockEventStreams.class);
+
+  /**
+   * The name of the event carrying the states of the subscribed locks at the time of subscription.
+   */
+  static final String SNAPSHOT_EVENT = "snapshot";
+
+  /**
+   * The maximum number of events queued for a single stream.
+   */
+  static final int MAX_QUEUED_EVENTS = 256;
+
+  private final ConcurrentMap<String, Set<Stream>> streams = new ConcurrentHashMap<>();
+
+  private final ExecutorService executor = Executors.newCachedThreadPool(r -> {
+    Thread t = new Thread(r, "neverpile-lock-events");
+    t.setDaemon(true);
+    return t;
+  });
+
+  private final Supplier<SseEmitter> emitterFactory;
+
+  LockEventStreams() {
+    // use the default timeout for asynchronous requests - clients are expected to reconnect
+    this(SseEmitter::new);
+  }
+
+  LockEventStreams(final Supplier<SseEmitter> emitterFactory) {
+    this.emitterFactory = emitterFactory;
+  }
+
+  /**
+   * A single stream and the events queued for it. At most one thread sends the queued events at any
+   * time.
+   */
+  private class Stream {
+    private final SseEmitter emitter = emitterFactory.get();
+
+    private final Deque<SseEventBuilder> queue = new ArrayDeque<>();
+
+    /**
+     * Whether the snapshot has been queued, i.e. events may be sent.
+     */
+    private boolean started;
+
+    private boolean sending;
+
+    private boolean closed;
+
+    synchronized void enqueue(final SseEventBuilder event) {
+      if (closed)
+        return;
+
+      if (queue.size() >= MAX_QUEUED_EVENTS) {
+        // too slow - the emitter is completed by the sending thread, the send in progress may block
+        LOGGER.debug("Closing lock event stream that fell behind by {} events", queue.size());
+        close();
+      } else
+        queue.add(event);
+
+      schedule();
+    }
+
+    synchronized void start(final SseEventBuilder snapshot) {
+      // events dispatched while the snapshot was obtained may be contained in it already, but
+      // they are still delivered afterwards - sending them twice is harmless, losing them is not
+      if (!closed)
+        queue.addFirst(snapshot);
+      started = true;
+      schedule();
+    }
+
+    synchronized void close() {
+      closed = true;
+      queue.clear();
+    }
+
+    private void schedule() {
+      if (started && !sending) {
+        sending = true;
+        try {
+          executor.execute(this::drain);
+        } catch (RejectedExecutionException e) {
+          // shut down
+        }
+      }
+    }
+
+    private void drain() {
+      while (true) {
+        SseEventBuilder event;
+        boolean complete;
+        synchronized (this) {
+          event = queue.poll();
+          complete = closed;
+          if (null == event)
+            sending = false;
+        }
+
+        if (null == event) {
+          if (complete)
+            emitter.complete();
+          return;
+        }
+
+        try {
+          emitter.send(event);
+        } catch (IOException | IllegalStateException e) {
+          // client gone - the emitter's callbacks take care of the cleanup
+          LOGGER.debug("Can't send lock event", e);
+          close();
+          emitter.completeWithError(e);
+        }
+      }
+    }
+  }
+
+  /**
+   * Open a stream for the given scopes. The first event sent is a snapshot of the states of the
+   * locks, obtained on the calling thread after the stream has been registered, so that no change
+   * goes unnoticed.
+   *
+   * @param scopes the scopes
+   * @param snapshot supplies the current lock states
+   * @return the emitter
+   */
+  SseEmitter open(final Collection<String> scopes, final Supplier<Map<String, LockState>> snapshot) {
+    Stream stream = new Stream();
+
+    for (String scope : scopes)
+      streams.computeIfAbsent(scope, s -> ConcurrentHashMap.newKeySet()).add(stream);
+
+    Runnable close = () -> {
+      stream.close();
+      scopes.forEach(scope -> streams.computeIfPresent(scope, (s, registered) -> {
+        registered.remove(stream);
+        return registered.isEmpty() ? null : registered;
+      }));
+    };
+    stream.emitter.onCompletion(close);
+    stream.emitter.onTimeout(close);
+    stream.emitter.onError(e -> close.run());
+
+    Map<String, LockState> states;
+    try {
+      states = snapshot.get();
+    } catch (RuntimeException e) {
+      close.run();
+      throw e;
+    }
+    stream.start(SseEmitter.event().name(SNAPSHOT_EVENT).data(states, MediaType.APPLICATION_JSON));
+
+    return stream.emitter;
+  }
+
+  /**
+   * Queue the given event for all streams subscribed to its scope.
+   *
+   * @param event the event
+   */
+  void dispatch(final LockEvent event) {
+    Set<Stream> subscribed = streams.get(event.getScope());
+    if (null == subscribed)
+      return;
+
+    for (Stream stream : subscribed)
+      stream.enqueue(
+          SseEmitter.event().name(event.getType().name().toLowerCase()).data(event, MediaType.APPLICATION_JSON));
+  }
+
+  /**
+   * Close all streams.
+   */
+  void shutdown() {
+    executor.shutdownNow();
+    streams.values().forEach(subscribed -> subscribed.forEach(stream -> {
+      stream.close();
+      stream.emitter.complete();
+    }));
+    streams.clear();
+  }
+}
@@ -1,10 +1,17 @@
 package com.neverpile.common.locking.rest;
 
 import java.security.Principal;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnBean;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.context.event.EventListener;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.DeleteMapping;
@@ -12,16 +19,23 @@ import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
+import com.neverpile.common.locking.LockEvent;
 import com.neverpile.common.locking.LockService;
+import com.neverpile.common.locking.LockService.BulkLockRequestResult;
 import com.neverpile.common.locking.LockService.LockLostException;
 import com.neverpile.common.locking.LockService.LockRequestResult;
 import com.neverpile.common.locking.LockService.LockState;
+import com.neverpile.common.locking.LockingConfiguration;
 
 import io.micrometer.core.annotation.Timed;
+import jakarta.annotation.PreDestroy;
 
 /**
  * A REST resource for managing locks.
@@ -36,26 +50,87 @@ public class LockServiceResource {
   @Autowired
   private LockService lockService;
 
+  // defaults apply unless configured otherwise
+  @Autowired(required = false)
+  private LockingConfiguration lockingConfiguration = new LockingConfiguration();
+
+  private final LockEventStreams eventStreams = new LockEventStreams();
+
+  @PreDestroy
+  public void stop() {
+    eventStreams.shutdown();
+  }
+
   @GetMapping(PREFIX + "/{scope}")
   @Timed(description = "get lock status", value = "fusion.lock.get")
   public LockState queryLock(@PathVariable("scope") final String scope) throws NotFoundException {
     return lockService.queryLock(scope).orElseThrow(NotFoundException::new);
   }
 
+  /**
+   * Try to acquire a lock. If a <code>wait</code> duration is given, the request is answered once
+   * the lock has been acquired or the duration has elapsed (long-poll), so that clients needn't
+   * poll. The duration is capped at <code>neverpile.locking.wait.maximum-wait</code>.
+   * <p>
+   * The wait is abandoned as soon as the request ends otherwise, i.e. once the asynchronous request
+   * times out or the client disconnects. A lock acquired after the response has been committed is
+   * released right away.
+   */
   @PostMapping(PREFIX + "/{scope}")
   @Timed(description = "try to acquire a lock", value = "fusion.lock.acquire")
-  public LockRequestResult tryAcquireLock(@PathVariable("scope") final String scope, final Principal principal,
-      @RequestParam(name = "ownerId", required = false) String ownerId) throws ConflictException {
+  public DeferredResult<LockRequestResult> tryAcquireLock(@PathVariable("scope") final String scope,
+      final Principal principal, @RequestParam(name = "ownerId", required = false) String ownerId,
+      @RequestParam(name = "wait", required = false) Duration wait) throws ConflictException {
     // derive owner id and name from principal if not explicitly set
     if (null == ownerId && null != principal)
       ownerId = principal.getName();
 
+    if (null != wait && !wait.isZero() && !wait.isNegative()) {
+      Duration maximumWait = lockingConfiguration.getWait().getMaximumWait();
+      if (wait.compareTo(maximumWait) > 0)
+        wait = maximumWait;
+
+      return await(scope, lockService.acquireLock(scope, ownerId, wait));
+    }
+
     LockRequestResult result = lockService.tryAcquireLock(scope, ownerId);
     if (!result.isSuccess()) {
       throw new ConflictException();
     }
 
-    return result;
+    DeferredResult<LockRequestResult> deferred = new DeferredResult<>();
+    deferred.setResult(result);
+    return deferred;
+  }
+
+  /**
+   * Answer the request once the given acquisition completes. The acquisition is cancelled if the
+   * request times out or fails, e.g. because the client went away.
+   */
+  private DeferredResult<LockRequestResult> await(final String scope,
+      final CompletableFuture<LockRequestResult> acquisition) {
+    DeferredResult<LockRequestResult> deferred = new DeferredResult<>();
+
+    deferred.onTimeout(() -> {
+      // answer before cancelling, the cancellation would be reported otherwise
+      deferred.setErrorResult(new ConflictException());
+      acquisition.cancel(false);
+    });
+    deferred.onError(e -> acquisition.cancel(false));
+    deferred.onCompletion(() -> acquisition.cancel(false));
+
+    acquisition.whenComplete((result, e) -> {
+      if (null != e) {
+        deferred.setErrorResult(e instanceof CompletionException && null != e.getCause() ? e.getCause() : e);
+      } else if (!result.isSuccess()) {
+        deferred.setErrorResult(new ConflictException());
+      } else if (!deferred.setResult(result)) {
+        // nobody is waiting for the lock anymore
+        lockService.releaseLock(scope, result.getToken());
+      }
+    });
+
+    return deferred;
   }
 
   @PutMapping(PREFIX + "/{scope}")
@@ -85,6 +160,65 @@ public class LockServiceResource {
     return ResponseEntity.noContent().build();
   }
 
+  @GetMapping(PREFIX)
+  @Timed(description = "get status of multiple locks", value = "fusion.lock.get.bulk")
+  public Map<String, LockState> queryLocks(@RequestParam("scope") final List<String> scopes) {
+    return lockService.queryLocks(scopes);
+  }
+
+  /**
+   * Open a stream of server-sent events for the locks on the given scopes. The stream starts with a
+   * <code>snapshot</code> event carrying the current states of the locks by scope, followed by an
+   * event named after the {@link LockEvent.Type} (<code>acquired</code>, <code>extended</code>,
+   * <code>released</code>, <code>contested</code>, <code>expired</code>) for every change. Streams
+   * are closed after the server's asynchronous request timeout and are expected to be reopened by
+   * the client.
+   * <p>
+   * The events are those published on this node, see {@link LockEventStreams}. Changes made
+   * through other nodes of a cluster only show up in the snapshot of the next stream.
+   */
+  @GetMapping(path = PREFIX, produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+  public SseEmitter streamLockEvents(@RequestParam("scope") final List<String> scopes) {
+    return eventStreams.open(scopes, () -> lockService.queryLocks(scopes));
+  }
+
+  @EventListener
+  public void onLockEvent(final LockEvent event) {
+    eventStreams.dispatch(event);
+  }
+
+  @PostMapping(PREFIX)
+  @Timed(description = "try to acquire multiple locks", value = "fusion.lock.acquire.bulk")
+  public ResponseEntity<BulkLockRequestResult> tryAcquireLocks(@RequestBody final List<String> scopes,
+      final Principal principal, @RequestParam(name = "ownerId", required = false) String ownerId) {
+    // derive owner id and name from principal if not explicitly set
+    if (null == ownerId && null != principal)
+      ownerId = principal.getName();
+
+    BulkLockRequestResult result = lockService.tryAcquireLocks(scopes, ownerId);
+
+    // unlike for single locks, the body tells the client which of the locks are in the way
+    return ResponseEntity.status(result.isSuccess() ? HttpStatus.OK : HttpStatus.CONFLICT).body(result);
+  }
+
+  @PutMapping(PREFIX)
+  @Timed(description = "extend multiple locks", value = "fusion.lock.extend.bulk")
+  public Map<String, LockState> extendLocks(@RequestBody final Map<String, String> tokens,
+      final Principal principal, @RequestParam(name = "ownerId", required = false) String ownerId) {
+    // derive owner id and name from principal if not explicitly set
+    if (null == ownerId && null != principal)
+      ownerId = principal.getName();
+
+    return lockService.extendLocks(tokens, ownerId);
+  }
+
+  @DeleteMapping(PREFIX)
+  @Timed(description = "release multiple locks", value = "fusion.lock.release.bulk")
+  public ResponseEntity<?> releaseLocks(@RequestBody final Map<String, String> tokens) {
+    lockService.releaseLocks(tokens);
+    return ResponseEntity.noContent().build();
+  }
+
   @PostMapping(PREFIX + "/{scope}/contest")
   @Timed(description = "try to contest a lock", value = "fusion.lock.contest")
   public ResponseEntity<?> contestLock(@PathVariable("scope") final String scope, final Principal principal,
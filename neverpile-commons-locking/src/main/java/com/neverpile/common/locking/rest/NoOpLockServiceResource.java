@@ -2,6 +2,9 @@ package com.neverpile.common.locking.rest;
 
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
@@ -12,11 +15,13 @@ import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
 import com.neverpile.common.locking.LockService;
+import com.neverpile.common.locking.LockService.BulkLockRequestResult;
 import com.neverpile.common.locking.LockService.LockRequestResult;
 import com.neverpile.common.locking.LockService.LockState;
 
@@ -75,6 +80,43 @@ public class NoOpLockServiceResource {
     return ResponseEntity.noContent().build();
   }
 
+  @GetMapping(PREFIX)
+  @Timed(description = "get status of multiple locks", value = "fusion.lock.get.bulk")
+  public Map<String, LockState> queryLocks(@RequestParam("scope") final List<String> scopes) {
+    Map<String, LockState> states = new LinkedHashMap<>();
+    scopes.forEach(scope -> states.put(scope, queryLock(scope)));
+    return states;
+  }
+
+  @PostMapping(PREFIX)
+  @Timed(description = "try to acquire multiple locks", value = "fusion.lock.acquire.bulk")
+  public BulkLockRequestResult tryAcquireLocks(@RequestBody final List<String> scopes,
+      @RequestParam(name = "ownerId", required = false) String ownerId) {
+    Map<String, String> tokens = new LinkedHashMap<>();
+    Map<String, LockState> states = new LinkedHashMap<>();
+    scopes.forEach(scope -> {
+      LockRequestResult result = tryAcquireLock(scope, ownerId);
+      tokens.put(scope, result.getToken());
+      states.put(scope, result.getState());
+    });
+    return new BulkLockRequestResult(true, tokens, states);
+  }
+
+  @PutMapping(PREFIX)
+  @Timed(description = "extend multiple locks", value = "fusion.lock.extend.bulk")
+  public Map<String, LockState> extendLocks(@RequestBody final Map<String, String> tokens,
+      @RequestParam(name = "ownerId", required = false) String ownerId) {
+    Map<String, LockState> states = new LinkedHashMap<>();
+    tokens.keySet().forEach(scope -> states.put(scope, extendLock(scope, ownerId)));
+    return states;
+  }
+
+  @DeleteMapping(PREFIX)
+  @Timed(description = "release multiple locks", value = "fusion.lock.release.bulk")
+  public ResponseEntity<?> releaseLocks(@RequestBody final Map<String, String> tokens) {
+    return ResponseEntity.noContent().build();
+  }
+
   @PostMapping(PREFIX + "/{scope}/contest")
   @Timed(description = "try to contest a lock", value = "fusion.lock.contest")
   public ResponseEntity<?> contestLock(@PathVariable("scope") final String scope,
@@ -0,0 +1,130 @@
+package com.neverpile.common.locking.signed;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.Optional;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Encodes {@link SignedLockToken}s as strings signed with HMAC-SHA256 and decodes them again.
+ * Encoded tokens consist of the base64url-encoded binary token content and signature separated by
+ * a dot.
+ */
+public class LockTokenSigner {
+  private static final String ALGORITHM = "HmacSHA256";
+
+  /**
+   * The minimum length of the secret, i.e. the output length of the hash function.
+   */
+  static final int MINIMUM_SECRET_LENGTH = 32;
+
+  private static final byte VERSION = 1;
+
+  private static final long NO_VALIDITY = Long.MIN_VALUE;
+
+  private final Mac prototype;
+
+  /**
+   * Create a signer using the given secret.
+   *
+   * @param secret the secret, at least 32 bytes long
+   */
+  public LockTokenSigner(final byte[] secret) {
+    if (secret.length < MINIMUM_SECRET_LENGTH)
+      throw new IllegalArgumentException("The secret must be at least " + MINIMUM_SECRET_LENGTH + " bytes long");
+
+    try {
+      prototype = Mac.getInstance(ALGORITHM);
+      prototype.init(new SecretKeySpec(secret, ALGORITHM));
+    } catch (GeneralSecurityException e) {
+      throw new IllegalStateException("Can't initialize " + ALGORITHM, e);
+    }
+  }
+
+  /**
+   * Encode and sign the given token.
+   *
+   * @param token the token
+   * @return the encoded token
+   */
+  public String sign(final SignedLockToken token) {
+    ByteArrayOutputStream bos = new ByteArrayOutputStream(128);
+    try (DataOutputStream out = new DataOutputStream(bos)) {
+      out.writeByte(VERSION);
+      out.writeLong(token.getFencingToken());
+      out.writeLong(null != token.getValidUntil() ? token.getValidUntil().getEpochSecond() : NO_VALIDITY);
+      out.writeInt(null != token.getValidUntil() ? token.getValidUntil().getNano() : 0);
+      out.writeUTF(token.getScope());
+      out.writeUTF(token.getOwnerId());
+      out.writeUTF(token.getToken());
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+
+    byte[] content = bos.toByteArray();
+    Base64.Encoder encoder = Base64.getUrlEncoder().withoutPadding();
+    return encoder.encodeToString(content) + '.' + encoder.encodeToString(mac().doFinal(content));
+  }
+
+  /**
+   * Check the signature of the given encoded token and decode it.
+   *
+   * @param encoded the encoded token
+   * @return the token or the empty {@link Optional} if the token is malformed or its signature is
+   *         invalid
+   */
+  public Optional<SignedLockToken> verify(final String encoded) {
+    if (null == encoded)
+      return Optional.empty();
+
+    int dot = encoded.indexOf('.');
+    if (dot < 0)
+      return Optional.empty();
+
+    byte[] content;
+    byte[] signature;
+    try {
+      Base64.Decoder decoder = Base64.getUrlDecoder();
+      content = decoder.decode(encoded.substring(0, dot));
+      signature = decoder.decode(encoded.substring(dot + 1));
+    } catch (IllegalArgumentException e) {
+      return Optional.empty();
+    }
+
+    // compare in constant time so as not to leak the signature
+    if (!MessageDigest.isEqual(mac().doFinal(content), signature))
+      return Optional.empty();
+
+    try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(content))) {
+      if (in.readByte() != VERSION)
+        return Optional.empty();
+
+      long fencingToken = in.readLong();
+      long validUntilSeconds = in.readLong();
+      int validUntilNanos = in.readInt();
+      return Optional.of(new SignedLockToken(in.readUTF(), in.readUTF(), fencingToken,
+          validUntilSeconds != NO_VALIDITY ? Instant.ofEpochSecond(validUntilSeconds, validUntilNanos) : null,
+          in.readUTF()));
+    } catch (IOException e) {
+      return Optional.empty();
+    }
+  }
+
+  private Mac mac() {
+    try {
+      return (Mac) prototype.clone();
+    } catch (CloneNotSupportedException e) {
+      throw new IllegalStateException(ALGORITHM + " can't be cloned", e);
+    }
+  }
+}
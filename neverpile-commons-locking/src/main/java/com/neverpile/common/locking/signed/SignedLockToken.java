@@ -0,0 +1,74 @@
+package com.neverpile.common.locking.signed;
+
+import java.time.Instant;
+
+/**
+ * The content of a lock token issued by the {@link SignedTokenLockService}. It describes the lock
+ * as of its acquisition or latest extension: every extension, including a silent re-acquisition,
+ * re-issues the token with the new validity and fencing token.
+ */
+public class SignedLockToken {
+  private final String scope;
+
+  private final String ownerId;
+
+  private final long fencingToken;
+
+  private final Instant validUntil;
+
+  private final String token;
+
+  SignedLockToken(final String scope, final String ownerId, final long fencingToken, final Instant validUntil,
+      final String token) {
+    this.scope = scope;
+    this.ownerId = ownerId;
+    this.fencingToken = fencingToken;
+    this.validUntil = validUntil;
+    this.token = token;
+  }
+
+  /**
+   * Get the scope the token has been issued for.
+   *
+   * @return the scope
+   */
+  public String getScope() {
+    return scope;
+  }
+
+  /**
+   * Get the id of the owner the token has been issued to.
+   *
+   * @return the owner id
+   */
+  public String getOwnerId() {
+    return ownerId;
+  }
+
+  /**
+   * Get the fencing token of the lock at the time the token was issued.
+   *
+   * @return the fencing token or zero if unknown
+   */
+  public long getFencingToken() {
+    return fencingToken;
+  }
+
+  /**
+   * Get the validity of the lock at the time the token was issued.
+   *
+   * @return the validity or <code>null</code> if unknown
+   */
+  public Instant getValidUntil() {
+    return validUntil;
+  }
+
+  /**
+   * Get the token issued by the underlying lock service.
+   *
+   * @return the token
+   */
+  String getToken() {
+    return token;
+  }
+}
@@ -0,0 +1,309 @@
+package com.neverpile.common.locking.signed;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Primary;
+import org.springframework.stereotype.Service;
+
+import com.neverpile.common.locking.LockService;
+import com.neverpile.common.locking.LockingConfiguration;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * A {@link LockService} issuing HMAC-signed, self-describing lock tokens on behalf of the actual
+ * lock service. To enable it, the property <code>neverpile.locking.signed-tokens.enabled</code>
+ * must be set to <code>true</code> and a secret shared by all nodes must be configured using
+ * <code>neverpile.locking.signed-tokens.secret</code>. It then takes the place of the actual lock
+ * service, which must be the only other {@link LockService} in the application context.
+ * <p>
+ * The tokens wrap the ones issued by the actual lock service and additionally carry the scope,
+ * owner, fencing token and validity of the lock, see {@link SignedLockToken}. Extending a lock
+ * re-issues its token with the new validity, which is returned as part of the new lock state, see
+ * {@link LockState#getToken()}. Clients must use the new token from then on.
+ * <p>
+ * The following tokens are rejected without any store access, regardless of whether the scope is
+ * locked:
+ * <ul>
+ * <li>tokens which have not been issued for the scope in question, which have been tampered with
+ * or which are not signed at all,
+ * <li>tokens whose validity has elapsed and
+ * <li>tokens of locks which have been released through this node within their validity.
+ * </ul>
+ * Tokens passing these checks are still verified by the actual lock service in order to detect
+ * locks which have been released through other nodes. For the
+ * {@link com.neverpile.common.locking.jpa.JPALockService} this is a store round-trip, unless its
+ * lock state cache is enabled using <code>neverpile.locking.jpa.cache.enabled</code>. If
+ * <code>neverpile.locking.signed-tokens.trust-window</code> is set, tokens are instead accepted
+ * without any store access for that long after they have been issued, at the price of not noticing
+ * releases through other nodes in the meantime. As extending a lock re-issues its token, the tokens
+ * of locks extended regularly are mostly verified locally.
+ * <p>
+ * Released tokens are remembered until their validity has elapsed. They are forgotten in the
+ * background at intervals of <code>neverpile.locking.validity-duration</code>.
+ */
+@Service
+@Primary
+@ConditionalOnProperty(name = "neverpile.locking.signed-tokens.enabled", havingValue = "true")
+public class SignedTokenLockService implements LockService {
+  /**
+   * The other lock services in the context, i.e. the actual one.
+   */
+  @Autowired
+  private List<LockService> lockServices;
+
+  @Autowired
+  private LockingConfiguration lockingConfiguration;
+
+  private LockService delegate;
+
+  private LockTokenSigner signer;
+
+  /**
+   * The tokens of the actual lock service for locks released through this node, mapped to the
+   * validity of their signed tokens, beyond which they are rejected anyway.
+   */
+  private final ConcurrentMap<String, Instant> revoked = new ConcurrentHashMap<>();
+
+  private ScheduledExecutorService pruneExecutor;
+
+  @PostConstruct
+  public void init() {
+    List<LockService> delegates = lockServices.stream().filter(s -> s != this).toList();
+    if (delegates.size() != 1)
+      throw new IllegalStateException("Signed lock tokens require exactly one other lock service, but found "
+          + delegates.size());
+    delegate = delegates.get(0);
+
+    String secret = lockingConfiguration.getSignedTokens().getSecret();
+    if (null == secret || secret.isBlank())
+      throw new IllegalStateException("Signed lock tokens require neverpile.locking.signed-tokens.secret");
+    signer = new LockTokenSigner(Base64.getDecoder().decode(secret.trim()));
+
+    pruneExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread t = new Thread(r, "neverpile-lock-token-revocation");
+      t.setDaemon(true);
+      return t;
+    });
+
+    long period = lockingConfiguration.getValidityDuration().toMillis();
+    pruneExecutor.scheduleWithFixedDelay(this::prune, period, period, TimeUnit.MILLISECONDS);
+  }
+
+  @PreDestroy
+  public void stop() {
+    pruneExecutor.shutdownNow();
+  }
+
+  /**
+   * Check the signature of the given token and decode it.
+   *
+   * @param scope the lock scope
+   * @param token the lock token
+   * @return the token or the empty {@link Optional} if the token has not been issued by this lock
+   *         service for the given scope
+   */
+  public Optional<SignedLockToken> decode(final String scope, final String token) {
+    return signer.verify(token).filter(t -> t.getScope().equals(scope));
+  }
+
+  private String sign(final String scope, final String ownerId, final String token, final LockState state) {
+    return signer.sign(new SignedLockToken(scope, ownerId, state.getFencingToken(), state.getValidUntil(), token));
+  }
+
+  /**
+   * Return a copy of the given state of an extended lock carrying a re-issued token.
+   */
+  private LockState reissue(final String scope, final String ownerId, final String token, final LockState state) {
+    LockState reissued = new LockState(state.getOwnerId(), state.getValidUntil(), state.getContestantId(),
+        state.getFencingToken());
+    reissued.setToken(sign(scope, ownerId, token, state));
+    return reissued;
+  }
+
+  /**
+   * Return whether the given token may still be in use, i.e. hasn't expired and the lock hasn't
+   * been released through this node.
+   */
+  private boolean isCurrent(final SignedLockToken token) {
+    Instant now = Instant.now();
+    return (null == token.getValidUntil() || !now.isAfter(token.getValidUntil()))
+        && !revoked.containsKey(token.getToken());
+  }
+
+  /**
+   * Return whether the given current token may be accepted without consulting the actual lock
+   * service, i.e. has been issued no longer than the trust window ago.
+   */
+  private boolean isTrusted(final SignedLockToken token) {
+    if (null == token.getValidUntil())
+      return false;
+
+    Instant issued = token.getValidUntil().minus(lockingConfiguration.getValidityDuration());
+    return Instant.now().isBefore(issued.plus(lockingConfiguration.getSignedTokens().getTrustWindow()));
+  }
+
+  /**
+   * Remember that the lock described by the given token has been released.
+   */
+  private void revoke(final SignedLockToken token) {
+    // without a validity, it can't be known when to forget the token
+    if (null != token.getValidUntil())
+      revoked.put(token.getToken(), token.getValidUntil());
+  }
+
+  /**
+   * Forget the revoked tokens whose validity has elapsed, as they are rejected anyway.
+   */
+  private void prune() {
+    Instant now = Instant.now();
+    revoked.values().removeIf(now::isAfter);
+  }
+
+  private LockRequestResult sign(final String scope, final String ownerId, final LockRequestResult result) {
+    if (!result.isSuccess())
+      return result;
+
+    return new LockRequestResult(true, sign(scope, ownerId, result.getToken(), result.getState()), result.getState());
+  }
+
+  private String unwrap(final String scope, final String token) {
+    return decode(scope, token).map(SignedLockToken::getToken).orElse(null);
+  }
+
+  private Map<String, SignedLockToken> decode(final Map<String, String> tokens) {
+    Map<String, SignedLockToken> decoded = new LinkedHashMap<>();
+    tokens.forEach((scope, token) -> decode(scope, token).ifPresent(t -> decoded.put(scope, t)));
+    return decoded;
+  }
+
+  @Override
+  public LockRequestResult tryAcquireLock(final String scope, final String ownerId) {
+    return sign(scope, ownerId, delegate.tryAcquireLock(scope, ownerId));
+  }
+
+  @Override
+  public CompletableFuture<LockRequestResult> acquireLock(final String scope, final String ownerId,
+      final Duration timeout) {
+    return delegate.acquireLock(scope, ownerId, timeout).thenApply(r -> sign(scope, ownerId, r));
+  }
+
+  @Override
+  public BulkLockRequestResult tryAcquireLocks(final Collection<String> scopes, final String ownerId) {
+    BulkLockRequestResult result = delegate.tryAcquireLocks(scopes, ownerId);
+    if (!result.isSuccess())
+      return result;
+
+    Map<String, String> tokens = new LinkedHashMap<>();
+    result.getTokens().forEach(
+        (scope, token) -> tokens.put(scope, sign(scope, ownerId, token, result.getStates().get(scope))));
+    return new BulkLockRequestResult(true, tokens, result.getStates());
+  }
+
+  @Override
+  public boolean contestLock(final String scope, final String contestantId) {
+    return delegate.contestLock(scope, contestantId);
+  }
+
+  @Override
+  public void resolveContest(final String scope, final String token) {
+    String unwrapped = unwrap(scope, token);
+    if (null != unwrapped)
+      delegate.resolveContest(scope, unwrapped);
+  }
+
+  @Override
+  public LockState extendLock(final String scope, final String token, final String ownerId)
+      throws LockLostException {
+    // a released lock must not be re-acquired silently
+    SignedLockToken decoded = decode(scope, token).filter(t -> !revoked.containsKey(t.getToken()))
+        .orElseThrow(LockLostException::new);
+
+    return reissue(scope, ownerId, decoded.getToken(), delegate.extendLock(scope, decoded.getToken(), ownerId));
+  }
+
+  @Override
+  public Map<String, LockState> extendLocks(final Map<String, String> tokens, final String ownerId) {
+    // locks with invalid tokens are considered lost, i.e. omitted
+    Map<String, String> unwrapped = new LinkedHashMap<>();
+    decode(tokens).forEach((scope, t) -> {
+      if (!revoked.containsKey(t.getToken()))
+        unwrapped.put(scope, t.getToken());
+    });
+
+    Map<String, LockState> states = new LinkedHashMap<>();
+    delegate.extendLocks(unwrapped, ownerId).forEach(
+        (scope, state) -> states.put(scope, reissue(scope, ownerId, unwrapped.get(scope), state)));
+    return states;
+  }
+
+  @Override
+  public void releaseLock(final String scope, final String token) {
+    Optional<SignedLockToken> decoded = decode(scope, token);
+    if (decoded.isPresent()) {
+      delegate.releaseLock(scope, decoded.get().getToken());
+      revoke(decoded.get());
+    }
+  }
+
+  @Override
+  public void releaseLocks(final Map<String, String> tokens) {
+    Map<String, SignedLockToken> decoded = decode(tokens);
+
+    Map<String, String> unwrapped = new LinkedHashMap<>();
+    decoded.forEach((scope, t) -> unwrapped.put(scope, t.getToken()));
+    delegate.releaseLocks(unwrapped);
+
+    decoded.values().forEach(this::revoke);
+  }
+
+  @Override
+  public Optional<LockState> queryLock(final String scope) {
+    return delegate.queryLock(scope);
+  }
+
+  @Override
+  public Map<String, LockState> queryLocks(final Collection<String> scopes) {
+    return delegate.queryLocks(scopes);
+  }
+
+  @Override
+  public boolean verifyLock(final String scope, final String token) {
+    return verify(scope, token).isValid();
+  }
+
+  /**
+   * {@inheritDoc}
+   * <p>
+   * Invalid, expired and revoked tokens are rejected locally, and tokens issued within the trust
+   * window are accepted locally. Otherwise, the verification is left to the actual lock service in
+   * order to detect releases through other nodes.
+   */
+  @Override
+  public LockVerification verify(final String scope, final String token) {
+    SignedLockToken decoded = decode(scope, token).filter(this::isCurrent).orElse(null);
+    if (null == decoded)
+      return new LockVerification(false, 0);
+
+    if (isTrusted(decoded))
+      return new LockVerification(true, decoded.getFencingToken());
+
+    return delegate.verify(scope, decoded.getToken());
+  }
+}
@@ -0,0 +1,191 @@
+package com.neverpile.common.locking;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.SpringBootTest.WebEnvironment;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import com.neverpile.common.locking.LockService.LockRequestResult;
+import com.neverpile.common.locking.RequestLockingService.Mode;
+import com.neverpile.common.locking.memory.InMemoryLockService;
+import com.neverpile.common.locking.rest.BaseTestConfiguration;
+
+import io.restassured.RestAssured;
+
+@SpringBootTest(
+    webEnvironment = WebEnvironment.RANDOM_PORT,
+    classes = {
+        BaseTestConfiguration.class, InMemoryLockService.class, LockingConfiguration.class,
+        LockingHandlerInterceptor.class, LockingWebMvcConfiguration.class,
+        LockingHandlerInterceptorTest.DocumentController.class
+    },
+    properties = {
+        "neverpile.locking.memory.enabled=true"
+    })
+@EnableAutoConfiguration
+public class LockingHandlerInterceptorTest {
+  @RestController
+  public static class DocumentController {
+    @Autowired
+    private LockService lockService;
+
+    @PutMapping("/explicit/{documentId}")
+    @RequiresLock(scope = "'document-' + #documentId")
+    public String explicit(@PathVariable("documentId") final String documentId) {
+      return "ok";
+    }
+
+    @PostMapping("/implicit/{documentId}")
+    @RequiresLock(scope = "'document-' + #documentId", mode = Mode.IMPLICIT)
+    public boolean implicit(@PathVariable("documentId") final String documentId) {
+      return lockService.queryLock("document-" + documentId).isPresent();
+    }
+
+    @PostMapping("/failing/{documentId}")
+    @RequiresLock(scope = "'document-' + #documentId", mode = Mode.IMPLICIT)
+    public String failing(@PathVariable("documentId") final String documentId) {
+      throw new IllegalStateException("failed");
+    }
+
+    @PostMapping("/async/{documentId}")
+    @RequiresLock(scope = "'document-' + #documentId", mode = Mode.IMPLICIT)
+    public CompletableFuture<Boolean> async(@PathVariable("documentId") final String documentId) {
+      return CompletableFuture.supplyAsync(() -> lockService.queryLock("document-" + documentId).isPresent(),
+          CompletableFuture.delayedExecutor(200, TimeUnit.MILLISECONDS));
+    }
+
+    @PutMapping("/unlocked/{documentId}")
+    public String unlocked(@PathVariable("documentId") final String documentId) {
+      return "ok";
+    }
+  }
+
+  @LocalServerPort
+  int port;
+
+  @Autowired
+  private LockService lockService;
+
+  @BeforeEach
+  public void setupRestAssured() {
+    RestAssured.port = port;
+  }
+
+  @Test
+  public void testThat_explicitLockingRequiresToken() {
+    // @formatter:off
+    RestAssured.given()
+      .put("/explicit/foo")
+    .then()
+      .statusCode(423);
+    // @formatter:on
+  }
+
+  @Test
+  public void testThat_explicitLockingAcceptsValidToken() {
+    LockRequestResult result = lockService.tryAcquireLock("document-foo", "anOwnerId");
+
+    // @formatter:off
+    RestAssured.given()
+      .header(LockService.LOCK_TOKEN_HEADER, result.getToken())
+      .put("/explicit/foo")
+    .then()
+      .statusCode(200)
+      .header(LockService.FENCING_TOKEN_HEADER, equalTo(Long.toString(result.getState().getFencingToken())));
+
+    RestAssured.given()
+      .header(LockService.LOCK_TOKEN_HEADER, "anInvalidToken")
+      .put("/explicit/foo")
+    .then()
+      .statusCode(423);
+    // @formatter:on
+  }
+
+  @Test
+  public void testThat_implicitLockIsReleasedAfterCompletion() throws InterruptedException {
+    // @formatter:off
+    RestAssured.given()
+      .post("/implicit/bar")
+    .then()
+      .statusCode(200)
+      .header(LockService.FENCING_TOKEN_HEADER, notNullValue())
+      .body(equalTo("true"));
+    // @formatter:on
+
+    awaitRelease("document-bar");
+  }
+
+  @Test
+  public void testThat_implicitLockingFailsIfLocked() {
+    lockService.tryAcquireLock("document-baz", "anOwnerId");
+
+    // @formatter:off
+    RestAssured.given()
+      .post("/implicit/baz")
+    .then()
+      .statusCode(423);
+    // @formatter:on
+  }
+
+  @Test
+  public void testThat_implicitLockIsReleasedOnFailure() throws InterruptedException {
+    // @formatter:off
+    RestAssured.given()
+      .post("/failing/qux")
+    .then()
+      .statusCode(500);
+    // @formatter:on
+
+    awaitRelease("document-qux");
+  }
+
+  @Test
+  public void testThat_implicitLockIsHeldDuringAsyncProcessing() throws InterruptedException {
+    // @formatter:off
+    RestAssured.given()
+      .post("/async/quux")
+    .then()
+      .statusCode(200)
+      .body(equalTo("true"));
+    // @formatter:on
+
+    awaitRelease("document-quux");
+  }
+
+  @Test
+  public void testThat_unannotatedHandlersAreNotLocked() {
+    // @formatter:off
+    RestAssured.given()
+      .put("/unlocked/foo")
+    .then()
+      .statusCode(200)
+      .header(LockService.FENCING_TOKEN_HEADER, nullValue());
+    // @formatter:on
+  }
+
+  /*
+   * The lock is released once the request has been completed, which may be just after the
+   * response has been received.
+   */
+  private void awaitRelease(final String scope) throws InterruptedException {
+    for (int i = 0; i < 20 && lockService.queryLock(scope).isPresent(); i++)
+      Thread.sleep(50);
+
+    assertThat(lockService.queryLock(scope)).isNotPresent();
+  }
+}
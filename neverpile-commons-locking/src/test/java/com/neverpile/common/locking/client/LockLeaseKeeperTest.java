@@ -0,0 +1,227 @@
+package com.neverpile.common.locking.client;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.annotation.DirtiesContext.ClassMode;
+
+import com.neverpile.common.locking.LockService;
+import com.neverpile.common.locking.LockService.BulkLockRequestResult;
+import com.neverpile.common.locking.LockService.LockRequestResult;
+import com.neverpile.common.locking.LockService.LockState;
+import com.neverpile.common.locking.LockingConfiguration;
+import com.neverpile.common.locking.memory.InMemoryLockService;
+
+@SpringBootTest(
+    classes = {
+        InMemoryLockService.class, LockingConfiguration.class
+    },
+    properties = {
+        "neverpile.locking.memory.enabled=true", "neverpile.locking.validity-duration=PT1S",
+        "neverpile.locking.memory.expiry-resolution=PT0.1S"
+    })
+@DirtiesContext(classMode = ClassMode.AFTER_EACH_TEST_METHOD)
+public class LockLeaseKeeperTest {
+  private static final Duration VALIDITY = Duration.ofSeconds(1);
+
+  @Autowired
+  private InMemoryLockService lockService;
+
+  @Test
+  public void testThat_locksAreKeptBeyondValidity() throws InterruptedException {
+    try (LockLeaseKeeper keeper = new LockLeaseKeeper(lockService, "anOwnerId", VALIDITY)) {
+      LockRequestResult result = lockService.tryAcquireLock("dummy", "anOwnerId");
+      keeper.hold("dummy", result, (scope, e) -> {
+      });
+
+      Thread.sleep(2500);
+
+      assertThat(keeper.getHeldScopes()).containsExactly("dummy");
+      assertThat(lockService.verifyLock("dummy", result.getToken())).isTrue();
+      assertThat(lockService.tryAcquireLock("dummy", "anotherOwnerId").isSuccess()).isFalse();
+    }
+  }
+
+  @Test
+  public void testThat_lockLossIsReported() throws Exception {
+    CompletableFuture<String> lost = new CompletableFuture<>();
+
+    try (LockLeaseKeeper keeper = new LockLeaseKeeper(lockService, "anOwnerId", VALIDITY)) {
+      LockRequestResult result = lockService.tryAcquireLock("dummy", "anOwnerId");
+      keeper.hold("dummy", result, (scope, e) -> lost.complete(scope));
+
+      // somebody else takes over behind the keeper's back
+      lockService.releaseLock("dummy", result.getToken());
+      LockRequestResult stolen = lockService.tryAcquireLock("dummy", "anotherOwnerId");
+
+      assertThat(lost.get(2, TimeUnit.SECONDS)).isEqualTo("dummy");
+      assertThat(keeper.getHeldScopes()).isEmpty();
+      assertThat(lockService.verifyLock("dummy", stolen.getToken())).isTrue();
+    }
+  }
+
+  @Test
+  public void testThat_locksAreRenewedInOneBatch() {
+    Map<String, AtomicInteger> calls = new ConcurrentHashMap<>();
+    LockService counting = (LockService) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{
+        LockService.class
+    }, (proxy, method, args) -> {
+      calls.computeIfAbsent(method.getName(), n -> new AtomicInteger()).incrementAndGet();
+      try {
+        return method.invoke(lockService, args);
+      } catch (InvocationTargetException e) {
+        throw e.getCause();
+      }
+    });
+
+    try (LockLeaseKeeper keeper = new LockLeaseKeeper(counting, "anOwnerId", Duration.ofHours(1))) {
+      BulkLockRequestResult result = lockService.tryAcquireLocks(Arrays.asList("foo", "bar", "baz"), "anOwnerId");
+      keeper.holdAll(result, (scope, e) -> {
+      });
+
+      assertThat(keeper.renew()).isTrue();
+
+      assertThat(calls.get("extendLocks")).hasValue(1);
+      assertThat(calls).doesNotContainKey("extendLock");
+      assertThat(keeper.getHeldScopes()).containsExactlyInAnyOrder("foo", "bar", "baz");
+    }
+  }
+
+  @Test
+  public void testThat_silentReAcquisitionIsReportedAsLoss() throws Exception {
+    CompletableFuture<String> lost = new CompletableFuture<>();
+
+    // renewals are triggered manually
+    try (LockLeaseKeeper keeper = new LockLeaseKeeper(lockService, "anOwnerId", Duration.ofHours(1))) {
+      LockRequestResult result = lockService.tryAcquireLock("dummy", "anOwnerId");
+      keeper.hold("dummy", result, (scope, e) -> lost.complete(scope));
+      assertThat(keeper.getFencingToken("dummy")).isEqualTo(result.getState().getFencingToken());
+
+      // the lock expires, the renewal re-acquires it with a new fencing token
+      Thread.sleep(1500);
+      assertThat(keeper.renew()).isTrue();
+
+      assertThat(lost.get(2, TimeUnit.SECONDS)).isEqualTo("dummy");
+      assertThat(keeper.getHeldScopes()).isEmpty();
+      assertThat(keeper.getFencingToken("dummy")).isNull();
+      assertThat(lockService.queryLock("dummy")).isNotPresent();
+    }
+  }
+
+  @Test
+  public void testThat_releaseDoesNotWaitForRenewal() throws Exception {
+    CountDownLatch extending = new CountDownLatch(1);
+    CountDownLatch proceed = new CountDownLatch(1);
+    LockService slow = (LockService) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{
+        LockService.class
+    }, (proxy, method, args) -> {
+      if (method.getName().equals("extendLocks")) {
+        extending.countDown();
+        proceed.await(5, TimeUnit.SECONDS);
+      }
+      try {
+        return method.invoke(lockService, args);
+      } catch (InvocationTargetException e) {
+        throw e.getCause();
+      }
+    });
+
+    try (LockLeaseKeeper keeper = new LockLeaseKeeper(slow, "anOwnerId", Duration.ofHours(1))) {
+      keeper.hold("dummy", lockService.tryAcquireLock("dummy", "anOwnerId"), (scope, e) -> {
+      });
+
+      CompletableFuture<Boolean> renewal = CompletableFuture.supplyAsync(keeper::renew);
+      assertThat(extending.await(2, TimeUnit.SECONDS)).isTrue();
+
+      // released before the renewal reaches the lock service
+      keeper.release("dummy");
+      assertThat(lockService.queryLock("dummy")).isNotPresent();
+
+      proceed.countDown();
+      assertThat(renewal.get(2, TimeUnit.SECONDS)).isTrue();
+
+      // the renewal re-acquired the lock, but released it again
+      assertThat(lockService.queryLock("dummy")).isNotPresent();
+    }
+  }
+
+  @Test
+  public void testThat_reissuedTokensAreAdopted() {
+    LockService reissuing = (LockService) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{
+        LockService.class
+    }, (proxy, method, args) -> {
+      Object result;
+      try {
+        result = method.invoke(lockService, args);
+      } catch (InvocationTargetException e) {
+        throw e.getCause();
+      }
+
+      if (method.getName().equals("extendLocks"))
+        ((Map<String, LockState>) result).forEach((scope, state) -> state.setToken("reissued-" + scope));
+      return result;
+    });
+
+    try (LockLeaseKeeper keeper = new LockLeaseKeeper(reissuing, "anOwnerId", Duration.ofHours(1))) {
+      keeper.hold("dummy", lockService.tryAcquireLock("dummy", "anOwnerId"), (scope, e) -> {
+      });
+
+      assertThat(keeper.renew()).isTrue();
+
+      assertThat(keeper.getToken("dummy")).isEqualTo("reissued-dummy");
+    }
+  }
+
+  @Test
+  public void testThat_releaseStopsRenewal() {
+    try (LockLeaseKeeper keeper = new LockLeaseKeeper(lockService, "anOwnerId", VALIDITY)) {
+      keeper.hold("dummy", lockService.tryAcquireLock("dummy", "anOwnerId"), (scope, e) -> {
+      });
+
+      keeper.release("dummy");
+
+      assertThat(keeper.getHeldScopes()).isEmpty();
+      assertThat(lockService.queryLock("dummy")).isNotPresent();
+    }
+  }
+
+  @Test
+  public void testThat_closeReleasesLocks() {
+    LockLeaseKeeper keeper = new LockLeaseKeeper(lockService, "anOwnerId", VALIDITY);
+    keeper.holdAll(lockService.tryAcquireLocks(Arrays.asList("foo", "bar"), "anOwnerId"),
+        (scope, e) -> {
+        });
+
+    keeper.close();
+
+    assertThat(lockService.queryLock("foo")).isNotPresent();
+    assertThat(lockService.queryLock("bar")).isNotPresent();
+  }
+
+  @Test
+  public void testThat_failedAcquisitionCantBeHeld() {
+    lockService.tryAcquireLock("dummy", "anotherOwnerId");
+
+    try (LockLeaseKeeper keeper = new LockLeaseKeeper(lockService, "anOwnerId", VALIDITY)) {
+      LockRequestResult fail = lockService.tryAcquireLock("dummy", "anOwnerId");
+
+      Assertions.assertThrows(IllegalArgumentException.class, () -> keeper.hold("dummy", fail, (scope, e) -> {
+      }));
+    }
+  }
+}
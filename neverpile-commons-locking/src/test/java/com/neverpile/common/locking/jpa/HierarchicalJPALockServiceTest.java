@@ -0,0 +1,140 @@
+package com.neverpile.common.locking.jpa;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import com.neverpile.common.locking.LockService.BulkLockRequestResult;
+import com.neverpile.common.locking.LockService.LockRequestResult;
+import com.neverpile.common.locking.LockingConfiguration;
+
+/**
+ * Hierarchical acquisitions are performed in transactions of their own, so the tests don't run in
+ * a test-managed transaction.
+ */
+@DataJpaTest
+@EnableAutoConfiguration
+@ContextConfiguration(
+    classes = {
+        JPALockService.class, LockingConfiguration.class
+    })
+@TestPropertySource(
+    properties = {
+        "neverpile.locking.jpa.enabled=true", "neverpile.locking.validity-duration=PT3S",
+        "neverpile.locking.jpa.housekeeping.interval=PT1H", "neverpile.locking.hierarchical-scopes=true"
+    })
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+public class HierarchicalJPALockServiceTest {
+  @Autowired
+  private JPALockService lockService;
+
+  @Autowired
+  private LockStateRepository repository;
+
+  @BeforeEach
+  public void cleanup() {
+    repository.deleteAll();
+  }
+
+  @Test
+  public void testThat_lockedDescendantBlocksAncestor() {
+    lockService.tryAcquireLock("folder.42.doc.7", "anotherOwnerId");
+
+    LockRequestResult fail = lockService.tryAcquireLock("folder.42", "anOwnerId");
+    assertThat(fail.isSuccess()).isFalse();
+    assertThat(fail.getState().getOwnerId()).isEqualTo("anotherOwnerId");
+
+    assertThat(lockService.tryAcquireLock("folder", "anOwnerId").isSuccess()).isFalse();
+    assertThat(repository.findById("folder.42")).isNotPresent();
+  }
+
+  @Test
+  public void testThat_lockedAncestorBlocksDescendant() {
+    lockService.tryAcquireLock("folder.42", "anotherOwnerId");
+
+    LockRequestResult fail = lockService.tryAcquireLock("folder.42.doc.7", "anOwnerId");
+    assertThat(fail.isSuccess()).isFalse();
+    assertThat(fail.getState().getOwnerId()).isEqualTo("anotherOwnerId");
+    assertThat(repository.findById("folder.42.doc.7")).isNotPresent();
+  }
+
+  @Test
+  public void testThat_siblingsDontConflict() {
+    assertThat(lockService.tryAcquireLock("folder.42.doc.7", "anOwnerId").isSuccess()).isTrue();
+    assertThat(lockService.tryAcquireLock("folder.42.doc.8", "anotherOwnerId").isSuccess()).isTrue();
+    assertThat(lockService.tryAcquireLock("folder.4", "anotherOwnerId").isSuccess()).isTrue();
+    assertThat(lockService.tryAcquireLock("folder_42", "anotherOwnerId").isSuccess()).isTrue();
+  }
+
+  @Test
+  public void testThat_wildcardsInScopesAreEscaped() {
+    lockService.tryAcquireLock("folder_42.doc.7", "anotherOwnerId");
+
+    assertThat(lockService.tryAcquireLock("folder%", "anOwnerId").isSuccess()).isTrue();
+    assertThat(lockService.tryAcquireLock("folder.42", "anOwnerId").isSuccess()).isTrue();
+    assertThat(lockService.tryAcquireLock("folder_42", "anOwnerId").isSuccess()).isFalse();
+  }
+
+  @Test
+  public void testThat_ancestorCanBeAcquiredAfterDescendantRelease() {
+    LockRequestResult doc = lockService.tryAcquireLock("folder.42.doc.7", "anotherOwnerId");
+    lockService.releaseLock("folder.42.doc.7", doc.getToken());
+
+    assertThat(lockService.tryAcquireLock("folder.42", "anOwnerId").isSuccess()).isTrue();
+  }
+
+  @Test
+  public void testThat_ancestorLockIsVerified() {
+    LockRequestResult folder = lockService.tryAcquireLock("folder.42", "anOwnerId");
+
+    assertThat(lockService.verifyLock("folder.42.doc.7", folder.getToken())).isTrue();
+    assertThat(lockService.verifyLock("folder.42.doc.7", "whateverToken")).isFalse();
+    assertThat(lockService.verifyLock("folder.43.doc.7", "whateverToken")).isTrue();
+  }
+
+  @Test
+  public void testThat_bulkAcquisitionHonoursHierarchy() {
+    lockService.tryAcquireLock("folder.42.doc.7", "anotherOwnerId");
+
+    BulkLockRequestResult fail = lockService.tryAcquireLocks(Arrays.asList("folder.41", "folder.42"), "anOwnerId");
+    assertThat(fail.isSuccess()).isFalse();
+    assertThat(repository.findById("folder.41")).isNotPresent();
+  }
+
+  @Test
+  public void testThat_atMostOneOfConcurrentConflictingAcquisitionsSucceeds() throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      for (int round = 0; round < 50; round++) {
+        String folder = "folder" + round;
+        List<Callable<Boolean>> attempts = Arrays.asList( //
+            () -> lockService.tryAcquireLock(folder, "anOwnerId").isSuccess(), //
+            () -> lockService.tryAcquireLock(folder + ".doc.7", "anotherOwnerId").isSuccess());
+
+        int successes = 0;
+        for (Future<Boolean> f : executor.invokeAll(attempts))
+          if (f.get())
+            successes++;
+
+        assertThat(successes).isLessThanOrEqualTo(1);
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+}
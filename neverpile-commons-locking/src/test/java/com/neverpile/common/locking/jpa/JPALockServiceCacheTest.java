@@ -0,0 +1,128 @@
+package com.neverpile.common.locking.jpa;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.clearInvocations;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.time.Instant;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.mock.mockito.SpyBean;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.annotation.DirtiesContext.ClassMode;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.transaction.BeforeTransaction;
+import org.springframework.test.context.transaction.TestTransaction;
+
+import com.neverpile.common.locking.LockService.LockRequestResult;
+import com.neverpile.common.locking.LockingConfiguration;
+
+@DataJpaTest
+@EnableAutoConfiguration
+@ContextConfiguration(
+    classes = {
+        JPALockService.class, LockingConfiguration.class
+    })
+@TestPropertySource(
+    properties = {
+        "neverpile.locking.jpa.enabled=true", "neverpile.locking.validity-duration=PT3S",
+        "neverpile.locking.jpa.cache.enabled=true", "neverpile.locking.jpa.cache.staleness=PT1S"
+    })
+@DirtiesContext(classMode = ClassMode.AFTER_EACH_TEST_METHOD)
+public class JPALockServiceCacheTest {
+  @Autowired
+  private JPALockService lockService;
+
+  @SpyBean
+  private LockStateRepository repository;
+
+  // acquisitions don't participate in the test transaction, thus the cleanup must be committed before it starts
+  @BeforeEach
+  @BeforeTransaction
+  public void cleanup() {
+    repository.deleteAll();
+    clearInvocations(repository);
+  }
+
+  @Test
+  public void testThat_acquiredLockIsVerifiedWithoutDatabaseRead() {
+    LockRequestResult result = lockService.tryAcquireLock("dummy", "anOwnerId");
+    TestTransaction.flagForCommit();
+    TestTransaction.end();
+    clearInvocations(repository);
+
+    assertThat(lockService.verifyLock("dummy", result.getToken())).isTrue();
+    assertThat(lockService.verifyLock("dummy", "whateverToken")).isFalse();
+
+    verify(repository, never()).findById(any());
+  }
+
+  @Test
+  public void testThat_releasedLockIsVerifiedWithoutDatabaseRead() {
+    LockRequestResult result = lockService.tryAcquireLock("dummy", "anOwnerId");
+    TestTransaction.flagForCommit();
+    TestTransaction.end();
+
+    TestTransaction.start();
+    lockService.releaseLock("dummy", result.getToken());
+    TestTransaction.flagForCommit();
+    TestTransaction.end();
+    clearInvocations(repository);
+
+    assertThat(lockService.verifyLock("dummy", "whateverToken")).isTrue();
+
+    verify(repository, never()).findById(any());
+  }
+
+  @Test
+  public void testThat_rolledBackReleaseIsNotCached() {
+    LockRequestResult result = lockService.tryAcquireLock("dummy", "anOwnerId");
+    lockService.releaseLock("dummy", result.getToken());
+    TestTransaction.flagForRollback();
+    TestTransaction.end();
+    clearInvocations(repository);
+
+    assertThat(lockService.verifyLock("dummy", result.getToken())).isTrue();
+
+    verify(repository, times(1)).findById("dummy");
+  }
+
+  @Test
+  public void testThat_loadedStateIsCached() {
+    assertThat(lockService.verifyLock("dummy", "whateverToken")).isTrue();
+    assertThat(lockService.verifyLock("dummy", "whateverToken")).isTrue();
+
+    verify(repository, times(1)).findById("dummy");
+  }
+
+  @Test
+  public void testThat_foreignModificationIsObservedAfterStalenessWindow() throws InterruptedException {
+    assertThat(lockService.verifyLock("dummy", "whateverToken")).isTrue();
+
+    // simulate acquisition by another node
+    LockStateEntity lse = new LockStateEntity();
+    lse.setScope("dummy");
+    lse.setLockToken("foreignToken");
+    lse.setOwnerId("anotherOwnerId");
+    lse.setValidUntil(Instant.now().plusSeconds(60));
+    repository.save(lse);
+    TestTransaction.flagForCommit();
+    TestTransaction.end();
+
+    // still within the staleness window
+    assertThat(lockService.verifyLock("dummy", "whateverToken")).isTrue();
+
+    Thread.sleep(1500);
+
+    assertThat(lockService.verifyLock("dummy", "whateverToken")).isFalse();
+    assertThat(lockService.verifyLock("dummy", "foreignToken")).isTrue();
+  }
+}
@@ -1,9 +1,23 @@
 package com.neverpile.common.locking.jpa;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
 
+import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.StreamSupport;
 
 import org.junit.jupiter.api.Assertions;
@@ -12,10 +26,18 @@ import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
 import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.event.ApplicationEvents;
+import org.springframework.test.context.event.RecordApplicationEvents;
+import org.springframework.test.context.transaction.BeforeTransaction;
 import org.springframework.test.context.transaction.TestTransaction;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
 
+import com.neverpile.common.locking.LockEvent;
+import com.neverpile.common.locking.LockService.BulkLockRequestResult;
 import com.neverpile.common.locking.LockService.LockLostException;
 import com.neverpile.common.locking.LockService.LockRequestResult;
 import com.neverpile.common.locking.LockService.LockState;
@@ -29,16 +51,26 @@ import com.neverpile.common.locking.LockingConfiguration;
     })
 @TestPropertySource(
     properties = {
-        "neverpile.locking.jpa.enabled=true", "neverpile.locking.validity-duration=PT3S"
+        "neverpile.locking.jpa.enabled=true", "neverpile.locking.validity-duration=PT3S",
+        "neverpile.locking.jpa.housekeeping.interval=PT1H", "neverpile.locking.jpa.housekeeping.batch-size=10"
     })
+@RecordApplicationEvents
 public class JPALockServiceTest {
   @Autowired
   private JPALockService lockService;
 
+  @Autowired
+  private ApplicationEvents events;
+
   @Autowired
   private LockStateRepository repository;
 
+  @Autowired
+  private JPALockHousekeeping housekeeping;
+
+  // acquisitions don't participate in the test transaction, thus the cleanup must be committed before it starts
   @BeforeEach
+  @BeforeTransaction
   public void cleanup() {
     repository.deleteAll();
   }
@@ -122,6 +154,20 @@ public class JPALockServiceTest {
         () -> new AssertionError("lock not present")).getValidUntil()).isEqualTo(extended.getValidUntil());
   }
 
+  @Test
+  @Transactional(propagation = Propagation.NOT_SUPPORTED)
+  public void testThat_extensionReportsUnchangedState() throws LockLostException {
+    LockRequestResult result = lockService.tryAcquireLock("dummy", "anOwnerId");
+    lockService.contestLock("dummy", "aContestantId");
+
+    // the state not written by the extension is returned by the updating statement
+    LockState extended = lockService.extendLock("dummy", result.getToken(), "anOwnerId");
+    assertThat(extended.getOwnerId()).isEqualTo("anOwnerId");
+    assertThat(extended.getContestantId()).isEqualTo("aContestantId");
+    assertThat(extended.getFencingToken()).isEqualTo(result.getState().getFencingToken());
+    assertThat(repository.findById("dummy").get().getValidUntil()).isEqualTo(extended.getValidUntil());
+  }
+
   @Test
   public void testThat_lockCanBeExtendedWithSilentReAcquire() throws LockLostException, InterruptedException {
     LockRequestResult result = lockService.tryAcquireLock("dummy", "anOwnerId");
@@ -207,6 +253,40 @@ public class JPALockServiceTest {
         () -> lockService.extendLock("dummy", "whateverToken", "anOwnerId"));
   }
 
+  @Test
+  @Transactional(propagation = Propagation.NOT_SUPPORTED)
+  public void testThat_fencingTokensIncreaseWithEveryAcquisition() throws LockLostException {
+    LockRequestResult first = lockService.tryAcquireLock("dummy", "anOwnerId");
+    long fencingToken = first.getState().getFencingToken();
+    assertThat(fencingToken).isPositive();
+    assertThat(repository.findById("dummy").get().getFencingToken()).isEqualTo(fencingToken);
+
+    // extension keeps the fencing token
+    assertThat(lockService.extendLock("dummy", first.getToken(), "anOwnerId").getFencingToken()).isEqualTo(fencingToken);
+    assertThat(lockService.queryLock("dummy").get().getFencingToken()).isEqualTo(fencingToken);
+
+    lockService.releaseLock("dummy", first.getToken());
+    LockRequestResult second = lockService.tryAcquireLock("dummy", "anotherOwnerId");
+    assertThat(second.getState().getFencingToken()).isGreaterThan(fencingToken);
+
+    assertThat(lockService.verify("dummy", second.getToken()).isValid()).isTrue();
+    assertThat(lockService.verify("dummy", second.getToken()).getFencingToken()).isEqualTo(
+        second.getState().getFencingToken());
+    assertThat(lockService.verify("dummy", first.getToken()).isValid()).isFalse();
+    assertThat(lockService.verify("anotherScope", first.getToken()).isValid()).isTrue();
+    assertThat(lockService.verify("anotherScope", first.getToken()).getFencingToken()).isZero();
+  }
+
+  @Test
+  public void testThat_locksAcquiredInBulkShareFencingToken() {
+    BulkLockRequestResult result = lockService.tryAcquireLocks(Arrays.asList("foo", "bar"), "anOwnerId");
+
+    long fencingToken = result.getStates().get("foo").getFencingToken();
+    assertThat(fencingToken).isPositive();
+    assertThat(result.getStates().get("bar").getFencingToken()).isEqualTo(fencingToken);
+    assertThat(lockService.queryLock("bar").get().getFencingToken()).isEqualTo(fencingToken);
+  }
+
   @Test
   public void testThat_housekeepingCleansOldLocks() throws InterruptedException {
     lockService.tryAcquireLock("dummy1", "anotherOwnerId");
@@ -220,10 +300,60 @@ public class JPALockServiceTest {
     TestTransaction.flagForCommit();
     TestTransaction.end();
 
+    assertThat(housekeeping.performHousekeeping()).isEqualTo(1);
+
     // dummy1 must be expired
     assertThat(StreamSupport.stream(repository.findAll().spliterator(), false).count()).isEqualTo(1);
   }
 
+  @Test
+  public void testThat_housekeepingDeletesInBatches() {
+    for (int i = 0; i < 25; i++) {
+      LockStateEntity lse = new LockStateEntity();
+      lse.setScope("expired" + i);
+      lse.setLockToken("token" + i);
+      lse.setOwnerId("anOwnerId");
+      lse.setValidUntil(Instant.now().minusSeconds(60));
+      repository.save(lse);
+    }
+    lockService.tryAcquireLock("valid", "anOwnerId");
+    TestTransaction.flagForCommit();
+    TestTransaction.end();
+
+    // batch size is 10
+    assertThat(housekeeping.performHousekeeping()).isEqualTo(25);
+
+    assertThat(repository.findAll()).extracting(LockStateEntity::getScope).containsExactly("valid");
+  }
+
+  @Test
+  public void testThat_reacquiredLocksAreNotDeletedAsExpired() {
+    for (String scope : Arrays.asList("expired", "reacquired")) {
+      LockStateEntity lse = new LockStateEntity();
+      lse.setScope(scope);
+      lse.setLockToken("token-" + scope);
+      lse.setOwnerId("anOwnerId");
+      lse.setValidUntil(Instant.now().minusSeconds(60));
+      repository.save(lse);
+    }
+    TestTransaction.flagForCommit();
+    TestTransaction.end();
+
+    List<String> selected = repository.findExpiredScopes(Instant.now(), PageRequest.of(0, 10));
+    assertThat(selected).containsExactlyInAnyOrder("expired", "reacquired");
+
+    // re-acquired after having been selected for deletion
+    repository.deleteById("reacquired");
+    assertThat(lockService.tryAcquireLock("reacquired", "anotherOwnerId").isSuccess()).isTrue();
+
+    TestTransaction.start();
+    assertThat(repository.deleteExpired(selected, Instant.now())).isEqualTo(1);
+    TestTransaction.flagForCommit();
+    TestTransaction.end();
+
+    assertThat(repository.findAll()).extracting(LockStateEntity::getScope).containsExactly("reacquired");
+  }
+
   @Test
   public void testThat_lockCanBeContested() {
     lockService.tryAcquireLock("dummy", "ownerId");
@@ -297,4 +427,241 @@ public class JPALockServiceTest {
     // verify contest is resolved
     assertThat(entry.getContestant()).isNull();
   }
+
+  @Test
+  @Transactional(propagation = Propagation.NOT_SUPPORTED)
+  public void testThat_exactlyOneConcurrentAcquisitionSucceeds() throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    try {
+      for (int round = 0; round < 10; round++) {
+        String scope = "contended" + round;
+
+        List<Callable<Boolean>> attempts = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+          String ownerId = "owner" + i;
+          attempts.add(() -> lockService.tryAcquireLock(scope, ownerId).isSuccess());
+        }
+
+        int successes = 0;
+        for (Future<Boolean> f : executor.invokeAll(attempts))
+          if (f.get())
+            successes++;
+
+        assertThat(successes).isEqualTo(1);
+      }
+    } finally {
+      executor.shutdown();
+      repository.deleteAll();
+    }
+  }
+
+  @Test
+  @Transactional(propagation = Propagation.NOT_SUPPORTED)
+  public void testThat_concurrentExtensionsDoNotLoseTheLock() throws Exception {
+    LockRequestResult acquired = lockService.tryAcquireLock("dummy", "anOwnerId");
+
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    try {
+      List<Callable<LockState>> extensions = new ArrayList<>();
+      for (int i = 0; i < 32; i++)
+        extensions.add(() -> lockService.extendLock("dummy", acquired.getToken(), "anOwnerId"));
+
+      for (Future<LockState> f : executor.invokeAll(extensions))
+        assertThat(f.get().getOwnerId()).isEqualTo("anOwnerId");
+
+      assertThat(lockService.tryAcquireLock("dummy", "anotherOwnerId").isSuccess()).isFalse();
+      assertThat(lockService.verifyLock("dummy", acquired.getToken())).isTrue();
+    } finally {
+      executor.shutdown();
+      repository.deleteAll();
+    }
+  }
+
+  @Test
+  public void testThat_locksCanBeAcquiredInBulk() {
+    List<String> scopes = new ArrayList<>();
+    for (int i = 0; i < 2 * JPALockService.BULK_BATCH_SIZE + 10; i++)
+      scopes.add("bulk" + i);
+
+    BulkLockRequestResult result = lockService.tryAcquireLocks(scopes, "anOwnerId");
+    TestTransaction.flagForCommit();
+    TestTransaction.end();
+
+    assertThat(result.isSuccess()).isTrue();
+    assertThat(result.getTokens()).hasSize(scopes.size());
+    assertThat(result.getStates()).hasSize(scopes.size());
+    assertThat(repository.count()).isEqualTo(scopes.size());
+
+    String token = result.getTokens().get("bulk0");
+    assertThat(lockService.verifyLock("bulk42", token)).isTrue();
+    assertThat(lockService.verifyLock("bulk42", "whateverToken")).isFalse();
+  }
+
+  @Test
+  public void testThat_bulkAcquisitionIsAllOrNothing() {
+    lockService.tryAcquireLock("b", "anotherOwnerId");
+    TestTransaction.flagForCommit();
+    TestTransaction.end();
+
+    TestTransaction.start();
+    BulkLockRequestResult result = lockService.tryAcquireLocks(Arrays.asList("a", "b", "c"), "anOwnerId");
+    TestTransaction.flagForCommit();
+    TestTransaction.end();
+
+    assertThat(result.isSuccess()).isFalse();
+    assertThat(result.getTokens()).isEmpty();
+    assertThat(result.getStates()).containsOnlyKeys("b");
+    assertThat(result.getStates().get("b").getOwnerId()).isEqualTo("anotherOwnerId");
+
+    // neither a nor c must be locked
+    assertThat(repository.findAll()).extracting(LockStateEntity::getScope).containsExactly("b");
+  }
+
+  @Test
+  public void testThat_bulkAcquisitionReplacesExpiredLocks() throws InterruptedException {
+    lockService.tryAcquireLock("b", "anotherOwnerId");
+    TestTransaction.flagForCommit();
+    TestTransaction.end();
+
+    Thread.sleep(3500);
+
+    TestTransaction.start();
+    BulkLockRequestResult result = lockService.tryAcquireLocks(Arrays.asList("a", "b"), "anOwnerId");
+    TestTransaction.flagForCommit();
+    TestTransaction.end();
+
+    assertThat(result.isSuccess()).isTrue();
+    assertThat(lockService.queryLock("b").get().getOwnerId()).isEqualTo("anOwnerId");
+  }
+
+  @Test
+  public void testThat_locksCanBeExtendedQueriedAndReleasedInBulk() throws InterruptedException {
+    BulkLockRequestResult acquired = lockService.tryAcquireLocks(Arrays.asList("a", "b", "c"), "anOwnerId");
+    lockService.tryAcquireLock("d", "anotherOwnerId");
+    TestTransaction.flagForCommit();
+    TestTransaction.end();
+
+    Thread.sleep(1000);
+
+    Map<String, String> tokens = new HashMap<>(acquired.getTokens());
+    tokens.put("d", "whateverToken");
+
+    TestTransaction.start();
+    Map<String, LockState> extended = lockService.extendLocks(tokens, "anOwnerId");
+    TestTransaction.flagForCommit();
+    TestTransaction.end();
+
+    // d is held by someone else
+    assertThat(extended).containsOnlyKeys("a", "b", "c");
+    assertThat(extended.get("a").getValidUntil()).isAfter(acquired.getStates().get("a").getValidUntil().plusMillis(500));
+
+    TestTransaction.start();
+    assertThat(lockService.queryLocks(Arrays.asList("a", "b", "d", "e"))).containsOnlyKeys("a", "b", "d");
+    lockService.releaseLocks(tokens);
+    TestTransaction.flagForCommit();
+    TestTransaction.end();
+
+    // d must have survived
+    assertThat(repository.findAll()).extracting(LockStateEntity::getScope).containsExactly("d");
+    assertThat(lockService.queryLocks(Collections.singleton("a"))).isEmpty();
+  }
+
+  @Test
+  @Transactional(propagation = Propagation.NOT_SUPPORTED)
+  public void testThat_waiterAcquiresLockOnRelease() throws Exception {
+    LockRequestResult held = lockService.tryAcquireLock("dummy", "anotherOwnerId");
+
+    try {
+      CompletableFuture<LockRequestResult> waiting = lockService.acquireLock("dummy", "anOwnerId",
+          Duration.ofSeconds(10));
+      Thread.sleep(200);
+      assertThat(waiting).isNotDone();
+
+      lockService.releaseLock("dummy", held.getToken());
+
+      // notified upon commit, i.e. well before the retry interval elapses
+      LockRequestResult result = waiting.get(500, TimeUnit.MILLISECONDS);
+      assertThat(result.isSuccess()).isTrue();
+      assertThat(result.getState().getOwnerId()).isEqualTo("anOwnerId");
+      assertThat(repository.findById("dummy").get().getLockToken()).isEqualTo(result.getToken());
+    } finally {
+      repository.deleteAll();
+    }
+  }
+
+  @Test
+  @Transactional(propagation = Propagation.NOT_SUPPORTED)
+  public void testThat_waitTimesOut() throws Exception {
+    lockService.tryAcquireLock("dummy", "anotherOwnerId");
+
+    try {
+      LockRequestResult result = lockService.acquireLock("dummy", "anOwnerId", Duration.ofMillis(300)).get(2,
+          TimeUnit.SECONDS);
+      assertThat(result.isSuccess()).isFalse();
+      assertThat(result.getState().getOwnerId()).isEqualTo("anotherOwnerId");
+    } finally {
+      repository.deleteAll();
+    }
+  }
+
+  @Test
+  public void testThat_lockEventsArePublishedUponCommit() {
+    // acquisitions are committed on their own
+    LockRequestResult result = lockService.tryAcquireLock("dummy", "anOwnerId");
+    assertThat(events.stream(LockEvent.class)).hasSize(1);
+
+    lockService.contestLock("dummy", "aContestantId");
+    assertThat(events.stream(LockEvent.class)).hasSize(1);
+    TestTransaction.flagForCommit();
+    TestTransaction.end();
+
+    // rolled back - no event
+    TestTransaction.start();
+    lockService.releaseLock("dummy", result.getToken());
+    TestTransaction.flagForRollback();
+    TestTransaction.end();
+
+    TestTransaction.start();
+    lockService.releaseLock("dummy", result.getToken());
+    TestTransaction.flagForCommit();
+    TestTransaction.end();
+
+    assertThat(events.stream(LockEvent.class)).extracting(LockEvent::getScope, LockEvent::getType).containsExactly( //
+        tuple("dummy", LockEvent.Type.ACQUIRED), //
+        tuple("dummy", LockEvent.Type.CONTESTED), //
+        tuple("dummy", LockEvent.Type.RELEASED));
+  }
+
+  @Test
+  public void testThat_housekeepingPublishesExpiryEvents() throws InterruptedException {
+    lockService.tryAcquireLock("dummy", "anOwnerId");
+    TestTransaction.flagForCommit();
+    TestTransaction.end();
+
+    Thread.sleep(4500);
+    housekeeping.performHousekeeping();
+
+    assertThat(events.stream(LockEvent.class)).extracting(LockEvent::getScope, LockEvent::getType).containsExactly( //
+        tuple("dummy", LockEvent.Type.ACQUIRED), //
+        tuple("dummy", LockEvent.Type.EXPIRED));
+  }
+
+  @Test
+  public void testThat_bulkAcquisitionPublishesExpiryEvents() {
+    LockStateEntity lse = new LockStateEntity();
+    lse.setScope("b");
+    lse.setLockToken("token-b");
+    lse.setOwnerId("anotherOwnerId");
+    lse.setValidUntil(Instant.now().minusSeconds(60));
+    repository.save(lse);
+    TestTransaction.flagForCommit();
+    TestTransaction.end();
+
+    assertThat(lockService.tryAcquireLocks(Arrays.asList("a", "b"), "anOwnerId").isSuccess()).isTrue();
+
+    assertThat(events.stream(LockEvent.class)).extracting(LockEvent::getScope, LockEvent::getType).containsExactly( //
+        tuple("b", LockEvent.Type.EXPIRED), //
+        tuple("a", LockEvent.Type.ACQUIRED), //
+        tuple("b", LockEvent.Type.ACQUIRED));
+  }
 }
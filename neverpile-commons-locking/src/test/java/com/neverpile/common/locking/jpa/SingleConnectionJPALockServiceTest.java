@@ -0,0 +1,91 @@
+package com.neverpile.common.locking.jpa;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase.Replace;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import com.neverpile.common.locking.LockService.BulkLockRequestResult;
+import com.neverpile.common.locking.LockService.LockLostException;
+import com.neverpile.common.locking.LockService.LockRequestResult;
+import com.neverpile.common.locking.LockService.LockState;
+import com.neverpile.common.locking.LockingConfiguration;
+
+/**
+ * Acquisitions must never occupy more than a single connection, so that they can't exhaust the
+ * connection pool. With a pool of a single connection, an acquisition nesting transactions would
+ * time out waiting for a second one.
+ */
+@DataJpaTest
+@EnableAutoConfiguration
+@AutoConfigureTestDatabase(replace = Replace.NONE)
+@ContextConfiguration(
+    classes = {
+        JPALockService.class, LockingConfiguration.class
+    })
+@TestPropertySource(
+    properties = {
+        "spring.datasource.url=jdbc:h2:mem:single-connection;DB_CLOSE_DELAY=-1",
+        "spring.datasource.hikari.maximum-pool-size=1", "spring.datasource.hikari.connection-timeout=250",
+        "neverpile.locking.jpa.enabled=true", "neverpile.locking.validity-duration=PT3S",
+        "neverpile.locking.jpa.housekeeping.interval=PT1H", "neverpile.locking.hierarchical-scopes=true"
+    })
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+public class SingleConnectionJPALockServiceTest {
+  @Autowired
+  private JPALockService lockService;
+
+  @Autowired
+  private LockStateRepository repository;
+
+  @BeforeEach
+  public void cleanup() {
+    repository.deleteAll();
+  }
+
+  @Test
+  public void testThat_lockCanBeAcquiredWithSingleConnection() {
+    LockRequestResult result = lockService.tryAcquireLock("folder.42", "anOwnerId");
+    assertThat(result.isSuccess()).isTrue();
+
+    assertThat(lockService.tryAcquireLock("folder.42.doc.7", "anotherOwnerId").isSuccess()).isFalse();
+    assertThat(repository.findById("folder.42.doc.7")).isNotPresent();
+  }
+
+  @Test
+  public void testThat_lostLockCanBeReacquiredWithSingleConnection() throws LockLostException {
+    LockRequestResult result = lockService.tryAcquireLock("folder.42", "anOwnerId");
+    repository.deleteById("folder.42");
+
+    LockState reacquired = lockService.extendLock("folder.42", result.getToken(), "anOwnerId");
+    assertThat(reacquired.getOwnerId()).isEqualTo("anOwnerId");
+
+    repository.deleteById("folder.42");
+    Map<String, LockState> extended = lockService.extendLocks(Map.of("folder.42", result.getToken()), "anOwnerId");
+    assertThat(extended).containsOnlyKeys("folder.42");
+  }
+
+  @Test
+  public void testThat_locksCanBeAcquiredInBulkWithSingleConnection() {
+    BulkLockRequestResult result = lockService.tryAcquireLocks(Arrays.asList("folder.41", "folder.42"), "anOwnerId");
+    assertThat(result.isSuccess()).isTrue();
+
+    // the failure releases the locks already acquired
+    BulkLockRequestResult fail = lockService.tryAcquireLocks(Arrays.asList("folder.40", "folder.41.doc.7"),
+        "anotherOwnerId");
+    assertThat(fail.isSuccess()).isFalse();
+    assertThat(repository.findById("folder.40")).isNotPresent();
+  }
+}
@@ -0,0 +1,111 @@
+package com.neverpile.common.locking.memory;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.annotation.DirtiesContext.ClassMode;
+
+import com.neverpile.common.locking.LockService.LockRequestResult;
+import com.neverpile.common.locking.LockingConfiguration;
+
+@SpringBootTest(
+    classes = {
+        InMemoryLockService.class, LockingConfiguration.class
+    },
+    properties = {
+        "neverpile.locking.memory.enabled=true", "neverpile.locking.validity-duration=PT1S",
+        "neverpile.locking.memory.expiry-resolution=PT0.1S", "neverpile.locking.hierarchical-scopes=true"
+    })
+@DirtiesContext(classMode = ClassMode.AFTER_EACH_TEST_METHOD)
+public class HierarchicalInMemoryLockServiceTest {
+  @Autowired
+  private InMemoryLockService lockService;
+
+  @Test
+  public void testThat_lockedDescendantBlocksAncestor() {
+    lockService.tryAcquireLock("folder.42.doc.7", "anotherOwnerId");
+
+    LockRequestResult fail = lockService.tryAcquireLock("folder.42", "anOwnerId");
+    assertThat(fail.isSuccess()).isFalse();
+    assertThat(fail.getState().getOwnerId()).isEqualTo("anotherOwnerId");
+
+    assertThat(lockService.tryAcquireLock("folder", "anOwnerId").isSuccess()).isFalse();
+    assertThat(lockService.queryLock("folder.42")).isNotPresent();
+  }
+
+  @Test
+  public void testThat_lockedAncestorBlocksDescendant() {
+    lockService.tryAcquireLock("folder.42", "anotherOwnerId");
+
+    LockRequestResult fail = lockService.tryAcquireLock("folder.42.doc.7", "anOwnerId");
+    assertThat(fail.isSuccess()).isFalse();
+    assertThat(fail.getState().getOwnerId()).isEqualTo("anotherOwnerId");
+    assertThat(lockService.queryLock("folder.42.doc.7")).isNotPresent();
+  }
+
+  @Test
+  public void testThat_siblingsDontConflict() {
+    assertThat(lockService.tryAcquireLock("folder.42.doc.7", "anOwnerId").isSuccess()).isTrue();
+    assertThat(lockService.tryAcquireLock("folder.42.doc.8", "anotherOwnerId").isSuccess()).isTrue();
+    assertThat(lockService.tryAcquireLock("folder.4", "anotherOwnerId").isSuccess()).isTrue();
+    assertThat(lockService.tryAcquireLock("folder.42\\.doc", "anotherOwnerId").isSuccess()).isTrue();
+  }
+
+  @Test
+  public void testThat_ancestorCanBeAcquiredAfterDescendantRelease() {
+    LockRequestResult doc = lockService.tryAcquireLock("folder.42.doc.7", "anotherOwnerId");
+    lockService.releaseLock("folder.42.doc.7", doc.getToken());
+
+    assertThat(lockService.tryAcquireLock("folder.42", "anOwnerId").isSuccess()).isTrue();
+  }
+
+  @Test
+  public void testThat_expiredDescendantDoesntBlockAncestor() throws InterruptedException {
+    lockService.tryAcquireLock("folder.42.doc.7", "anotherOwnerId");
+
+    Thread.sleep(1500);
+
+    assertThat(lockService.tryAcquireLock("folder.42", "anOwnerId").isSuccess()).isTrue();
+  }
+
+  @Test
+  public void testThat_ancestorLockIsVerified() {
+    LockRequestResult folder = lockService.tryAcquireLock("folder.42", "anOwnerId");
+
+    assertThat(lockService.verifyLock("folder.42.doc.7", folder.getToken())).isTrue();
+    assertThat(lockService.verifyLock("folder.42.doc.7", "whateverToken")).isFalse();
+    assertThat(lockService.verifyLock("folder.43.doc.7", "whateverToken")).isTrue();
+  }
+
+  @Test
+  public void testThat_atMostOneOfConcurrentConflictingAcquisitionsSucceeds() throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      for (int round = 0; round < 200; round++) {
+        String folder = "folder" + round;
+        List<Callable<Boolean>> attempts = Arrays.asList( //
+            () -> lockService.tryAcquireLock(folder, "anOwnerId").isSuccess(), //
+            () -> lockService.tryAcquireLock(folder + ".doc.7", "anotherOwnerId").isSuccess());
+
+        int successes = 0;
+        for (Future<Boolean> f : executor.invokeAll(attempts))
+          if (f.get())
+            successes++;
+
+        assertThat(successes).isLessThanOrEqualTo(1);
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+}
@@ -0,0 +1,376 @@
+package com.neverpile.common.locking.memory;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.PayloadApplicationEvent;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.annotation.DirtiesContext.ClassMode;
+
+import com.neverpile.common.locking.LockEvent;
+import com.neverpile.common.locking.LockService.BulkLockRequestResult;
+import com.neverpile.common.locking.LockService.LockLostException;
+import com.neverpile.common.locking.LockService.LockRequestResult;
+import com.neverpile.common.locking.LockService.LockState;
+import com.neverpile.common.locking.LockingConfiguration;
+
+@SpringBootTest(
+    classes = {
+        InMemoryLockService.class, LockingConfiguration.class
+    },
+    properties = {
+        "neverpile.locking.memory.enabled=true", "neverpile.locking.validity-duration=PT1S",
+        "neverpile.locking.memory.expiry-resolution=PT0.1S"
+    })
+@DirtiesContext(classMode = ClassMode.AFTER_EACH_TEST_METHOD)
+public class InMemoryLockServiceTest {
+  @Autowired
+  private InMemoryLockService lockService;
+
+  @Autowired
+  private ConfigurableApplicationContext context;
+
+  @Test
+  public void testThat_lockCanBeAcquired() {
+    Instant start = Instant.now();
+
+    LockRequestResult result = lockService.tryAcquireLock("dummy", "anOwnerId");
+
+    assertThat(result.isSuccess()).isTrue();
+    assertThat(result.getState().getOwnerId()).isEqualTo("anOwnerId");
+    assertThat(result.getState().getValidUntil()).isAfter(start);
+    assertThat(result.getToken()).isNotEmpty();
+
+    assertThat(lockService.verifyLock("dummy", result.getToken())).isTrue();
+    assertThat(lockService.verifyLock("dummy", "whateverToken")).isFalse();
+  }
+
+  @Test
+  public void testThat_fencingTokensIncreaseWithEveryAcquisition() throws Exception {
+    LockRequestResult first = lockService.tryAcquireLock("dummy", "anOwnerId");
+    long fencingToken = first.getState().getFencingToken();
+    assertThat(fencingToken).isPositive();
+
+    // extension keeps the fencing token
+    assertThat(lockService.extendLock("dummy", first.getToken(), "anOwnerId").getFencingToken()).isEqualTo(fencingToken);
+
+    lockService.releaseLock("dummy", first.getToken());
+    LockRequestResult second = lockService.tryAcquireLock("dummy", "anotherOwnerId");
+    assertThat(second.getState().getFencingToken()).isGreaterThan(fencingToken);
+
+    // acquisition after expiry
+    Thread.sleep(1500);
+    LockRequestResult third = lockService.tryAcquireLock("dummy", "anOwnerId");
+    assertThat(third.getState().getFencingToken()).isGreaterThan(second.getState().getFencingToken());
+
+    assertThat(lockService.verify("dummy", third.getToken()).isValid()).isTrue();
+    assertThat(lockService.verify("dummy", third.getToken()).getFencingToken()).isEqualTo(
+        third.getState().getFencingToken());
+    assertThat(lockService.verify("dummy", second.getToken()).isValid()).isFalse();
+    assertThat(lockService.verify("anotherScope", second.getToken()).getFencingToken()).isZero();
+  }
+
+  @Test
+  public void testThat_lockCanBeAcquiredAfterExpiry() throws InterruptedException {
+    assertThat(lockService.tryAcquireLock("dummy", "anOwnerId").isSuccess()).isTrue();
+
+    Thread.sleep(1500);
+    // lock will be expired by now!
+
+    LockRequestResult result = lockService.tryAcquireLock("dummy", "anotherOwnerId"); // different owner!
+    assertThat(result.isSuccess()).isTrue();
+    assertThat(result.getState().getOwnerId()).isEqualTo("anotherOwnerId");
+  }
+
+  @Test
+  public void testThat_lockCanBeReleased() {
+    LockRequestResult result = lockService.tryAcquireLock("dummy", "anOwnerId");
+
+    lockService.releaseLock("dummy", result.getToken());
+
+    assertThat(lockService.queryLock("dummy")).isNotPresent();
+    assertThat(lockService.tryAcquireLock("dummy", "anotherOwnerId").isSuccess()).isTrue();
+  }
+
+  @Test
+  public void testThat_lockCanBeExtended() throws LockLostException, InterruptedException {
+    LockRequestResult result = lockService.tryAcquireLock("dummy", "anOwnerId");
+
+    Thread.sleep(600);
+
+    LockState extended = lockService.extendLock("dummy", result.getToken(), "anOwnerId");
+    assertThat(extended.getValidUntil()).isAfter(result.getState().getValidUntil().plusMillis(500));
+
+    Thread.sleep(600);
+
+    // would have expired without the extension
+    assertThat(lockService.queryLock("dummy")).isPresent();
+    assertThat(lockService.tryAcquireLock("dummy", "anotherOwnerId").isSuccess()).isFalse();
+  }
+
+  @Test
+  public void testThat_lockCanBeExtendedWithSilentReAcquire() throws LockLostException, InterruptedException {
+    LockRequestResult result = lockService.tryAcquireLock("dummy", "anOwnerId");
+
+    Thread.sleep(1500);
+    // lock will be expired by now!
+
+    LockState extended = lockService.extendLock("dummy", result.getToken(), "anOwnerId");
+    assertThat(extended.getValidUntil()).isAfter(result.getState().getValidUntil().plusMillis(500));
+    assertThat(lockService.verifyLock("dummy", result.getToken())).isTrue();
+  }
+
+  @Test
+  public void testThat_lockCanBeQueried() {
+    LockRequestResult acquired = lockService.tryAcquireLock("dummy", "anOwnerId");
+
+    Optional<LockState> lock = lockService.queryLock("dummy");
+    assertThat(lock).isPresent();
+    assertThat(lock.get().getOwnerId()).isEqualTo("anOwnerId");
+    assertThat(lock.get().getValidUntil()).isEqualTo(acquired.getState().getValidUntil());
+  }
+
+  @Test
+  public void testThat_acquisitionFailsOnCollision() {
+    lockService.tryAcquireLock("dummy", "anotherOwnerId");
+
+    LockRequestResult fail = lockService.tryAcquireLock("dummy", "anOwnerId");
+    assertThat(fail.isSuccess()).isFalse();
+    assertThat(fail.getState().getOwnerId()).isEqualTo("anotherOwnerId");
+  }
+
+  @Test
+  public void testThat_cannotReleaseForeignLock() {
+    lockService.tryAcquireLock("dummy", "anotherOwnerId");
+
+    // must have no effect!
+    lockService.releaseLock("dummy", "whateverToken");
+
+    assertThat(lockService.queryLock("dummy")).isPresent();
+  }
+
+  @Test
+  public void testThat_cannotExtendForeignLock() {
+    lockService.tryAcquireLock("dummy", "anotherOwnerId");
+
+    Assertions.assertThrows(LockLostException.class,
+        () -> lockService.extendLock("dummy", "whateverToken", "anOwnerId"));
+  }
+
+  @Test
+  public void testThat_lockCanBeContestedAndResolved() {
+    LockRequestResult lockResult = lockService.tryAcquireLock("dummy", "anOwnerId");
+
+    assertThat(lockService.contestLock("dummy", "anOwnerId")).isFalse();
+    assertThat(lockService.contestLock("dummy", "anContestantId")).isTrue();
+    assertThat(lockService.queryLock("dummy").get().getContestantId()).isEqualTo("anContestantId");
+
+    lockService.resolveContest("dummy", lockResult.getToken());
+    assertThat(lockService.queryLock("dummy").get().getContestantId()).isNull();
+  }
+
+  @Test
+  public void testThat_scopeWithoutLockCantBeContested() {
+    assertThat(lockService.contestLock("dummy", "anContestantId")).isFalse();
+  }
+
+  @Test
+  public void testThat_expiredLocksAreReclaimed() throws InterruptedException {
+    for (int i = 0; i < 100; i++)
+      lockService.tryAcquireLock("dummy" + i, "anOwnerId");
+
+    assertThat(lockService.size()).isEqualTo(100);
+
+    // validity is one second, resolution 100ms
+    for (int i = 0; i < 50 && lockService.size() > 0; i++)
+      Thread.sleep(100);
+
+    assertThat(lockService.size()).isZero();
+  }
+
+  @Test
+  public void testThat_exactlyOneConcurrentAcquisitionSucceeds() throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(16);
+    try {
+      for (int round = 0; round < 50; round++) {
+        String scope = "contended" + round;
+
+        List<Callable<Boolean>> attempts = new ArrayList<>();
+        for (int i = 0; i < 16; i++) {
+          String ownerId = "owner" + i;
+          attempts.add(() -> lockService.tryAcquireLock(scope, ownerId).isSuccess());
+        }
+
+        int successes = 0;
+        for (Future<Boolean> f : executor.invokeAll(attempts))
+          if (f.get())
+            successes++;
+
+        assertThat(successes).isEqualTo(1);
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void testThat_bulkAcquisitionIsAllOrNothing() {
+    lockService.tryAcquireLock("b", "anotherOwnerId");
+
+    BulkLockRequestResult fail = lockService.tryAcquireLocks(Arrays.asList("c", "b", "a"), "anOwnerId");
+    assertThat(fail.isSuccess()).isFalse();
+    assertThat(fail.getStates()).containsOnlyKeys("b");
+    assertThat(lockService.queryLocks(Arrays.asList("a", "b", "c"))).containsOnlyKeys("b");
+
+    BulkLockRequestResult success = lockService.tryAcquireLocks(Arrays.asList("c", "a"), "anOwnerId");
+    assertThat(success.isSuccess()).isTrue();
+    assertThat(success.getTokens()).containsOnlyKeys("a", "c");
+
+    lockService.releaseLocks(success.getTokens());
+    assertThat(lockService.queryLocks(Arrays.asList("a", "b", "c"))).containsOnlyKeys("b");
+  }
+
+  @Test
+  public void testThat_waiterAcquiresLockOnRelease() throws Exception {
+    LockRequestResult held = lockService.tryAcquireLock("dummy", "anotherOwnerId");
+
+    CompletableFuture<LockRequestResult> waiting = lockService.acquireLock("dummy", "anOwnerId", Duration.ofSeconds(5));
+    Thread.sleep(100);
+    assertThat(waiting).isNotDone();
+
+    lockService.releaseLock("dummy", held.getToken());
+
+    LockRequestResult result = waiting.get(500, TimeUnit.MILLISECONDS);
+    assertThat(result.isSuccess()).isTrue();
+    assertThat(result.getState().getOwnerId()).isEqualTo("anOwnerId");
+    assertThat(lockService.verifyLock("dummy", result.getToken())).isTrue();
+  }
+
+  @Test
+  public void testThat_waiterAcquiresLockOnExpiry() throws Exception {
+    lockService.tryAcquireLock("dummy", "anotherOwnerId");
+
+    // validity is one second
+    LockRequestResult result = lockService.acquireLock("dummy", "anOwnerId", Duration.ofSeconds(5)).get(3,
+        TimeUnit.SECONDS);
+    assertThat(result.isSuccess()).isTrue();
+    assertThat(result.getState().getOwnerId()).isEqualTo("anOwnerId");
+  }
+
+  @Test
+  public void testThat_waitTimesOut() throws Exception {
+    lockService.tryAcquireLock("dummy", "anotherOwnerId");
+
+    LockRequestResult result = lockService.acquireLock("dummy", "anOwnerId", Duration.ofMillis(200)).get(1,
+        TimeUnit.SECONDS);
+    assertThat(result.isSuccess()).isFalse();
+    assertThat(result.getState().getOwnerId()).isEqualTo("anotherOwnerId");
+  }
+
+  @Test
+  public void testThat_waitersAreServedInOrder() throws Exception {
+    LockRequestResult held = lockService.tryAcquireLock("dummy", "anOwnerId");
+
+    CompletableFuture<LockRequestResult> first = lockService.acquireLock("dummy", "firstOwnerId", Duration.ofSeconds(5));
+    CompletableFuture<LockRequestResult> second = lockService.acquireLock("dummy", "secondOwnerId", Duration.ofSeconds(5));
+
+    lockService.releaseLock("dummy", held.getToken());
+    LockRequestResult firstResult = first.get(500, TimeUnit.MILLISECONDS);
+    assertThat(firstResult.getState().getOwnerId()).isEqualTo("firstOwnerId");
+    assertThat(second).isNotDone();
+
+    lockService.releaseLock("dummy", firstResult.getToken());
+    assertThat(second.get(500, TimeUnit.MILLISECONDS).getState().getOwnerId()).isEqualTo("secondOwnerId");
+  }
+
+  @Test
+  public void testThat_abandonedWaitDoesNotAcquireLock() throws Exception {
+    LockRequestResult held = lockService.tryAcquireLock("dummy", "anotherOwnerId");
+
+    CompletableFuture<LockRequestResult> waiting = lockService.acquireLock("dummy", "anOwnerId", Duration.ofSeconds(5));
+    waiting.cancel(false);
+
+    lockService.releaseLock("dummy", held.getToken());
+    Thread.sleep(200);
+
+    assertThat(lockService.queryLock("dummy")).isNotPresent();
+  }
+
+  @Test
+  public void testThat_slowAttemptDoesNotHoldUpOtherWaiters() throws Exception {
+    // block the attempt for "slow" while it publishes the acquisition
+    CountDownLatch unblock = new CountDownLatch(1);
+    context.addApplicationListener((ApplicationListener<PayloadApplicationEvent<?>>) e -> {
+      if (e.getPayload() instanceof LockEvent le && le.getScope().equals("slow")
+          && le.getState().getOwnerId().equals("anOwnerId"))
+        try {
+          unblock.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException ex) {
+          Thread.currentThread().interrupt();
+        }
+    });
+
+    CompletableFuture<LockRequestResult> slow = lockService.acquireLock("slow", "anOwnerId", Duration.ofSeconds(5));
+    Thread.sleep(100);
+
+    LockRequestResult held = lockService.tryAcquireLock("fast", "anotherOwnerId");
+    CompletableFuture<LockRequestResult> fast = lockService.acquireLock("fast", "anOwnerId", Duration.ofSeconds(5));
+    lockService.releaseLock("fast", held.getToken());
+
+    assertThat(fast.get(500, TimeUnit.MILLISECONDS).isSuccess()).isTrue();
+    assertThat(slow).isNotDone();
+
+    unblock.countDown();
+    assertThat(slow.get(500, TimeUnit.MILLISECONDS).isSuccess()).isTrue();
+  }
+
+  @Test
+  public void testThat_lockEventsArePublished() throws Exception {
+    // expiry events are published by the expiry thread
+    List<LockEvent> events = new CopyOnWriteArrayList<>();
+    context.addApplicationListener((ApplicationListener<PayloadApplicationEvent<?>>) e -> {
+      if (e.getPayload() instanceof LockEvent)
+        events.add((LockEvent) e.getPayload());
+    });
+
+    LockRequestResult result = lockService.tryAcquireLock("dummy", "anOwnerId");
+    lockService.contestLock("dummy", "aContestantId");
+    lockService.extendLock("dummy", result.getToken(), "anOwnerId");
+    lockService.releaseLock("dummy", result.getToken());
+
+    lockService.tryAcquireLock("other", "anOwnerId");
+    // validity is one second, resolution 100ms
+    Thread.sleep(1500);
+
+    assertThat(events).extracting(LockEvent::getScope, LockEvent::getType).containsExactly( //
+        tuple("dummy", LockEvent.Type.ACQUIRED), //
+        tuple("dummy", LockEvent.Type.CONTESTED), //
+        tuple("dummy", LockEvent.Type.EXTENDED), //
+        tuple("dummy", LockEvent.Type.RELEASED), //
+        tuple("other", LockEvent.Type.ACQUIRED), //
+        tuple("other", LockEvent.Type.EXPIRED));
+    assertThat(events.stream().filter(e -> e.getType() == LockEvent.Type.CONTESTED).findFirst().get()
+        .getState().getContestantId()).isEqualTo("aContestantId");
+  }
+}
@@ -0,0 +1,105 @@
+package com.neverpile.common.locking.metrics;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.annotation.DirtiesContext.ClassMode;
+
+import com.neverpile.common.locking.LockService.LockRequestResult;
+import com.neverpile.common.locking.LockingConfiguration;
+import com.neverpile.common.locking.memory.InMemoryLockService;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+@SpringBootTest(
+    classes = {
+        InMemoryLockService.class, LockingConfiguration.class, LockMetrics.class, LockContentionEndpoint.class,
+        SimpleMeterRegistry.class
+    },
+    properties = {
+        "neverpile.locking.memory.enabled=true", "neverpile.locking.validity-duration=PT1S",
+        "neverpile.locking.memory.expiry-resolution=PT0.1S", "neverpile.locking.metrics.contended-scopes=2",
+        "neverpile.locking.metrics.tracked-holds=2"
+    })
+@DirtiesContext(classMode = ClassMode.AFTER_EACH_TEST_METHOD)
+public class LockMetricsTest {
+  @Autowired
+  private InMemoryLockService lockService;
+
+  @Autowired
+  private LockContentionEndpoint endpoint;
+
+  @Autowired
+  private MeterRegistry meterRegistry;
+
+  @Autowired
+  private LockMetrics lockMetrics;
+
+  @Test
+  public void testThat_acquisitionsAndHoldDurationsAreRecorded() {
+    LockRequestResult result = lockService.tryAcquireLock("dummy", "anOwnerId");
+    lockService.tryAcquireLock("dummy", "anotherOwnerId");
+    lockService.releaseLock("dummy", result.getToken());
+
+    assertThat(meterRegistry.get("fusion.lock.acquisitions").tag("outcome", "acquired").counter().count()).isEqualTo(1);
+    assertThat(meterRegistry.get("fusion.lock.acquisitions").tag("outcome", "conflict").counter().count()).isEqualTo(1);
+    assertThat(meterRegistry.get("fusion.lock.hold.duration").tag("end", "released").timer().count()).isEqualTo(1);
+  }
+
+  @Test
+  public void testThat_expiriesAndReacquisitionsAreRecorded() throws Exception {
+    LockRequestResult result = lockService.tryAcquireLock("dummy", "anOwnerId");
+
+    Thread.sleep(1500);
+
+    lockService.extendLock("dummy", result.getToken(), "anOwnerId");
+    assertThat(meterRegistry.get("fusion.lock.reacquisitions").tag("outcome", "acquired").counter().count()).isEqualTo(1);
+
+    assertThat(meterRegistry.get("fusion.lock.expirations").counter().count()).isGreaterThanOrEqualTo(1);
+    assertThat(meterRegistry.get("fusion.lock.hold.duration").tag("end", "expired").timer().count()).isGreaterThanOrEqualTo(1);
+  }
+
+  @Test
+  public void testThat_staleHoldsAreEvicted() throws Exception {
+    // locks released on another node leave their holds behind
+    lockMetrics.acquired("foo", "aToken");
+    lockMetrics.acquired("bar", "anotherToken");
+
+    // validity is one second
+    Thread.sleep(1100);
+
+    LockRequestResult result = lockService.tryAcquireLock("dummy", "anOwnerId");
+    lockService.releaseLock("dummy", result.getToken());
+
+    assertThat(meterRegistry.get("fusion.lock.hold.duration").tag("end", "released").timer().count()).isEqualTo(1);
+  }
+
+  @Test
+  public void testThat_mostContendedScopesAreExposed() {
+    for (String scope : Arrays.asList("hot", "warm", "cold"))
+      lockService.tryAcquireLock(scope, "anOwnerId");
+
+    for (int i = 0; i < 5; i++)
+      lockService.tryAcquireLock("hot", "anotherOwnerId");
+    for (int i = 0; i < 3; i++)
+      lockService.tryAcquireLock("warm", "anotherOwnerId");
+    lockService.contestLock("cold", "anotherOwnerId");
+
+    assertThat(meterRegistry.get("fusion.lock.contests").counter().count()).isEqualTo(1);
+
+    // the sketch is limited to two scopes: "cold" takes over the counter of "warm"
+    assertThat(endpoint.contendedScopes(null)).extracting("scope", "count", "error") //
+        .containsExactly(tuple("hot", 5L, 0L), tuple("cold", 4L, 3L));
+    assertThat(endpoint.contendedScopes(1)).extracting("scope").containsExactly("hot");
+
+    endpoint.reset();
+    assertThat(endpoint.contendedScopes(null)).isEmpty();
+  }
+}
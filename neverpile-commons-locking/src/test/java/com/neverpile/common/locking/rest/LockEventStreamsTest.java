@@ -0,0 +1,119 @@
+package com.neverpile.common.locking.rest;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BooleanSupplier;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import com.neverpile.common.locking.LockEvent;
+
+public class LockEventStreamsTest {
+  /**
+   * An emitter counting the events sent through it, optionally blocking each send until released,
+   * like a client not reading its stream.
+   */
+  private static class CountingEmitter extends SseEmitter {
+    final AtomicInteger sent = new AtomicInteger();
+
+    final CountDownLatch released;
+
+    volatile boolean sending;
+
+    volatile boolean completed;
+
+    CountingEmitter(final boolean blocking) {
+      released = new CountDownLatch(blocking ? 1 : 0);
+    }
+
+    @Override
+    public void send(final SseEventBuilder builder) throws IOException {
+      sending = true;
+      try {
+        released.await();
+      } catch (InterruptedException e) {
+        throw new IOException(e);
+      }
+      sent.incrementAndGet();
+    }
+
+    @Override
+    public void complete() {
+      completed = true;
+      super.complete();
+    }
+  }
+
+  private final Deque<CountingEmitter> emitters = new ArrayDeque<>();
+
+  private final LockEventStreams streams = new LockEventStreams(emitters::poll);
+
+  @AfterEach
+  public void shutdown() {
+    streams.shutdown();
+  }
+
+  private static void awaitThat(final BooleanSupplier condition) throws InterruptedException {
+    for (int i = 0; i < 40 && !condition.getAsBoolean(); i++)
+      Thread.sleep(50);
+
+    assertThat(condition.getAsBoolean()).isTrue();
+  }
+
+  @Test
+  public void testThat_slowStreamIsClosedWithoutHoldingUpOthers() throws InterruptedException {
+    CountingEmitter slow = new CountingEmitter(true);
+    CountingEmitter fast = new CountingEmitter(false);
+    emitters.add(slow);
+    emitters.add(fast);
+
+    streams.open(List.of("aScope"), Map::of);
+    streams.open(List.of("aScope"), Map::of);
+
+    // the slow stream is stuck sending the snapshot, one more event than it can queue overflows it
+    awaitThat(() -> slow.sending);
+    for (int i = 1; i <= LockEventStreams.MAX_QUEUED_EVENTS + 1; i++) {
+      streams.dispatch(new LockEvent(LockEvent.Type.RELEASED, "aScope", null));
+
+      // let the fast stream catch up now and then, so that it never falls behind itself
+      if (i % 16 == 0) {
+        int expected = i + 1;
+        awaitThat(() -> fast.sent.get() == expected);
+      }
+    }
+
+    awaitThat(() -> fast.sent.get() == LockEventStreams.MAX_QUEUED_EVENTS + 2);
+    assertThat(slow.completed).isFalse();
+    assertThat(fast.completed).isFalse();
+
+    // the queued events are discarded
+    slow.released.countDown();
+    awaitThat(() -> slow.completed);
+    assertThat(slow.sent.get()).isEqualTo(1);
+  }
+
+  @Test
+  public void testThat_snapshotIsObtainedOnCallingThread() throws InterruptedException {
+    CountingEmitter emitter = new CountingEmitter(false);
+    emitters.add(emitter);
+
+    AtomicReference<Thread> thread = new AtomicReference<>();
+    streams.open(List.of("aScope"), () -> {
+      thread.set(Thread.currentThread());
+      return Map.of();
+    });
+
+    assertThat(thread.get()).isSameAs(Thread.currentThread());
+    awaitThat(() -> emitter.sent.get() == 1);
+  }
+}
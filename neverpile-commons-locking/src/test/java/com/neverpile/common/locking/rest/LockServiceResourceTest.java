@@ -1,27 +1,42 @@
 package com.neverpile.common.locking.rest;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.not;
 import static org.mockito.ArgumentMatchers.any;
 
+import java.time.Duration;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.ArgumentCaptor;
 import org.mockito.BDDMockito;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.context.SpringBootTest.WebEnvironment;
 import org.springframework.boot.test.context.TestConfiguration;
 import org.springframework.boot.test.mock.mockito.MockBean;
 import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.context.annotation.Bean;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
 
+import com.neverpile.common.locking.LockEvent;
 import com.neverpile.common.locking.LockService;
+import com.neverpile.common.locking.LockService.BulkLockRequestResult;
 import com.neverpile.common.locking.LockService.LockRequestResult;
 import com.neverpile.common.locking.LockService.LockState;
 
@@ -30,7 +45,10 @@ import io.restassured.http.ContentType;
 
 @ExtendWith(SpringExtension.class)
 @SpringBootTest(
-    webEnvironment = WebEnvironment.RANDOM_PORT, properties = "server.error.include-message=always")
+    webEnvironment = WebEnvironment.RANDOM_PORT,
+    properties = {
+        "server.error.include-message=always", "spring.mvc.async.request-timeout=PT1S"
+    })
 @EnableAutoConfiguration
 public class LockServiceResourceTest {
   @TestConfiguration
@@ -47,6 +65,9 @@ public class LockServiceResourceTest {
   @MockBean
   LockService mockLockService;
 
+  @Autowired
+  ApplicationEventPublisher eventPublisher;
+
   @BeforeEach
   public void setupRestAssured() {
     RestAssured.port = port;
@@ -111,7 +132,7 @@ public class LockServiceResourceTest {
     
     LockRequestResult res = RestAssured.given()
       .accept(ContentType.JSON)
-      .param("ownerId", "anOwnerId")
+      .queryParam("ownerId", "anOwnerId")
       .param("ownerName", "anOwnerName")
     .when()
       .log().all()
@@ -142,13 +163,126 @@ public class LockServiceResourceTest {
     // store collection
     RestAssured.given()
         .accept(ContentType.JSON)
-        .param("ownerId", "anOwnerId")
+        .queryParam("ownerId", "anOwnerId")
+      .when()
+        .log().all()
+        .post("/api/v1/locks/aScope")
+      .then()
+        .log().all()
+        .statusCode(409);
+    // @formatter:on
+  }
+
+  @Test
+  public void testThat_lockCanBeAwaited() {
+    // @formatter:off
+    ArgumentCaptor<Duration> timeoutC = ArgumentCaptor.forClass(Duration.class);
+
+    Instant anInstant = Instant.now().truncatedTo(ChronoUnit.MICROS);
+    
+    BDDMockito
+      .given(mockLockService.acquireLock(any(), any(), timeoutC.capture()))
+      .willReturn(CompletableFuture.completedFuture(
+          new LockRequestResult(true, "aToken", new LockState("anOwnerId", anInstant, null))));
+    
+    LockRequestResult res = RestAssured.given()
+      .accept(ContentType.JSON)
+      .queryParam("ownerId", "anOwnerId")
+      .queryParam("wait", "PT10S")
+    .when()
+      .log().all()
+      .post("/api/v1/locks/aScope")
+    .then()
+      .log().all()
+      .statusCode(200)
+      .contentType(ContentType.JSON)
+      .extract().as(LockRequestResult.class);
+
+    assertThat(res.getToken()).isEqualTo("aToken");
+    assertThat(res.isSuccess()).isTrue();
+    assertThat(timeoutC.getValue()).isEqualTo(Duration.ofSeconds(10));
+    // @formatter:on
+  }
+
+  @Test
+  public void testThat_awaitedLockConflictIsSignalled() {
+    // @formatter:off
+    ArgumentCaptor<Duration> timeoutC = ArgumentCaptor.forClass(Duration.class);
+
+    BDDMockito
+      .given(mockLockService.acquireLock(any(), any(), timeoutC.capture()))
+      .willReturn(CompletableFuture.completedFuture(new LockRequestResult(false, null, null)));
+    
+    RestAssured.given()
+        .accept(ContentType.JSON)
+        .queryParam("ownerId", "anOwnerId")
+        .queryParam("wait", "PT1H")
+      .when()
+        .log().all()
+        .post("/api/v1/locks/aScope")
+      .then()
+        .log().all()
+        .statusCode(409);
+
+    // capped at the default maximum
+    assertThat(timeoutC.getValue()).isEqualTo(Duration.ofSeconds(20));
+    // @formatter:on
+  }
+
+  @Test
+  public void testThat_awaitIsCancelledOnRequestTimeout() {
+    // @formatter:off
+    CompletableFuture<LockRequestResult> acquisition = new CompletableFuture<>();
+
+    BDDMockito
+      .given(mockLockService.acquireLock(any(), any(), any()))
+      .willReturn(acquisition);
+
+    // the asynchronous request times out after one second
+    RestAssured.given()
+        .accept(ContentType.JSON)
+        .queryParam("ownerId", "anOwnerId")
+        .queryParam("wait", "PT10S")
       .when()
         .log().all()
         .post("/api/v1/locks/aScope")
       .then()
         .log().all()
         .statusCode(409);
+
+    assertThat(acquisition).isCancelled();
+    // @formatter:on
+  }
+
+  @Test
+  public void testThat_lockAcquiredAfterResponseIsReleased() {
+    // @formatter:off
+    CompletableFuture<LockRequestResult> acquisition = new CompletableFuture<>() {
+      @Override
+      public boolean cancel(final boolean mayInterruptIfRunning) {
+        // too late - the lock is being acquired
+        return false;
+      }
+    };
+
+    BDDMockito
+      .given(mockLockService.acquireLock(any(), any(), any()))
+      .willReturn(acquisition);
+
+    RestAssured.given()
+        .accept(ContentType.JSON)
+        .queryParam("ownerId", "anOwnerId")
+        .queryParam("wait", "PT10S")
+      .when()
+        .log().all()
+        .post("/api/v1/locks/aScope")
+      .then()
+        .log().all()
+        .statusCode(409);
+
+    acquisition.complete(new LockRequestResult(true, "aToken", new LockState("anOwnerId", Instant.now(), null)));
+
+    BDDMockito.verify(mockLockService).releaseLock("aScope", "aToken");
     // @formatter:on
   }
 
@@ -168,7 +302,7 @@ public class LockServiceResourceTest {
     LockState res = RestAssured.given()
       .accept(ContentType.JSON)
       .param("token", "aToken")
-      .param("ownerId", "anOwnerId")
+      .queryParam("ownerId", "anOwnerId")
     .when()
       .log().all()
       .put("/api/v1/locks/aScope")
@@ -196,7 +330,7 @@ public class LockServiceResourceTest {
     RestAssured.given()
       .accept(ContentType.JSON)
       .param("token", "aToken")
-      .param("ownerId", "anOwnerId")
+      .queryParam("ownerId", "anOwnerId")
     .when()
       .log().all()
       .put("/api/v1/locks/aScope")
@@ -271,4 +405,147 @@ public class LockServiceResourceTest {
     assertThat(scopeC.getValue()).isEqualTo("aScope");
     assertThat(tokenC.getValue()).isEqualTo("aToken");
   }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testThat_locksCanBeAcquiredInBulk() {
+    // @formatter:off
+    ArgumentCaptor<Collection<String>> scopesC = ArgumentCaptor.forClass(Collection.class);
+
+    Instant anInstant = Instant.now().truncatedTo(ChronoUnit.MICROS);
+
+    Map<String, String> tokens = new LinkedHashMap<>();
+    tokens.put("aScope", "aToken");
+    tokens.put("anotherScope", "aToken");
+    Map<String, LockState> states = new LinkedHashMap<>();
+    states.put("aScope", new LockState("anOwnerId", anInstant, null));
+    states.put("anotherScope", new LockState("anOwnerId", anInstant, null));
+
+    BDDMockito
+      .given(mockLockService.tryAcquireLocks(scopesC.capture(), any()))
+      .willReturn(new BulkLockRequestResult(true, tokens, states));
+
+    BulkLockRequestResult res = RestAssured.given()
+      .accept(ContentType.JSON)
+      .contentType(ContentType.JSON)
+      .queryParam("ownerId", "anOwnerId")
+      .body(Arrays.asList("aScope", "anotherScope"))
+    .when()
+      .log().all()
+      .post("/api/v1/locks")
+    .then()
+      .log().all()
+      .statusCode(200)
+      .extract().as(BulkLockRequestResult.class);
+
+    assertThat(res.isSuccess()).isTrue();
+    assertThat(res.getTokens()).containsOnlyKeys("aScope", "anotherScope");
+    assertThat(res.getStates().get("anotherScope").getValidUntil()).isEqualTo(anInstant);
+
+    assertThat(scopesC.getValue()).containsExactly("aScope", "anotherScope");
+    // @formatter:on
+  }
+
+  @Test
+  public void testThat_bulkLockConflictIsSignalled() {
+    // @formatter:off
+    BDDMockito
+      .given(mockLockService.tryAcquireLocks(any(), any()))
+      .willReturn(new BulkLockRequestResult(false, Collections.emptyMap(),
+          Collections.singletonMap("anotherScope", new LockState("anotherOwnerId", Instant.now(), null))));
+
+    BulkLockRequestResult res = RestAssured.given()
+      .accept(ContentType.JSON)
+      .contentType(ContentType.JSON)
+      .queryParam("ownerId", "anOwnerId")
+      .body(Arrays.asList("aScope", "anotherScope"))
+    .when()
+      .log().all()
+      .post("/api/v1/locks")
+    .then()
+      .log().all()
+      .statusCode(409)
+      .extract().as(BulkLockRequestResult.class);
+
+    assertThat(res.isSuccess()).isFalse();
+    assertThat(res.getStates().get("anotherScope").getOwnerId()).isEqualTo("anotherOwnerId");
+    // @formatter:on
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testThat_locksCanBeReleasedInBulk() {
+    // @formatter:off
+    ArgumentCaptor<Map<String, String>> tokensC = ArgumentCaptor.forClass(Map.class);
+
+    BDDMockito
+      .doNothing().when(mockLockService).releaseLocks(tokensC.capture());
+
+    RestAssured.given()
+      .contentType(ContentType.JSON)
+      .body(Collections.singletonMap("aScope", "aToken"))
+    .when()
+      .log().all()
+      .delete("/api/v1/locks")
+    .then()
+      .log().all()
+      .statusCode(204);
+
+    assertThat(tokensC.getValue()).containsEntry("aScope", "aToken");
+    // @formatter:on
+  }
+
+  @Test
+  public void testThat_locksCanBeQueriedInBulk() {
+    // @formatter:off
+    BDDMockito
+      .given(mockLockService.queryLocks(any()))
+      .willReturn(Collections.singletonMap("aScope", new LockState("anOwnerId", Instant.now(), null)));
+
+    RestAssured.given()
+      .accept(ContentType.JSON)
+      .param("scope", "aScope", "anotherScope")
+    .when()
+      .log().all()
+      .get("/api/v1/locks")
+    .then()
+      .log().all()
+      .statusCode(200)
+      .body("aScope.ownerId", equalTo("anOwnerId"));
+    // @formatter:on
+  }
+
+  @Test
+  public void testThat_lockEventsCanBeStreamed() {
+    // @formatter:off
+    Instant anInstant = Instant.now().truncatedTo(ChronoUnit.MICROS);
+
+    BDDMockito
+      .given(mockLockService.queryLocks(any()))
+      .willReturn(Collections.singletonMap("aScope", new LockState("anOwnerId", anInstant, null)));
+
+    // the stream is closed after the request timeout of one second
+    CompletableFuture.runAsync(() -> {
+      eventPublisher.publishEvent(new LockEvent(LockEvent.Type.CONTESTED, "aScope",
+          new LockState("anOwnerId", anInstant, "aContestantId")));
+      eventPublisher.publishEvent(new LockEvent(LockEvent.Type.RELEASED, "anotherScope", null));
+    }, CompletableFuture.delayedExecutor(300, TimeUnit.MILLISECONDS));
+
+    RestAssured.given()
+        .accept("text/event-stream")
+        .queryParam("scope", "aScope")
+      .when()
+        .log().all()
+        .get("/api/v1/locks")
+      .then()
+        .log().all()
+        .statusCode(200)
+        .contentType(containsString("text/event-stream"))
+        .body(containsString("event:snapshot"))
+        .body(containsString("\"aScope\":{\"ownerId\":\"anOwnerId\""))
+        .body(containsString("event:contested"))
+        .body(containsString("\"contestantId\":\"aContestantId\""))
+        .body(not(containsString("anotherScope")));
+    // @formatter:on
+  }
 }
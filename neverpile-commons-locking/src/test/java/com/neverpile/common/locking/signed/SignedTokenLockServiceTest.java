@@ -0,0 +1,183 @@
+package com.neverpile.common.locking.signed;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Map;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.SpyBean;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.annotation.DirtiesContext.ClassMode;
+
+import com.neverpile.common.locking.LockService;
+import com.neverpile.common.locking.LockService.BulkLockRequestResult;
+import com.neverpile.common.locking.LockService.LockLostException;
+import com.neverpile.common.locking.LockService.LockRequestResult;
+import com.neverpile.common.locking.LockService.LockState;
+import com.neverpile.common.locking.LockingConfiguration;
+import com.neverpile.common.locking.memory.InMemoryLockService;
+
+@SpringBootTest(
+    classes = {
+        InMemoryLockService.class, LockingConfiguration.class, SignedTokenLockService.class
+    },
+    properties = {
+        "neverpile.locking.memory.enabled=true", "neverpile.locking.validity-duration=PT1S",
+        "neverpile.locking.signed-tokens.enabled=true",
+        "neverpile.locking.signed-tokens.secret=MDEyMzQ1Njc4OWFiY2RlZjAxMjM0NTY3ODlhYmNkZWY="
+    })
+@DirtiesContext(classMode = ClassMode.AFTER_EACH_TEST_METHOD)
+public class SignedTokenLockServiceTest {
+  @Autowired
+  private LockService lockService;
+
+  @SpyBean
+  private InMemoryLockService inMemoryLockService;
+
+  @Autowired
+  private SignedTokenLockService signedTokenLockService;
+
+  @Test
+  public void testThat_issuedTokensAreSelfDescribing() {
+    LockRequestResult result = lockService.tryAcquireLock("dummy", "anOwnerId");
+
+    assertThat(lockService).isSameAs(signedTokenLockService);
+    assertThat(result.isSuccess()).isTrue();
+
+    SignedLockToken token = signedTokenLockService.decode("dummy", result.getToken()).orElseThrow();
+    assertThat(token.getScope()).isEqualTo("dummy");
+    assertThat(token.getOwnerId()).isEqualTo("anOwnerId");
+    assertThat(token.getFencingToken()).isEqualTo(result.getState().getFencingToken());
+    assertThat(token.getValidUntil()).isEqualTo(result.getState().getValidUntil());
+
+    // the underlying lock service's token is just wrapped
+    assertThat(inMemoryLockService.verifyLock("dummy", token.getToken())).isTrue();
+  }
+
+  @Test
+  public void testThat_signedTokensCanBeUsed() throws LockLostException {
+    LockRequestResult result = lockService.tryAcquireLock("dummy", "anOwnerId");
+
+    assertThat(lockService.verifyLock("dummy", result.getToken())).isTrue();
+    assertThat(lockService.verify("dummy", result.getToken()).getFencingToken()).isEqualTo(
+        result.getState().getFencingToken());
+    assertThat(lockService.extendLock("dummy", result.getToken(), "anOwnerId")).isNotNull();
+
+    lockService.releaseLock("dummy", result.getToken());
+
+    assertThat(lockService.queryLock("dummy")).isNotPresent();
+  }
+
+  @Test
+  public void testThat_releaseIsDetected() {
+    LockRequestResult result = lockService.tryAcquireLock("dummy", "anOwnerId");
+    lockService.releaseLock("dummy", result.getToken());
+
+    LockRequestResult other = lockService.tryAcquireLock("dummy", "anotherOwnerId");
+
+    assertThat(lockService.verifyLock("dummy", result.getToken())).isFalse();
+    assertThat(lockService.verifyLock("dummy", other.getToken())).isTrue();
+  }
+
+  @Test
+  public void testThat_invalidTokensAreRejectedLocally() {
+    LockRequestResult result = lockService.tryAcquireLock("dummy", "anOwnerId");
+    String token = result.getToken();
+    String tampered = token.substring(0, token.length() - 2) + (token.endsWith("A") ? "BB" : "AA");
+
+    assertThat(lockService.verify("dummy", tampered).isValid()).isFalse();
+    assertThat(lockService.verify("dummy", "not-a-signed-token").isValid()).isFalse();
+    // tokens are bound to their scope, even if the other scope is not locked at all
+    assertThat(lockService.verify("another", token).isValid()).isFalse();
+    assertThat(lockService.verifyLock("another", token)).isFalse();
+
+    verify(inMemoryLockService, never()).verify(anyString(), anyString());
+    verify(inMemoryLockService, never()).verifyLock(anyString(), anyString());
+  }
+
+  @Test
+  public void testThat_invalidTokensCantBeUsed() throws LockLostException {
+    lockService.tryAcquireLock("dummy", "anOwnerId");
+
+    Assertions.assertThrows(LockLostException.class,
+        () -> lockService.extendLock("dummy", "not-a-signed-token", "anOwnerId"));
+    lockService.releaseLock("dummy", "not-a-signed-token");
+
+    assertThat(lockService.queryLock("dummy")).isPresent();
+    verify(inMemoryLockService, never()).extendLock(anyString(), anyString(), anyString());
+    verify(inMemoryLockService, never()).releaseLock(anyString(), anyString());
+  }
+
+  @Test
+  public void testThat_extensionReissuesToken() throws Exception {
+    LockRequestResult result = lockService.tryAcquireLock("dummy", "anOwnerId");
+    Thread.sleep(10);
+
+    LockState extended = lockService.extendLock("dummy", result.getToken(), "anOwnerId");
+
+    assertThat(extended.getToken()).isNotNull().isNotEqualTo(result.getToken());
+    SignedLockToken token = signedTokenLockService.decode("dummy", extended.getToken()).orElseThrow();
+    assertThat(token.getValidUntil()).isEqualTo(extended.getValidUntil()).isAfter(result.getState().getValidUntil());
+    assertThat(lockService.verifyLock("dummy", extended.getToken())).isTrue();
+  }
+
+  @Test
+  public void testThat_expiredTokensAreRejectedLocally() throws Exception {
+    LockRequestResult result = lockService.tryAcquireLock("dummy", "anOwnerId");
+
+    // validity is one second
+    Thread.sleep(1200);
+
+    assertThat(lockService.verify("dummy", result.getToken()).isValid()).isFalse();
+    assertThat(lockService.verifyLock("dummy", result.getToken())).isFalse();
+    verify(inMemoryLockService, never()).verify(anyString(), anyString());
+    verify(inMemoryLockService, never()).verifyLock(anyString(), anyString());
+  }
+
+  @Test
+  public void testThat_releasedTokensAreRejectedLocally() throws LockLostException {
+    LockRequestResult result = lockService.tryAcquireLock("dummy", "anOwnerId");
+    lockService.releaseLock("dummy", result.getToken());
+
+    assertThat(lockService.verify("dummy", result.getToken()).isValid()).isFalse();
+    Assertions.assertThrows(LockLostException.class,
+        () -> lockService.extendLock("dummy", result.getToken(), "anOwnerId"));
+    assertThat(lockService.extendLocks(Collections.singletonMap("dummy", result.getToken()), "anOwnerId")).isEmpty();
+
+    verify(inMemoryLockService, never()).verify(anyString(), anyString());
+    verify(inMemoryLockService, never()).extendLock(anyString(), anyString(), anyString());
+    assertThat(lockService.queryLock("dummy")).isNotPresent();
+  }
+
+  @Test
+  public void testThat_bulkTokensAreSigned() {
+    BulkLockRequestResult result = lockService.tryAcquireLocks(Arrays.asList("foo", "bar"), "anOwnerId");
+
+    assertThat(result.isSuccess()).isTrue();
+    result.getTokens().forEach((scope, token) -> assertThat(signedTokenLockService.decode(scope, token)).isPresent());
+
+    Map<String, LockState> extended = lockService.extendLocks(result.getTokens(), "anOwnerId");
+    assertThat(extended).containsOnlyKeys("foo", "bar");
+    extended.forEach((scope, state) -> assertThat(signedTokenLockService.decode(scope, state.getToken())).isPresent());
+    assertThat(lockService.extendLocks(Collections.singletonMap("foo", result.getTokens().get("bar")),
+        "anOwnerId")).isEmpty();
+
+    lockService.releaseLocks(result.getTokens());
+    assertThat(lockService.queryLocks(Arrays.asList("foo", "bar"))).isEmpty();
+  }
+
+  @Test
+  public void testThat_secretIsRequiredToBeLongEnough() {
+    Assertions.assertThrows(IllegalArgumentException.class,
+        () -> new LockTokenSigner(Base64.getDecoder().decode("c2hvcnQ=")));
+  }
+}
@@ -0,0 +1,81 @@
+package com.neverpile.common.locking.signed;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.SpyBean;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.annotation.DirtiesContext.ClassMode;
+
+import com.neverpile.common.locking.LockService;
+import com.neverpile.common.locking.LockService.LockRequestResult;
+import com.neverpile.common.locking.LockingConfiguration;
+import com.neverpile.common.locking.memory.InMemoryLockService;
+
+@SpringBootTest(
+    classes = {
+        InMemoryLockService.class, LockingConfiguration.class, SignedTokenLockService.class
+    },
+    properties = {
+        "neverpile.locking.memory.enabled=true", "neverpile.locking.validity-duration=PT2S",
+        "neverpile.locking.signed-tokens.enabled=true", "neverpile.locking.signed-tokens.trust-window=PT1S",
+        "neverpile.locking.signed-tokens.secret=MDEyMzQ1Njc4OWFiY2RlZjAxMjM0NTY3ODlhYmNkZWY="
+    })
+@DirtiesContext(classMode = ClassMode.AFTER_EACH_TEST_METHOD)
+public class TrustedSignedTokenLockServiceTest {
+  @Autowired
+  private LockService lockService;
+
+  @SpyBean
+  private InMemoryLockService inMemoryLockService;
+
+  @Autowired
+  private SignedTokenLockService signedTokenLockService;
+
+  @Test
+  public void testThat_recentTokensAreVerifiedLocally() throws Exception {
+    LockRequestResult result = lockService.tryAcquireLock("dummy", "anOwnerId");
+
+    assertThat(lockService.verifyLock("dummy", result.getToken())).isTrue();
+    assertThat(lockService.verify("dummy", result.getToken()).getFencingToken()).isEqualTo(
+        result.getState().getFencingToken());
+    verify(inMemoryLockService, never()).verify(anyString(), anyString());
+
+    // beyond the trust window, but still valid
+    Thread.sleep(1200);
+
+    assertThat(lockService.verifyLock("dummy", result.getToken())).isTrue();
+    verify(inMemoryLockService, times(1)).verify(anyString(), anyString());
+  }
+
+  @Test
+  public void testThat_releasesThroughOtherNodesGoUnnoticedWithinTrustWindow() throws Exception {
+    LockRequestResult result = lockService.tryAcquireLock("dummy", "anOwnerId");
+
+    // released through another node, i.e. not through this service
+    SignedLockToken token = signedTokenLockService.decode("dummy", result.getToken()).orElseThrow();
+    inMemoryLockService.releaseLock("dummy", token.getToken());
+
+    assertThat(lockService.verifyLock("dummy", result.getToken())).isTrue();
+
+    Thread.sleep(1200);
+
+    assertThat(lockService.verifyLock("dummy", result.getToken())).isTrue();
+    assertThat(lockService.tryAcquireLock("dummy", "anotherOwnerId").isSuccess()).isTrue();
+    assertThat(lockService.verifyLock("dummy", result.getToken())).isFalse();
+  }
+
+  @Test
+  public void testThat_releasedTokensAreRejectedWithinTrustWindow() {
+    LockRequestResult result = lockService.tryAcquireLock("dummy", "anOwnerId");
+    lockService.releaseLock("dummy", result.getToken());
+
+    assertThat(lockService.verifyLock("dummy", result.getToken())).isFalse();
+  }
+}
@@ -183,6 +183,24 @@ public class Specifier {
     return new Specifier(parts, offset + prefix.length());
   }
 
+  /**
+   * Return a specifier containing only the given number of leading elements of this one.
+   *
+   * @param length the number of elements to retain
+   * @return a new specifier
+   * @throws ArrayIndexOutOfBoundsException if the length is negative or exceeds the length of this
+   *           specifier
+   */
+  public Specifier prefix(final int length) {
+    if (length < 0 || length > length())
+      throw new ArrayIndexOutOfBoundsException("Invalid prefix length " + length);
+
+    if (length == 0)
+      return EMPTY;
+
+    return new Specifier(copyOfRange(parts, offset, offset + length), 0);
+  }
+
   /**
    * The length of specifier, i.e. the number of elements it conststs of.
    *
@@ -14,30 +14,39 @@
 
 package com.neverpile.common.util;
 
+import java.io.FileOutputStream;
 import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.io.UnsupportedEncodingException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Map;
 
 /* ================================================================ */
 
 /**
  * Handle a multipart MIME response.
+ * <p>
+ * Delimiters and the default part header are encoded once per stream. Part
+ * bodies are written straight to the underlying stream, and appended streams
+ * and files are transferred in bulk; files are transferred using
+ * {@link FileChannel#transferTo(long, long, WritableByteChannel)}. See
+ * {@link MultipartChannelWriter} for a channel-based variant.
  *
  * @author Greg Wilkins
  * @author Jim Crossley
  */
 public class MultiPartOutputStream extends FilterOutputStream {
   /* ------------------------------------------------------------ */
-  private static final String __CRLF = "\015\012";
-  private static final String __DASHDASH = "--";
-
   public static String MULTIPART_MIXED = "multipart/mixed";
   public static String MULTIPART_X_MIXED_REPLACE = "multipart/x-mixed-replace";
 
   private final String boundary;
 
+  private final MultipartFraming framing;
+
   private enum State {
     IDLE, IN_STREAM, CLOSED
   }
@@ -46,27 +55,8 @@ public class MultiPartOutputStream extends FilterOutputStream {
 
   public MultiPartOutputStream(OutputStream os) throws IOException {
     super(os);
-    boundary = "nvgcaa" + System.identityHashCode(this) + Long.toString(System.currentTimeMillis(), 36);
-  }
-
-  private byte[] makePartHeader(String contentType) throws UnsupportedEncodingException {
-    return (__DASHDASH//
-        + boundary //
-        + __CRLF //
-        + "Content-Type: " + contentType//
-        + __CRLF + __CRLF).getBytes("iso8859-1");
-  }
-
-  private byte[] makePartTrailer() throws UnsupportedEncodingException {
-    return __CRLF.getBytes("iso8859-1");
-  }
-
-  private byte[] makeStreamTrailer() throws UnsupportedEncodingException {
-    return (__DASHDASH//
-        + boundary //
-        + __DASHDASH //
-        + __CRLF).getBytes("iso8859-1")//
-        ;
+    boundary = MultipartFraming.newBoundary(this);
+    framing = new MultipartFraming(boundary);
   }
 
   @Override
@@ -74,25 +64,50 @@ public class MultiPartOutputStream extends FilterOutputStream {
     if (state != State.IN_STREAM)
       throw new IllegalStateException("Nicht in Stream-Modus");
 
-    super.write(b);
+    out.write(b);
   }
 
   @Override
   public void write(byte[] b) throws IOException {
+    write(b, 0, b.length);
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) throws IOException {
     if (state != State.IN_STREAM)
       throw new IllegalStateException("Nicht in Stream-Modus");
 
-    super.write(b);
+    out.write(b, off, len);
   }
 
+  /**
+   * Start the next part of type <code>application/octet-stream</code>.
+   *
+   * @throws IOException if the header can't be written
+   */
   public void next() throws IOException {
+    startPart(framing.partHeader());
+  }
+
+  /**
+   * Start the next part with the given headers.
+   *
+   * @param headers the headers, written in the order of iteration
+   * @throws IOException if the header can't be written
+   */
+  public void next(Map<String, String> headers) throws IOException {
+    startPart(framing.partHeader(headers));
+  }
+
+  private void startPart(byte[] header) throws IOException {
     switch (state){
       case IN_STREAM:
-        out.write(makePartTrailer());
-        // fall through
+        // the header includes the trailer of the current part
+        out.write(header);
+        break;
 
       case IDLE:
-        out.write(makePartHeader("application/octet-stream"));
+        out.write(header, MultipartFraming.LEADING_CRLF, header.length - MultipartFraming.LEADING_CRLF);
         break;
 
       case CLOSED:
@@ -104,13 +119,15 @@ public class MultiPartOutputStream extends FilterOutputStream {
 
   @Override
   public void close() throws IOException {
+    byte[] closeDelimiter = framing.closeDelimiter();
     switch (state){
       case IN_STREAM:
-        out.write(makePartTrailer());
-        // fall through
+        out.write(closeDelimiter);
+        break;
 
       case IDLE:
-        out.write(makeStreamTrailer());
+        out.write(closeDelimiter, MultipartFraming.LEADING_CRLF,
+            closeDelimiter.length - MultipartFraming.LEADING_CRLF);
         break;
 
       case CLOSED:
@@ -124,7 +141,54 @@ public class MultiPartOutputStream extends FilterOutputStream {
 
   public void append(InputStream is) throws IOException {
     next();
-    StreamUtil.copyStream(is, this);
+    is.transferTo(out);
+  }
+
+  public void append(InputStream is, Map<String, String> headers) throws IOException {
+    next(headers);
+    is.transferTo(out);
+  }
+
+  /**
+   * Append the remainder of the given file, starting at its current position,
+   * as a part of type <code>application/octet-stream</code>. The file's
+   * position is advanced accordingly.
+   *
+   * @param channel the file
+   * @throws IOException if the file can't be read or the part can't be written
+   */
+  public void append(FileChannel channel) throws IOException {
+    next();
+    transferFrom(channel);
+  }
+
+  /**
+   * Append the remainder of the given file, starting at its current position,
+   * as a part with the given headers. The file's position is advanced
+   * accordingly.
+   *
+   * @param channel the file
+   * @param headers the headers, written in the order of iteration
+   * @throws IOException if the file can't be read or the part can't be written
+   */
+  public void append(FileChannel channel, Map<String, String> headers) throws IOException {
+    next(headers);
+    transferFrom(channel);
+  }
+
+  private void transferFrom(FileChannel channel) throws IOException {
+    // file-to-file transfers may be performed by the operating system
+    WritableByteChannel target = out instanceof FileOutputStream fos ? fos.getChannel() : Channels.newChannel(out);
+
+    long position = channel.position();
+    long size = channel.size();
+    while (position < size) {
+      long n = channel.transferTo(position, size - position, target);
+      if (n <= 0)
+        throw new IOException("Can't transfer file: no more data available");
+      position += n;
+    }
+    channel.position(position);
   }
 
   public String getBoundary() {
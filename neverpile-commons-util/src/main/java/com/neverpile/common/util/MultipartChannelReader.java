@@ -0,0 +1,281 @@
+package com.neverpile.common.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * A reader for MIME multipart bodies (see RFC 2046) provided by a {@link ReadableByteChannel}. It
+ * is the channel-based counterpart of the {@link MultipartInputStream}.
+ * <p>
+ * The source is read into a {@link ByteBuffer}, which may be a direct buffer, and searched for
+ * boundaries using a Boyer-Moore-Horspool search. The body of the current part can be read as a
+ * channel of its own using {@link #getBody()} or be {@link #transferTo(WritableByteChannel)
+ * transferred} to another channel. Transfers write the body straight from the buffer it has been
+ * read into to locate the delimiter following it, so that the body is read only once. For
+ * {@link FileChannel} sources, the reader uses a direct buffer by default, so that parts can be
+ * spooled to disk or forwarded to a socket without being copied to the Java heap.
+ * <p>
+ * The headers of each part are parsed into {@link MultipartHeaders}. Their number and total size
+ * are limited, see {@link #setMaxHeaderCount(int)} and {@link #setMaxHeaderSize(int)}.
+ * <p>
+ * The source must be a blocking channel; see {@link MultipartParser} for non-blocking sources.
+ * Readers are not thread-safe.
+ */
+public class MultipartChannelReader implements Closeable {
+  private static final int DEFAULT_BUFFER_SIZE = 65536;
+
+  private enum State {
+    IDLE, IN_PART, END_OF_PART, END_OF_STREAM, CLOSED
+  }
+
+  private final ReadableByteChannel source;
+
+  private final ByteBuffer buffer;
+
+  private final MultipartScanner scanner;
+
+  private State state = State.IDLE;
+
+  private MultipartHeaders currentHeaders = MultipartHeaders.EMPTY;
+
+  private final ReadableByteChannel body = new ReadableByteChannel() {
+    @Override
+    public boolean isOpen() {
+      return state != State.CLOSED;
+    }
+
+    @Override
+    public void close() {
+      // the body is closed by moving on to the next part
+    }
+
+    @Override
+    public int read(final ByteBuffer dst) throws IOException {
+      return readBody(dst);
+    }
+  };
+
+  /**
+   * Create a reader using a buffer of 64 KiB. The buffer is a direct buffer if the source is a
+   * {@link FileChannel}, and a heap buffer otherwise.
+   *
+   * @param source the source channel
+   * @param boundary the boundary
+   */
+  public MultipartChannelReader(final ReadableByteChannel source, final byte[] boundary) {
+    this(source, boundary, DEFAULT_BUFFER_SIZE, source instanceof FileChannel);
+  }
+
+  /**
+   * Create a reader.
+   *
+   * @param source the source channel
+   * @param boundary the boundary
+   * @param bufferSize the size of the read buffer, which also limits the length of header lines
+   * @param direct whether to use a direct buffer
+   */
+  public MultipartChannelReader(final ReadableByteChannel source, final byte[] boundary, final int bufferSize,
+      final boolean direct) {
+    this.source = source;
+
+    int capacity = Math.max(bufferSize, 2 * (boundary.length + 6));
+    buffer = direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+    scanner = new MultipartScanner(boundary, buffer);
+  }
+
+  /**
+   * Move on to the next part, skipping the remainder of the current one.
+   *
+   * @return <code>true</code> if there is a next part, <code>false</code> if the end of the
+   *         multipart body has been reached
+   * @throws IOException if the source can't be read or the multipart body is malformed
+   */
+  public boolean nextPart() throws IOException {
+    switch (state){
+      case IDLE :
+      case END_OF_PART :
+      case IN_PART :
+        return skipToBoundary();
+
+      case CLOSED :
+        throw new ClosedChannelException();
+
+      default :
+      case END_OF_STREAM :
+        return false;
+    }
+  }
+
+  /**
+   * Return the headers of the current part.
+   *
+   * @return the headers
+   */
+  public MultipartHeaders getHeaders() {
+    return currentHeaders;
+  }
+
+  /**
+   * Set the maximum number of headers per part. Defaults to 64.
+   *
+   * @param maxHeaderCount the maximum number of headers
+   */
+  public void setMaxHeaderCount(final int maxHeaderCount) {
+    scanner.setMaxHeaderCount(maxHeaderCount);
+  }
+
+  /**
+   * Set the maximum total size of the header section of a part in bytes. Defaults to 16 KiB.
+   *
+   * @param maxHeaderSize the maximum size
+   */
+  public void setMaxHeaderSize(final int maxHeaderSize) {
+    scanner.setMaxHeaderSize(maxHeaderSize);
+  }
+
+  /**
+   * Return a channel reading the body of the current part. The channel reports the end of the
+   * stream at the end of the part. It is valid until the reader moves on to the next part.
+   *
+   * @return the channel
+   */
+  public ReadableByteChannel getBody() {
+    return body;
+  }
+
+  /**
+   * Transfer the remainder of the current part's body to the given channel. The body is written
+   * straight from the reader's buffer.
+   *
+   * @param target the target channel
+   * @return the number of bytes transferred
+   * @throws IOException if the source can't be read or the target can't be written
+   */
+  public long transferTo(final WritableByteChannel target) throws IOException {
+    if (state != State.IN_PART)
+      return 0;
+
+    long transferred = 0;
+    int available;
+    while ((available = fillBody()) > 0) {
+      ByteBuffer slice = buffer.slice(scanner.position(), available);
+      while (slice.hasRemaining())
+        target.write(slice);
+
+      scanner.skip(available);
+      transferred += available;
+    }
+
+    return transferred;
+  }
+
+  @Override
+  public void close() throws IOException {
+    source.close();
+    state = State.CLOSED;
+  }
+
+  private int readBody(final ByteBuffer dst) throws IOException {
+    if (state == State.CLOSED)
+      throw new ClosedChannelException();
+    if (state != State.IN_PART)
+      return -1;
+    if (!dst.hasRemaining())
+      return 0;
+
+    int available = fillBody();
+    if (available == 0)
+      return -1;
+
+    int n = Math.min(available, dst.remaining());
+    dst.put(buffer.slice(scanner.position(), n));
+    scanner.skip(n);
+    return n;
+  }
+
+  /**
+   * Return the number of bytes of the current body which are available in the buffer, filling the
+   * buffer if necessary.
+   *
+   * @return the number of bytes or 0 at the end of the body
+   */
+  private int fillBody() throws IOException {
+    while (true) {
+      switch (scanner.next()){
+        case BODY :
+          return scanner.available();
+
+        case UNDERFLOW :
+          if (!scanner.isEndOfInput()) {
+            fill();
+            break;
+          }
+
+          // premature end of stream
+          state = State.END_OF_STREAM;
+          return 0;
+
+        default :
+        case PART_END :
+          state = State.END_OF_PART;
+          return 0;
+      }
+    }
+  }
+
+  /**
+   * Compact the buffer and read more data into it.
+   */
+  private void fill() throws IOException {
+    scanner.compact();
+
+    buffer.limit(buffer.capacity()).position(scanner.limit());
+    int read;
+    do {
+      read = source.read(buffer);
+    } while (read == 0);
+
+    if (read < 0)
+      scanner.endOfInput();
+    else
+      scanner.append(read);
+  }
+
+  private boolean skipToBoundary() throws IOException {
+    while (true) {
+      switch (scanner.next()){
+        case BODY :
+          // skip the remainder of the current body
+          scanner.skip(scanner.available());
+          break;
+
+        case PART_END :
+          break;
+
+        case PART_START :
+          currentHeaders = scanner.headers();
+          state = State.IN_PART;
+          return true;
+
+        case UNDERFLOW :
+          if (!scanner.isEndOfInput()) {
+            fill();
+            break;
+          }
+          // no delimiter up to the end of the stream
+          state = State.END_OF_STREAM;
+          return false;
+
+        default :
+        case END :
+          state = State.END_OF_STREAM;
+          return false;
+      }
+    }
+  }
+}
@@ -0,0 +1,234 @@
+package com.neverpile.common.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Map;
+
+/**
+ * A writer for MIME multipart bodies (see RFC 2046) to a {@link WritableByteChannel}. It is the
+ * channel-based counterpart of the {@link MultiPartOutputStream}, meant for producing large
+ * multipart responses with minimal copying.
+ * <p>
+ * Delimiters and headers are written from pre-encoded buffers. If the target is a
+ * {@link GatheringByteChannel}, a part's header and body are written using a single gathering
+ * write, see {@link #append(Map, ByteBuffer...)}. Files are transferred using
+ * {@link FileChannel#transferTo(long, long, WritableByteChannel)}, so that they can be sent to a
+ * socket or file without being copied through the Java heap.
+ * <p>
+ * The target must be a blocking channel. Writers are not thread-safe.
+ */
+public class MultipartChannelWriter implements GatheringByteChannel {
+  private enum State {
+    IDLE, IN_PART, CLOSED
+  }
+
+  private final WritableByteChannel target;
+
+  private final MultipartFraming framing;
+
+  private State state = State.IDLE;
+
+  /**
+   * Create a writer using a new, unique boundary.
+   *
+   * @param target the target channel
+   */
+  public MultipartChannelWriter(final WritableByteChannel target) {
+    this.target = target;
+    this.framing = new MultipartFraming(MultipartFraming.newBoundary(this));
+  }
+
+  /**
+   * Return the boundary to be announced in the <code>Content-Type</code> of the multipart body.
+   *
+   * @return the boundary
+   */
+  public String getBoundary() {
+    return framing.getBoundary();
+  }
+
+  /**
+   * Start the next part of type <code>application/octet-stream</code>. Its body is written using
+   * the <code>write</code> methods.
+   *
+   * @throws IOException if the header can't be written
+   */
+  public void next() throws IOException {
+    writeFully(new ByteBuffer[]{
+        partHeader(framing.partHeader())
+    });
+  }
+
+  /**
+   * Start the next part with the given headers. Its body is written using the <code>write</code>
+   * methods.
+   *
+   * @param headers the headers, written in the order of iteration
+   * @throws IOException if the header can't be written
+   */
+  public void next(final Map<String, String> headers) throws IOException {
+    writeFully(new ByteBuffer[]{
+        partHeader(framing.partHeader(headers))
+    });
+  }
+
+  /**
+   * Append a part with the given headers and body. The header and body are written using a single
+   * gathering write, if supported by the target.
+   *
+   * @param headers the headers, written in the order of iteration
+   * @param body the buffers making up the body
+   * @return the number of body bytes written
+   * @throws IOException if the part can't be written
+   */
+  public long append(final Map<String, String> headers, final ByteBuffer... body) throws IOException {
+    ByteBuffer[] buffers = new ByteBuffer[body.length + 1];
+    buffers[0] = partHeader(framing.partHeader(headers));
+    System.arraycopy(body, 0, buffers, 1, body.length);
+
+    long headerLength = buffers[0].remaining();
+    return writeFully(buffers) - headerLength;
+  }
+
+  /**
+   * Append a part of type <code>application/octet-stream</code> containing the given region of a
+   * file.
+   *
+   * @param source the file
+   * @param position the start of the region
+   * @param count the length of the region
+   * @return the number of bytes transferred
+   * @throws IOException if the file can't be read or the part can't be written
+   */
+  public long append(final FileChannel source, final long position, final long count) throws IOException {
+    next();
+    return transferFrom(source, position, count);
+  }
+
+  /**
+   * Append a part with the given headers containing the given region of a file.
+   *
+   * @param source the file
+   * @param position the start of the region
+   * @param count the length of the region
+   * @param headers the headers, written in the order of iteration
+   * @return the number of bytes transferred
+   * @throws IOException if the file can't be read or the part can't be written
+   */
+  public long append(final FileChannel source, final long position, final long count,
+      final Map<String, String> headers) throws IOException {
+    next(headers);
+    return transferFrom(source, position, count);
+  }
+
+  @Override
+  public int write(final ByteBuffer src) throws IOException {
+    checkInPart();
+
+    int n = src.remaining();
+    while (src.hasRemaining())
+      target.write(src);
+    return n;
+  }
+
+  @Override
+  public long write(final ByteBuffer[] srcs, final int offset, final int length) throws IOException {
+    checkInPart();
+
+    return writeFully(srcs, offset, length);
+  }
+
+  @Override
+  public long write(final ByteBuffer[] srcs) throws IOException {
+    return write(srcs, 0, srcs.length);
+  }
+
+  @Override
+  public boolean isOpen() {
+    return state != State.CLOSED && target.isOpen();
+  }
+
+  /**
+   * Write the closing delimiter and close the target channel.
+   */
+  @Override
+  public void close() throws IOException {
+    if (state == State.CLOSED)
+      return;
+
+    try {
+      byte[] closeDelimiter = framing.closeDelimiter();
+      int skip = state == State.IDLE ? MultipartFraming.LEADING_CRLF : 0;
+      writeFully(new ByteBuffer[]{
+          ByteBuffer.wrap(closeDelimiter, skip, closeDelimiter.length - skip)
+      });
+    } finally {
+      state = State.CLOSED;
+      target.close();
+    }
+  }
+
+  /**
+   * Wrap the given header, which includes the trailer of the current part, if any, and move on to
+   * the new part.
+   */
+  private ByteBuffer partHeader(final byte[] header) throws ClosedChannelException {
+    if (state == State.CLOSED)
+      throw new ClosedChannelException();
+
+    int skip = state == State.IDLE ? MultipartFraming.LEADING_CRLF : 0;
+    state = State.IN_PART;
+    return ByteBuffer.wrap(header, skip, header.length - skip);
+  }
+
+  private void checkInPart() throws ClosedChannelException {
+    if (state == State.CLOSED)
+      throw new ClosedChannelException();
+    if (state != State.IN_PART)
+      throw new IllegalStateException("No part has been started");
+  }
+
+  private long transferFrom(final FileChannel source, final long position, final long count) throws IOException {
+    long transferred = 0;
+    while (transferred < count) {
+      long n = source.transferTo(position + transferred, count - transferred, target);
+      if (n <= 0)
+        throw new IOException("Can't transfer file region: no more data available");
+      transferred += n;
+    }
+    return transferred;
+  }
+
+  private long writeFully(final ByteBuffer[] buffers) throws IOException {
+    return writeFully(buffers, 0, buffers.length);
+  }
+
+  private long writeFully(final ByteBuffer[] buffers, int offset, int length) throws IOException {
+    long remaining = 0;
+    for (int i = offset; i < offset + length; i++)
+      remaining += buffers[i].remaining();
+
+    long written = remaining;
+    if (target instanceof GatheringByteChannel gathering) {
+      while (remaining > 0) {
+        remaining -= gathering.write(buffers, offset, length);
+
+        // skip the buffers written completely
+        while (length > 0 && !buffers[offset].hasRemaining()) {
+          offset++;
+          length--;
+        }
+      }
+    } else {
+      for (int i = offset; i < offset + length; i++)
+        while (buffers[i].hasRemaining())
+          target.write(buffers[i]);
+    }
+
+    return written;
+  }
+}
@@ -0,0 +1,113 @@
+package com.neverpile.common.util;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * The delimiter preceding a MIME multipart boundary, i.e. <code>CRLF "--" boundary</code> (see RFC
+ * 2046, section 5.1.1), along with a Boyer-Moore-Horspool search for it. The search skips up to the
+ * length of the delimiter per comparison, so that scanning a part body costs only a fraction of a
+ * comparison per byte for the usual, long boundaries.
+ */
+final class MultipartDelimiter {
+  private final byte[] delimiter;
+
+  /**
+   * The Horspool bad-character shifts, indexed by the unsigned byte value.
+   */
+  private final int[] shifts = new int[256];
+
+  /**
+   * Create the delimiter for the given boundary.
+   *
+   * @param boundary the boundary, without leading dashes
+   */
+  MultipartDelimiter(final byte[] boundary) {
+    if (boundary.length == 0)
+      throw new IllegalArgumentException("The boundary must not be empty");
+
+    delimiter = new byte[boundary.length + 4];
+    delimiter[0] = '\r';
+    delimiter[1] = '\n';
+    delimiter[2] = '-';
+    delimiter[3] = '-';
+    System.arraycopy(boundary, 0, delimiter, 4, boundary.length);
+
+    int m = delimiter.length;
+    Arrays.fill(shifts, m);
+    for (int i = 0; i < m - 1; i++)
+      shifts[delimiter[i] & 0xff] = m - 1 - i;
+  }
+
+  /**
+   * Return the length of the delimiter.
+   *
+   * @return the length
+   */
+  int length() {
+    return delimiter.length;
+  }
+
+  /**
+   * Return the delimiter's byte at the given index.
+   *
+   * @param index the index
+   * @return the byte
+   */
+  byte at(final int index) {
+    return delimiter[index];
+  }
+
+  /**
+   * Find the first occurrence of the delimiter in the given range of the given buffer.
+   *
+   * @param b the buffer
+   * @param from the start of the range, inclusive
+   * @param to the end of the range, exclusive
+   * @return the index of the delimiter or -1 if the range doesn't contain it
+   */
+  int indexOf(final byte[] b, final int from, final int to) {
+    int m = delimiter.length;
+    int last = m - 1;
+    int i = from;
+    while (i <= to - m) {
+      int j = last;
+      while (b[i + j] == delimiter[j])
+        if (--j < 0)
+          return i;
+
+      i += shifts[b[i + last] & 0xff];
+    }
+    return -1;
+  }
+
+  /**
+   * Find the first occurrence of the delimiter in the given range of the given buffer. The
+   * buffer's position and limit are ignored and left untouched.
+   *
+   * @param b the buffer
+   * @param from the start of the range, inclusive
+   * @param to the end of the range, exclusive
+   * @return the index of the delimiter or -1 if the range doesn't contain it
+   */
+  int indexOf(final ByteBuffer b, final int from, final int to) {
+    if (b.hasArray()) {
+      int offset = b.arrayOffset();
+      int i = indexOf(b.array(), offset + from, offset + to);
+      return i >= 0 ? i - offset : -1;
+    }
+
+    int m = delimiter.length;
+    int last = m - 1;
+    int i = from;
+    while (i <= to - m) {
+      int j = last;
+      while (b.get(i + j) == delimiter[j])
+        if (--j < 0)
+          return i;
+
+      i += shifts[b.get(i + last) & 0xff];
+    }
+    return -1;
+  }
+}
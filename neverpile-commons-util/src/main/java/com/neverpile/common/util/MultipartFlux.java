@@ -0,0 +1,192 @@
+package com.neverpile.common.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.reactivestreams.Publisher;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Adapts the {@link MultipartParser} to reactive streams: a multipart body provided as a
+ * {@link Publisher} of chunks is turned into a {@link Flux} of {@link Part}s whose content is
+ * streamed as well. Parsing happens on the thread delivering the chunks without ever blocking, and
+ * demand is propagated to the source, so that uploads can be processed on event-loop threads with
+ * bounded memory.
+ * <p>
+ * The content of each part must be consumed, or its subscription cancelled, before the next part
+ * is emitted, e.g. by processing the parts using {@link Flux#concatMap(java.util.function.Function)}.
+ * A truncated or malformed body is signalled as an {@link IOException}.
+ * <p>
+ * The content is emitted as views of the source's chunks rather than copies, except for the few
+ * bytes the parser has to hold back across chunks. The source must therefore not reuse or modify
+ * the chunks it emits.
+ * <p>
+ * This class requires reactor-core, which is an optional dependency of this module.
+ */
+public final class MultipartFlux {
+  /**
+   * A part of a multipart body.
+   */
+  public static final class Part {
+    private final MultipartHeaders headers;
+
+    private final Flux<ByteBuffer> content;
+
+    Part(final MultipartHeaders headers, final Flux<ByteBuffer> content) {
+      this.headers = headers;
+      this.content = content;
+    }
+
+    /**
+     * Return the headers of the part.
+     *
+     * @return the headers
+     */
+    public MultipartHeaders getHeaders() {
+      return headers;
+    }
+
+    /**
+     * Return the content of the part. The flux may be subscribed to only once. The buffers it emits
+     * are read-only and may be retained. They are views of the source's chunks wherever possible, see
+     * {@link MultipartFlux}.
+     *
+     * @return the content
+     */
+    public Flux<ByteBuffer> getContent() {
+      return content;
+    }
+  }
+
+  /**
+   * The events reported by the parser, in the form of {@link Flux} elements.
+   */
+  private sealed interface Event {
+  }
+
+  private record PartStart(MultipartHeaders headers) implements Event {
+  }
+
+  private record Body(ByteBuffer chunk) implements Event {
+  }
+
+  private record PartEnd() implements Event {
+  }
+
+  /**
+   * Collects the events reported while feeding a single chunk.
+   */
+  private static final class EventCollector implements MultipartParser.Handler {
+    private List<Event> events = new ArrayList<>();
+
+    @Override
+    public void partStart(final MultipartHeaders headers) {
+      events.add(new PartStart(headers));
+    }
+
+    @Override
+    public void body(final ByteBuffer chunk, final boolean buffered) {
+      if (!buffered) {
+        events.add(new Body(chunk));
+        return;
+      }
+
+      // a view of the parser's buffer, which is reused
+      ByteBuffer copy = ByteBuffer.allocate(chunk.remaining());
+      copy.put(chunk).flip();
+      events.add(new Body(copy.asReadOnlyBuffer()));
+    }
+
+    @Override
+    public void partEnd() {
+      events.add(new PartEnd());
+    }
+
+    List<Event> drain() {
+      List<Event> drained = events;
+      events = new ArrayList<>();
+      return drained;
+    }
+  }
+
+  private MultipartFlux() {
+    // just static utility methods
+  }
+
+  /**
+   * Parse the given multipart body using a buffer of {@value MultipartParser#DEFAULT_BUFFER_SIZE}
+   * bytes.
+   *
+   * @param source the multipart body
+   * @param boundary the boundary
+   * @return the parts
+   */
+  public static Flux<Part> parts(final Publisher<ByteBuffer> source, final byte[] boundary) {
+    return parts(source, boundary, MultipartParser.DEFAULT_BUFFER_SIZE);
+  }
+
+  /**
+   * Parse the given multipart body.
+   *
+   * @param source the multipart body
+   * @param boundary the boundary
+   * @param bufferSize the size of the parser's buffer, which also limits the length of header lines
+   * @return the parts
+   */
+  public static Flux<Part> parts(final Publisher<ByteBuffer> source, final byte[] boundary, final int bufferSize) {
+    return events(source, boundary, bufferSize) //
+        .windowUntil(e -> e instanceof PartEnd) //
+        .concatMap(window -> window.switchOnFirst((first, events) -> {
+          if (first.get() instanceof PartStart start)
+            return Mono.just(new Part(start.headers(), events.skip(1).handle((e, sink) -> {
+              if (e instanceof Body body)
+                sink.next(body.chunk());
+            })));
+
+          // the empty window following the last part or an error
+          return events.then(Mono.empty());
+        }, false));
+  }
+
+  private static Flux<Event> events(final Publisher<ByteBuffer> source, final byte[] boundary,
+      final int bufferSize) {
+    return Flux.defer(() -> {
+      EventCollector collector = new EventCollector();
+      MultipartParser parser = new MultipartParser(boundary, collector, bufferSize);
+
+      return Flux.from(source) //
+          .concatMapIterable(chunk -> {
+            try {
+              parser.feed(chunk);
+            } catch (IOException e) {
+              throw new MultipartException(e);
+            }
+            return collector.drain();
+          }) //
+          .concatWith(Flux.defer(() -> {
+            try {
+              parser.complete();
+            } catch (IOException e) {
+              return Flux.error(e);
+            }
+            return Flux.fromIterable(collector.drain());
+          })) //
+          .onErrorMap(MultipartException.class, Throwable::getCause);
+    });
+  }
+
+  /**
+   * Carries an {@link IOException} out of a mapping function.
+   */
+  private static final class MultipartException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    MultipartException(final IOException cause) {
+      super(cause);
+    }
+  }
+}
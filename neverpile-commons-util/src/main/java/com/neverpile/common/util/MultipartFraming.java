@@ -0,0 +1,90 @@
+package com.neverpile.common.util;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/**
+ * The pre-encoded delimiters and part headers of a multipart body written by a
+ * {@link MultiPartOutputStream} or a {@link MultipartChannelWriter}. Every delimiter starts with the
+ * line break terminating the body of the preceding part, which has to be skipped for the first
+ * part, see {@link #LEADING_CRLF}.
+ */
+final class MultipartFraming {
+  /**
+   * The length of the line break preceding each delimiter.
+   */
+  static final int LEADING_CRLF = 2;
+
+  static final String DEFAULT_CONTENT_TYPE = "application/octet-stream";
+
+  private final String boundary;
+
+  private final byte[] defaultPartHeader;
+
+  private final byte[] closeDelimiter;
+
+  MultipartFraming(final String boundary) {
+    this.boundary = boundary;
+    this.defaultPartHeader = encode("\r\n--" + boundary + "\r\nContent-Type: " + DEFAULT_CONTENT_TYPE + "\r\n\r\n");
+    this.closeDelimiter = encode("\r\n--" + boundary + "--\r\n");
+  }
+
+  /**
+   * Create a new, unique boundary.
+   *
+   * @param owner the object on whose behalf the boundary is created
+   * @return the boundary
+   */
+  static String newBoundary(final Object owner) {
+    return "nvgcaa" + System.identityHashCode(owner) + Long.toString(System.currentTimeMillis(), 36);
+  }
+
+  String getBoundary() {
+    return boundary;
+  }
+
+  /**
+   * Return the delimiter and header of a part of type {@value #DEFAULT_CONTENT_TYPE}.
+   *
+   * @return the encoded header, which must not be modified
+   */
+  byte[] partHeader() {
+    return defaultPartHeader;
+  }
+
+  /**
+   * Encode the delimiter and the given headers of a part.
+   *
+   * @param headers the headers, in the order of iteration
+   * @return the encoded header
+   * @throws IllegalArgumentException if a header name or value is invalid
+   */
+  byte[] partHeader(final Map<String, String> headers) {
+    StringBuilder sb = new StringBuilder(64 + boundary.length());
+    sb.append("\r\n--").append(boundary).append("\r\n");
+
+    headers.forEach((name, value) -> {
+      if (name.isEmpty() || name.chars().anyMatch(c -> c <= ' ' || c == ':' || c >= 0x7f))
+        throw new IllegalArgumentException("Invalid header name: " + name);
+      if (value.indexOf('\r') >= 0 || value.indexOf('\n') >= 0)
+        throw new IllegalArgumentException("Invalid value of header " + name + ": line breaks are not allowed");
+
+      sb.append(name).append(": ").append(value).append("\r\n");
+    });
+
+    return encode(sb.append("\r\n").toString());
+  }
+
+  /**
+   * Return the delimiter closing the multipart body.
+   *
+   * @return the encoded delimiter, which must not be modified
+   */
+  byte[] closeDelimiter() {
+    return closeDelimiter;
+  }
+
+  private static byte[] encode(final String s) {
+    return s.getBytes(StandardCharsets.ISO_8859_1);
+  }
+}
@@ -0,0 +1,148 @@
+package com.neverpile.common.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Parses the header section of a part into {@link MultipartHeaders}, one line at a time, straight
+ * from the buffer of the multipart parser in use. In order to protect against malicious input, the
+ * number of headers and the total size of the header section are limited.
+ */
+final class MultipartHeaderParser {
+  static final int DEFAULT_MAX_HEADER_COUNT = 64;
+
+  static final int DEFAULT_MAX_HEADER_SIZE = 16384;
+
+  private int maxHeaderCount = DEFAULT_MAX_HEADER_COUNT;
+
+  private int maxHeaderSize = DEFAULT_MAX_HEADER_SIZE;
+
+  private SortedMap<String, String> headers;
+
+  private String previousFieldName;
+
+  private int count;
+
+  private int size;
+
+  /**
+   * A scratch array for lines read from buffers without an accessible array.
+   */
+  private byte[] line = new byte[0];
+
+  void setMaxHeaderCount(final int maxHeaderCount) {
+    if (maxHeaderCount <= 0)
+      throw new IllegalArgumentException("The maximum header count must be positive");
+    this.maxHeaderCount = maxHeaderCount;
+  }
+
+  void setMaxHeaderSize(final int maxHeaderSize) {
+    if (maxHeaderSize <= 0)
+      throw new IllegalArgumentException("The maximum header size must be positive");
+    this.maxHeaderSize = maxHeaderSize;
+  }
+
+  /**
+   * Start parsing the headers of a new part.
+   */
+  void reset() {
+    headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+    previousFieldName = null;
+    count = 0;
+    size = 0;
+  }
+
+  /**
+   * Parse the given header line.
+   *
+   * @param b the buffer
+   * @param from the start of the line, inclusive
+   * @param to the end of the line, exclusive, i.e. the position of the terminating CRLF
+   * @return <code>false</code> if the line is empty, i.e. terminates the header section
+   * @throws IOException if the line is malformed or a limit is exceeded
+   */
+  boolean line(final byte[] b, final int from, final int to) throws IOException {
+    size += to - from + 2;
+    if (size > maxHeaderSize)
+      throw new IOException("Invalid part header: header section exceeds " + maxHeaderSize + " bytes");
+
+    if (from == to)
+      return false;
+
+    if (isWhitespace(b[from])) {
+      if (null == previousFieldName)
+        throw new IOException("Invalid part header: field value continuation but no current field");
+
+      // unfold the value
+      String continuation = trimmed(b, from, to);
+      if (!continuation.isEmpty()) {
+        String value = headers.get(previousFieldName);
+        headers.put(previousFieldName, value.isEmpty() ? continuation : value + " " + continuation);
+      }
+      return true;
+    }
+
+    int colon = from;
+    while (colon < to && b[colon] != ':')
+      colon++;
+    if (colon == to)
+      throw new IOException("Invalid part header: missing colon in header line");
+
+    String fieldName = trimmed(b, from, colon);
+    if (fieldName.isEmpty())
+      throw new IOException("Invalid part header: empty field name");
+
+    if (++count > maxHeaderCount)
+      throw new IOException("Invalid part header: more than " + maxHeaderCount + " headers");
+
+    headers.merge(fieldName, trimmed(b, colon + 1, to), (v1, v2) -> v1 + ", " + v2);
+    previousFieldName = fieldName;
+
+    return true;
+  }
+
+  /**
+   * Parse the given header line. The buffer's position and limit are ignored and left untouched.
+   *
+   * @param b the buffer
+   * @param from the start of the line, inclusive
+   * @param to the end of the line, exclusive, i.e. the position of the terminating CRLF
+   * @return <code>false</code> if the line is empty, i.e. terminates the header section
+   * @throws IOException if the line is malformed or a limit is exceeded
+   */
+  boolean line(final ByteBuffer b, final int from, final int to) throws IOException {
+    if (b.hasArray())
+      return line(b.array(), b.arrayOffset() + from, b.arrayOffset() + to);
+
+    int length = to - from;
+    if (line.length < length)
+      line = new byte[Math.max(length, 2 * line.length)];
+    b.get(from, line, 0, length);
+    return line(line, 0, length);
+  }
+
+  /**
+   * Return the headers parsed since the last {@link #reset()}.
+   *
+   * @return the headers
+   */
+  MultipartHeaders headers() {
+    return new MultipartHeaders(headers);
+  }
+
+  private static String trimmed(final byte[] b, int from, int to) {
+    while (from < to && isWhitespace(b[from]))
+      from++;
+    while (to > from && isWhitespace(b[to - 1]))
+      to--;
+
+    return new String(b, from, to - from, StandardCharsets.ISO_8859_1);
+  }
+
+  private static boolean isWhitespace(final byte c) {
+    return c == ' ' || c == '\t';
+  }
+}
@@ -0,0 +1,266 @@
+package com.neverpile.common.util;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * The headers of a part of a MIME multipart body. Header names are case-insensitive. Headers
+ * occurring more than once are combined into a single, comma-separated value, and folded header
+ * values are unfolded.
+ * <p>
+ * The parameters of the <code>Content-Type</code> and <code>Content-Disposition</code> headers are
+ * parsed on first access only.
+ */
+public final class MultipartHeaders {
+  static final MultipartHeaders EMPTY = new MultipartHeaders(new TreeMap<>(String.CASE_INSENSITIVE_ORDER));
+
+  /**
+   * A header value consisting of a value and parameters, like <code>Content-Type</code> (see RFC
+   * 2045) or <code>Content-Disposition</code> (see RFC 2183). Parameter names are
+   * case-insensitive. Extended parameters according to RFC 2231, like
+   * <code>filename*=UTF-8''%e2%82%ac.txt</code>, are decoded and take precedence over plain
+   * parameters of the same name.
+   */
+  public static final class ParameterizedValue {
+    private final String value;
+
+    private final SortedMap<String, String> parameters;
+
+    private ParameterizedValue(final String value, final SortedMap<String, String> parameters) {
+      this.value = value;
+      this.parameters = parameters;
+    }
+
+    /**
+     * Parse the given header value. Parsing is lenient, malformed parameters are ignored.
+     *
+     * @param header the header value
+     * @return the parsed value
+     */
+    public static ParameterizedValue parse(final String header) {
+      int i = header.indexOf(';');
+      String value = (i < 0 ? header : header.substring(0, i)).trim();
+
+      SortedMap<String, String> parameters = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+      int n = header.length();
+      while (i >= 0 && i < n) {
+        // skip the semicolon
+        i++;
+
+        int eq = i;
+        while (eq < n && header.charAt(eq) != '=' && header.charAt(eq) != ';')
+          eq++;
+        String name = header.substring(i, eq).trim();
+        if (eq == n || header.charAt(eq) == ';') {
+          // parameter without value
+          i = eq;
+          continue;
+        }
+
+        i = eq + 1;
+        while (i < n && isWhitespace(header.charAt(i)))
+          i++;
+
+        String parameter;
+        if (i < n && header.charAt(i) == '"') {
+          StringBuilder sb = new StringBuilder();
+          for (i++; i < n && header.charAt(i) != '"'; i++) {
+            if (header.charAt(i) == '\\' && i + 1 < n)
+              i++;
+            sb.append(header.charAt(i));
+          }
+          parameter = sb.toString();
+
+          // skip the closing quote and anything up to the next parameter
+          while (i < n && header.charAt(i) != ';')
+            i++;
+        } else {
+          int end = header.indexOf(';', i);
+          if (end < 0)
+            end = n;
+          parameter = header.substring(i, end).trim();
+          i = end;
+        }
+
+        if (name.isEmpty())
+          continue;
+
+        if (name.endsWith("*")) {
+          String decoded = decodeExtended(parameter);
+          if (null != decoded)
+            parameters.put(name.substring(0, name.length() - 1), decoded);
+        } else
+          parameters.putIfAbsent(name, parameter);
+      }
+
+      return new ParameterizedValue(value, Collections.unmodifiableSortedMap(parameters));
+    }
+
+    /**
+     * Decode an RFC 2231 extended parameter value of the form
+     * <code>charset'language'percent-encoded-value</code>.
+     *
+     * @return the decoded value or <code>null</code> if it is malformed
+     */
+    private static String decodeExtended(final String s) {
+      int first = s.indexOf('\'');
+      int second = first < 0 ? -1 : s.indexOf('\'', first + 1);
+      if (second < 0)
+        return null;
+
+      Charset charset;
+      try {
+        charset = first == 0 ? StandardCharsets.US_ASCII : Charset.forName(s.substring(0, first));
+      } catch (IllegalArgumentException e) {
+        return null;
+      }
+
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream(s.length() - second);
+      for (int i = second + 1; i < s.length(); i++) {
+        char c = s.charAt(i);
+        if (c == '%') {
+          if (i + 2 >= s.length())
+            return null;
+          int hi = Character.digit(s.charAt(i + 1), 16);
+          int lo = Character.digit(s.charAt(i + 2), 16);
+          if (hi < 0 || lo < 0)
+            return null;
+          bytes.write(hi << 4 | lo);
+          i += 2;
+        } else
+          bytes.write(c);
+      }
+
+      return bytes.toString(charset);
+    }
+
+    /**
+     * Return the value without parameters, e.g. <code>text/plain</code> or
+     * <code>attachment</code>.
+     *
+     * @return the value
+     */
+    public String getValue() {
+      return value;
+    }
+
+    /**
+     * Return the parameter of the given name.
+     *
+     * @param name the case-insensitive name
+     * @return the parameter value or <code>null</code> if the parameter is absent
+     */
+    public String getParameter(final String name) {
+      return parameters.get(name);
+    }
+
+    /**
+     * Return all parameters.
+     *
+     * @return the parameters, keyed case-insensitively
+     */
+    public Map<String, String> getParameters() {
+      return parameters;
+    }
+
+    @Override
+    public String toString() {
+      return value + parameters;
+    }
+  }
+
+  private final SortedMap<String, String> headers;
+
+  private ParameterizedValue contentType;
+
+  private ParameterizedValue contentDisposition;
+
+  MultipartHeaders(final SortedMap<String, String> headers) {
+    this.headers = Collections.unmodifiableSortedMap(headers);
+  }
+
+  /**
+   * Return the header of the given name.
+   *
+   * @param name the case-insensitive name
+   * @return the header value or <code>null</code> if the header is absent
+   */
+  public String get(final String name) {
+    return headers.get(name);
+  }
+
+  /**
+   * Return whether the header of the given name is present.
+   *
+   * @param name the case-insensitive name
+   * @return <code>true</code> if the header is present
+   */
+  public boolean contains(final String name) {
+    return headers.containsKey(name);
+  }
+
+  /**
+   * Return the names of the headers in case-insensitive alphabetical order. Names retain the case
+   * of their first occurrence.
+   *
+   * @return the names
+   */
+  public Set<String> getNames() {
+    return headers.keySet();
+  }
+
+  /**
+   * Return the number of headers.
+   *
+   * @return the number of headers
+   */
+  public int size() {
+    return headers.size();
+  }
+
+  /**
+   * Return the headers as a map.
+   *
+   * @return an unmodifiable map keyed case-insensitively
+   */
+  public Map<String, String> asMap() {
+    return headers;
+  }
+
+  /**
+   * Return the parsed <code>Content-Type</code> header.
+   *
+   * @return the header or <code>null</code> if it is absent
+   */
+  public ParameterizedValue getContentType() {
+    if (null == contentType && headers.containsKey("Content-Type"))
+      contentType = ParameterizedValue.parse(headers.get("Content-Type"));
+    return contentType;
+  }
+
+  /**
+   * Return the parsed <code>Content-Disposition</code> header.
+   *
+   * @return the header or <code>null</code> if it is absent
+   */
+  public ParameterizedValue getContentDisposition() {
+    if (null == contentDisposition && headers.containsKey("Content-Disposition"))
+      contentDisposition = ParameterizedValue.parse(headers.get("Content-Disposition"));
+    return contentDisposition;
+  }
+
+  @Override
+  public String toString() {
+    return headers.toString();
+  }
+
+  private static boolean isWhitespace(final char c) {
+    return c == ' ' || c == '\t';
+  }
+}
@@ -14,120 +14,121 @@
 
 package com.neverpile.common.util;
 
-import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.HashMap;
-import java.util.Map;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
 
 /**
  * A class to handle multipart MIME input streams. See RC 1521. This class
  * handles multipart input streams, as defined by the RFC 1521. It prvides a
  * sequential interface to all MIME parts, and for each part it delivers a
  * suitable InputStream for getting its body.
+ * <p>
+ * The underlying stream is read in large chunks into a buffer of the stream's
+ * own, which is scanned for the next boundary using a Boyer-Moore-Horspool
+ * search. Reads, skips and {@link #transferTo(OutputStream) transfers} are
+ * served in bulk from the buffer, up to the next boundary or the region which
+ * may contain the start of a boundary that has not been read completely yet.
+ * <p>
+ * The headers of each part are parsed into {@link MultipartHeaders}. Their
+ * number and total size are limited, see {@link #setMaxHeaderCount(int)} and
+ * {@link #setMaxHeaderSize(int)}.
  */
-
 public class MultipartInputStream extends InputStream {
+  private static final int DEFAULT_BUFFER_SIZE = 65536;
+
   InputStream in = null;
   byte[] boundary = null;
   byte[] buffer = null;
 
+  private final MultipartScanner scanner;
+
   private enum State {
     IDLE, IN_PART, END_OF_PART, END_OF_STREAM, CLOSED
   }
 
   private State state = State.IDLE;
 
-  private final Map<String, String> currentHeaders = new HashMap<String, String>();
+  private MultipartHeaders currentHeaders = MultipartHeaders.EMPTY;
 
-  // Skip to next input boundary, set stream at begining of content:
-  // Returns true if boundary was found, false otherwise.
-  protected boolean skipToBoundary() throws IOException {
-    int ch;
-    while ((ch = in.read()) != -1) {
-      if (ch == '-') {
-        if ((ch = in.read()) != '-')
-          continue;
-
-        for (int i = 0; i < boundary.length; i++)
-          if (((byte) in.read()) != boundary[i])
-            continue;
-
-
-        // check line terminator
-        switch (ch = in.read()){
-          case '\r':
-            if (in.read() != '\n')
-              throw new IOException("Invalid part boundary: no \\n");
+  /**
+   * Return the number of bytes of the current body which are available in the
+   * buffer, filling the buffer if necessary.
+   *
+   * @return the number of bytes or 0 at the end of the body
+   */
+  private int fillBody() throws IOException {
+    while (true) {
+      switch (scanner.next()){
+        case BODY:
+          return scanner.available();
+
+        case UNDERFLOW:
+          if (!scanner.isEndOfInput()) {
+            fill();
             break;
-
-          case '-':
-            // last part
-            if (in.read() != '-')
-              throw new IOException("Invalid part boundary: missing second end-of-stream dash");
-            state = State.END_OF_STREAM;
-            return false;
-
-          default:
-            throw new IOException("Invalid part boundary: unexpected character following boundary separator: " + ch);
-        }
-
-        // read header lines
-        currentHeaders.clear();
-
-        String previousFieldName = null;
-        String headerLine;
-        while ((headerLine = readLine()).length() > 0) {
-          if (Character.isWhitespace(headerLine.charAt(0))) {
-            if (null == previousFieldName)
-              throw new IOException("Invalid part boundary: field value continuation but no current field");
-            currentHeaders.put(previousFieldName,
-                currentHeaders.get(previousFieldName) + "\r\n" + trimLeadingWhitespace(headerLine));
           }
 
-          int idx = headerLine.indexOf(':');
-          if (idx < 0)
-            throw new IOException("Invalid part boundary: missing colon in header line");
-          String fieldName = headerLine.substring(0, idx);
-          String fieldValue = trimLeadingWhitespace(headerLine.substring(idx + 1));
-
-          currentHeaders.put(fieldName.trim(), fieldValue);
-
-          previousFieldName = fieldName;
-        }
+          // premature end of stream
+          state = State.END_OF_STREAM;
+          return 0;
 
-        state = State.IN_PART;
-        return true;
+        default:
+        case PART_END:
+          state = State.END_OF_PART;
+          return 0;
       }
     }
-
-    state = State.END_OF_STREAM;
-    return false;
   }
 
-  private String trimLeadingWhitespace(String s) {
-    int i = 0;
-    while (Character.isWhitespace(s.charAt(i)))
-      i++;
+  /**
+   * Compact the buffer and read more data into it.
+   */
+  private void fill() throws IOException {
+    scanner.compact();
 
-    if (i > 0)
-      return s.substring(i);
+    int limit = scanner.limit();
+    int read = in.read(buffer, limit, buffer.length - limit);
+    if (read < 0)
+      scanner.endOfInput();
     else
-      return s;
+      scanner.append(read);
   }
 
-  private String readLine() throws IOException {
-    StringBuilder sb = new StringBuilder(80);
-    int ch;
-    while ((ch = in.read()) >= 0)
-      if (ch == '\r') {
-        if (in.read() != '\n')
-          throw new IOException("Invalid part boundary: missing \\n in header line");
-        break;
-      } else
-        sb.append((char) ch);
-
-    return sb.toString();
+  // Skip to next input boundary, set stream at begining of content:
+  // Returns true if boundary was found, false otherwise.
+  protected boolean skipToBoundary() throws IOException {
+    while (true) {
+      switch (scanner.next()){
+        case BODY:
+          // skip the remainder of the current body
+          scanner.skip(scanner.available());
+          break;
+
+        case PART_END:
+          break;
+
+        case PART_START:
+          currentHeaders = scanner.headers();
+          state = State.IN_PART;
+          return true;
+
+        case UNDERFLOW:
+          if (!scanner.isEndOfInput()) {
+            fill();
+            break;
+          }
+          // no delimiter up to the end of the stream
+          state = State.END_OF_STREAM;
+          return false;
+
+        default:
+        case END:
+          state = State.END_OF_STREAM;
+          return false;
+      }
+    }
   }
 
   /**
@@ -137,44 +138,15 @@ public class MultipartInputStream extends InputStream {
    * @throws IOException If some IO error occured.
    */
   public int read() throws IOException {
-    int ch;
     if (state != State.IN_PART)
       return -1;
 
-    switch (ch = in.read()){
-      case '\r':
-        // check for a boundary
-        in.mark(boundary.length + 3);
-        if (in.read() == '\n' && in.read() == '-' && in.read() == '-') {
-          boolean isBoundary = true;
-          for (byte b : boundary) {
-            if (((byte) in.read()) != b) {
-              isBoundary = false;
-              break;
-            }
-          }
-          if (isBoundary) {
-            if (in.read() == '-') { // last part?
-              if (in.read() != '-')
-                throw new IOException("Invalid part boundary: missing second end-of-stream dash");
-              state = State.END_OF_STREAM;
-            } else {
-              state = State.END_OF_PART;
-            }
-            in.reset();
-            return -1;
-          }
-        }
-        in.reset();
-        return ch;
-
-      case -1:
-        state = State.END_OF_STREAM;
-        return -1;
+    if (fillBody() == 0)
+      return -1;
 
-      default:
-        return ch;
-    }
+    int b = buffer[scanner.position()] & 0xff;
+    scanner.skip(1);
+    return b;
   }
 
   /**
@@ -185,25 +157,86 @@ public class MultipartInputStream extends InputStream {
    * @throws IOException If some IO error occured.
    */
   public int read(byte[] b, int off, int len) throws IOException {
-    int got = 0;
-    int ch;
+    if (len == 0)
+      return 0;
+    if (state != State.IN_PART)
+      return -1;
 
-    while (got < len) {
-      if ((ch = read()) == -1)
-        return (got == 0) ? -1 : got;
-      b[off + (got++)] = (byte) (ch & 0xFF);
-    }
-    return got;
+    int available = fillBody();
+    if (available == 0)
+      return -1;
+
+    int n = Math.min(available, len);
+    System.arraycopy(buffer, scanner.position(), b, off, n);
+    scanner.skip(n);
+    return n;
   }
 
   public long skip(long n) throws IOException {
-    while ((--n >= 0) && (read() != -1))
-      ;
-    return n;
+    long skipped = 0;
+    while (skipped < n && state == State.IN_PART) {
+      int available = fillBody();
+      if (available == 0)
+        break;
+
+      int s = (int) Math.min(available, n - skipped);
+      scanner.skip(s);
+      skipped += s;
+    }
+    return skipped;
+  }
+
+  /**
+   * Transfer the remainder of the current part to the given stream. The data
+   * is written straight from the stream's buffer.
+   *
+   * @return the number of bytes transferred
+   */
+  @Override
+  public long transferTo(OutputStream out) throws IOException {
+    long transferred = 0;
+    while (state == State.IN_PART) {
+      int available = fillBody();
+      if (available == 0)
+        break;
+
+      out.write(buffer, scanner.position(), available);
+      scanner.skip(available);
+      transferred += available;
+    }
+    return transferred;
+  }
+
+  /**
+   * Return the headers of the current part.
+   *
+   * @return the headers
+   */
+  public MultipartHeaders getHeaders() {
+    return currentHeaders;
+  }
+
+  /**
+   * Set the maximum number of headers per part. Defaults to 64.
+   *
+   * @param maxHeaderCount the maximum number of headers
+   */
+  public void setMaxHeaderCount(int maxHeaderCount) {
+    scanner.setMaxHeaderCount(maxHeaderCount);
+  }
+
+  /**
+   * Set the maximum total size of the header section of a part in bytes.
+   * Defaults to 16 KiB.
+   *
+   * @param maxHeaderSize the maximum size
+   */
+  public void setMaxHeaderSize(int maxHeaderSize) {
+    scanner.setMaxHeaderSize(maxHeaderSize);
   }
 
   public int available() throws IOException {
-    return in.available();
+    return state == State.IN_PART ? scanner.available() : 0;
   }
 
   /**
@@ -239,9 +272,22 @@ public class MultipartInputStream extends InputStream {
    */
 
   public MultipartInputStream(InputStream in, byte[] boundary) {
-    this.in = (in.markSupported() ? in : new BufferedInputStream(in, boundary.length + 4));
+    this(in, boundary, DEFAULT_BUFFER_SIZE);
+  }
+
+  /**
+   * Construct a new multipart input stream.
+   *
+   * @param in         The initial (multipart) input stream.
+   * @param boundary   The input stream MIME boundary.
+   * @param bufferSize The size of the read buffer, which also limits the
+   *                   length of header lines.
+   */
+  public MultipartInputStream(InputStream in, byte[] boundary, int bufferSize) {
+    this.in = in;
     this.boundary = boundary;
-    this.buffer = new byte[boundary.length];
+    this.buffer = new byte[Math.max(bufferSize, 2 * (boundary.length + 6))];
+    this.scanner = new MultipartScanner(boundary, ByteBuffer.wrap(buffer));
   }
 
   @Override
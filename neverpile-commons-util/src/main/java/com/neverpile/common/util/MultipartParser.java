@@ -0,0 +1,208 @@
+package com.neverpile.common.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A non-blocking, push-based parser for MIME multipart bodies (see RFC 2046). In contrast to the
+ * {@link MultipartInputStream} and the {@link MultipartChannelReader}, it doesn't pull data from a
+ * source, but is {@link #feed(ByteBuffer) fed} chunks of arbitrary size as they arrive, e.g. on an
+ * event-loop thread. The structure of the body is reported to a {@link Handler}:
+ * <ul>
+ * <li>{@link Handler#partStart(MultipartHeaders)} once the headers of a part have been read,
+ * <li>{@link Handler#body(ByteBuffer, boolean)} for each chunk of the part's body and
+ * <li>{@link Handler#partEnd()} once the delimiter following the body has been found.
+ * </ul>
+ * The parser never blocks and holds on to no more data than fits into its fixed-size buffer. Chunks
+ * are scanned in place, and body data is passed on as views of them as soon as it is known not to be
+ * part of a delimiter. Only data which has to be held back until the next chunk arrives, i.e. an
+ * incomplete header line or what may be the start of a delimiter, is copied to the parser's buffer.
+ * See {@link MultipartFlux} for an adapter to reactive streams.
+ * <p>
+ * The headers of each part are parsed into {@link MultipartHeaders}. Their number and total size
+ * are limited, see {@link #setMaxHeaderCount(int)} and {@link #setMaxHeaderSize(int)}.
+ * <p>
+ * Parsers are not thread-safe, chunks must be fed sequentially.
+ */
+public class MultipartParser {
+  /**
+   * The default buffer size, which also limits the length of header lines.
+   */
+  public static final int DEFAULT_BUFFER_SIZE = 16384;
+
+  /**
+   * The receiver of the events reported by a {@link MultipartParser}. Handlers are called on the
+   * thread feeding the parser.
+   */
+  public interface Handler {
+    /**
+     * A part has started.
+     *
+     * @param headers the headers of the part
+     */
+    void partStart(MultipartHeaders headers);
+
+    /**
+     * A chunk of the current part's body has been read. The chunk is a read-only view of either the
+     * chunk being fed or, if the data had to be held back, the parser's buffer. Views of the
+     * parser's buffer are only valid until this method returns.
+     *
+     * @param chunk the chunk
+     * @param buffered whether the chunk is a view of the parser's buffer
+     */
+    void body(ByteBuffer chunk, boolean buffered);
+
+    /**
+     * The current part has ended.
+     */
+    void partEnd();
+  }
+
+  private final Handler handler;
+
+  private final ByteBuffer buffer;
+
+  private final MultipartScanner scanner;
+
+  /**
+   * The number of bytes appended to the buffer at once while data is held back. Once the data held
+   * back has been consumed, the rest of the chunk is scanned in place again.
+   */
+  private final int step;
+
+  private boolean eof;
+
+  /**
+   * Create a parser using a buffer of {@value #DEFAULT_BUFFER_SIZE} bytes.
+   *
+   * @param boundary the boundary
+   * @param handler the handler to report to
+   */
+  public MultipartParser(final byte[] boundary, final Handler handler) {
+    this(boundary, handler, DEFAULT_BUFFER_SIZE);
+  }
+
+  /**
+   * Create a parser.
+   *
+   * @param boundary the boundary
+   * @param handler the handler to report to
+   * @param bufferSize the size of the buffer, which also limits the length of header lines
+   */
+  public MultipartParser(final byte[] boundary, final Handler handler, final int bufferSize) {
+    this.handler = handler;
+
+    // the held back data may be a delimiter lacking its last byte
+    step = boundary.length + 4;
+
+    buffer = ByteBuffer.allocate(Math.max(bufferSize, 2 * (boundary.length + 6)));
+    scanner = new MultipartScanner(boundary, buffer);
+  }
+
+  /**
+   * Set the maximum number of headers per part. Defaults to 64.
+   *
+   * @param maxHeaderCount the maximum number of headers
+   */
+  public void setMaxHeaderCount(final int maxHeaderCount) {
+    scanner.setMaxHeaderCount(maxHeaderCount);
+  }
+
+  /**
+   * Set the maximum total size of the header section of a part in bytes. Defaults to 16 KiB.
+   *
+   * @param maxHeaderSize the maximum size
+   */
+  public void setMaxHeaderSize(final int maxHeaderSize) {
+    scanner.setMaxHeaderSize(maxHeaderSize);
+  }
+
+  /**
+   * Feed the next chunk of the multipart body to the parser. The chunk is consumed completely. Its
+   * content must not be modified as long as views of it passed to the handler are in use.
+   *
+   * @param chunk the chunk
+   * @throws IOException if the multipart body is malformed
+   */
+  public void feed(final ByteBuffer chunk) throws IOException {
+    if (eof)
+      throw new IOException("Multipart body already complete");
+
+    while (chunk.hasRemaining()) {
+      if (scanner.remaining() == 0) {
+        // nothing held back: scan the chunk in place and hold back what remains
+        scanner.scan(chunk);
+        parse(false);
+        scanner.moveTo(buffer);
+        chunk.position(chunk.limit());
+        return;
+      }
+
+      // append the next few bytes to the data held back
+      scanner.compact();
+      int heldBack = scanner.limit();
+      int n = Math.min(Math.min(chunk.remaining(), step), buffer.capacity() - heldBack);
+
+      buffer.put(heldBack, chunk, chunk.position(), n);
+      chunk.position(chunk.position() + n);
+      scanner.append(n);
+
+      parse(true);
+
+      // once the data held back has been consumed, give back the rest to the chunk
+      if (scanner.position() >= heldBack)
+        chunk.position(chunk.position() - scanner.discard());
+    }
+  }
+
+  /**
+   * Signal the end of the multipart body.
+   *
+   * @throws IOException if the multipart body is incomplete
+   */
+  public void complete() throws IOException {
+    if (eof)
+      return;
+
+    eof = true;
+    scanner.endOfInput();
+    parse(true);
+
+    if (scanner.isStarted() && !scanner.isComplete())
+      throw new IOException("Invalid multipart body: premature end of stream");
+  }
+
+  /**
+   * Return whether the closing delimiter has been found.
+   *
+   * @return <code>true</code> if the last part has ended
+   */
+  public boolean isComplete() {
+    return scanner.isComplete();
+  }
+
+  private void parse(final boolean buffered) throws IOException {
+    while (true) {
+      switch (scanner.next()){
+        case BODY :
+          int available = scanner.available();
+          handler.body(scanner.slice(available), buffered);
+          scanner.skip(available);
+          break;
+
+        case PART_START :
+          handler.partStart(scanner.headers());
+          break;
+
+        case PART_END :
+          handler.partEnd();
+          break;
+
+        default :
+        case UNDERFLOW :
+        case END :
+          return;
+      }
+    }
+  }
+}
@@ -0,0 +1,415 @@
+package com.neverpile.common.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Scans a MIME multipart body (see RFC 2046) held in a window of a {@link ByteBuffer} for its
+ * structure: the delimiters, the header sections of the parts and the body data between them. It is
+ * shared by the {@link MultipartInputStream}, the {@link MultipartChannelReader} and the
+ * {@link MultipartParser}, which only differ in how they provide the data.
+ * <p>
+ * The scanner never blocks. If the window doesn't hold enough data to proceed, {@link #next()}
+ * returns {@link Token#UNDERFLOW}, and the caller has to provide more data, e.g. by
+ * {@link #compact() compacting} the window and appending to it, or signal the
+ * {@link #endOfInput() end of the input}. The window's position and limit are ignored, the scanner
+ * keeps track of the data in the window itself.
+ */
+final class MultipartScanner {
+  /**
+   * The tokens returned by {@link MultipartScanner#next()}.
+   */
+  enum Token {
+    /**
+     * The window doesn't hold enough data to proceed.
+     */
+    UNDERFLOW,
+
+    /**
+     * Data of the current body is available at the read position, see
+     * {@link MultipartScanner#available()}. It has to be consumed using
+     * {@link MultipartScanner#skip(int)}.
+     */
+    BODY,
+
+    /**
+     * The headers of a part have been read, see {@link MultipartScanner#headers()}. Its body follows.
+     */
+    PART_START,
+
+    /**
+     * The delimiter following the current body has been found.
+     */
+    PART_END,
+
+    /**
+     * The closing delimiter has been found. The epilogue is discarded.
+     */
+    END
+  }
+
+  private enum State {
+    PREAMBLE, DELIMITER, PADDING, HEADERS, BODY, EPILOGUE
+  }
+
+  private final MultipartDelimiter delimiter;
+
+  private final MultipartHeaderParser headerParser = new MultipartHeaderParser();
+
+  private ByteBuffer window;
+
+  /**
+   * The read position in the window.
+   */
+  private int pos;
+
+  /**
+   * The end of the valid data in the window.
+   */
+  private int limit;
+
+  /**
+   * The position of the next delimiter in the window or -1 if not (yet) found.
+   */
+  private int match = -1;
+
+  /**
+   * The position up to which the window has been searched for a delimiter, i.e. the data before it
+   * is known to be part of the current body.
+   */
+  private int scanned;
+
+  /**
+   * The number of bytes following the read position which have been searched for the end of the
+   * current header line.
+   */
+  private int lineScanned;
+
+  private boolean eof;
+
+  private State state = State.PREAMBLE;
+
+  /**
+   * Create a scanner for the given window. The first boundary may be at the very beginning of the
+   * body, i.e. not preceded by a line break, so the window is initialized with one.
+   *
+   * @param boundary the boundary
+   * @param window the window, which must have room for two delimiters
+   */
+  MultipartScanner(final byte[] boundary, final ByteBuffer window) {
+    this.delimiter = new MultipartDelimiter(boundary);
+    this.window = window;
+
+    window.put(0, (byte) '\r');
+    window.put(1, (byte) '\n');
+    limit = 2;
+  }
+
+  void setMaxHeaderCount(final int maxHeaderCount) {
+    headerParser.setMaxHeaderCount(maxHeaderCount);
+  }
+
+  void setMaxHeaderSize(final int maxHeaderSize) {
+    headerParser.setMaxHeaderSize(maxHeaderSize);
+  }
+
+  /**
+   * Return the read position in the window.
+   *
+   * @return the position
+   */
+  int position() {
+    return pos;
+  }
+
+  /**
+   * Return the end of the valid data in the window, i.e. the position at which more data is to be
+   * appended.
+   *
+   * @return the limit
+   */
+  int limit() {
+    return limit;
+  }
+
+  /**
+   * Return the number of bytes following the read position.
+   *
+   * @return the number of bytes
+   */
+  int remaining() {
+    return limit - pos;
+  }
+
+  /**
+   * Signal that the given number of bytes has been appended at the {@link #limit()}.
+   *
+   * @param n the number of bytes
+   */
+  void append(final int n) {
+    limit += n;
+  }
+
+  /**
+   * Signal the end of the input.
+   */
+  void endOfInput() {
+    eof = true;
+  }
+
+  boolean isEndOfInput() {
+    return eof;
+  }
+
+  /**
+   * Return whether a delimiter has been found, i.e. the scanner is past the preamble.
+   *
+   * @return <code>true</code> if a delimiter has been found
+   */
+  boolean isStarted() {
+    return state != State.PREAMBLE;
+  }
+
+  /**
+   * Return whether the closing delimiter has been found.
+   *
+   * @return <code>true</code> if the last part has ended
+   */
+  boolean isComplete() {
+    return state == State.EPILOGUE;
+  }
+
+  /**
+   * Move the data following the read position to the start of the window, making room for more.
+   *
+   * @throws IOException if the window is full
+   */
+  void compact() throws IOException {
+    if (pos > 0) {
+      window.limit(limit).position(pos);
+      window.compact();
+      shift(pos);
+    }
+
+    if (limit == window.capacity())
+      throw new IOException("Multipart buffer overflow: line or delimiter too long");
+  }
+
+  /**
+   * Continue scanning the data between the given buffer's position and limit in place. The window
+   * must not hold any data following the read position.
+   *
+   * @param buffer the buffer
+   */
+  void scan(final ByteBuffer buffer) {
+    window = buffer;
+    pos = scanned = buffer.position();
+    limit = buffer.limit();
+  }
+
+  /**
+   * Move the data following the read position to the start of the given buffer and continue
+   * scanning in it.
+   *
+   * @param buffer the buffer
+   * @throws IOException if the buffer can't take the data
+   */
+  void moveTo(final ByteBuffer buffer) throws IOException {
+    int n = limit - pos;
+    if (n > buffer.capacity())
+      throw new IOException("Multipart buffer overflow: line or delimiter too long");
+
+    buffer.put(0, window, pos, n);
+    window = buffer;
+    shift(pos);
+  }
+
+  /**
+   * Discard the data following the read position, which has not been scanned beyond the current
+   * header line or the current body, if any.
+   *
+   * @return the number of bytes discarded
+   */
+  int discard() {
+    int n = limit - pos;
+    limit = pos;
+    scanned = Math.min(scanned, pos);
+    lineScanned = 0;
+    return n;
+  }
+
+  /**
+   * Return the number of bytes of the current body which are available at the read position,
+   * searching for the delimiter as far as possible.
+   *
+   * @return the number of bytes, 0 if not within a body
+   */
+  int available() {
+    if (state != State.BODY && state != State.PREAMBLE)
+      return 0;
+
+    if (match < 0) {
+      int from = Math.max(scanned, pos);
+      match = delimiter.indexOf(window, from, limit);
+      if (match < 0)
+        // a delimiter may start within the last delimiter-length - 1 bytes
+        scanned = eof ? limit : Math.max(from, limit - delimiter.length() + 1);
+    }
+
+    return (match >= 0 ? match : scanned) - pos;
+  }
+
+  /**
+   * Return a read-only view of the given number of bytes at the read position.
+   *
+   * @param n the number of bytes
+   * @return the view
+   */
+  ByteBuffer slice(final int n) {
+    return window.slice(pos, n).asReadOnlyBuffer();
+  }
+
+  /**
+   * Consume the given number of bytes of the current body.
+   *
+   * @param n the number of bytes
+   */
+  void skip(final int n) {
+    pos += n;
+  }
+
+  /**
+   * Return the headers of the part most recently started.
+   *
+   * @return the headers
+   */
+  MultipartHeaders headers() {
+    return headerParser.headers();
+  }
+
+  /**
+   * Scan ahead up to the next token.
+   *
+   * @return the token
+   * @throws IOException if the multipart body is malformed
+   */
+  Token next() throws IOException {
+    while (true) {
+      switch (state){
+        case PREAMBLE :
+        case BODY :
+          int available = available();
+          if (available > 0) {
+            if (state == State.BODY)
+              return Token.BODY;
+            pos += available;
+          }
+
+          if (match < 0)
+            return Token.UNDERFLOW;
+
+          // consume the delimiter
+          pos = match + delimiter.length();
+          match = -1;
+
+          boolean partEnd = state == State.BODY;
+          state = State.DELIMITER;
+          if (partEnd)
+            return Token.PART_END;
+          break;
+
+        case DELIMITER :
+          if (!require(2))
+            return Token.UNDERFLOW;
+
+          if (window.get(pos) == '-') {
+            // last part
+            if (window.get(pos + 1) != '-')
+              throw new IOException("Invalid part boundary: missing second end-of-stream dash");
+            state = State.EPILOGUE;
+            return Token.END;
+          }
+
+          state = State.PADDING;
+          break;
+
+        case PADDING :
+          // skip transport padding
+          while (pos < limit && (window.get(pos) == ' ' || window.get(pos) == '\t'))
+            pos++;
+
+          if (!require(2))
+            return Token.UNDERFLOW;
+
+          if (window.get(pos) != '\r' || window.get(pos + 1) != '\n')
+            throw new IOException("Invalid part boundary: unexpected character following boundary separator");
+          pos += 2;
+
+          headerParser.reset();
+          lineScanned = 0;
+          state = State.HEADERS;
+          break;
+
+        case HEADERS :
+          int eol = lineEnd();
+          if (eol < 0)
+            return Token.UNDERFLOW;
+
+          boolean header = headerParser.line(window, pos, eol);
+          pos = eol + 2;
+          if (!header) {
+            // the body starts right here, a delimiter may follow immediately
+            scanned = pos;
+            state = State.BODY;
+            return Token.PART_START;
+          }
+          break;
+
+        default :
+        case EPILOGUE :
+          pos = limit;
+          return Token.END;
+      }
+    }
+  }
+
+  private void shift(final int n) {
+    limit -= n;
+    scanned = Math.max(0, scanned - n);
+    if (match >= 0)
+      match -= n;
+    pos -= n;
+  }
+
+  /**
+   * Return whether the given number of bytes is available at the read position.
+   *
+   * @throws IOException if the bytes are not available and the end of the input has been reached
+   */
+  private boolean require(final int n) throws IOException {
+    if (limit - pos >= n)
+      return true;
+    if (eof)
+      throw new IOException("Invalid part boundary: premature end of stream");
+    return false;
+  }
+
+  /**
+   * Find the end of the header line starting at the read position.
+   *
+   * @return the position of the CRLF terminating the line or -1 if the line isn't complete yet
+   * @throws IOException if the end of the input has been reached
+   */
+  private int lineEnd() throws IOException {
+    for (int i = pos + lineScanned; i < limit - 1; i++)
+      if (window.get(i) == '\r' && window.get(i + 1) == '\n') {
+        lineScanned = 0;
+        return i;
+      }
+
+    lineScanned = Math.max(0, limit - 1 - pos);
+    if (eof)
+      throw new IOException("Invalid part boundary: premature end of stream in header line");
+    return -1;
+  }
+}
@@ -0,0 +1,139 @@
+package com.neverpile.common.util;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class MultiPartOutputStreamTest {
+  private static final String OCTET_STREAM = "Content-Type: application/octet-stream\r\n\r\n";
+
+  @TempDir
+  Path tempDir;
+
+  private static byte[] bytes(final String s) {
+    return s.getBytes(StandardCharsets.ISO_8859_1);
+  }
+
+  @Test
+  public void testThat_partsAreWritten() throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    MultiPartOutputStream mpos = new MultiPartOutputStream(out);
+    String boundary = mpos.getBoundary();
+
+    mpos.next();
+    mpos.write(bytes("abc"));
+    mpos.write('d');
+
+    Map<String, String> headers = new LinkedHashMap<>();
+    headers.put("Content-Type", "text/plain");
+    headers.put("Content-Disposition", "attachment; filename=\"a.txt\"");
+    mpos.next(headers);
+    mpos.write(bytes("xyz"), 1, 1);
+
+    mpos.next();
+    mpos.close();
+
+    // the first delimiter isn't preceded by a line break
+    assertThat(out.toString(StandardCharsets.ISO_8859_1)).isEqualTo("--" + boundary + "\r\n" + OCTET_STREAM //
+        + "abcd\r\n--" + boundary + "\r\n" //
+        + "Content-Type: text/plain\r\nContent-Disposition: attachment; filename=\"a.txt\"\r\n\r\n" //
+        + "y\r\n--" + boundary + "\r\n" + OCTET_STREAM //
+        + "\r\n--" + boundary + "--\r\n");
+  }
+
+  @Test
+  public void testThat_emptyBodyIsWritten() throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    MultiPartOutputStream mpos = new MultiPartOutputStream(out);
+    mpos.close();
+
+    assertThat(out.toString(StandardCharsets.ISO_8859_1)).isEqualTo("--" + mpos.getBoundary() + "--\r\n");
+  }
+
+  @Test
+  public void testThat_boundariesAreUnique() throws IOException {
+    String boundary = new MultiPartOutputStream(new ByteArrayOutputStream()).getBoundary();
+
+    assertThat(boundary).matches("[0-9a-z]+");
+    assertThat(new MultiPartOutputStream(new ByteArrayOutputStream()).getBoundary()).isNotEqualTo(boundary);
+  }
+
+  @Test
+  public void testThat_writingOutsideOfPartIsRejected() throws IOException {
+    MultiPartOutputStream mpos = new MultiPartOutputStream(new ByteArrayOutputStream());
+    assertThrows(IllegalStateException.class, () -> mpos.write('a'));
+    assertThrows(IllegalStateException.class, () -> mpos.write(bytes("abc")));
+
+    mpos.next();
+    mpos.close();
+    assertThrows(IllegalStateException.class, () -> mpos.write('a'));
+    assertThrows(IllegalStateException.class, mpos::next);
+    assertThrows(IllegalStateException.class, mpos::close);
+  }
+
+  @Test
+  public void testThat_headerInjectionIsRejected() throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    MultiPartOutputStream mpos = new MultiPartOutputStream(out);
+
+    assertThrows(IllegalArgumentException.class, () -> mpos.next(Map.of("X-A", "a\r\nX-B: b")));
+
+    // nothing has been written
+    assertThat(out.size()).isZero();
+    assertThrows(IllegalStateException.class, () -> mpos.write('a'));
+  }
+
+  @Test
+  public void testThat_streamsAndFilesAreAppended() throws IOException {
+    byte[] content = bytes("0123456789".repeat(1000));
+    Path file = tempDir.resolve("content");
+    Files.write(file, content);
+
+    Map<String, String> headers = Map.of("Content-Type", "text/plain");
+
+    // file-to-file and file-to-stream transfers
+    for (boolean toFile : new boolean[]{false, true}) {
+      Path target = tempDir.resolve("multipart");
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+      String boundary;
+      try (MultiPartOutputStream mpos = new MultiPartOutputStream(
+          toFile ? new FileOutputStream(target.toFile()) : bytes)) {
+        boundary = mpos.getBoundary();
+
+        mpos.append(new ByteArrayInputStream(bytes("foo")));
+        mpos.append(new ByteArrayInputStream(bytes("bar")), headers);
+        try (FileChannel fc = FileChannel.open(file)) {
+          fc.position(9990);
+          mpos.append(fc);
+          assertThat(fc.position()).isEqualTo(content.length);
+
+          fc.position(0);
+          mpos.append(fc, headers);
+        }
+      }
+
+      String written = toFile
+          ? Files.readString(target, StandardCharsets.ISO_8859_1)
+          : bytes.toString(StandardCharsets.ISO_8859_1);
+      assertThat(written).isEqualTo("--" + boundary + "\r\n" + OCTET_STREAM + "foo" //
+          + "\r\n--" + boundary + "\r\nContent-Type: text/plain\r\n\r\nbar" //
+          + "\r\n--" + boundary + "\r\n" + OCTET_STREAM + "0123456789" //
+          + "\r\n--" + boundary + "\r\nContent-Type: text/plain\r\n\r\n" + "0123456789".repeat(1000) //
+          + "\r\n--" + boundary + "--\r\n");
+    }
+  }
+}
@@ -0,0 +1,171 @@
+package com.neverpile.common.util;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class MultipartChannelReaderTest {
+  private static final String BOUNDARY = "aBoundary";
+
+  @TempDir
+  Path tempDir;
+
+  private static String body(final String content) {
+    return "\r\n--" + BOUNDARY + "\r\nContent-Type: text/plain\r\n\r\n" + content;
+  }
+
+  /**
+   * A non-file channel returning at most the given number of bytes per read.
+   */
+  private static ReadableByteChannel chunked(final String data, final int chunkSize) {
+    return Channels.newChannel(new ByteArrayInputStream(data.getBytes(StandardCharsets.ISO_8859_1)) {
+      @Override
+      public synchronized int read(final byte[] b, final int off, final int len) {
+        return super.read(b, off, Math.min(len, chunkSize));
+      }
+    });
+  }
+
+  /**
+   * A file channel positioned at the start of the given data, which follows some unrelated bytes.
+   */
+  private FileChannel file(final String data) throws IOException {
+    Path path = tempDir.resolve("multipart");
+    Files.writeString(path, "unrelated" + data, StandardCharsets.ISO_8859_1);
+
+    FileChannel fc = FileChannel.open(path);
+    fc.position("unrelated".length());
+    return fc;
+  }
+
+  private static String transfer(final MultipartChannelReader reader) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    reader.transferTo(Channels.newChannel(out));
+    return out.toString(StandardCharsets.ISO_8859_1);
+  }
+
+  private static String read(final ReadableByteChannel channel) throws IOException {
+    return new String(Channels.newInputStream(channel).readAllBytes(), StandardCharsets.ISO_8859_1);
+  }
+
+  @Test
+  public void testThat_partsAreRead() throws IOException {
+    String data = "a preamble" + body("foo") + body("bar") + "\r\n--" + BOUNDARY + "--\r\nan epilogue";
+
+    try (MultipartChannelReader reader = new MultipartChannelReader(chunked(data, 3),
+        BOUNDARY.getBytes(StandardCharsets.ISO_8859_1), 64, false)) {
+      assertThat(reader.nextPart()).isTrue();
+      assertThat(reader.getHeaders().getContentType().getValue()).isEqualTo("text/plain");
+      assertThat(read(reader.getBody())).isEqualTo("foo");
+
+      assertThat(reader.nextPart()).isTrue();
+      assertThat(read(reader.getBody())).isEqualTo("bar");
+
+      assertThat(reader.nextPart()).isFalse();
+      assertThat(reader.getBody().read(ByteBuffer.allocate(10))).isEqualTo(-1);
+    }
+  }
+
+  @Test
+  public void testThat_partsAreTransferredFromChannel() throws IOException {
+    String content = "0123456789\r\n--".repeat(50);
+    String data = body(content) + body("") + body("foo") + "\r\n--" + BOUNDARY + "--";
+
+    // the parts span several fills of the buffer
+    for (boolean direct : new boolean[]{false, true}) {
+      try (MultipartChannelReader reader = new MultipartChannelReader(chunked(data, 7),
+          BOUNDARY.getBytes(StandardCharsets.ISO_8859_1), 64, direct)) {
+        assertThat(reader.nextPart()).isTrue();
+        assertThat(transfer(reader)).isEqualTo(content);
+        assertThat(reader.transferTo(Channels.newChannel(new ByteArrayOutputStream()))).isZero();
+
+        assertThat(reader.nextPart()).isTrue();
+        assertThat(transfer(reader)).isEmpty();
+
+        assertThat(reader.nextPart()).isTrue();
+        assertThat(transfer(reader)).isEqualTo("foo");
+        assertThat(reader.nextPart()).isFalse();
+      }
+    }
+  }
+
+  @Test
+  public void testThat_partsAreTransferredFromFile() throws IOException {
+    String content = "0123456789\r\n--".repeat(50);
+    String data = body(content) + body("") + body("foo") + "\r\n--" + BOUNDARY + "--";
+
+    // the file doesn't start with the multipart body
+    try (MultipartChannelReader reader = new MultipartChannelReader(file(data),
+        BOUNDARY.getBytes(StandardCharsets.ISO_8859_1), 64, false)) {
+      assertThat(reader.nextPart()).isTrue();
+      assertThat(transfer(reader)).isEqualTo(content);
+      assertThat(reader.transferTo(Channels.newChannel(new ByteArrayOutputStream()))).isZero();
+
+      assertThat(reader.nextPart()).isTrue();
+      assertThat(transfer(reader)).isEmpty();
+
+      assertThat(reader.nextPart()).isTrue();
+      assertThat(transfer(reader)).isEqualTo("foo");
+      assertThat(reader.nextPart()).isFalse();
+    }
+  }
+
+  @Test
+  public void testThat_partialReadIsContinuedByTransfer() throws IOException {
+    String content = "0123456789".repeat(30);
+    String data = body(content) + body("foo") + "\r\n--" + BOUNDARY + "--";
+
+    // the default configuration uses a direct buffer for files
+    try (MultipartChannelReader reader = new MultipartChannelReader(file(data),
+        BOUNDARY.getBytes(StandardCharsets.ISO_8859_1))) {
+      assertThat(reader.nextPart()).isTrue();
+
+      ByteBuffer head = ByteBuffer.allocate(15);
+      assertThat(reader.getBody().read(head)).isEqualTo(15);
+      assertThat(transfer(reader)).isEqualTo(content.substring(15));
+
+      assertThat(reader.nextPart()).isTrue();
+      assertThat(read(reader.getBody())).isEqualTo("foo");
+      assertThat(reader.nextPart()).isFalse();
+    }
+
+    try (MultipartChannelReader reader = new MultipartChannelReader(chunked(data, 11),
+        BOUNDARY.getBytes(StandardCharsets.ISO_8859_1))) {
+      assertThat(reader.nextPart()).isTrue();
+
+      // a read returns what is buffered
+      int read = reader.getBody().read(ByteBuffer.allocate(15));
+      assertThat(read).isBetween(1, 15);
+      assertThat(transfer(reader)).isEqualTo(content.substring(read));
+
+      assertThat(reader.nextPart()).isTrue();
+      assertThat(transfer(reader)).isEqualTo("foo");
+    }
+  }
+
+  @Test
+  public void testThat_truncatedPartIsTransferredUpToEnd() throws IOException {
+    String data = body("foo") + body("bar");
+
+    try (MultipartChannelReader reader = new MultipartChannelReader(file(data),
+        BOUNDARY.getBytes(StandardCharsets.ISO_8859_1), 64, true)) {
+      assertThat(reader.nextPart()).isTrue();
+      assertThat(transfer(reader)).isEqualTo("foo");
+      assertThat(reader.nextPart()).isTrue();
+      assertThat(transfer(reader)).isEqualTo("bar");
+      assertThat(reader.nextPart()).isFalse();
+    }
+  }
+}
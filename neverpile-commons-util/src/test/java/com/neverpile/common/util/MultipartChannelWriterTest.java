@@ -0,0 +1,217 @@
+package com.neverpile.common.util;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class MultipartChannelWriterTest {
+  private static final String OCTET_STREAM = "Content-Type: application/octet-stream\r\n\r\n";
+
+  @TempDir
+  Path tempDir;
+
+  /**
+   * A channel accepting at most the given number of bytes per write, like a socket with a full send
+   * buffer.
+   */
+  private static class ThrottledChannel implements WritableByteChannel {
+    final ByteArrayOutputStream written = new ByteArrayOutputStream();
+
+    private final int maxWrite;
+
+    private boolean open = true;
+
+    ThrottledChannel(final int maxWrite) {
+      this.maxWrite = maxWrite;
+    }
+
+    @Override
+    public int write(final ByteBuffer src) {
+      int n = Math.min(src.remaining(), maxWrite);
+      for (int i = 0; i < n; i++)
+        written.write(src.get());
+      return n;
+    }
+
+    @Override
+    public boolean isOpen() {
+      return open;
+    }
+
+    @Override
+    public void close() {
+      open = false;
+    }
+
+    @Override
+    public String toString() {
+      return written.toString(StandardCharsets.ISO_8859_1);
+    }
+  }
+
+  private static class ThrottledGatheringChannel extends ThrottledChannel implements GatheringByteChannel {
+    int gatheringWrites;
+
+    ThrottledGatheringChannel(final int maxWrite) {
+      super(maxWrite);
+    }
+
+    @Override
+    public long write(final ByteBuffer[] srcs, final int offset, final int length) {
+      gatheringWrites++;
+
+      // the writer must skip the buffers written completely
+      assertThat(srcs[offset].hasRemaining()).isTrue();
+
+      long n = 0;
+      for (int i = offset; i < offset + length; i++) {
+        n += write(srcs[i]);
+        if (srcs[i].hasRemaining())
+          break;
+      }
+      return n;
+    }
+
+    @Override
+    public long write(final ByteBuffer[] srcs) {
+      return write(srcs, 0, srcs.length);
+    }
+  }
+
+  private static ByteBuffer buffer(final String s) {
+    return ByteBuffer.wrap(s.getBytes(StandardCharsets.ISO_8859_1));
+  }
+
+  private static String expectedParts(final String boundary) {
+    return "--" + boundary + "\r\n" + OCTET_STREAM + "abcdef" //
+        + "\r\n--" + boundary + "\r\nContent-Type: text/plain\r\nX-Empty: \r\n\r\n" + "0123456789" + "xyz" //
+        + "\r\n--" + boundary + "\r\n" + OCTET_STREAM //
+        + "\r\n--" + boundary + "--\r\n";
+  }
+
+  private static void writeParts(final MultipartChannelWriter writer) throws IOException {
+    writer.next();
+    assertThat(writer.write(buffer("abc"))).isEqualTo(3);
+    assertThat(writer.write(new ByteBuffer[]{
+        buffer("d"), ByteBuffer.allocate(0), buffer("ef")
+    })).isEqualTo(3);
+
+    Map<String, String> headers = new LinkedHashMap<>();
+    headers.put("Content-Type", "text/plain");
+    headers.put("X-Empty", "");
+    ByteBuffer direct = ByteBuffer.allocateDirect(3).put(buffer("xyz")).flip();
+    assertThat(writer.append(headers, buffer("0123456789"), direct)).isEqualTo(13);
+
+    writer.next();
+    writer.close();
+  }
+
+  @Test
+  public void testThat_partsAreWrittenToGatheringChannel() throws IOException {
+    for (int maxWrite : new int[]{Integer.MAX_VALUE, 7, 1}) {
+      ThrottledGatheringChannel target = new ThrottledGatheringChannel(maxWrite);
+      MultipartChannelWriter writer = new MultipartChannelWriter(target);
+
+      writeParts(writer);
+
+      assertThat(target.toString()).isEqualTo(expectedParts(writer.getBoundary()));
+      assertThat(target.isOpen()).isFalse();
+      assertThat(writer.isOpen()).isFalse();
+
+      // a single write per header, appended part and array of body buffers
+      if (maxWrite == Integer.MAX_VALUE)
+        assertThat(target.gatheringWrites).isEqualTo(5);
+    }
+  }
+
+  @Test
+  public void testThat_partsAreWrittenToNonGatheringChannel() throws IOException {
+    for (int maxWrite : new int[]{Integer.MAX_VALUE, 7, 1}) {
+      ThrottledChannel target = new ThrottledChannel(maxWrite);
+      MultipartChannelWriter writer = new MultipartChannelWriter(target);
+
+      writeParts(writer);
+
+      assertThat(target.toString()).isEqualTo(expectedParts(writer.getBoundary()));
+      assertThat(target.isOpen()).isFalse();
+    }
+  }
+
+  @Test
+  public void testThat_emptyBodyIsWritten() throws IOException {
+    ThrottledChannel target = new ThrottledChannel(Integer.MAX_VALUE);
+    MultipartChannelWriter writer = new MultipartChannelWriter(target);
+    writer.close();
+    writer.close();
+
+    assertThat(target.toString()).isEqualTo("--" + writer.getBoundary() + "--\r\n");
+  }
+
+  @Test
+  public void testThat_writingOutsideOfPartIsRejected() throws IOException {
+    MultipartChannelWriter writer = new MultipartChannelWriter(new ThrottledChannel(Integer.MAX_VALUE));
+    assertThrows(IllegalStateException.class, () -> writer.write(buffer("abc")));
+    assertThrows(IllegalStateException.class, () -> writer.write(new ByteBuffer[]{
+        buffer("abc")
+    }));
+
+    writer.close();
+    assertThrows(ClosedChannelException.class, () -> writer.write(buffer("abc")));
+    assertThrows(ClosedChannelException.class, writer::next);
+    assertThrows(ClosedChannelException.class, () -> writer.append(Map.of(), buffer("abc")));
+  }
+
+  @Test
+  public void testThat_headerInjectionIsRejected() throws IOException {
+    ThrottledChannel target = new ThrottledChannel(Integer.MAX_VALUE);
+    MultipartChannelWriter writer = new MultipartChannelWriter(target);
+
+    assertThrows(IllegalArgumentException.class, () -> writer.append(Map.of("X-A", "a\r\nX-B: b"), buffer("abc")));
+    assertThrows(IllegalArgumentException.class, () -> writer.next(Map.of("X-A: a\r\nX-B", "b")));
+
+    // nothing has been written, no part has been started
+    assertThat(target.written.size()).isZero();
+    assertThrows(IllegalStateException.class, () -> writer.write(buffer("abc")));
+  }
+
+  @Test
+  public void testThat_fileRegionsAreTransferred() throws IOException {
+    Path file = tempDir.resolve("content");
+    Files.writeString(file, "0123456789".repeat(1000), StandardCharsets.ISO_8859_1);
+
+    for (int maxWrite : new int[]{Integer.MAX_VALUE, 100}) {
+      ThrottledChannel target = new ThrottledChannel(maxWrite);
+      MultipartChannelWriter writer = new MultipartChannelWriter(target);
+
+      try (FileChannel fc = FileChannel.open(file)) {
+        assertThat(writer.append(fc, 5, 10)).isEqualTo(10);
+        assertThat(writer.append(fc, 0, fc.size(), Map.of("Content-Type", "text/plain"))).isEqualTo(fc.size());
+        assertThat(fc.position()).isZero();
+
+        assertThrows(IOException.class, () -> writer.append(fc, fc.size() - 1, 2));
+      }
+      writer.close();
+
+      String boundary = writer.getBoundary();
+      assertThat(target.toString()).isEqualTo("--" + boundary + "\r\n" + OCTET_STREAM + "5678901234" //
+          + "\r\n--" + boundary + "\r\nContent-Type: text/plain\r\n\r\n" + "0123456789".repeat(1000) //
+          + "\r\n--" + boundary + "\r\n" + OCTET_STREAM + "9" //
+          + "\r\n--" + boundary + "--\r\n");
+    }
+  }
+}
@@ -0,0 +1,152 @@
+package com.neverpile.common.util;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Test;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+public class MultipartFluxTest {
+  private static final String BOUNDARY = "aBoundary";
+
+  private static String body(final String content) {
+    return "\r\n--" + BOUNDARY + "\r\nContent-Type: text/plain\r\n\r\n" + content;
+  }
+
+  /**
+   * A source emitting the given data in chunks of the given size.
+   */
+  private static Flux<ByteBuffer> chunked(final String data, final int chunkSize) {
+    byte[] bytes = data.getBytes(StandardCharsets.ISO_8859_1);
+
+    List<ByteBuffer> chunks = new ArrayList<>();
+    for (int i = 0; i < bytes.length; i += chunkSize)
+      chunks.add(ByteBuffer.wrap(bytes, i, Math.min(chunkSize, bytes.length - i)));
+    return Flux.fromIterable(chunks);
+  }
+
+  private static Flux<MultipartFlux.Part> parts(final Flux<ByteBuffer> source) {
+    return MultipartFlux.parts(source, BOUNDARY.getBytes(StandardCharsets.ISO_8859_1), 64);
+  }
+
+  private static Mono<String> content(final Flux<ByteBuffer> content) {
+    return content //
+        .map(chunk -> StandardCharsets.ISO_8859_1.decode(chunk).toString()) //
+        .collect(StringBuilder::new, StringBuilder::append) //
+        .map(StringBuilder::toString);
+  }
+
+  @Test
+  public void testThat_partsAreParsedRegardlessOfChunking() {
+    String content = "0123456789\r\n--" + BOUNDARY.substring(1) + "\r\n-".repeat(10);
+    String data = "a preamble" + body(content) + body("") + body("foo") + "\r\n--" + BOUNDARY + "--\r\nan epilogue";
+
+    for (int chunkSize = 1; chunkSize <= data.length(); chunkSize++) {
+      StepVerifier.create(parts(chunked(data, chunkSize)).concatMap(part -> {
+        assertThat(part.getHeaders().get("content-type")).isEqualTo("text/plain");
+        return content(part.getContent());
+      })) //
+          .expectNext(content, "", "foo") //
+          .verifyComplete();
+    }
+  }
+
+  @Test
+  public void testThat_cancelledContentIsSkipped() {
+    String content = "0123456789".repeat(20);
+    String data = body(content) + body(content) + body("foo") + "\r\n--" + BOUNDARY + "--";
+
+    // take only the first chunk of each part
+    StepVerifier.create(parts(chunked(data, 7)).concatMap(part -> content(part.getContent().take(1)))) //
+        .expectNextMatches(s -> !s.isEmpty() && content.startsWith(s)) //
+        .expectNextMatches(s -> !s.isEmpty() && content.startsWith(s)) //
+        .expectNext("foo") //
+        .verifyComplete();
+
+    // ignore the content altogether
+    StepVerifier.create(parts(chunked(data, 5)).concatMap(part -> part.getContent().take(0).count())) //
+        .expectNext(0L, 0L, 0L) //
+        .verifyComplete();
+  }
+
+  @Test
+  public void testThat_contentIsEmittedAsViewsOfSourceChunks() {
+    byte[] data = (body("0123456789".repeat(10)) + "\r\n--" + BOUNDARY + "--").getBytes(StandardCharsets.ISO_8859_1);
+
+    List<ByteBuffer> content = parts(Flux.just(ByteBuffer.wrap(data))) //
+        .concatMap(MultipartFlux.Part::getContent) //
+        .collectList() //
+        .block();
+
+    assertThat(content).hasSize(1);
+    assertThat(content.get(0).isReadOnly()).isTrue();
+
+    // changes to the source's chunk show through
+    Arrays.fill(data, (byte) 'x');
+    assertThat(StandardCharsets.ISO_8859_1.decode(content.get(0)).toString()).isEqualTo("x".repeat(100));
+  }
+
+  @Test
+  public void testThat_truncatedBodyIsRejected() {
+    String data = body("foo") + body("barbaz");
+
+    // the body ends within the second part
+    StepVerifier.create(parts(chunked(data, 4)).concatMap(part -> content(part.getContent()))) //
+        .expectNext("foo") //
+        .expectErrorSatisfies(
+            e -> assertThat(e).isInstanceOf(IOException.class).hasMessageContaining("premature end")) //
+        .verify();
+
+    // the body ends within the headers of the second part
+    StepVerifier.create(parts(chunked(data.substring(0, data.length() - 12), 4)) //
+        .concatMap(part -> content(part.getContent()))) //
+        .expectNext("foo") //
+        .expectError(IOException.class) //
+        .verify();
+  }
+
+  @Test
+  public void testThat_demandIsPropagatedToSource() {
+    byte[] chunk = "x".repeat(100).getBytes(StandardCharsets.ISO_8859_1);
+    int chunkCount = 10000;
+
+    byte[] head = ("--" + BOUNDARY + "\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1);
+    byte[] tail = ("\r\n--" + BOUNDARY + "--").getBytes(StandardCharsets.ISO_8859_1);
+
+    AtomicLong requested = new AtomicLong();
+    AtomicInteger emitted = new AtomicInteger();
+    Flux<ByteBuffer> source = Flux.range(0, chunkCount + 2) //
+        .map(i -> ByteBuffer.wrap(i == 0 ? head : i <= chunkCount ? chunk : tail)) //
+        .doOnRequest(requested::addAndGet) //
+        .doOnNext(b -> emitted.incrementAndGet());
+
+    // the source is not drained while the consumer requests a few chunks at a time
+    StepVerifier.create(parts(source).concatMap(MultipartFlux.Part::getContent), 0) //
+        .thenRequest(10) //
+        .expectNextCount(10) //
+        .then(() -> assertThat(emitted.get()).isLessThan(chunkCount / 10)) //
+        .thenRequest(100) //
+        .expectNextCount(100) //
+        .then(() -> assertThat(emitted.get()).isLessThan(chunkCount / 10)) //
+        .then(() -> assertThat(requested.get()).isLessThan(chunkCount / 10)) //
+        .thenCancel() //
+        .verify();
+
+    // all of the content is streamed eventually
+    StepVerifier.create(parts(source).concatMap(part -> part.getContent().map(ByteBuffer::remaining))
+        .reduce(0L, Long::sum)) //
+        .expectNext((long) chunkCount * chunk.length) //
+        .verifyComplete();
+  }
+}
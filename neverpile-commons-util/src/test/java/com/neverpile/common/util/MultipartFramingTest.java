@@ -0,0 +1,56 @@
+package com.neverpile.common.util;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+public class MultipartFramingTest {
+  private final MultipartFraming framing = new MultipartFraming("aBoundary");
+
+  private static String string(final byte[] b) {
+    return new String(b, StandardCharsets.ISO_8859_1);
+  }
+
+  @Test
+  public void testThat_delimitersAreEncoded() {
+    assertThat(string(framing.partHeader())) //
+        .isEqualTo("\r\n--aBoundary\r\nContent-Type: application/octet-stream\r\n\r\n");
+    assertThat(string(framing.closeDelimiter())).isEqualTo("\r\n--aBoundary--\r\n");
+    assertThat(string(framing.partHeader(Map.of()))).isEqualTo("\r\n--aBoundary\r\n\r\n");
+  }
+
+  @Test
+  public void testThat_headersAreEncodedInOrder() {
+    Map<String, String> headers = new LinkedHashMap<>();
+    headers.put("X-B", "b");
+    headers.put("Content-Type", "text/plain; charset=\"utf-8\"");
+    headers.put("X-A", "");
+
+    assertThat(string(framing.partHeader(headers))).isEqualTo(
+        "\r\n--aBoundary\r\nX-B: b\r\nContent-Type: text/plain; charset=\"utf-8\"\r\nX-A: \r\n\r\n");
+  }
+
+  @Test
+  public void testThat_invalidHeaderNamesAreRejected() {
+    for (String name : new String[]{
+        "", "X A", "X-A:", "X-A\r\nX-B", "X-A\n", "\tX-A", "X-\u0000", "X-\u007f", "X-ä"
+    })
+      assertThat(assertThrows(IllegalArgumentException.class, () -> framing.partHeader(Map.of(name, "value")))) //
+          .as(name) //
+          .hasMessageStartingWith("Invalid header name");
+  }
+
+  @Test
+  public void testThat_lineBreaksInValuesAreRejected() {
+    for (String value : new String[]{
+        "a\r\nX-Injected: b", "a\nX-Injected: b", "a\r", "\r\n\r\nbody", "folded\r\n value"
+    })
+      assertThat(assertThrows(IllegalArgumentException.class, () -> framing.partHeader(Map.of("X-A", value)))) //
+          .hasMessageContaining("line breaks are not allowed");
+  }
+}
@@ -0,0 +1,167 @@
+package com.neverpile.common.util;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+
+public class MultipartHeaderParserTest {
+  /**
+   * Feed the given lines, followed by the empty line terminating the header section, to the parser.
+   */
+  private static MultipartHeaders parse(final MultipartHeaderParser parser, final String... lines)
+      throws IOException {
+    parser.reset();
+    for (String line : lines)
+      assertThat(parser.line(bytes(line), 0, line.length())).isTrue();
+    assertThat(parser.line(new byte[0], 0, 0)).isFalse();
+
+    return parser.headers();
+  }
+
+  private static MultipartHeaders parse(final String... lines) throws IOException {
+    return parse(new MultipartHeaderParser(), lines);
+  }
+
+  private static byte[] bytes(final String s) {
+    return s.getBytes(StandardCharsets.ISO_8859_1);
+  }
+
+  @Test
+  public void testThat_headersAreParsed() throws IOException {
+    MultipartHeaders headers = parse("Content-Type: text/plain", "X-Empty:", "X-Padded: \t value \t");
+
+    assertThat(headers.size()).isEqualTo(3);
+    assertThat(headers.get("Content-Type")).isEqualTo("text/plain");
+    assertThat(headers.get("X-Empty")).isEmpty();
+    assertThat(headers.get("X-Padded")).isEqualTo("value");
+    assertThat(headers.get("X-Missing")).isNull();
+  }
+
+  @Test
+  public void testThat_lookupIsCaseInsensitive() throws IOException {
+    MultipartHeaders headers = parse("Content-Type: text/plain", "content-DISPOSITION: attachment");
+
+    assertThat(headers.get("content-type")).isEqualTo("text/plain");
+    assertThat(headers.get("CONTENT-TYPE")).isEqualTo("text/plain");
+    assertThat(headers.contains("Content-Disposition")).isTrue();
+    assertThat(headers.asMap()).containsKey("CONTENT-disposition");
+    assertThat(headers.getContentDisposition().getValue()).isEqualTo("attachment");
+  }
+
+  @Test
+  public void testThat_repeatedHeadersAreMerged() throws IOException {
+    MultipartHeaders headers = parse("X-Dup: 1", "Content-Type: text/plain", "x-dup: 2", "X-DUP:3");
+
+    assertThat(headers.size()).isEqualTo(2);
+    assertThat(headers.get("X-Dup")).isEqualTo("1, 2, 3");
+  }
+
+  @Test
+  public void testThat_namesAreOrderedCaseInsensitively() throws IOException {
+    MultipartHeaders headers = parse("X-Dup: 1", "content-Type: text/plain", "x-dup: 2", "a-first: a");
+
+    assertThat(headers.getNames()).containsExactly("a-first", "content-Type", "X-Dup");
+  }
+
+  @Test
+  public void testThat_foldedLinesAreUnfolded() throws IOException {
+    MultipartHeaders headers = parse("Content-Type: text/plain;", " charset=utf-8;", "\t  format=flowed ",
+        "X-Folded:", "  value", "   ", "X-Other: other");
+
+    assertThat(headers.get("Content-Type")).isEqualTo("text/plain; charset=utf-8; format=flowed");
+    assertThat(headers.getContentType().getParameter("format")).isEqualTo("flowed");
+    assertThat(headers.get("X-Folded")).isEqualTo("value");
+    assertThat(headers.get("X-Other")).isEqualTo("other");
+  }
+
+  @Test
+  public void testThat_continuationOfRepeatedHeaderIsAppended() throws IOException {
+    assertThat(parse("X-Dup: 1", "X-Dup: 2", " 3").get("X-Dup")).isEqualTo("1, 2 3");
+  }
+
+  @Test
+  public void testThat_continuationWithoutFieldIsRejected() {
+    assertThat(assertThrows(IOException.class, () -> parse(" continued"))) //
+        .hasMessageContaining("no current field");
+
+    // the current field doesn't carry over to the next part
+    MultipartHeaderParser parser = new MultipartHeaderParser();
+    assertThrows(IOException.class, () -> {
+      parse(parser, "X-Field: value");
+      parse(parser, "\tcontinued");
+    });
+  }
+
+  @Test
+  public void testThat_malformedLinesAreRejected() {
+    assertThat(assertThrows(IOException.class, () -> parse("no colon"))).hasMessageContaining("missing colon");
+    assertThat(assertThrows(IOException.class, () -> parse(": value"))).hasMessageContaining("empty field name");
+  }
+
+  @Test
+  public void testThat_headerCountIsLimited() throws IOException {
+    String[] lines = new String[MultipartHeaderParser.DEFAULT_MAX_HEADER_COUNT + 1];
+    for (int i = 0; i < lines.length; i++)
+      lines[i] = "X-Header-" + i + ": value";
+
+    assertThat(assertThrows(IOException.class, () -> parse(lines))) //
+        .hasMessageContaining("more than " + MultipartHeaderParser.DEFAULT_MAX_HEADER_COUNT + " headers");
+
+    MultipartHeaderParser parser = new MultipartHeaderParser();
+    parser.setMaxHeaderCount(lines.length);
+    assertThat(parse(parser, lines).size()).isEqualTo(lines.length);
+
+    // continuations don't count, repeated headers do
+    parser.setMaxHeaderCount(2);
+    assertThat(parse(parser, "X-A: 1", " 2", "  3", "X-B: 4").size()).isEqualTo(2);
+    assertThat(assertThrows(IOException.class, () -> parse(parser, "X-A: 1", "X-B: 2", "X-A: 3"))) //
+        .hasMessageContaining("more than 2 headers");
+  }
+
+  @Test
+  public void testThat_headerSizeIsLimited() throws IOException {
+    MultipartHeaderParser parser = new MultipartHeaderParser();
+
+    // each line counts including its CRLF, the terminating empty line as well
+    parser.setMaxHeaderSize("X-A: 1\r\n".length() * 2 + 2);
+    assertThat(parse(parser, "X-A: 1", "X-B: 2").size()).isEqualTo(2);
+    assertThat(assertThrows(IOException.class, () -> parse(parser, "X-A: 1", "X-B: 22"))) //
+        .hasMessageContaining("exceeds");
+
+    // folding doesn't evade the limit
+    assertThrows(IOException.class, () -> parse(parser, "X-A: 1", " 22", " 33"));
+
+    // the limit applies per part
+    assertThat(parse(parser, "X-A: 1", "X-B: 2").size()).isEqualTo(2);
+
+    assertThrows(IllegalArgumentException.class, () -> parser.setMaxHeaderSize(0));
+    assertThrows(IllegalArgumentException.class, () -> parser.setMaxHeaderCount(0));
+  }
+
+  @Test
+  public void testThat_linesAreReadFromBuffers() throws IOException {
+    byte[] section = bytes("garbageX-A: 1\r\n\tb\r\n\r\n");
+
+    for (ByteBuffer buffer : new ByteBuffer[]{
+        ByteBuffer.wrap(section), ByteBuffer.allocateDirect(section.length).put(section).flip(),
+        // a heap buffer with an array offset
+        ByteBuffer.wrap(bytes("--" + new String(section, StandardCharsets.ISO_8859_1)), 2, section.length).slice()
+    }) {
+      MultipartHeaderParser parser = new MultipartHeaderParser();
+      parser.reset();
+
+      int position = buffer.position();
+      assertThat(parser.line(buffer, 7, 13)).isTrue();
+      assertThat(parser.line(buffer, 15, 17)).isTrue();
+      assertThat(parser.line(buffer, 19, 19)).isFalse();
+      assertThat(buffer.position()).isEqualTo(position);
+
+      assertThat(parser.headers().get("x-a")).isEqualTo("1 b");
+    }
+  }
+}
@@ -0,0 +1,74 @@
+package com.neverpile.common.util;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.TreeMap;
+
+import org.junit.jupiter.api.Test;
+
+import com.neverpile.common.util.MultipartHeaders.ParameterizedValue;
+
+public class MultipartHeadersTest {
+  @Test
+  public void testThat_parametersAreParsed() {
+    ParameterizedValue value = ParameterizedValue.parse(" text/plain ; Charset = utf-8;format=flowed; flag; =x ;");
+
+    assertThat(value.getValue()).isEqualTo("text/plain");
+    assertThat(value.getParameter("charset")).isEqualTo("utf-8");
+    assertThat(value.getParameter("CHARSET")).isEqualTo("utf-8");
+    assertThat(value.getParameter("format")).isEqualTo("flowed");
+    // names retain their case, parameters lacking a name or value are ignored
+    assertThat(value.getParameters()).containsOnlyKeys("Charset", "format");
+  }
+
+  @Test
+  public void testThat_quotedParametersAreUnquoted() {
+    ParameterizedValue value = ParameterizedValue
+        .parse("form-data; name=\"a;b\\\"c\\\\\" ; filename= \"my file.txt\"x; empty=\"\"; open=\"unterminated");
+
+    assertThat(value.getValue()).isEqualTo("form-data");
+    assertThat(value.getParameter("name")).isEqualTo("a;b\"c\\");
+    // anything following the closing quote is ignored
+    assertThat(value.getParameter("filename")).isEqualTo("my file.txt");
+    assertThat(value.getParameter("empty")).isEmpty();
+    assertThat(value.getParameter("open")).isEqualTo("unterminated");
+  }
+
+  @Test
+  public void testThat_extendedParametersAreDecoded() {
+    ParameterizedValue value = ParameterizedValue.parse("attachment; filename=\"EUR.txt\"; "
+        + "filename*=UTF-8'en'%e2%82%ac%20rates.txt; title*=''plain%2Dascii; other*=ISO-8859-1''%E4");
+
+    // the extended parameter takes precedence, regardless of the order
+    assertThat(value.getParameter("filename")).isEqualTo("€ rates.txt");
+    assertThat(value.getParameter("title")).isEqualTo("plain-ascii");
+    assertThat(value.getParameter("other")).isEqualTo("ä");
+
+    assertThat(ParameterizedValue.parse("attachment; filename*=utf-8''%e2%82%ac.txt; filename=EUR.txt")
+        .getParameter("filename")).isEqualTo("€.txt");
+  }
+
+  @Test
+  public void testThat_malformedExtendedParametersAreIgnored() {
+    ParameterizedValue value = ParameterizedValue.parse("attachment; filename=fallback.txt; "
+        + "filename*=UTF-8''%e2%8; a*=no-quotes; b*=UNKNOWN-CHARSET''x; c*=UTF-8''%zz");
+
+    assertThat(value.getParameter("filename")).isEqualTo("fallback.txt");
+    assertThat(value.getParameters()).containsOnlyKeys("filename");
+  }
+
+  @Test
+  public void testThat_parameterizedHeadersAreParsedLazily() {
+    TreeMap<String, String> map = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+    map.put("content-type", "text/plain; charset=\"utf-8\"");
+    map.put("Content-Disposition", "attachment; filename*=UTF-8''%e2%82%ac.txt");
+    MultipartHeaders headers = new MultipartHeaders(map);
+
+    assertThat(headers.getContentType().getParameter("charset")).isEqualTo("utf-8");
+    assertThat(headers.getContentType()).isSameAs(headers.getContentType());
+    assertThat(headers.getContentDisposition().getParameter("filename")).isEqualTo("€.txt");
+
+    assertThat(MultipartHeaders.EMPTY.getContentType()).isNull();
+    assertThat(MultipartHeaders.EMPTY.getContentDisposition()).isNull();
+  }
+}
@@ -0,0 +1,218 @@
+package com.neverpile.common.util;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+
+public class MultipartInputStreamTest {
+  private static final String BOUNDARY = "aBoundary";
+
+  /**
+   * A stream returning at most the given number of bytes per read.
+   */
+  private static InputStream chunked(final String data, final int chunkSize) {
+    return new ByteArrayInputStream(data.getBytes(StandardCharsets.ISO_8859_1)) {
+      @Override
+      public synchronized int read(final byte[] b, final int off, final int len) {
+        return super.read(b, off, Math.min(len, chunkSize));
+      }
+    };
+  }
+
+  private static MultipartInputStream multipart(final String data, final int chunkSize, final int bufferSize) {
+    return new MultipartInputStream(chunked(data, chunkSize), BOUNDARY.getBytes(StandardCharsets.ISO_8859_1),
+        bufferSize);
+  }
+
+  private static String body(final String content) {
+    return "\r\n--" + BOUNDARY + "\r\nContent-Type: text/plain\r\n\r\n" + content;
+  }
+
+  private static String readFully(final InputStream in) throws IOException {
+    return new String(in.readAllBytes(), StandardCharsets.ISO_8859_1);
+  }
+
+  @Test
+  public void testThat_partsAreRead() throws IOException {
+    String data = "a preamble" + body("foo") + body("bar") + "\r\n--" + BOUNDARY + "--\r\nan epilogue";
+
+    try (MultipartInputStream mis = multipart(data, Integer.MAX_VALUE, 1024)) {
+      assertThat(mis.nextInputStream()).isTrue();
+      assertThat(mis.getHeaders().get("Content-Type")).isEqualTo("text/plain");
+      assertThat(readFully(mis)).isEqualTo("foo");
+
+      assertThat(mis.nextInputStream()).isTrue();
+      assertThat(readFully(mis)).isEqualTo("bar");
+
+      assertThat(mis.nextInputStream()).isFalse();
+      assertThat(mis.read()).isEqualTo(-1);
+    }
+  }
+
+  @Test
+  public void testThat_boundarySplitAcrossReadsIsFound() throws IOException {
+    String data = "--" + BOUNDARY + "\r\n\r\nfoo" + body("bar") + "\r\n--" + BOUNDARY + "--";
+
+    // every boundary is split across as many reads as possible
+    try (MultipartInputStream mis = multipart(data, 1, 64)) {
+      assertThat(mis.nextInputStream()).isTrue();
+      assertThat(readFully(mis)).isEqualTo("foo");
+      assertThat(mis.nextInputStream()).isTrue();
+      assertThat(readFully(mis)).isEqualTo("bar");
+      assertThat(mis.nextInputStream()).isFalse();
+    }
+  }
+
+  @Test
+  public void testThat_nearMissBoundariesArePartOfBody() throws IOException {
+    // prefixes of the delimiter and delimiters lacking one of their leading characters
+    String content = "\r\n--" + BOUNDARY.substring(0, BOUNDARY.length() - 1) + "X" //
+        + "\r\n-" + BOUNDARY + "\n--" + BOUNDARY + "\r--" + BOUNDARY + "x--" + BOUNDARY //
+        + "\r\n--" + BOUNDARY.toUpperCase() + "\r\n-\r\n--\r";
+    String data = body(content) + body("") + "\r\n--" + BOUNDARY + "--";
+
+    // with a minimal buffer, near-misses straddle the buffer boundaries at various offsets
+    for (int chunkSize = 1; chunkSize < 8; chunkSize++) {
+      try (MultipartInputStream mis = multipart(data, chunkSize, 0)) {
+        assertThat(mis.nextInputStream()).isTrue();
+        assertThat(readFully(mis)).as("chunk size %d", chunkSize).isEqualTo(content);
+        assertThat(mis.nextInputStream()).isTrue();
+        assertThat(mis.nextInputStream()).isFalse();
+      }
+    }
+  }
+
+  @Test
+  public void testThat_emptyBodyIsRead() throws IOException {
+    String data = body("") + body("foo") + "\r\n--" + BOUNDARY + "--";
+
+    try (MultipartInputStream mis = multipart(data, 3, 64)) {
+      assertThat(mis.nextInputStream()).isTrue();
+      assertThat(mis.getHeaders().get("content-type")).isEqualTo("text/plain");
+      assertThat(mis.read()).isEqualTo(-1);
+      assertThat(mis.read(new byte[10], 0, 10)).isEqualTo(-1);
+
+      assertThat(mis.nextInputStream()).isTrue();
+      assertThat(readFully(mis)).isEqualTo("foo");
+      assertThat(mis.nextInputStream()).isFalse();
+    }
+  }
+
+  @Test
+  public void testThat_missingCloseDelimiterEndsLastPart() throws IOException {
+    String data = body("foo") + body("bar\r\n");
+
+    // the last part extends to the end of the stream
+    try (MultipartInputStream mis = multipart(data, 5, 64)) {
+      assertThat(mis.nextInputStream()).isTrue();
+      assertThat(readFully(mis)).isEqualTo("foo");
+      assertThat(mis.nextInputStream()).isTrue();
+      assertThat(readFully(mis)).isEqualTo("bar\r\n");
+      assertThat(mis.nextInputStream()).isFalse();
+    }
+  }
+
+  @Test
+  public void testThat_prematureEndInHeadersIsRejected() throws IOException {
+    String data = "--" + BOUNDARY + "\r\nContent-Type: text/pl";
+
+    try (MultipartInputStream mis = multipart(data, 5, 64)) {
+      assertThat(assertThrows(IOException.class, mis::nextInputStream)).hasMessageContaining("premature end");
+    }
+  }
+
+  @Test
+  public void testThat_partsCanBeSkipped() throws IOException {
+    String content = "0123456789".repeat(20);
+    String data = body(content) + body(content) + body("foo") + "\r\n--" + BOUNDARY + "--";
+
+    try (MultipartInputStream mis = multipart(data, 7, 64)) {
+      assertThat(mis.nextInputStream()).isTrue();
+      assertThat(mis.skip(15)).isEqualTo(15);
+      assertThat(mis.read()).isEqualTo('5');
+      assertThat(mis.skip(1000)).isEqualTo(content.length() - 16);
+      assertThat(mis.skip(10)).isZero();
+
+      // skip the second part without reading it
+      assertThat(mis.nextInputStream()).isTrue();
+      assertThat(mis.read()).isEqualTo('0');
+      assertThat(mis.nextInputStream()).isTrue();
+      assertThat(readFully(mis)).isEqualTo("foo");
+    }
+  }
+
+  @Test
+  public void testThat_partCanBeTransferred() throws IOException {
+    String content = "0123456789".repeat(100);
+    String data = body(content) + body("foo") + "\r\n--" + BOUNDARY + "--";
+
+    try (MultipartInputStream mis = multipart(data, 13, 64)) {
+      assertThat(mis.nextInputStream()).isTrue();
+      assertThat(mis.read()).isEqualTo('0');
+
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      assertThat(mis.transferTo(out)).isEqualTo(content.length() - 1);
+      assertThat(out.toString(StandardCharsets.ISO_8859_1)).isEqualTo(content.substring(1));
+      assertThat(mis.transferTo(out)).isZero();
+
+      assertThat(mis.nextInputStream()).isTrue();
+      assertThat(readFully(mis)).isEqualTo("foo");
+    }
+  }
+
+  @Test
+  public void testThat_availableReportsBufferedBodyBytes() throws IOException {
+    String content = "0123456789".repeat(10);
+    String data = body(content) + "\r\n--" + BOUNDARY + "--";
+
+    try (MultipartInputStream mis = multipart(data, Integer.MAX_VALUE, 1024)) {
+      assertThat(mis.available()).isZero();
+
+      assertThat(mis.nextInputStream()).isTrue();
+      // everything has been buffered while reading the headers
+      assertThat(mis.available()).isEqualTo(content.length());
+      assertThat(mis.skip(40)).isEqualTo(40);
+      assertThat(mis.available()).isEqualTo(content.length() - 40);
+
+      assertThat(readFully(mis)).hasSize(content.length() - 40);
+      assertThat(mis.available()).isZero();
+      assertThat(mis.nextInputStream()).isFalse();
+      assertThat(mis.available()).isZero();
+    }
+  }
+
+  @Test
+  public void testThat_availableNeverExceedsBody() throws IOException {
+    String data = body("foo") + "\r\n--" + BOUNDARY + "--";
+
+    // data which may be a delimiter is not reported before it is known not to be one
+    try (MultipartInputStream mis = multipart(data, 1, 64)) {
+      assertThat(mis.nextInputStream()).isTrue();
+
+      int read = 0;
+      while (true) {
+        assertThat(mis.available()).isLessThanOrEqualTo(3 - read);
+        if (mis.read() < 0)
+          break;
+        read++;
+      }
+      assertThat(read).isEqualTo(3);
+    }
+  }
+
+  @Test
+  public void testThat_headerLineLongerThanBufferIsRejected() throws IOException {
+    String data = "--" + BOUNDARY + "\r\nX-Long: " + "x".repeat(200) + "\r\n\r\nfoo\r\n--" + BOUNDARY + "--";
+
+    try (MultipartInputStream mis = multipart(data, 16, 64)) {
+      assertThat(assertThrows(IOException.class, mis::nextInputStream)).hasMessageContaining("buffer overflow");
+    }
+  }
+}